@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.benchmarks;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log.Hierarchy;
+import org.apache.log.Logger;
+import org.apache.log.Priority;
+import org.apache.log.format.PatternFormatter;
+import org.apache.log.output.io.StreamTarget;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of logging through a LogKit Logger to a StreamTarget with the
+ *  default pattern.  The stream discards everything written to it so that only the cost
+ *  of LogKit itself is measured.  Disabled debug calls are measured as well, as they are
+ *  by far the most common in practice.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class LoggerBenchmark
+{
+    @Param( { "16", "256", "4096" } )
+    public int messageSize;
+
+    private Logger m_logger;
+
+    private String m_message;
+
+    @Setup
+    public void setUp()
+    {
+        final Hierarchy hierarchy = new Hierarchy();
+        final PatternFormatter formatter = new PatternFormatter( Hierarchy.DEFAULT_FORMAT );
+        hierarchy.setDefaultLogTarget( new StreamTarget( new NullOutputStream(), formatter ) );
+        hierarchy.setDefaultPriority( Priority.INFO );
+        m_logger = hierarchy.getLoggerFor( "benchmark" );
+
+        final StringBuffer sb = new StringBuffer( messageSize );
+        for( int i = 0; i < messageSize; i++ )
+        {
+            sb.append( (char)( 'a' + ( i % 26 ) ) );
+        }
+        m_message = sb.toString();
+    }
+
+    @Benchmark
+    @Threads( 1 )
+    public void info1Thread()
+    {
+        m_logger.info( m_message );
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public void info4Threads()
+    {
+        m_logger.info( m_message );
+    }
+
+    @Benchmark
+    @Threads( 16 )
+    public void info16Threads()
+    {
+        m_logger.info( m_message );
+    }
+
+    @Benchmark
+    @Threads( 1 )
+    public void disabledDebug1Thread()
+    {
+        m_logger.debug( m_message );
+    }
+
+    /**
+     * An OutputStream which discards everything written to it.
+     */
+    private static final class NullOutputStream
+        extends OutputStream
+    {
+        public void write( final int b )
+        {
+        }
+
+        public void write( final byte[] b, final int off, final int len )
+        {
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.benchmarks;
+
+import java.io.Serializable;
+
+import org.apache.avalon.excalibur.pool.ObjectFactory;
+import org.apache.avalon.excalibur.pool.Poolable;
+
+/**
+ * A Poolable and Serializable object carrying a byte array of a configurable size.
+ *  Used by the benchmarks so that results can be compared for different object sizes.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class Payload
+    implements Poolable, Serializable
+{
+    private final byte[] m_data;
+
+    /**
+     * Creates a new Payload.
+     *
+     * @param size the number of bytes carried by the payload.
+     */
+    public Payload( final int size )
+    {
+        m_data = new byte[ size ];
+        for( int i = 0; i < size; i++ )
+        {
+            m_data[ i ] = (byte)i;
+        }
+    }
+
+    /**
+     * Reads every byte of the payload so that using it has a cost proportional to its size.
+     *
+     * @return a checksum of the payload.
+     */
+    public int touch()
+    {
+        int sum = 0;
+        for( int i = 0; i < m_data.length; i++ )
+        {
+            sum += m_data[ i ];
+        }
+        return sum;
+    }
+
+    /**
+     * Returns an ObjectFactory which creates Payloads of the specified size.
+     *
+     * @param size the number of bytes carried by each payload.
+     * @return the ObjectFactory.
+     */
+    public static ObjectFactory newFactory( final int size )
+    {
+        return new ObjectFactory()
+        {
+            public Object newInstance()
+            {
+                return new Payload( size );
+            }
+
+            public Class getCreatedClass()
+            {
+                return Payload.class;
+            }
+
+            public void decommission( final Object object )
+            {
+            }
+        };
+    }
+}
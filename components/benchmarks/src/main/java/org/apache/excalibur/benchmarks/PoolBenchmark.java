@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avalon.excalibur.pool.DefaultPool;
+import org.apache.avalon.excalibur.pool.HardResourceLimitingPool;
+import org.apache.avalon.excalibur.pool.ObjectFactory;
+import org.apache.avalon.excalibur.pool.Pool;
+import org.apache.avalon.excalibur.pool.ResourceLimitingPool;
+import org.apache.avalon.framework.container.ContainerUtil;
+import org.apache.avalon.framework.logger.NullLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of a get() / put() cycle on the pool implementations.  Each
+ *  benchmark method runs with a different number of threads so that contention on the
+ *  pool shows up in the results.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class PoolBenchmark
+{
+    /** The maximum number of Poolables in each pool, enough for the largest thread count. */
+    private static final int MAX = 16;
+
+    @Param( { "ResourceLimitingPool", "HardResourceLimitingPool", "DefaultPool" } )
+    public String poolType;
+
+    @Param( { "0", "1024" } )
+    public int payloadSize;
+
+    private Pool m_pool;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        final ObjectFactory factory = Payload.newFactory( payloadSize );
+        if( "ResourceLimitingPool".equals( poolType ) )
+        {
+            m_pool = new ResourceLimitingPool( factory, MAX, true, true, 0, 0 );
+        }
+        else if( "HardResourceLimitingPool".equals( poolType ) )
+        {
+            m_pool = new HardResourceLimitingPool( factory, MAX, MAX );
+        }
+        else if( "DefaultPool".equals( poolType ) )
+        {
+            m_pool = new DefaultPool( factory, null, MAX, MAX );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown pool type: " + poolType );
+        }
+        ContainerUtil.enableLogging( m_pool, new NullLogger() );
+        ContainerUtil.initialize( m_pool );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        ContainerUtil.dispose( m_pool );
+    }
+
+    @Benchmark
+    @Threads( 1 )
+    public int getPut1Thread() throws Exception
+    {
+        return getPut();
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public int getPut4Threads() throws Exception
+    {
+        return getPut();
+    }
+
+    @Benchmark
+    @Threads( 16 )
+    public int getPut16Threads() throws Exception
+    {
+        return getPut();
+    }
+
+    private int getPut() throws Exception
+    {
+        final Payload payload = (Payload)m_pool.get();
+        try
+        {
+            return payload.touch();
+        }
+        finally
+        {
+            m_pool.put( payload );
+        }
+    }
+}
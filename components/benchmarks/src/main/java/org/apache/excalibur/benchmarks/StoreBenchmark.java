@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.benchmarks;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avalon.framework.container.ContainerUtil;
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.service.DefaultServiceManager;
+import org.apache.excalibur.store.Store;
+import org.apache.excalibur.store.StoreJanitor;
+import org.apache.excalibur.store.impl.AbstractFilesystemStore;
+import org.apache.excalibur.store.impl.MRUMemoryStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of a mixed workload of 90% get() and 10% store() calls
+ *  against MRUMemoryStore and a filesystem store.  The key space is larger than the
+ *  memory store so that evictions are part of the measurement.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class StoreBenchmark
+{
+    /** The number of distinct keys used by the benchmark. */
+    private static final int KEYS = 1000;
+
+    /** The number of objects which the memory store holds. */
+    private static final int MAX_OBJECTS = 500;
+
+    @Param( { "MRUMemoryStore", "FilesystemStore" } )
+    public String storeType;
+
+    @Param( { "16", "1024", "65536" } )
+    public int payloadSize;
+
+    private Store m_store;
+
+    private File m_directory;
+
+    private Payload m_payload;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        m_payload = new Payload( payloadSize );
+
+        if( "MRUMemoryStore".equals( storeType ) )
+        {
+            final DefaultServiceManager manager = new DefaultServiceManager();
+            manager.put( StoreJanitor.ROLE, new NullStoreJanitor() );
+            manager.makeReadOnly();
+
+            final Parameters parameters = new Parameters();
+            parameters.setParameter( "maxobjects", String.valueOf( MAX_OBJECTS ) );
+
+            final MRUMemoryStore store = new MRUMemoryStore();
+            ContainerUtil.enableLogging( store, new NullLogger() );
+            ContainerUtil.service( store, manager );
+            ContainerUtil.parameterize( store, parameters );
+            m_store = store;
+        }
+        else if( "FilesystemStore".equals( storeType ) )
+        {
+            m_directory = File.createTempFile( "store-benchmark", "" );
+            m_directory.delete();
+
+            final FilesystemStore store = new FilesystemStore();
+            ContainerUtil.enableLogging( store, new NullLogger() );
+            store.setDirectory( m_directory );
+            m_store = store;
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown store type: " + storeType );
+        }
+
+        for( int i = 0; i < KEYS; i++ )
+        {
+            m_store.store( key( i ), m_payload );
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        m_store.clear();
+        ContainerUtil.dispose( m_store );
+        if( m_directory != null )
+        {
+            delete( m_directory );
+        }
+    }
+
+    @Benchmark
+    @Threads( 1 )
+    public Object getStore1Thread( final Sequence sequence ) throws Exception
+    {
+        return getStore( sequence );
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public Object getStore4Threads( final Sequence sequence ) throws Exception
+    {
+        return getStore( sequence );
+    }
+
+    @Benchmark
+    @Threads( 16 )
+    public Object getStore16Threads( final Sequence sequence ) throws Exception
+    {
+        return getStore( sequence );
+    }
+
+    private Object getStore( final Sequence sequence ) throws Exception
+    {
+        final int n = ++sequence.m_next;
+        final String key = key( Math.floorMod( n * 31, KEYS ) );
+        if( n % 10 == 0 )
+        {
+            m_store.store( key, m_payload );
+            return key;
+        }
+        return m_store.get( key );
+    }
+
+    private static String key( final int i )
+    {
+        return "key-" + i;
+    }
+
+    private static void delete( final File file )
+    {
+        final File[] files = file.listFiles();
+        for( int i = 0; ( files != null ) && ( i < files.length ); i++ )
+        {
+            delete( files[ i ] );
+        }
+        file.delete();
+    }
+
+    /**
+     * The position of one benchmark thread in the key sequence.  Each thread counts on
+     *  its own so that the threads do not contend on a shared counter, and starts at a
+     *  random position so that the threads do not all use the same keys at once.
+     */
+    @State( Scope.Thread )
+    public static class Sequence
+    {
+        int m_next = ThreadLocalRandom.current().nextInt();
+    }
+
+    /**
+     * The filesystem store with no additions, as AbstractFilesystemStore is abstract.
+     */
+    private static final class FilesystemStore
+        extends AbstractFilesystemStore
+    {
+    }
+
+    /**
+     * A StoreJanitor which never frees memory, so that it does not interfere with the
+     *  measurements.
+     */
+    private static final class NullStoreJanitor
+        implements StoreJanitor
+    {
+        public void register( final Store store )
+        {
+        }
+
+        public void unregister( final Store store )
+        {
+        }
+
+        public Iterator iterator()
+        {
+            return Collections.EMPTY_LIST.iterator();
+        }
+    }
+}
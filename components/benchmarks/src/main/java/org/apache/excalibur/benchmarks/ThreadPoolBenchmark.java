@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avalon.excalibur.thread.impl.ResourceLimitingThreadPool;
+import org.apache.avalon.framework.logger.NullLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of handing a small piece of work to ResourceLimitingThreadPool
+ *  and waiting for it to complete.  The work reads a payload of the configured size.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ThreadPoolBenchmark
+{
+    /** The maximum number of worker threads, enough for the largest thread count. */
+    private static final int MAX = 16;
+
+    @Param( { "0", "1024", "65536" } )
+    public int payloadSize;
+
+    private ResourceLimitingThreadPool m_threadPool;
+
+    private Payload m_payload;
+
+    @Setup
+    public void setUp()
+    {
+        m_threadPool = new ResourceLimitingThreadPool( "Benchmark", MAX, true, true, 0, 0 );
+        m_threadPool.enableLogging( new NullLogger() );
+        m_payload = new Payload( payloadSize );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        m_threadPool.dispose();
+    }
+
+    @Benchmark
+    @Threads( 1 )
+    public void execute1Thread() throws Exception
+    {
+        execute();
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public void execute4Threads() throws Exception
+    {
+        execute();
+    }
+
+    @Benchmark
+    @Threads( 16 )
+    public void execute16Threads() throws Exception
+    {
+        execute();
+    }
+
+    private void execute() throws Exception
+    {
+        // The work signals its own completion because DefaultThreadControl.join() waits
+        //  on the worker thread without holding its monitor.
+        final Completion completion = new Completion();
+        m_threadPool.execute( completion );
+        completion.await();
+    }
+
+    /**
+     * Work which reads the payload and then signals the thread waiting for it.
+     */
+    private final class Completion
+        implements Runnable
+    {
+        private boolean m_done;
+
+        public void run()
+        {
+            m_payload.touch();
+            synchronized( this )
+            {
+                m_done = true;
+                notify();
+            }
+        }
+
+        synchronized void await() throws InterruptedException
+        {
+            while( !m_done )
+            {
+                wait();
+            }
+        }
+    }
+}
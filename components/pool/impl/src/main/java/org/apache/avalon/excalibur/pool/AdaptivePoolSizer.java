@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool;
+
+import org.apache.avalon.framework.activity.Startable;
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
+
+/**
+ * Adjusts the number of ready Poolables which a {@link ResourceLimitingPool} maintains,
+ *  its target ready size, to follow the demand on the pool.  At a fixed interval the
+ *  sizer looks at what happened in the pool since the last time:
+ * <ul>
+ *   <li>If any calls to get() found no ready Poolable, and so had to create one or block,
+ *     the target is grown by that number of calls, so that they will find a warm
+ *     Poolable next time.</li>
+ *   <li>Otherwise, if some ready Poolables were never needed during the interval, the
+ *     target is shrunk by half of them and the unneeded Poolables are released.</li>
+ * </ul>
+ * The target is always kept within the configured bounds.  Every decision is logged,
+ *  together with the request rate, wait times and idle counts which drove it.  Changes
+ *  are logged at info level, and intervals where the target is left alone at debug level.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
+ * @since 2.2.3
+ */
+public class AdaptivePoolSizer
+    extends AbstractLogEnabled
+    implements Startable, Runnable
+{
+    /*---------------------------------------------------------------
+     * Private Fields
+     *-------------------------------------------------------------*/
+    /** The pool being sized. */
+    private final ResourceLimitingPool m_pool;
+
+    /** The lowest target ready size. */
+    private final int m_minTarget;
+
+    /** The highest target ready size. */
+    private final int m_maxTarget;
+
+    /** The interval, in milliseconds, at which the pool is sized. */
+    private final long m_interval;
+
+    /** The thread which sizes the pool, or null if the sizer is not running. */
+    private Thread m_thread;
+
+    /** The time that the pool was last sized. */
+    private long m_lastTime;
+
+    /** The number of gets when the pool was last sized. */
+    private long m_lastGetCount;
+
+    /** The number of gets which found no ready Poolable when the pool was last sized. */
+    private long m_lastEmptyGetCount;
+
+    /** The number of gets which blocked when the pool was last sized. */
+    private long m_lastBlockCount;
+
+    /** The time spent blocking when the pool was last sized. */
+    private long m_lastBlockTime;
+
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    /**
+     * Creates a new AdaptivePoolSizer.  The target ready size of the pool is moved within
+     *  the bounds the first time that the pool is sized.
+     *
+     * @param pool The pool to size.
+     * @param minTarget The lowest target ready size.
+     * @param maxTarget The highest target ready size.  The pool never creates more than its
+     *  own maximum number of Poolables.
+     * @param interval The interval, in milliseconds, at which the pool is sized once the
+     *  sizer has been started.
+     */
+    public AdaptivePoolSizer( final ResourceLimitingPool pool,
+                              final int minTarget,
+                              final int maxTarget,
+                              final long interval )
+    {
+        if( null == pool )
+        {
+            throw new NullPointerException( "pool" );
+        }
+        if( ( minTarget < 0 ) || ( maxTarget < minTarget ) )
+        {
+            throw new IllegalArgumentException( "Invalid target bounds: " + minTarget + " to "
+                                                + maxTarget );
+        }
+        if( interval <= 0 )
+        {
+            throw new IllegalArgumentException( "interval must be positive: " + interval );
+        }
+
+        m_pool = pool;
+        m_minTarget = minTarget;
+        m_maxTarget = maxTarget;
+        m_interval = interval;
+
+        m_lastTime = System.currentTimeMillis();
+        m_lastGetCount = pool.getGetCount();
+        m_lastEmptyGetCount = pool.getEmptyGetCount();
+        m_lastBlockCount = pool.getBlockCount();
+        m_lastBlockTime = pool.getBlockTime();
+        pool.resetReadyLowWater();
+    }
+
+    /*---------------------------------------------------------------
+     * Startable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Starts a daemon thread which sizes the pool at the configured interval.
+     */
+    public synchronized void start()
+    {
+        if( m_thread == null )
+        {
+            m_thread = new Thread( this, "AdaptivePoolSizer" );
+            m_thread.setDaemon( true );
+            m_thread.start();
+        }
+    }
+
+    /**
+     * Stops sizing the pool.  The pool keeps its current target ready size.
+     */
+    public void stop()
+        throws InterruptedException
+    {
+        Thread thread;
+        synchronized( this )
+        {
+            thread = m_thread;
+            m_thread = null;
+        }
+
+        if( thread != null )
+        {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Runnable Methods
+     *-------------------------------------------------------------*/
+    public void run()
+    {
+        while( isRunning() )
+        {
+            try
+            {
+                Thread.sleep( m_interval );
+            }
+            catch( InterruptedException e )
+            {
+                // stop() was called.
+                continue;
+            }
+
+            try
+            {
+                adjust();
+            }
+            catch( final RuntimeException e )
+            {
+                getLogger().error( "Unable to size the pool.", e );
+            }
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Sizes the pool based on what happened in it since the last time that it was sized.
+     *  Called at the configured interval once the sizer has been started, but may also be
+     *  called directly.
+     *
+     * @return The new target ready size.
+     */
+    public synchronized int adjust()
+    {
+        long now = System.currentTimeMillis();
+        long getCount = m_pool.getGetCount();
+        long emptyGetCount = m_pool.getEmptyGetCount();
+        long blockCount = m_pool.getBlockCount();
+        long blockTime = m_pool.getBlockTime();
+        int idle = m_pool.resetReadyLowWater();
+
+        long elapsed = Math.max( 1, now - m_lastTime );
+        long gets = getCount - m_lastGetCount;
+        long emptyGets = emptyGetCount - m_lastEmptyGetCount;
+        long blocks = blockCount - m_lastBlockCount;
+        long waitTime = blockTime - m_lastBlockTime;
+
+        m_lastTime = now;
+        m_lastGetCount = getCount;
+        m_lastEmptyGetCount = emptyGetCount;
+        m_lastBlockCount = blockCount;
+        m_lastBlockTime = blockTime;
+
+        int target = m_pool.getMinReady();
+        long desired;
+        String reason;
+        if( emptyGets > 0 )
+        {
+            desired = target + emptyGets;
+            reason = "gets found no ready poolable";
+        }
+        else if( idle > 1 )
+        {
+            desired = target - idle / 2;
+            reason = "ready poolables were idle";
+        }
+        else
+        {
+            desired = target;
+            reason = "demand was met";
+        }
+
+        int newTarget = (int)Math.max( m_minTarget, Math.min( desired, m_maxTarget ) );
+        if( newTarget != desired )
+        {
+            reason += ", within the bounds of " + m_minTarget + " to " + m_maxTarget;
+        }
+
+        if( newTarget > target )
+        {
+            m_pool.grow( newTarget - target );
+        }
+        else if( newTarget < target )
+        {
+            m_pool.shrink( target - newTarget );
+        }
+
+        // The pool will not maintain more ready poolables than its maximum size.
+        newTarget = m_pool.getMinReady();
+
+        if( ( newTarget != target ) ? getLogger().isInfoEnabled()
+            : getLogger().isDebugEnabled() )
+        {
+            String message = ( newTarget == target
+                ? "Kept the target ready size at " + target
+                : "Changed the target ready size from " + target + " to " + newTarget )
+                + " because " + reason + ".  In the last " + elapsed + "ms: "
+                + ( gets * 1000 / elapsed ) + " gets/s, " + emptyGets + " found no ready "
+                + "poolable, " + blocks + " blocked for an average of "
+                + ( blocks > 0 ? waitTime / blocks : 0 ) + "ms, " + idle
+                + " ready poolables were idle.  Pool size: " + m_pool.getSize()
+                + ", ready: " + m_pool.getReadySize() + ".";
+            if( newTarget != target )
+            {
+                getLogger().info( message );
+            }
+            else
+            {
+                getLogger().debug( message );
+            }
+        }
+
+        return newTarget;
+    }
+
+    /**
+     * Returns true if the sizer has been started and not stopped.
+     */
+    private synchronized boolean isRunning()
+    {
+        return m_thread == Thread.currentThread();
+    }
+}
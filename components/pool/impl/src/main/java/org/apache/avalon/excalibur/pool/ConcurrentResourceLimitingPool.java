@@ -0,0 +1,965 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
+import org.apache.avalon.framework.logger.LogEnabled;
+import org.apache.avalon.framework.thread.ThreadSafe;
+
+/**
+ * A variant of {@link ResourceLimitingPool} for heavily contended pools.  It supports
+ *  the same weak and strong pool size limits, optional blocking gets and automatic
+ *  trimming of unused poolables, but get() and put() never take a shared lock unless
+ *  a thread actually has to block.
+ * <p>
+ * Ready Poolables are kept on a lock-free stack.  In addition, each thread keeps the
+ *  Poolable it most recently returned in a private cache slot, so a thread which
+ *  repeatedly looks up and releases the same component does not touch any shared
+ *  state at all.  Cached Poolables are still visible to the rest of the pool: other
+ *  threads will steal them before creating new instances or blocking, and they are
+ *  collected by trim() and dispose().
+ * <p>
+ * New Poolables are created outside of any lock, so a slow ObjectFactory only delays
+ *  the thread which needs the new instance.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
+ * @since 2.2.3
+ */
+public class ConcurrentResourceLimitingPool
+    extends AbstractLogEnabled
+    implements Pool, Resizable, LogEnabled, Disposable, ThreadSafe
+{
+    /*---------------------------------------------------------------
+     * Protected Fields
+     *-------------------------------------------------------------*/
+    /**
+     * Object used by threads which are blocking in get() to wait for a Poolable to
+     *  become available.  It is never locked on the fast path.
+     */
+    protected final Object m_semaphore = new Object();
+
+    /*---------------------------------------------------------------
+     * Private Fields
+     *-------------------------------------------------------------*/
+    /**
+     * Keeps track of whether or not the Pool has been disposed.
+     */
+    private volatile boolean m_disposed = false;
+
+    /**
+     * The Object Factory used to generate new Poolable instances for the pool.
+     */
+    private final ObjectFactory m_factory;
+
+    /**
+     * The maximum size of the pool.
+     */
+    private final int m_max;
+
+    /**
+     * Whether or not the pool allows for the creation of objects beyond the maximum pool size.
+     */
+    private final boolean m_maxStrict;
+
+    /**
+     * Whether or not the pool should cause threads requesting a Poolable to block when m_maxStrict
+     *  is true, the pool size is equal to m_max and there are no Poolable instances available.
+     */
+    private final boolean m_blocking;
+
+    /**
+     * The maximum amount of time in milliseconds that the pool will block.  If 0, blocking will
+     *  wait indeffinately.
+     */
+    private final long m_blockTimeout;
+
+    /**
+     * The minimum interval with which old unused poolables will be removed from the pool.
+     */
+    private final long m_trimInterval;
+
+    /**
+     * The last time that the pool was trimmed.
+     */
+    private volatile long m_lastTrim;
+
+    /**
+     * Set while a thread is trimming the pool so that other threads do not wait for it.
+     */
+    private final AtomicBoolean m_trimming = new AtomicBoolean();
+
+    /**
+     * Head of the stack of Poolable instances which are available for use.
+     */
+    private final AtomicReference m_ready = new AtomicReference();
+
+    /**
+     * Head of the stack of Poolable instances which are available for use but have been
+     *  idle for a while.
+     */
+    private final AtomicReference m_oldReady = new AtomicReference();
+
+    /**
+     * Number of available Poolables, including those in the per thread caches.  This is
+     *  incremented before a Poolable is made available and decremented after it has been
+     *  taken, so it is never lower than the real number of ready Poolables.
+     */
+    private final AtomicInteger m_readySize = new AtomicInteger();
+
+    /**
+     * Total number of Poolable instances in the pool
+     */
+    private final AtomicInteger m_size = new AtomicInteger();
+
+    /**
+     * Number of threads currently blocking in get().
+     */
+    private final AtomicInteger m_waiters = new AtomicInteger();
+
+    /**
+     * The ThreadCache of the current thread.
+     */
+    private final ThreadLocal m_threadCache = new ThreadLocal();
+
+    /**
+     * The ThreadCaches of all threads which have used the pool.  The caches of threads
+     *  which have died are pruned whenever a new cache is added or the caches are scanned.
+     */
+    private final List m_threadCaches = new CopyOnWriteArrayList();
+
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    /**
+     * Creates a new ConcurrentResourceLimitingPool
+     *
+     * @param factory The ObjectFactory which will be used to create new Poolables as needed by
+     *  the pool.
+     * @param max Maximum number of Poolables which can be stored in the pool, 0 implies no limit.
+     * @param maxStrict true if the pool should never allow more than max Poolable to be created.
+     *  Will cause an exception to be thrown if more than max Poolables are requested and blocking
+     *  is false.
+     * @param blocking true if the pool should cause a thread calling get() to block when Poolables
+     *  are not currently available in the pool.
+     * @param blockTimeout The maximum amount of time, in milliseconds, that a call to get() will
+     *  block before an exception is thrown.  A value of 0 implies an indefinate wait.
+     * @param trimInterval The minimum interval with which old unused poolables will be removed
+     *  from the pool.  A value of 0 will cause the pool to never trim poolables.
+     */
+    public ConcurrentResourceLimitingPool( final ObjectFactory factory,
+                                           int max,
+                                           boolean maxStrict,
+                                           boolean blocking,
+                                           long blockTimeout,
+                                           long trimInterval )
+    {
+        m_factory = factory;
+        m_max = ( max <= 0 ? Integer.MAX_VALUE : max );
+        m_maxStrict = maxStrict;
+        m_blocking = blocking;
+        m_blockTimeout = blockTimeout;
+        m_trimInterval = trimInterval;
+        m_lastTrim = System.currentTimeMillis();
+    }
+
+    /*---------------------------------------------------------------
+     * Pool Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Gets a Poolable from the pool.  If there is room in the pool, a new Poolable will be
+     *  created.  Depending on the parameters to the constructor, the method may block or throw
+     *  an exception if a Poolable is not available on the pool.
+     *
+     * @return Always returns a Poolable.  Contract requires that put must always be called with
+     *  the Poolable returned.
+     * @throws Exception An exception may be thrown as described above or if there is an exception
+     *  thrown by the ObjectFactory's newInstance() method.
+     */
+    public Poolable get() throws Exception
+    {
+        if( m_disposed ) throw new IllegalStateException( "Already Disposed" );
+
+        // If trimming is enabled then trim if it is time
+        if( ( m_trimInterval > 0 ) &&
+            ( System.currentTimeMillis() - m_lastTrim >= m_trimInterval ) )
+        {
+            tryTrim();
+        }
+
+        Poolable poolable = takeReady();
+        if( poolable == null )
+        {
+            poolable = stealReady();
+        }
+        if( poolable == null )
+        {
+            if( reserve( m_maxStrict ) )
+            {
+                poolable = createPoolable();
+            }
+            else if( m_blocking )
+            {
+                poolable = waitForPoolable();
+            }
+            else
+            {
+                // We must fail.
+                throw new Exception
+                    ( "Could not create enough Components to service your request." );
+            }
+        }
+
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Got a " + poolable.getClass().getName() + " from the pool." );
+        }
+
+        return poolable;
+    }
+
+    /**
+     * Returns a poolable to the pool and notifies any thread blocking.
+     *
+     * @param poolable Poolable to return to the pool.
+     */
+    public void put( Poolable poolable )
+    {
+        // Handle Recyclable objects
+        if( poolable instanceof Recyclable )
+        {
+            ( (Recyclable)poolable ).recycle();
+        }
+
+        if( releaseOverflow() )
+        {
+            // More Poolables were created than can be held in the pool, so remove.
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "No room to put a " + poolable.getClass().getName()
+                                   + " back into the pool, so remove it." );
+            }
+
+            removePoolable( poolable );
+            return;
+        }
+
+        if( m_disposed )
+        {
+            // The pool has already been disposed.
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Put called for a " + poolable.getClass().getName()
+                                   + " after the pool was disposed." );
+            }
+
+            permanentlyRemovePoolable( poolable );
+            return;
+        }
+
+        // There is room in the pool to keep this poolable.
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Put a " + poolable.getClass().getName()
+                               + " back into the pool." );
+        }
+
+        m_readySize.incrementAndGet();
+
+        // Keep the poolable for this thread unless another thread is already waiting for it.
+        if( ( m_waiters.get() > 0 ) || !getThreadCache().compareAndSet( null, poolable ) )
+        {
+            push( m_ready, poolable );
+        }
+
+        // Let any waiting threads know that a poolable has become available.
+        signalWaiter();
+
+        // The pool may have been disposed while the poolable was being returned.
+        if( m_disposed )
+        {
+            removeReady();
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Resizable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Creates new Poolables and makes them available in the pool.  The pool will never
+     *  be grown beyond its maximum size.
+     *
+     * @param amount the number of Poolables to create.
+     */
+    public void grow( final int amount )
+    {
+        for( int i = 0; i < amount; i++ )
+        {
+            if( m_disposed || !reserve( true ) )
+            {
+                return;
+            }
+
+            Poolable poolable;
+            try
+            {
+                poolable = createPoolable();
+            }
+            catch( final Exception e )
+            {
+                if( getLogger().isDebugEnabled() )
+                {
+                    getLogger().debug( "Unable to grow the pool.", e );
+                }
+                return;
+            }
+
+            m_readySize.incrementAndGet();
+            push( m_ready, poolable );
+            signalWaiter();
+        }
+    }
+
+    /**
+     * Permanently removes available Poolables from the pool, starting with the ones which
+     *  have been idle the longest.
+     *
+     * @param amount the maximum number of Poolables to remove.
+     */
+    public void shrink( final int amount )
+    {
+        for( int i = 0; i < amount; i++ )
+        {
+            Poolable poolable = pop( m_oldReady );
+            if( poolable == null )
+            {
+                poolable = pop( m_ready );
+            }
+            if( poolable == null )
+            {
+                return;
+            }
+
+            m_readySize.decrementAndGet();
+            permanentlyRemovePoolable( poolable );
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Disposable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * The dispose operation is called at the end of a components lifecycle.
+     * This method will be called after Startable.stop() method (if implemented
+     * by component). Components use this method to release and destroy any
+     * resources that the Component owns.
+     */
+    public void dispose()
+    {
+        m_disposed = true;
+
+        // Any Poolables which are ready need to be disposed of
+        removeReady();
+
+        // Notify any threads currently waiting for objects so they can abort
+        synchronized( m_semaphore )
+        {
+            m_semaphore.notifyAll();
+        }
+
+        if( ( m_size.get() > 0 ) && getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "There were " + m_size.get()
+                               + " outstanding objects when the pool was disposed." );
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Permanently removes a poolable from the pool's active list and
+     *  destroys it so that it will not ever be reused.
+     */
+    protected void permanentlyRemovePoolable( Poolable poolable )
+    {
+        m_size.decrementAndGet();
+        removePoolable( poolable );
+
+        // A thread blocking on a strict pool may now create a new poolable.
+        signalWaiter();
+    }
+
+    /**
+     * Returns the total number of Poolables created by the pool.  Includes active and ready.
+     */
+    public int getSize()
+    {
+        return m_size.get();
+    }
+
+    /**
+     * Returns the number of available Poolables waiting in the pool.
+     */
+    public int getReadySize()
+    {
+        return m_readySize.get();
+    }
+
+    /**
+     * Returns the number of per thread caches currently held by the pool.
+     */
+    public int getThreadCacheCount()
+    {
+        return m_threadCaches.size();
+    }
+
+    /**
+     * Create a new poolable instance by by calling the newInstance method
+     *  on the pool's ObjectFactory.
+     * <p>
+     * This is the method to override when you need to enforce creational
+     *  policies.
+     * <p>
+     * This method is never called while a lock is held, so it may take as long
+     *  as the ObjectFactory needs.
+     */
+    protected Poolable newPoolable() throws Exception
+    {
+        Object obj = m_factory.newInstance();
+
+        return (Poolable)obj;
+    }
+
+    /**
+     * Called when an object is being removed permanently from the pool.
+     * This is the method to override when you need to enforce destructional
+     * policies.
+     *
+     * @param poolable Poolable to be completely removed from the pool.
+     */
+    protected void removePoolable( Poolable poolable )
+    {
+        try
+        {
+            m_factory.decommission( poolable );
+        }
+        catch( Exception e )
+        {
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Error decommissioning object", e );
+            }
+        }
+    }
+
+    /**
+     * Forces the pool to trim, remove, old Poolables from the pool.  Trimming works
+     *  in the same way as {@link ResourceLimitingPool#trim()}, Poolables which have
+     *  been idle for between one and two trim intervals are removed.  Poolables held
+     *  in the per thread caches are treated as new Poolables when the pool is trimmed.
+     * <p>
+     * If another thread is already trimming the pool then this method returns
+     *  immediately without trimming.
+     *
+     * @return the number of Poolables that were trimmed.
+     */
+    public int trim()
+    {
+        if( m_trimInterval > 0 )
+        {
+            return tryTrim();
+        }
+        else
+        {
+            throw new IllegalStateException( "This pool is not configured to do trimming." );
+        }
+    }
+
+    /**
+     * Trims the pool unless another thread is already doing so.
+     *
+     * @return the number of Poolables that were trimmed.
+     */
+    private int tryTrim()
+    {
+        if( !m_trimming.compareAndSet( false, true ) )
+        {
+            return 0;
+        }
+        try
+        {
+            return trimInner();
+        }
+        finally
+        {
+            m_trimming.set( false );
+        }
+    }
+
+    /**
+     * See trim() for details.
+     *
+     * This method is only called by the thread which has set m_trimming.  As that is the
+     *  only thread which ever adds to m_oldReady, the old stack will stay empty once it
+     *  has been drained.
+     */
+    private int trimInner()
+    {
+        int trimCount = 0;
+
+        // Remove any poolables in the m_oldReady stack.
+        Poolable poolable;
+        while( ( poolable = pop( m_oldReady ) ) != null )
+        {
+            m_readySize.decrementAndGet();
+            permanentlyRemovePoolable( poolable );
+            trimCount++;
+        }
+
+        if( ( trimCount > 0 ) && getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Trimmed " + trimCount + " idle objects from pool." );
+        }
+
+        // Move the poolables in the thread caches onto m_ready so they age with it.
+        for( Iterator iter = m_threadCaches.iterator(); iter.hasNext(); )
+        {
+            ThreadCache cache = (ThreadCache)iter.next();
+            poolable = (Poolable)cache.getAndSet( null );
+            if( poolable != null )
+            {
+                push( m_ready, poolable );
+            }
+            if( !cache.isOwnerAlive() )
+            {
+                m_threadCaches.remove( cache );
+            }
+        }
+
+        // Move the poolables in m_ready into m_oldReady (swap stacks)
+        Node head = (Node)m_ready.getAndSet( null );
+        if( getLogger().isDebugEnabled() )
+        {
+            int oldCount = 0;
+            for( Node node = head; node != null; node = node.m_next )
+            {
+                oldCount++;
+            }
+            getLogger().debug( "Marking " + oldCount + " objects as old in pool." );
+        }
+        m_oldReady.set( head );
+
+        m_lastTrim = System.currentTimeMillis();
+
+        return trimCount;
+    }
+
+    /**
+     * Takes a ready Poolable from the current thread's cache or the ready stacks.
+     *
+     * @return the Poolable or null if none were available.
+     */
+    private Poolable takeReady()
+    {
+        // The thread's own cache is not shared with other threads unless they steal from it.
+        ThreadCache cache = (ThreadCache)m_threadCache.get();
+        Poolable poolable = ( cache == null ? null : (Poolable)cache.getAndSet( null ) );
+        if( poolable == null )
+        {
+            poolable = pop( m_ready );
+        }
+        if( poolable == null )
+        {
+            poolable = pop( m_oldReady );
+        }
+        if( poolable != null )
+        {
+            m_readySize.decrementAndGet();
+        }
+        return poolable;
+    }
+
+    /**
+     * Takes a Poolable which is parked in the cache of another thread.  The caches are
+     *  only scanned when the ready count says that a Poolable should be available.
+     *
+     * @return the Poolable or null if none were available.
+     */
+    private Poolable stealReady()
+    {
+        if( m_readySize.get() <= 0 )
+        {
+            return null;
+        }
+
+        for( Iterator iter = m_threadCaches.iterator(); iter.hasNext(); )
+        {
+            ThreadCache cache = (ThreadCache)iter.next();
+            Poolable poolable = (Poolable)cache.getAndSet( null );
+            if( !cache.isOwnerAlive() )
+            {
+                m_threadCaches.remove( cache );
+            }
+            if( poolable != null )
+            {
+                m_readySize.decrementAndGet();
+                return poolable;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reserves room in the pool for a new Poolable.
+     *
+     * @param enforceMax true if the reservation must fail once the pool is at its maximum.
+     *
+     * @return true if room was reserved.
+     */
+    private boolean reserve( final boolean enforceMax )
+    {
+        if( !enforceMax )
+        {
+            m_size.incrementAndGet();
+            return true;
+        }
+
+        while( true )
+        {
+            int size = m_size.get();
+            if( size >= m_max )
+            {
+                return false;
+            }
+            if( m_size.compareAndSet( size, size + 1 ) )
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives up the room taken by a returned Poolable if the pool has grown beyond its
+     *  maximum size.
+     *
+     * @return true if the Poolable should be removed rather than kept.
+     */
+    private boolean releaseOverflow()
+    {
+        while( true )
+        {
+            int size = m_size.get();
+            if( size <= m_max )
+            {
+                return false;
+            }
+            if( m_size.compareAndSet( size, size - 1 ) )
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Creates a new Poolable for which room has already been reserved.
+     */
+    private Poolable createPoolable() throws Exception
+    {
+        // Create a new poolable.  May throw an exception if the poolable can not be
+        //  instantiated.
+        Poolable poolable = null;
+        try
+        {
+            poolable = newPoolable();
+        }
+        finally
+        {
+            if( poolable == null )
+            {
+                // Give the reserved room back.
+                m_size.decrementAndGet();
+                signalWaiter();
+            }
+        }
+
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Created a new " + poolable.getClass().getName()
+                               + " from the object factory." );
+        }
+
+        return poolable;
+    }
+
+    /**
+     * Blocks until a Poolable is returned to the pool, room becomes available to create
+     *  a new one, or the block timeout expires.
+     */
+    private Poolable waitForPoolable() throws Exception
+    {
+        long blockStart = System.currentTimeMillis();
+
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Blocking until a Poolable is available. "
+                               + "Thread: " + Thread.currentThread().getName() );
+        }
+
+        m_waiters.incrementAndGet();
+        try
+        {
+            while( true )
+            {
+                // The dispose() method might have woken us up.
+                if( m_disposed )
+                {
+                    throw new IllegalStateException( "Already Disposed" );
+                }
+
+                Poolable poolable = takeReady();
+                if( poolable == null )
+                {
+                    poolable = stealReady();
+                }
+                if( ( poolable == null ) && reserve( true ) )
+                {
+                    poolable = createPoolable();
+                }
+                if( poolable != null )
+                {
+                    if( getLogger().isDebugEnabled() )
+                    {
+                        long now = System.currentTimeMillis();
+                        getLogger().debug( "Blocked for " + ( now - blockStart ) + "ms "
+                                           + "waiting for a Poolable to become available. "
+                                           + "Thread: " + Thread.currentThread().getName() );
+                    }
+                    return poolable;
+                }
+
+                synchronized( m_semaphore )
+                {
+                    // Check again while holding the lock so that a put() which happened
+                    //  since the last attempt can not be missed.
+                    if( m_disposed || ( m_readySize.get() > 0 ) || ( m_size.get() < m_max ) )
+                    {
+                        continue;
+                    }
+
+                    long blockWait = 0;
+                    if( m_blockTimeout > 0 )
+                    {
+                        long now = System.currentTimeMillis();
+                        blockWait = m_blockTimeout - ( now - blockStart );
+                        if( blockWait <= 0 )
+                        {
+                            // We timed out waiting.
+                            if( getLogger().isDebugEnabled() )
+                            {
+                                getLogger().debug(
+                                    "Timed out waiting for a Poolable to become "
+                                    + "available.  Blocked for " + ( now - blockStart )
+                                    + "ms. Thread: " + Thread.currentThread().getName() );
+                            }
+                            throw new Exception
+                                ( "Could not create enough Components to service your "
+                                  + "request (Timed out)." );
+                        }
+                    }
+
+                    try
+                    {
+                        m_semaphore.wait( blockWait );
+                    }
+                    catch( InterruptedException e )
+                    {
+                    }
+                }
+            }
+        }
+        finally
+        {
+            m_waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wakes up one thread blocking in get(), if there are any.
+     */
+    private void signalWaiter()
+    {
+        if( m_waiters.get() > 0 )
+        {
+            synchronized( m_semaphore )
+            {
+                m_semaphore.notify();
+            }
+        }
+    }
+
+    /**
+     * Permanently removes all of the ready Poolables, including those in thread caches.
+     */
+    private void removeReady()
+    {
+        for( Iterator iter = m_threadCaches.iterator(); iter.hasNext(); )
+        {
+            ThreadCache cache = (ThreadCache)iter.next();
+            Poolable poolable = (Poolable)cache.getAndSet( null );
+            if( poolable != null )
+            {
+                m_readySize.decrementAndGet();
+                permanentlyRemovePoolable( poolable );
+            }
+        }
+
+        Poolable poolable;
+        while( ( ( poolable = pop( m_ready ) ) != null )
+            || ( ( poolable = pop( m_oldReady ) ) != null ) )
+        {
+            m_readySize.decrementAndGet();
+            permanentlyRemovePoolable( poolable );
+        }
+    }
+
+    /**
+     * Returns the ThreadCache of the current thread, creating it if necessary.
+     */
+    private ThreadCache getThreadCache()
+    {
+        ThreadCache cache = (ThreadCache)m_threadCache.get();
+        if( cache == null )
+        {
+            pruneThreadCaches();
+
+            cache = new ThreadCache( Thread.currentThread() );
+            m_threadCaches.add( cache );
+            m_threadCache.set( cache );
+        }
+        return cache;
+    }
+
+    /**
+     * Removes the caches of threads which have died.  Their caches will never be
+     *  used again, so any Poolable parked in one is moved onto the ready stack.  This
+     *  keeps the number of caches bounded by the number of live threads whether or
+     *  not the pool is ever trimmed.
+     */
+    private void pruneThreadCaches()
+    {
+        for( Iterator iter = m_threadCaches.iterator(); iter.hasNext(); )
+        {
+            ThreadCache cache = (ThreadCache)iter.next();
+            if( !cache.isOwnerAlive() )
+            {
+                m_threadCaches.remove( cache );
+
+                // m_readySize already counts the Poolable.
+                Poolable poolable = (Poolable)cache.getAndSet( null );
+                if( poolable != null )
+                {
+                    push( m_ready, poolable );
+                }
+            }
+        }
+    }
+
+    /**
+     * Pushes a Poolable onto a stack.
+     */
+    private static void push( final AtomicReference stack, final Poolable poolable )
+    {
+        Node node = new Node( poolable );
+        do
+        {
+            node.m_next = (Node)stack.get();
+        }
+        while( !stack.compareAndSet( node.m_next, node ) );
+    }
+
+    /**
+     * Pops a Poolable off of a stack.
+     *
+     * @return the Poolable or null if the stack was empty.
+     */
+    private static Poolable pop( final AtomicReference stack )
+    {
+        Node head;
+        do
+        {
+            head = (Node)stack.get();
+            if( head == null )
+            {
+                return null;
+            }
+        }
+        while( !stack.compareAndSet( head, head.m_next ) );
+
+        return head.m_poolable;
+    }
+
+    /*---------------------------------------------------------------
+     * Inner Classes
+     *-------------------------------------------------------------*/
+    /**
+     * Entry on one of the ready stacks.  A new Node is used for every push so the
+     *  stacks are not subject to the ABA problem.
+     */
+    private static final class Node
+    {
+        final Poolable m_poolable;
+        Node m_next;
+
+        Node( final Poolable poolable )
+        {
+            m_poolable = poolable;
+        }
+    }
+
+    /**
+     * Slot holding the Poolable most recently returned by a thread.  The owner is only
+     *  weakly referenced so the pool never keeps a dead thread reachable.
+     */
+    private static final class ThreadCache
+        extends AtomicReference
+    {
+        private final WeakReference m_owner;
+
+        ThreadCache( final Thread owner )
+        {
+            m_owner = new WeakReference( owner );
+        }
+
+        boolean isOwnerAlive()
+        {
+            Thread owner = (Thread)m_owner.get();
+            return ( owner != null ) && owner.isAlive();
+        }
+    }
+}
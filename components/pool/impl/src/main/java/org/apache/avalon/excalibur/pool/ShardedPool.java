@@ -0,0 +1,662 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
+import org.apache.avalon.framework.logger.LogEnabled;
+import org.apache.avalon.framework.logger.Logger;
+import org.apache.avalon.framework.thread.ThreadSafe;
+
+/**
+ * A Pool which splits its Poolables across a number of independent
+ *  {@link ResourceLimitingPool} shards so that threads looking up a very frequently used
+ *  component do not all contend for the same lock.
+ * <p>
+ * Each thread has a home shard, chosen by the hash of the thread.  get() takes a ready
+ *  Poolable from the home shard if it can, and otherwise steals one from the neighbouring
+ *  shards before creating a new one.  put() always returns the Poolable to the home shard
+ *  of the calling thread.  The maximum size of the pool applies to all of the shards
+ *  together, and getSize() and getReadySize() report the totals for the whole pool.
+ * <p>
+ * Each shard is trimmed on its own, as described in {@link ResourceLimitingPool#trim()}.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
+ * @since 2.2.3
+ */
+public class ShardedPool
+    extends AbstractLogEnabled
+    implements Pool, LogEnabled, Disposable, ThreadSafe
+{
+    /**
+     * Thrown by a shard when there is no room in the pool for a new Poolable.  It never
+     *  leaves the pool, so a single instance is shared.
+     */
+    private static final Exception NO_ROOM = new Exception( "No room in the pool." );
+
+    /*---------------------------------------------------------------
+     * Protected Fields
+     *-------------------------------------------------------------*/
+    /**
+     * Object used by threads which are blocking in get() to wait for a Poolable to
+     *  become available.  It is only locked when a thread actually has to block.
+     */
+    protected final Object m_semaphore = new Object();
+
+    /*---------------------------------------------------------------
+     * Private Fields
+     *-------------------------------------------------------------*/
+    /**
+     * Keeps track of whether or not the Pool has been disposed.
+     */
+    private volatile boolean m_disposed = false;
+
+    /**
+     * The Object Factory used to generate new Poolable instances for the pool.
+     */
+    private final ObjectFactory m_factory;
+
+    /**
+     * The maximum size of the pool.
+     */
+    private final int m_max;
+
+    /**
+     * Whether or not the pool allows for the creation of objects beyond the maximum pool size.
+     */
+    private final boolean m_maxStrict;
+
+    /**
+     * Whether or not the pool should cause threads requesting a Poolable to block when m_maxStrict
+     *  is true, the pool size is equal to m_max and there are no Poolable instances available.
+     */
+    private final boolean m_blocking;
+
+    /**
+     * The maximum amount of time in milliseconds that the pool will block.  If 0, blocking will
+     *  wait indeffinately.
+     */
+    private final long m_blockTimeout;
+
+    /**
+     * The shards which hold the ready Poolables.
+     */
+    private final Shard[] m_shards;
+
+    /**
+     * Total number of Poolable instances in all of the shards.
+     */
+    private final AtomicInteger m_size = new AtomicInteger();
+
+    /**
+     * Number of Poolables which were taken from a shard other than the home shard of the
+     *  thread which needed them.
+     */
+    private final AtomicLong m_steals = new AtomicLong();
+
+    /**
+     * Number of threads currently blocking in get().  Only modified by threads that have
+     *  m_semaphore locked.
+     */
+    private volatile int m_waiting;
+
+    /**
+     * Incremented whenever a blocking thread may be able to get a Poolable.  Only accessed
+     *  by threads that have m_semaphore locked.
+     */
+    private long m_signal;
+
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    /**
+     * Creates a new ShardedPool with one shard for each available processor.
+     *
+     * @param factory The ObjectFactory which will be used to create new Poolables as needed by
+     *  the pool.
+     * @param max Maximum number of Poolables which can be stored in the pool, 0 implies no limit.
+     * @param maxStrict true if the pool should never allow more than max Poolable to be created.
+     *  Will cause an exception to be thrown if more than max Poolables are requested and blocking
+     *  is false.
+     * @param blocking true if the pool should cause a thread calling get() to block when Poolables
+     *  are not currently available in the pool.
+     * @param blockTimeout The maximum amount of time, in milliseconds, that a call to get() will
+     *  block before an exception is thrown.  A value of 0 implies an indefinate wait.
+     * @param trimInterval The minimum interval with which old unused poolables will be removed
+     *  from each shard.  A value of 0 will cause the pool to never trim poolables.
+     */
+    public ShardedPool( final ObjectFactory factory,
+                        int max,
+                        boolean maxStrict,
+                        boolean blocking,
+                        long blockTimeout,
+                        long trimInterval )
+    {
+        this( factory, Runtime.getRuntime().availableProcessors(), max, maxStrict, blocking,
+              blockTimeout, trimInterval );
+    }
+
+    /**
+     * Creates a new ShardedPool
+     *
+     * @param factory The ObjectFactory which will be used to create new Poolables as needed by
+     *  the pool.
+     * @param shards The number of shards to split the pool into.
+     * @param max Maximum number of Poolables which can be stored in the pool, 0 implies no limit.
+     * @param maxStrict true if the pool should never allow more than max Poolable to be created.
+     *  Will cause an exception to be thrown if more than max Poolables are requested and blocking
+     *  is false.
+     * @param blocking true if the pool should cause a thread calling get() to block when Poolables
+     *  are not currently available in the pool.
+     * @param blockTimeout The maximum amount of time, in milliseconds, that a call to get() will
+     *  block before an exception is thrown.  A value of 0 implies an indefinate wait.
+     * @param trimInterval The minimum interval with which old unused poolables will be removed
+     *  from each shard.  A value of 0 will cause the pool to never trim poolables.
+     */
+    public ShardedPool( final ObjectFactory factory,
+                        int shards,
+                        int max,
+                        boolean maxStrict,
+                        boolean blocking,
+                        long blockTimeout,
+                        long trimInterval )
+    {
+        if( shards <= 0 )
+        {
+            throw new IllegalArgumentException( "shards must be positive: " + shards );
+        }
+
+        m_factory = factory;
+        m_max = ( max <= 0 ? Integer.MAX_VALUE : max );
+        m_maxStrict = maxStrict;
+        m_blocking = blocking;
+        m_blockTimeout = blockTimeout;
+
+        // The shards do not limit their own size.  All of the limits are enforced here.
+        m_shards = new Shard[ shards ];
+        for( int i = 0; i < shards; i++ )
+        {
+            m_shards[ i ] = new Shard( trimInterval );
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * LogEnabled Methods
+     *-------------------------------------------------------------*/
+    public void enableLogging( final Logger logger )
+    {
+        super.enableLogging( logger );
+
+        for( int i = 0; i < m_shards.length; i++ )
+        {
+            m_shards[ i ].enableLogging( logger );
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Pool Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Gets a Poolable from the pool.  If there are no ready Poolables in any of the shards
+     *  and there is room in the pool, a new Poolable will be created.  Depending on the
+     *  parameters to the constructor, the method may block or throw an exception if a
+     *  Poolable is not available on the pool.
+     *
+     * @return Always returns a Poolable.  Contract requires that put must always be called with
+     *  the Poolable returned.
+     * @throws Exception An exception may be thrown as described above or if there is an exception
+     *  thrown by the ObjectFactory's newInstance() method.
+     */
+    public Poolable get() throws Exception
+    {
+        if( m_disposed ) throw new IllegalStateException( "Already Disposed" );
+
+        Poolable poolable = getInner();
+        if( poolable == null )
+        {
+            if( m_blocking )
+            {
+                poolable = waitForPoolable();
+            }
+            else
+            {
+                // We must fail.
+                throw new Exception
+                    ( "Could not create enough Components to service your request." );
+            }
+        }
+
+        return poolable;
+    }
+
+    /**
+     * Returns a poolable to the home shard of the calling thread and notifies any thread
+     *  blocking.
+     *
+     * @param poolable Poolable to return to the pool.
+     */
+    public void put( Poolable poolable )
+    {
+        final Shard shard = getHomeShard();
+        if( m_size.get() > m_max )
+        {
+            // More Poolables were created than can be held in the pool, so remove.
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "No room to put a " + poolable.getClass().getName()
+                                   + " back into the pool, so remove it." );
+            }
+
+            shard.remove( poolable );
+        }
+        else
+        {
+            shard.put( poolable );
+            if( m_waiting > 0 )
+            {
+                signal();
+            }
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Disposable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * The dispose operation is called at the end of a components lifecycle.
+     * This method will be called after Startable.stop() method (if implemented
+     * by component). Components use this method to release and destroy any
+     * resources that the Component owns.
+     */
+    public void dispose()
+    {
+        m_disposed = true;
+
+        for( int i = 0; i < m_shards.length; i++ )
+        {
+            m_shards[ i ].dispose();
+        }
+
+        // Notify any threads currently waiting for objects so they can abort
+        signal();
+
+        if( ( m_size.get() > 0 ) && getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "There were " + m_size.get()
+                               + " outstanding objects when the pool was disposed." );
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Returns the total number of Poolables created by the pool.  Includes active and ready
+     *  Poolables in all of the shards.
+     */
+    public int getSize()
+    {
+        return m_size.get();
+    }
+
+    /**
+     * Returns the number of available Poolables waiting in all of the shards.
+     */
+    public int getReadySize()
+    {
+        int readySize = 0;
+        for( int i = 0; i < m_shards.length; i++ )
+        {
+            readySize += m_shards[ i ].getReadySize();
+        }
+        return readySize;
+    }
+
+    /**
+     * Returns the number of shards that the pool is split into.
+     */
+    public int getShardCount()
+    {
+        return m_shards.length;
+    }
+
+    /**
+     * Returns the number of Poolables which were taken from a shard other than the home
+     *  shard of the thread which needed them.  A high value relative to the number of gets
+     *  means that the pool has more shards than it needs.
+     */
+    public long getStealCount()
+    {
+        return m_steals.get();
+    }
+
+    /**
+     * Forces each shard to trim, remove, old Poolables.  See
+     *  {@link ResourceLimitingPool#trim()} for details.
+     *
+     * @return the number of Poolables that were trimmed from all of the shards.
+     */
+    public int trim()
+    {
+        int trimCount = 0;
+        for( int i = 0; i < m_shards.length; i++ )
+        {
+            trimCount += m_shards[ i ].trim();
+        }
+        return trimCount;
+    }
+
+    /**
+     * Takes a ready Poolable from the home shard, or from one of its neighbours, or creates
+     *  a new Poolable in the home shard if there is room in the pool.
+     *
+     * @return the Poolable, or null if none are ready and there is no room for a new one.
+     */
+    private Poolable getInner() throws Exception
+    {
+        final int home = getHomeIndex();
+
+        Poolable poolable = m_shards[ home ].getReady();
+        if( poolable != null )
+        {
+            return poolable;
+        }
+
+        for( int i = 1; i < m_shards.length; i++ )
+        {
+            poolable = m_shards[ ( home + i ) % m_shards.length ].getReady();
+            if( poolable != null )
+            {
+                m_steals.incrementAndGet();
+                return poolable;
+            }
+        }
+
+        return m_shards[ home ].create();
+    }
+
+    /**
+     * Blocks until a Poolable becomes available in one of the shards or room is freed up
+     *  for a new one.
+     * <p>
+     * m_semaphore is never held while a shard is locked, because shards notify this pool
+     *  while they are locked.
+     *
+     * @return the Poolable for the calling thread.
+     */
+    private Poolable waitForPoolable() throws Exception
+    {
+        long blockStart = System.currentTimeMillis();
+
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Blocking until a Poolable is available. "
+                               + "Thread: " + Thread.currentThread().getName() );
+        }
+
+        synchronized( m_semaphore )
+        {
+            m_waiting++;
+        }
+        try
+        {
+            while( true )
+            {
+                long signal;
+                synchronized( m_semaphore )
+                {
+                    signal = m_signal;
+                }
+
+                Poolable poolable = getInner();
+                if( poolable != null )
+                {
+                    if( getLogger().isDebugEnabled() )
+                    {
+                        long now = System.currentTimeMillis();
+                        getLogger().debug( "Blocked for " + ( now - blockStart ) + "ms "
+                                           + "waiting for a Poolable to become available. "
+                                           + "Thread: " + Thread.currentThread().getName() );
+                    }
+                    return poolable;
+                }
+
+                synchronized( m_semaphore )
+                {
+                    // Only wait if nothing has changed since the shards were checked.
+                    if( m_signal == signal )
+                    {
+                        // The dispose() method might have woken us up.
+                        if( m_disposed )
+                        {
+                            throw new IllegalStateException( "Already Disposed" );
+                        }
+
+                        long blockWait = 0;
+                        if( m_blockTimeout > 0 )
+                        {
+                            long now = System.currentTimeMillis();
+                            blockWait = m_blockTimeout - ( now - blockStart );
+                            if( blockWait <= 0 )
+                            {
+                                // We timed out waiting.
+                                if( getLogger().isDebugEnabled() )
+                                {
+                                    getLogger().debug(
+                                        "Timed out waiting for a Poolable to become "
+                                        + "available.  Blocked for " + ( now - blockStart )
+                                        + "ms. Thread: " + Thread.currentThread().getName() );
+                                }
+                                throw new Exception
+                                    ( "Could not create enough Components to service your "
+                                      + "request (Timed out)." );
+                            }
+                        }
+
+                        try
+                        {
+                            m_semaphore.wait( blockWait );
+                        }
+                        catch( InterruptedException e )
+                        {
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            synchronized( m_semaphore )
+            {
+                m_waiting--;
+            }
+        }
+    }
+
+    /**
+     * Wakes up any threads which are blocking in get() so that they check the shards again.
+     */
+    private void signal()
+    {
+        synchronized( m_semaphore )
+        {
+            m_signal++;
+            m_semaphore.notifyAll();
+        }
+    }
+
+    /**
+     * Reserves room in the pool for a new Poolable.
+     *
+     * @return true if there was room.
+     */
+    private boolean reserve()
+    {
+        if( !m_maxStrict )
+        {
+            m_size.incrementAndGet();
+            return true;
+        }
+
+        while( true )
+        {
+            int size = m_size.get();
+            if( size >= m_max )
+            {
+                return false;
+            }
+            if( m_size.compareAndSet( size, size + 1 ) )
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back the room used by a Poolable which has been removed from the pool.
+     */
+    private void release()
+    {
+        m_size.decrementAndGet();
+        if( m_waiting > 0 )
+        {
+            signal();
+        }
+    }
+
+    /**
+     * Returns the index of the home shard of the calling thread.
+     */
+    private int getHomeIndex()
+    {
+        int hash = System.identityHashCode( Thread.currentThread() );
+        hash ^= ( hash >>> 16 );
+        return ( hash & 0x7fffffff ) % m_shards.length;
+    }
+
+    /**
+     * Returns the home shard of the calling thread.
+     */
+    private Shard getHomeShard()
+    {
+        return m_shards[ getHomeIndex() ];
+    }
+
+    /*---------------------------------------------------------------
+     * Inner Classes
+     *-------------------------------------------------------------*/
+    /**
+     * One shard of the pool.  Shards do not limit their own size; new Poolables may only
+     *  be created if there is room in the pool as a whole.  Because Poolables move between
+     *  shards, the size of a single shard is meaningless and only the size of the whole
+     *  pool is reported.
+     */
+    private final class Shard
+        extends ResourceLimitingPool
+    {
+        private Shard( final long trimInterval )
+        {
+            super( m_factory, 0, false, false, 0, trimInterval );
+        }
+
+        /**
+         * Takes a ready Poolable from the shard without creating a new one.
+         *
+         * @return the Poolable, or null if the shard has no ready Poolables.
+         */
+        Poolable getReady() throws Exception
+        {
+            synchronized( m_semaphore )
+            {
+                if( getReadySize() == 0 )
+                {
+                    return null;
+                }
+
+                // Trimming may still remove the ready poolables, in which case get() will
+                //  try to create a new one.
+                return create();
+            }
+        }
+
+        /**
+         * Gets a Poolable from the shard, creating a new one if none are ready and there is
+         *  room in the pool.
+         *
+         * @return the Poolable, or null if there is no room in the pool.
+         */
+        Poolable create() throws Exception
+        {
+            try
+            {
+                return get();
+            }
+            catch( Exception e )
+            {
+                if( e == NO_ROOM )
+                {
+                    return null;
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Permanently removes a Poolable which does not fit back into the pool.  The
+         *  Poolable is decommissioned and no longer counted by the shard or the pool.
+         *
+         * @param poolable the Poolable to remove.
+         */
+        void remove( final Poolable poolable )
+        {
+            synchronized( m_semaphore )
+            {
+                permanentlyRemovePoolable( poolable );
+            }
+        }
+
+        protected Poolable newPoolable() throws Exception
+        {
+            if( !reserve() )
+            {
+                throw NO_ROOM;
+            }
+
+            try
+            {
+                return super.newPoolable();
+            }
+            catch( Exception e )
+            {
+                release();
+                throw e;
+            }
+        }
+
+        protected void removePoolable( Poolable poolable )
+        {
+            super.removePoolable( poolable );
+            release();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.pool.AdaptivePoolSizer;
+import org.apache.avalon.excalibur.pool.Poolable;
+import org.apache.avalon.excalibur.pool.ResourceLimitingPool;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
+ * @since 2.2.3
+ */
+public final class AdaptivePoolSizerTestCase extends TestCase
+{
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    public AdaptivePoolSizerTestCase()
+    {
+        this( "AdaptivePoolSizer Test Case" );
+    }
+
+    public AdaptivePoolSizerTestCase( final String name )
+    {
+        super( name );
+    }
+
+    /*---------------------------------------------------------------
+     * TestCases
+     *-------------------------------------------------------------*/
+    public void testGrowAndShrink() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ResourceLimitingPool pool = new ResourceLimitingPool( factory, 10, false, false, 0, 0 );
+        pool.enableLogging( logger );
+
+        AdaptivePoolSizer sizer = new AdaptivePoolSizer( pool, 0, 8, 60000 );
+        sizer.enableLogging( logger );
+
+        // Three gets which all have to create a new poolable.
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        Poolable p3 = pool.get();
+
+        assertEquals( "1) Target", 3, sizer.adjust() );
+        assertEquals( "1) Pool Min Ready", 3, pool.getMinReady() );
+        waitForReadySize( pool, 3 );
+
+        pool.put( p1 );
+        pool.put( p2 );
+        pool.put( p3 );
+
+        // The ready poolables were all needed during the last interval.
+        assertEquals( "2) Target", 3, sizer.adjust() );
+        assertEquals( "2) Pool Ready Size", 6, pool.getReadySize() );
+
+        // No demand for a whole interval, so half of the idle poolables are released.
+        assertEquals( "3) Target", 0, sizer.adjust() );
+        assertEquals( "3) Pool Ready Size", 3, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 3, pool.getSize() );
+
+        assertTrue( "Sizing decisions should be logged",
+                    logger.toString().indexOf( "Changed the target ready size from 0 to 3" )
+                    >= 0 );
+
+        pool.dispose();
+    }
+
+    public void testBounds() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ResourceLimitingPool pool = new ResourceLimitingPool( factory, 20, false, false, 0, 0 );
+        pool.enableLogging( logger );
+
+        AdaptivePoolSizer sizer = new AdaptivePoolSizer( pool, 2, 4, 60000 );
+        sizer.enableLogging( logger );
+
+        Poolable[] poolables = new Poolable[ 8 ];
+        for( int i = 0; i < poolables.length; i++ )
+        {
+            poolables[ i ] = pool.get();
+        }
+
+        // 8 gets found no ready poolable, but the target may not exceed 4.
+        assertEquals( "1) Target", 4, sizer.adjust() );
+        waitForReadySize( pool, 4 );
+
+        for( int i = 0; i < poolables.length; i++ )
+        {
+            pool.put( poolables[ i ] );
+        }
+        sizer.adjust();
+
+        // The target never drops below 2, however idle the pool is.
+        assertEquals( "2) Target", 2, sizer.adjust() );
+        assertEquals( "3) Target", 2, sizer.adjust() );
+
+        pool.dispose();
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    private void waitForReadySize( ResourceLimitingPool pool, int readySize )
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while( ( pool.getReadySize() < readySize ) && ( System.currentTimeMillis() < end ) )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( "Pool Ready Size", readySize, pool.getReadySize() );
+    }
+}
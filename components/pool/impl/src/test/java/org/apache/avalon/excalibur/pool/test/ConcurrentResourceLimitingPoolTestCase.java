@@ -0,0 +1,588 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.pool.ConcurrentResourceLimitingPool;
+import org.apache.avalon.excalibur.pool.Poolable;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
+ * @since 2.2.3
+ */
+public final class ConcurrentResourceLimitingPoolTestCase extends TestCase
+{
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    public ConcurrentResourceLimitingPoolTestCase()
+    {
+        this( "ConcurrentResourceLimitingPool Test Case" );
+    }
+
+    public ConcurrentResourceLimitingPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    /*---------------------------------------------------------------
+     * TestCases
+     *-------------------------------------------------------------*/
+    public void testCreateDestroy()
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 0, false, false, 0, 0 );
+
+        pool.enableLogging( logger );
+        pool.dispose();
+
+        // Make sure the logger output check out.
+        assertEquals(
+            logger.toString(),
+            ""
+        );
+    }
+
+    public void testSingleGetPutPoolCheck() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 0, false, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        assertEquals( "1) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "1) Pool Size", 0, pool.getSize() );
+
+        Poolable p1 = pool.get();
+
+        assertEquals( "2) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        pool.put( p1 );
+
+        assertEquals( "3) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 1, pool.getSize() );
+
+        Poolable p2 = pool.get();
+
+        assertEquals( "4) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "4) Pool Size", 1, pool.getSize() );
+
+        assertEquals( "Pooled Object reuse check", p1, p2 );
+
+        pool.put( p2 );
+
+        assertEquals( "5) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "5) Pool Size", 1, pool.getSize() );
+
+        pool.dispose();
+
+        // Make sure the logger output check out.
+        assertEquals( "Logger output",
+                      "DEBUG - ClassInstanceObjectFactory.newInstance()  id:1\n" +
+                      "DEBUG - Created a new org.apache.avalon.excalibur.pool.test.PoolableTestObject from the object factory.\n" +
+                      "DEBUG - Got a org.apache.avalon.excalibur.pool.test.PoolableTestObject from the pool.\n" +
+                      "DEBUG - Put a org.apache.avalon.excalibur.pool.test.PoolableTestObject back into the pool.\n" +
+                      "DEBUG - Got a org.apache.avalon.excalibur.pool.test.PoolableTestObject from the pool.\n" +
+                      "DEBUG - Put a org.apache.avalon.excalibur.pool.test.PoolableTestObject back into the pool.\n" +
+                      "DEBUG - ClassInstanceObjectFactory.decommission(a org.apache.avalon.excalibur.pool.test.PoolableTestObject)  id:1\n",
+                      logger.toString()
+        );
+    }
+
+    public void testMultipleGetPut() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 0, false, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+
+        assertEquals( "1) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "1) Pool Size", 2, pool.getSize() );
+
+        pool.put( p1 );
+        pool.put( p2 );
+
+        assertEquals( "2) Pool Ready Size", 2, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 2, pool.getSize() );
+
+        pool.dispose();
+
+        assertEquals( "3) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 0, pool.getSize() );
+    }
+
+    public void testMaxNotStrict() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 1, false, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+
+        assertEquals( "1) Pool Size", 2, pool.getSize() );
+
+        pool.put( p1 );
+        pool.put( p2 );
+
+        // The second Poolable does not fit in the pool so it is removed.
+        assertEquals( "2) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testMaxStrictFail() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 1, true, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        Poolable p1 = pool.get();
+        try
+        {
+            pool.get();
+            fail( "Call to get should have failed." );
+        }
+        catch( Exception e )
+        {
+            // Expected
+        }
+
+        pool.put( p1 );
+
+        assertEquals( "Pool Size", 1, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testStealFromOtherThread() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        final ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 1, true, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        final Poolable[] borrowed = new Poolable[ 1 ];
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    borrowed[ 0 ] = pool.get();
+                    pool.put( borrowed[ 0 ] );
+                }
+                catch( Exception e )
+                {
+                    borrowed[ 0 ] = null;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertNotNull( "Poolable borrowed by the other thread", borrowed[ 0 ] );
+        assertEquals( "1) Pool Ready Size", 1, pool.getReadySize() );
+
+        // The Poolable is cached by the other thread, but must still be usable here.
+        Poolable p = pool.get();
+
+        assertSame( "Poolable stolen from the other thread", borrowed[ 0 ], p );
+        assertEquals( "2) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        pool.put( p );
+        pool.dispose();
+    }
+
+    public void testStealKeepsLiveThreadCache() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        final ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 1, true, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        final Object lock = new Object();
+        final boolean[] state = new boolean[ 2 ]; // { returned, released }
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    pool.put( pool.get() );
+                }
+                catch( Exception e )
+                {
+                    // Detected by the size checks below.
+                }
+                synchronized( lock )
+                {
+                    state[ 0 ] = true;
+                    lock.notifyAll();
+                    while( !state[ 1 ] )
+                    {
+                        try
+                        {
+                            lock.wait();
+                        }
+                        catch( InterruptedException e )
+                        {
+                            return;
+                        }
+                    }
+                }
+            }
+        };
+        thread.start();
+        synchronized( lock )
+        {
+            while( !state[ 0 ] )
+            {
+                lock.wait();
+            }
+        }
+
+        assertEquals( "1) Thread Cache Count", 1, pool.getThreadCacheCount() );
+
+        // Stealing empties the cache of the live thread but must not drop it.
+        Poolable p = pool.get();
+
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+        assertEquals( "2) Thread Cache Count", 1, pool.getThreadCacheCount() );
+
+        synchronized( lock )
+        {
+            state[ 1 ] = true;
+            lock.notifyAll();
+        }
+        thread.join();
+
+        pool.put( p );
+        pool.dispose();
+    }
+
+    public void testDeadThreadCachesWithoutTrim() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        final ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 1, true, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        // Each thread returns the Poolable into its own cache and then dies.
+        for( int i = 0; i < 20; i++ )
+        {
+            runGetPut( pool );
+
+            assertEquals( i + ") Pool Size", 1, pool.getSize() );
+            assertEquals( i + ") Pool Ready Size", 1, pool.getReadySize() );
+            assertEquals( i + ") Thread Cache Count", 1, pool.getThreadCacheCount() );
+        }
+
+        // The cache of the last thread is dropped as its Poolable is taken.
+        Poolable p = pool.get();
+
+        assertEquals( "Pool Size", 1, pool.getSize() );
+        assertEquals( "Thread Cache Count", 0, pool.getThreadCacheCount() );
+
+        pool.put( p );
+
+        assertEquals( "Thread Cache Count after put", 1, pool.getThreadCacheCount() );
+
+        pool.dispose();
+    }
+
+    public void testDeadThreadCacheReturnsPoolable() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        final ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 0, false, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        // Park a Poolable in the cache of a thread which then dies.
+        runGetPut( pool );
+
+        // Get a second Poolable in this thread and return it, which creates this
+        //  thread's cache and prunes the dead one.
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        pool.put( p1 );
+
+        assertEquals( "1) Pool Size", 2, pool.getSize() );
+        assertEquals( "1) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "1) Thread Cache Count", 1, pool.getThreadCacheCount() );
+
+        pool.put( p2 );
+
+        // Both Poolables must still be available.
+        assertEquals( "2) Pool Ready Size", 2, pool.getReadySize() );
+        assertNotNull( pool.get() );
+        assertNotNull( pool.get() );
+        assertEquals( "3) Pool Size", 2, pool.getSize() );
+        assertEquals( "3) Pool Ready Size", 0, pool.getReadySize() );
+
+        pool.dispose();
+    }
+
+    public void testTrimDeadThreadCaches() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        final ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 0, false, false, 0, 60000 );
+
+        pool.enableLogging( logger );
+
+        runGetPut( pool );
+
+        assertEquals( "1) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "1) Thread Cache Count", 1, pool.getThreadCacheCount() );
+
+        // The first trim moves the Poolable out of the dead cache so it can age.
+        assertEquals( "First trim", 0, pool.trim() );
+        assertEquals( "2) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "2) Thread Cache Count", 0, pool.getThreadCacheCount() );
+
+        assertEquals( "Second trim", 1, pool.trim() );
+        assertEquals( "3) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 0, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testShortLivedThreads() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        final ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 4, true, true, 5000, 0 );
+
+        pool.enableLogging( logger );
+
+        // Waves of threads sharing a strict pool, none of which outlive their wave.
+        final int[] failures = new int[ 1 ];
+        for( int wave = 0; wave < 10; wave++ )
+        {
+            Thread[] threads = new Thread[ 8 ];
+            for( int i = 0; i < threads.length; i++ )
+            {
+                threads[ i ] = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            for( int j = 0; j < 10; j++ )
+                            {
+                                Poolable p = pool.get();
+                                Thread.yield();
+                                pool.put( p );
+                            }
+                        }
+                        catch( Exception e )
+                        {
+                            synchronized( failures )
+                            {
+                                failures[ 0 ]++;
+                            }
+                        }
+                    }
+                };
+                threads[ i ].start();
+            }
+            for( int i = 0; i < threads.length; i++ )
+            {
+                threads[ i ].join();
+            }
+
+            assertTrue( wave + ") Pool Size", pool.getSize() <= 4 );
+            assertEquals( wave + ") Pool Ready Size", pool.getSize(), pool.getReadySize() );
+            assertTrue( wave + ") Thread Cache Count", pool.getThreadCacheCount() <= threads.length );
+        }
+
+        assertEquals( "Failed gets", 0, failures[ 0 ] );
+
+        // All of the Poolables remain usable from a new thread.
+        int size = pool.getSize();
+        Poolable[] poolables = new Poolable[ size ];
+        for( int i = 0; i < size; i++ )
+        {
+            poolables[ i ] = pool.get();
+        }
+        assertEquals( "Pool Size", size, pool.getSize() );
+        for( int i = 0; i < size; i++ )
+        {
+            pool.put( poolables[ i ] );
+        }
+
+        pool.dispose();
+    }
+
+    public void testTrim() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 0, false, false, 0, 60000 );
+
+        pool.enableLogging( logger );
+
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        pool.put( p1 );
+        pool.put( p2 );
+
+        assertEquals( "1) Pool Ready Size", 2, pool.getReadySize() );
+
+        assertEquals( "First trim", 0, pool.trim() );
+        assertEquals( "2) Pool Ready Size", 2, pool.getReadySize() );
+
+        assertEquals( "Second trim", 2, pool.trim() );
+        assertEquals( "3) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 0, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testGrowShrink() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 3, true, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        pool.grow( 5 );
+
+        assertEquals( "1) Pool Ready Size", 3, pool.getReadySize() );
+        assertEquals( "1) Pool Size", 3, pool.getSize() );
+
+        pool.shrink( 2 );
+
+        assertEquals( "2) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testFailingGets() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( FailingPoolableTestObject.class, logger );
+        ConcurrentResourceLimitingPool pool =
+            new ConcurrentResourceLimitingPool( factory, 3, true, true, 5000, 0 );
+
+        pool.enableLogging( logger );
+
+        for( int i = 1; i <= 4; i++ )
+        {
+            try
+            {
+                pool.get();
+                fail( i + ") call to get should have failed." );
+            }
+            catch ( IllegalStateException e )
+            {
+                // Expected
+            }
+
+            assertEquals( i + ") Pool Ready Size", 0, pool.getReadySize() );
+            assertEquals( i + ") Pool Size", 0, pool.getSize() );
+        }
+
+        logger.debug( "OK" );
+
+        pool.dispose();
+
+        // Make sure the logger output check out.
+        assertEquals( "Logger output",
+                      "DEBUG - OK\n",
+                      logger.toString()
+        );
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Gets and puts a Poolable from a new thread, returning once that thread has died.
+     */
+    private static void runGetPut( final ConcurrentResourceLimitingPool pool )
+        throws InterruptedException
+    {
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    pool.put( pool.get() );
+                }
+                catch( Exception e )
+                {
+                    // Detected by the callers' size checks.
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+    }
+}
@@ -18,6 +18,11 @@
  */
 package org.apache.avalon.excalibur.pool.test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import junit.framework.TestCase;
 
 import org.apache.avalon.excalibur.pool.Poolable;
@@ -269,5 +274,123 @@ public final class ResourceLimitingPoolTestCase extends TestCase
                       logger.toString()
         );
     }
-}
 
+    public void testFairHandOff() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        final ResourceLimitingPool pool =
+            new ResourceLimitingPool( factory, 1, true, true, 0, 0, true );
+
+        pool.enableLogging( logger );
+
+        Poolable p = pool.get();
+
+        final List order = Collections.synchronizedList( new ArrayList() );
+        Thread[] threads = new Thread[ 3 ];
+        for( int i = 0; i < threads.length; i++ )
+        {
+            final Integer id = new Integer( i );
+            threads[ i ] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        Poolable p = pool.get();
+                        order.add( id );
+                        pool.put( p );
+                    }
+                    catch( Exception e )
+                    {
+                        order.add( e );
+                    }
+                }
+            };
+
+            // Start the threads one at a time so that they block in a known order.
+            threads[ i ].start();
+            Thread.sleep( 200 );
+        }
+
+        assertEquals( "1) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "1) Pool Size", 1, pool.getSize() );
+
+        pool.put( p );
+
+        for( int i = 0; i < threads.length; i++ )
+        {
+            threads[ i ].join( 5000 );
+        }
+
+        assertEquals( "Hand off order",
+                      Arrays.asList( new Object[] { new Integer( 0 ), new Integer( 1 ), new Integer( 2 ) } ),
+                      order );
+        assertEquals( "2) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testMinReady() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ResourceLimitingPool pool =
+            new ResourceLimitingPool( factory, 4, false, false, 0, 1000000 );
+
+        pool.enableLogging( logger );
+
+        // Prefill the pool.
+        pool.setMinReady( 3 );
+        waitForReadySize( pool, 3 );
+
+        assertEquals( "1) Pool Ready Size", 3, pool.getReadySize() );
+        assertEquals( "1) Pool Size", 3, pool.getSize() );
+
+        // Taking a poolable should cause the pool to be topped back up.
+        Poolable p1 = pool.get();
+        waitForReadySize( pool, 3 );
+
+        assertEquals( "2) Pool Ready Size", 3, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 4, pool.getSize() );
+
+        // The pool is full, so it can not be topped back up any further.
+        Poolable p2 = pool.get();
+        Thread.sleep( 200 );
+
+        assertEquals( "3) Pool Ready Size", 2, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 4, pool.getSize() );
+
+        pool.put( p1 );
+        pool.put( p2 );
+
+        // Trimming must not remove the poolables needed to maintain the minimum.
+        assertEquals( "1) Trim Count", 1, pool.trim() );
+        assertEquals( "2) Trim Count", 0, pool.trim() );
+        assertEquals( "3) Trim Count", 0, pool.trim() );
+
+        assertEquals( "4) Pool Ready Size", 3, pool.getReadySize() );
+        assertEquals( "4) Pool Size", 3, pool.getSize() );
+
+        pool.dispose();
+
+        assertEquals( "5) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "5) Pool Size", 0, pool.getSize() );
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    private void waitForReadySize( ResourceLimitingPool pool, int readySize )
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while( ( pool.getReadySize() < readySize ) && ( System.currentTimeMillis() < end ) )
+        {
+            Thread.sleep( 10 );
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.pool.ObjectFactory;
+import org.apache.avalon.excalibur.pool.Poolable;
+import org.apache.avalon.excalibur.pool.ShardedPool;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
+ * @since 2.2.3
+ */
+public final class ShardedPoolTestCase extends TestCase
+{
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    public ShardedPoolTestCase()
+    {
+        this( "ShardedPool Test Case" );
+    }
+
+    public ShardedPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    /*---------------------------------------------------------------
+     * TestCases
+     *-------------------------------------------------------------*/
+    public void testSingleGetPutPoolCheck() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ShardedPool pool = new ShardedPool( factory, 4, 0, false, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        assertEquals( "1) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "1) Pool Size", 0, pool.getSize() );
+
+        Poolable p1 = pool.get();
+
+        assertEquals( "2) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        pool.put( p1 );
+
+        assertEquals( "3) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 1, pool.getSize() );
+
+        Poolable p2 = pool.get();
+
+        assertSame( "Pooled Object reuse check", p1, p2 );
+
+        pool.put( p2 );
+        pool.dispose();
+
+        assertEquals( "4) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "4) Pool Size", 0, pool.getSize() );
+    }
+
+    public void testMaxNotStrict() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ShardedPool pool = new ShardedPool( factory, 4, 1, false, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+
+        assertEquals( "1) Pool Size", 2, pool.getSize() );
+
+        pool.put( p1 );
+        pool.put( p2 );
+
+        // The first Poolable returned does not fit in the pool so it is removed.
+        assertEquals( "2) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testMaxStrictAcrossShards() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ShardedPool pool = new ShardedPool( factory, 4, 3, true, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        Poolable p3 = pool.get();
+        try
+        {
+            pool.get();
+            fail( "Call to get should have failed." );
+        }
+        catch( Exception e )
+        {
+            // Expected
+        }
+
+        assertEquals( "Pool Size", 3, pool.getSize() );
+
+        pool.put( p1 );
+        pool.put( p2 );
+        pool.put( p3 );
+
+        assertEquals( "Pool Ready Size", 3, pool.getReadySize() );
+
+        pool.dispose();
+    }
+
+    public void testStealFromOtherShard() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        final ShardedPool pool = new ShardedPool( factory, 64, 1, true, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        final Poolable[] borrowed = new Poolable[ 1 ];
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    borrowed[ 0 ] = pool.get();
+                    pool.put( borrowed[ 0 ] );
+                }
+                catch( Exception e )
+                {
+                    borrowed[ 0 ] = null;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertNotNull( "Poolable borrowed by the other thread", borrowed[ 0 ] );
+        assertEquals( "1) Pool Ready Size", 1, pool.getReadySize() );
+
+        // The Poolable is most likely in a different shard, but the pool is full, so it
+        //  must be found there rather than created.
+        Poolable p = pool.get();
+
+        assertSame( "Poolable stolen from the other shard", borrowed[ 0 ], p );
+        assertEquals( "2) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+        assertTrue( "Steal Count", pool.getStealCount() <= 1 );
+
+        pool.put( p );
+        pool.dispose();
+    }
+
+    public void testBlockingPut() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        final ShardedPool pool = new ShardedPool( factory, 4, 1, true, true, 5000, 0 );
+
+        pool.enableLogging( logger );
+
+        final Poolable p1 = pool.get();
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep( 200 );
+                }
+                catch( InterruptedException e )
+                {
+                }
+                pool.put( p1 );
+            }
+        };
+        thread.start();
+
+        long start = System.currentTimeMillis();
+        Poolable p2 = pool.get();
+        long dur = System.currentTimeMillis() - start;
+
+        assertSame( "Poolable handed over by the other thread", p1, p2 );
+        assertTrue( "Blocked for " + dur + "ms, should have been at least 150ms.", dur >= 150 );
+        assertEquals( "Pool Size", 1, pool.getSize() );
+
+        thread.join();
+        pool.put( p2 );
+        pool.dispose();
+    }
+
+    public void testBlockingTimeout() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ShardedPool pool = new ShardedPool( factory, 4, 1, true, true, 100, 0 );
+
+        pool.enableLogging( logger );
+
+        Poolable p1 = pool.get();
+        long start = System.currentTimeMillis();
+        try
+        {
+            pool.get();
+            fail( "Call to get should have timed out." );
+        }
+        catch( Exception e )
+        {
+            // Expected
+        }
+        long dur = System.currentTimeMillis() - start;
+
+        assertTrue( "Blocked for " + dur + "ms, should have been at least 100ms.", dur >= 100 );
+
+        pool.put( p1 );
+        pool.dispose();
+    }
+
+    public void testTrim() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        ClassInstanceObjectFactory factory =
+            new ClassInstanceObjectFactory( PoolableTestObject.class, logger );
+        ShardedPool pool = new ShardedPool( factory, 4, 0, false, false, 0, 60000 );
+
+        pool.enableLogging( logger );
+
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        pool.put( p1 );
+        pool.put( p2 );
+
+        assertEquals( "1) Pool Ready Size", 2, pool.getReadySize() );
+
+        assertEquals( "First trim", 0, pool.trim() );
+        assertEquals( "2) Pool Ready Size", 2, pool.getReadySize() );
+
+        assertEquals( "Second trim", 2, pool.trim() );
+        assertEquals( "3) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 0, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testOverflowDecommissions() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        CountingObjectFactory factory = new CountingObjectFactory();
+        ShardedPool pool = new ShardedPool( factory, 4, 1, false, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        pool.put( p1 );
+
+        // p1 does not fit, so it is decommissioned right away.
+        assertEquals( "1) Decommissioned", 1, factory.m_decommissioned.get() );
+        assertEquals( "1) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "1) Pool Size", 1, pool.getSize() );
+
+        pool.put( p2 );
+
+        assertEquals( "2) Decommissioned", 1, factory.m_decommissioned.get() );
+        assertEquals( "2) Pool Ready Size", 1, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        // The shard may create a new Poolable again now that the old one is gone.
+        Poolable p3 = pool.get();
+        Poolable p4 = pool.get();
+
+        assertSame( "Pooled Object reuse check", p2, p3 );
+        assertEquals( "3) Created", 3, factory.m_created.get() );
+        assertEquals( "3) Pool Size", 2, pool.getSize() );
+
+        pool.put( p3 );
+        pool.put( p4 );
+        pool.dispose();
+
+        assertEquals( "4) Decommissioned", 3, factory.m_decommissioned.get() );
+        assertEquals( "4) Pool Size", 0, pool.getSize() );
+
+        // Every shard must have accounted for the removed Poolables.
+        assertEquals( "Outstanding objects", -1,
+                      logger.toString().indexOf( "outstanding objects" ) );
+    }
+
+    public void testOverflowFromManyThreads() throws Exception
+    {
+        BufferedLogger logger = new BufferedLogger();
+        final CountingObjectFactory factory = new CountingObjectFactory();
+        final ShardedPool pool = new ShardedPool( factory, 4, 4, false, false, 0, 0 );
+
+        pool.enableLogging( logger );
+
+        // Each thread holds two Poolables at once, so the pool overflows all the time.
+        final int[] failures = new int[ 1 ];
+        Thread[] threads = new Thread[ 16 ];
+        for( int i = 0; i < threads.length; i++ )
+        {
+            threads[ i ] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for( int j = 0; j < 100; j++ )
+                        {
+                            Poolable p1 = pool.get();
+                            Poolable p2 = pool.get();
+                            pool.put( p1 );
+                            pool.put( p2 );
+                        }
+                    }
+                    catch( Exception e )
+                    {
+                        synchronized( failures )
+                        {
+                            failures[ 0 ]++;
+                        }
+                    }
+                }
+            };
+            threads[ i ].start();
+        }
+        for( int i = 0; i < threads.length; i++ )
+        {
+            threads[ i ].join();
+        }
+
+        assertEquals( "Failed gets", 0, failures[ 0 ] );
+        assertTrue( "1) Pool Size", pool.getSize() <= 4 );
+        assertEquals( "1) Pool Ready Size", pool.getSize(), pool.getReadySize() );
+        assertEquals( "1) Live Poolables", pool.getSize(),
+                      factory.m_created.get() - factory.m_decommissioned.get() );
+
+        pool.dispose();
+
+        assertEquals( "2) Pool Size", 0, pool.getSize() );
+        assertEquals( "2) Decommissioned", factory.m_created.get(),
+                      factory.m_decommissioned.get() );
+    }
+
+    /*---------------------------------------------------------------
+     * Inner Classes
+     *-------------------------------------------------------------*/
+    /**
+     * Thread safe ObjectFactory which counts the Poolables it creates and decommissions.
+     */
+    private static final class CountingObjectFactory
+        implements ObjectFactory
+    {
+        private final AtomicInteger m_created = new AtomicInteger();
+        private final AtomicInteger m_decommissioned = new AtomicInteger();
+
+        public Object newInstance() throws Exception
+        {
+            m_created.incrementAndGet();
+            return new PoolableTestObject();
+        }
+
+        public Class getCreatedClass()
+        {
+            return PoolableTestObject.class;
+        }
+
+        public void decommission( Object object ) throws Exception
+        {
+            m_decommissioned.incrementAndGet();
+        }
+    }
+}
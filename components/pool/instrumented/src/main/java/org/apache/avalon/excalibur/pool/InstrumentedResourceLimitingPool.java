@@ -41,6 +41,17 @@ import org.apache.excalibur.instrument.ValueInstrument;
  *  this time.  This means that old poolables will not be removed if get() is never
  *  called.  Applications can optionally call trim() to force old objects to be
  *  trimmed.  See the {@link #trim()} method for details of how trimming works.
+ * <p>
+ * A blocking pool can optionally be made fair.  Threads which block in get() are then
+ *  queued in the order that they arrived, and each Poolable returned with put() is
+ *  handed directly to the thread which has been waiting the longest rather than going
+ *  back into the pool where it could be taken by a newly arriving thread.
+ * <p>
+ * Factories which are slow to create new Poolables can be kept off the critical path by
+ *  setting a minimum number of ready Poolables with {@link #setMinReady(int)}.  Whenever
+ *  the number of ready Poolables drops below that floor, a background thread creates new
+ *  Poolables until it has been reached again, or until the pool holds max Poolables.  The
+ *  floor is also respected by trimming, so idle Poolables needed to maintain it are kept.
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 16:50:37 $
@@ -58,6 +69,15 @@ public class InstrumentedResourceLimitingPool
     public static final String INSTRUMENT_BLOCKS_NAME = "blocks";
     public static final String INSTRUMENT_CREATES_NAME = "creates";
     public static final String INSTRUMENT_DECOMMISSIONS_NAME = "decommissions";
+    public static final String INSTRUMENT_BLOCK_TIME_NAME = "block-time";
+    public static final String INSTRUMENT_BLOCK_TIMEOUTS_NAME = "block-timeouts";
+
+    /**
+     * Upper bounds, in milliseconds, of the buckets of the block time histogram.  Each bucket
+     *  is exposed as a counter instrument named "blocked-under-" followed by the bound, and
+     *  blocks which take longer than the last bound are counted by "blocked-over-10000ms".
+     */
+    private static final long[] BLOCK_TIME_BUCKETS = { 1, 10, 100, 1000, 10000 };
 
     /*---------------------------------------------------------------
      * Protected Fields
@@ -107,6 +127,28 @@ public class InstrumentedResourceLimitingPool
      */
     private final long m_trimInterval;
 
+    /**
+     * Whether or not blocked threads are served in the order that they started waiting.
+     */
+    private final boolean m_fair;
+
+    /**
+     * Queue of Waiters for threads which are blocking in get().  Only used if m_fair is true.
+     */
+    private LinkedList m_waiters;
+
+    /**
+     * The number of ready Poolables which the pool tries to maintain by creating new ones in
+     *  the background.  A value of 0 disables replenishment.
+     */
+    private int m_minReady;
+
+    /**
+     * The background thread which is currently creating Poolables to replenish the pool, or
+     *  null if there is none.
+     */
+    private Thread m_replenisher;
+
     /**
      * The last time that the pool was trimmed.
      */
@@ -161,6 +203,15 @@ public class InstrumentedResourceLimitingPool
     /** Instrument used to profile the number of decommissioned poolables. */
     private CounterInstrument m_decommissionsInstrument;
 
+    /** Instrument used to profile the time, in milliseconds, that each blocked get waited. */
+    private ValueInstrument m_blockTimeInstrument;
+
+    /** Instrument used to profile the number of blocked gets which timed out. */
+    private CounterInstrument m_blockTimeoutsInstrument;
+
+    /** Instruments used to build a histogram of the time that blocked gets waited. */
+    private CounterInstrument[] m_blockTimeHistogramInstruments;
+
     /*---------------------------------------------------------------
      * Constructors
      *-------------------------------------------------------------*/
@@ -186,6 +237,35 @@ public class InstrumentedResourceLimitingPool
                                  boolean blocking,
                                  long blockTimeout,
                                  long trimInterval )
+    {
+        this( factory, max, maxStrict, blocking, blockTimeout, trimInterval, false );
+    }
+
+    /**
+     * Creates a new InstrumentedResourceLimitingPool
+     *
+     * @param factory The ObjectFactory which will be used to create new Poolables as needed by
+     *  the pool.
+     * @param max Maximum number of Poolables which can be stored in the pool, 0 implies no limit.
+     * @param maxStrict true if the pool should never allow more than max Poolable to be created.
+     *  Will cause an exception to be thrown if more than max Poolables are requested and blocking
+     *  is false.
+     * @param blocking true if the pool should cause a thread calling get() to block when Poolables
+     *  are not currently available in the pool.
+     * @param blockTimeout The maximum amount of time, in milliseconds, that a call to get() will
+     *  block before an exception is thrown.  A value of 0 implies an indefinate wait.
+     * @param trimInterval The minimum interval with which old unused poolables will be removed
+     *  from the pool.  A value of 0 will cause the pool to never trim poolables.
+     * @param fair true if blocked threads should be given Poolables in the order that they
+     *  started waiting.
+     */
+    public InstrumentedResourceLimitingPool( final ObjectFactory factory,
+                                 int max,
+                                 boolean maxStrict,
+                                 boolean blocking,
+                                 long blockTimeout,
+                                 long trimInterval,
+                                 boolean fair )
     {
         m_factory = factory;
         m_max = ( max <= 0 ? Integer.MAX_VALUE : max );
@@ -193,6 +273,7 @@ public class InstrumentedResourceLimitingPool
         m_blocking = blocking;
         m_blockTimeout = blockTimeout;
         m_trimInterval = trimInterval;
+        m_fair = fair;
 
         // Create the pool lists.
         m_ready = new LinkedList();
@@ -200,6 +281,10 @@ public class InstrumentedResourceLimitingPool
         {
             m_oldReady = new LinkedList();
         }
+        if( m_fair )
+        {
+            m_waiters = new LinkedList();
+        }
 
         // Initialize the Instrumentable elements.
         m_sizeInstrument = new ValueInstrument( INSTRUMENT_SIZE_NAME );
@@ -209,6 +294,16 @@ public class InstrumentedResourceLimitingPool
         m_blocksInstrument = new CounterInstrument( INSTRUMENT_BLOCKS_NAME );
         m_createsInstrument = new CounterInstrument( INSTRUMENT_CREATES_NAME );
         m_decommissionsInstrument = new CounterInstrument( INSTRUMENT_DECOMMISSIONS_NAME );
+        m_blockTimeInstrument = new ValueInstrument( INSTRUMENT_BLOCK_TIME_NAME );
+        m_blockTimeoutsInstrument = new CounterInstrument( INSTRUMENT_BLOCK_TIMEOUTS_NAME );
+        m_blockTimeHistogramInstruments = new CounterInstrument[ BLOCK_TIME_BUCKETS.length + 1 ];
+        for( int i = 0; i < BLOCK_TIME_BUCKETS.length; i++ )
+        {
+            m_blockTimeHistogramInstruments[ i ] =
+                new CounterInstrument( "blocked-under-" + BLOCK_TIME_BUCKETS[ i ] + "ms" );
+        }
+        m_blockTimeHistogramInstruments[ BLOCK_TIME_BUCKETS.length ] = new CounterInstrument(
+            "blocked-over-" + BLOCK_TIME_BUCKETS[ BLOCK_TIME_BUCKETS.length - 1 ] + "ms" );
     }
 
     /*---------------------------------------------------------------
@@ -261,7 +356,12 @@ public class InstrumentedResourceLimitingPool
                     //  we are not allowed to create any more.
 
                     // Are we allowed to wait for a Poolable to become available?
-                    if( m_blocking )
+                    if( m_blocking && m_fair )
+                    {
+                        // Wait in line for a poolable to be handed to this thread.
+                        poolable = waitForHandOff();
+                    }
+                    else if( m_blocking )
                     {
                         long blockStart = System.currentTimeMillis();
 
@@ -318,6 +418,7 @@ public class InstrumentedResourceLimitingPool
                                             + "available.  Blocked for " + ( now - blockStart )
                                             + "ms. Thread: " + Thread.currentThread().getName() );
                                     }
+                                    m_blockTimeoutsInstrument.increment();
                                     throw new Exception
                                         ( "Could not create enough Components to service your "
                                           + "request (Timed out)." );
@@ -351,9 +452,10 @@ public class InstrumentedResourceLimitingPool
                         poolable = (Poolable)m_ready.removeLast();
                         m_readySize--;
 
+                        long now = System.currentTimeMillis();
+                        recordBlockTime( now - blockStart );
                         if( getLogger().isDebugEnabled() )
                         {
-                            long now = System.currentTimeMillis();
                             getLogger().debug( "Blocked for " + ( now - blockStart ) + "ms "
                                                + "waiting for a Poolable to become available. "
                                                + "Thread: " + Thread.currentThread().getName() );
@@ -380,7 +482,10 @@ public class InstrumentedResourceLimitingPool
                     }
                 }
             }
-            
+
+            // Top the pool back up before it runs dry.
+            replenish();
+
             readySize = getReadySizeSync();
         }
 
@@ -425,6 +530,22 @@ public class InstrumentedResourceLimitingPool
 
                     permanentlyRemovePoolable( poolable );
                 }
+                else if( ( m_waiters != null ) && ( m_waiters.size() > 0 ) )
+                {
+                    // Hand the poolable directly to the thread which has waited the longest.
+                    if( getLogger().isDebugEnabled() )
+                    {
+                        getLogger().debug( "Handed a " + poolable.getClass().getName()
+                                           + " to a blocked thread." );
+                    }
+
+                    Waiter waiter = (Waiter)m_waiters.removeFirst();
+                    waiter.m_poolable = poolable;
+
+                    // Every waiter wakes up, but only the one which was handed the poolable
+                    //  stops waiting.
+                    m_semaphore.notifyAll();
+                }
                 else
                 {
                     // There is room in the pool to keep this poolable.
@@ -568,16 +689,19 @@ public class InstrumentedResourceLimitingPool
      */
     public Instrument[] getInstruments()
     {
-        return new Instrument[]
-        {
-            m_sizeInstrument,
-            m_readySizeInstrument,
-            m_getsInstrument,
-            m_putsInstrument,
-            m_blocksInstrument,
-            m_createsInstrument,
-            m_decommissionsInstrument
-        };
+        Instrument[] instruments = new Instrument[ 9 + m_blockTimeHistogramInstruments.length ];
+        instruments[ 0 ] = m_sizeInstrument;
+        instruments[ 1 ] = m_readySizeInstrument;
+        instruments[ 2 ] = m_getsInstrument;
+        instruments[ 3 ] = m_putsInstrument;
+        instruments[ 4 ] = m_blocksInstrument;
+        instruments[ 5 ] = m_createsInstrument;
+        instruments[ 6 ] = m_decommissionsInstrument;
+        instruments[ 7 ] = m_blockTimeInstrument;
+        instruments[ 8 ] = m_blockTimeoutsInstrument;
+        System.arraycopy( m_blockTimeHistogramInstruments, 0, instruments, 9,
+                          m_blockTimeHistogramInstruments.length );
+        return instruments;
     }
 
     /**
@@ -607,6 +731,7 @@ public class InstrumentedResourceLimitingPool
     {
         m_size--;
         removePoolable( poolable );
+        handOffRoom();
     }
 
     /**
@@ -643,6 +768,40 @@ public class InstrumentedResourceLimitingPool
         }
     }
 
+    /**
+     * Returns the number of ready Poolables which the pool tries to maintain.
+     */
+    public int getMinReady()
+    {
+        synchronized( m_semaphore )
+        {
+            return m_minReady;
+        }
+    }
+
+    /**
+     * Sets the number of ready Poolables which the pool tries to maintain.  New Poolables
+     *  are created on a background thread so that threads calling get() do not have to
+     *  wait for the ObjectFactory.  Setting a value on a new pool will prefill it.
+     *
+     * @param minReady The number of ready Poolables to maintain.  Values greater than the
+     *  maximum size of the pool are treated as the maximum.  A value of 0 disables
+     *  replenishment.
+     */
+    public void setMinReady( int minReady )
+    {
+        if( minReady < 0 )
+        {
+            throw new IllegalArgumentException( "minReady must not be negative: " + minReady );
+        }
+
+        synchronized( m_semaphore )
+        {
+            m_minReady = Math.min( minReady, m_max );
+            replenish();
+        }
+    }
+
     /**
      * Create a new poolable instance by by calling the newInstance method
      *  on the pool's ObjectFactory.
@@ -650,7 +809,9 @@ public class InstrumentedResourceLimitingPool
      * This is the method to override when you need to enforce creational
      *  policies.
      * <p>
-     * This method is only called by threads that have m_semaphore locked.
+     * This method is called by threads that have m_semaphore locked, except when the
+     *  pool is being replenished in the background.  The new Poolable has already been
+     *  counted in the size of the pool in that case.
      */
     protected Poolable newPoolable() throws Exception
     {
@@ -658,7 +819,8 @@ public class InstrumentedResourceLimitingPool
 
         // Notify the InstrumentManager
         m_createsInstrument.increment();
-        // The size is incremented after this call in case an error is thrown.
+        // The size is incremented after this call in case an error is thrown.  The
+        //  replenisher corrects the value once it has added the new poolable.
         m_sizeInstrument.setValue( getSize() + 1 );
 
         return (Poolable)obj;
@@ -692,6 +854,147 @@ public class InstrumentedResourceLimitingPool
         }
     }
 
+    /**
+     * Blocks until a Poolable is handed to the calling thread by put(), or until room is
+     *  freed up for the thread to create a new Poolable.  Threads are served in the order
+     *  that they called this method.
+     * <p>
+     * This method is only called by threads that have m_semaphore locked.
+     *
+     * @return the Poolable for the calling thread.
+     */
+    private Poolable waitForHandOff() throws Exception
+    {
+        long blockStart = System.currentTimeMillis();
+
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Blocking until a Poolable is available. "
+                               + "Thread: " + Thread.currentThread().getName() );
+        }
+
+        // Notify the InstrumentManager
+        m_blocksInstrument.increment();
+
+        Waiter waiter = new Waiter();
+        m_waiters.addLast( waiter );
+        try
+        {
+            while( ( waiter.m_poolable == null ) && !waiter.m_mayCreate )
+            {
+                // The dispose() method might have woken us up.
+                if( m_disposed )
+                {
+                    throw new IllegalStateException( "Already Disposed" );
+                }
+
+                long blockWait = 0;
+                if( m_blockTimeout > 0 )
+                {
+                    long now = System.currentTimeMillis();
+                    blockWait = m_blockTimeout - ( now - blockStart );
+                    if( blockWait <= 0 )
+                    {
+                        // We timed out waiting.
+                        if( getLogger().isDebugEnabled() )
+                        {
+                            getLogger().debug(
+                                "Timed out waiting for a Poolable to become "
+                                + "available.  Blocked for " + ( now - blockStart )
+                                + "ms. Thread: " + Thread.currentThread().getName() );
+                        }
+                        m_blockTimeoutsInstrument.increment();
+                        throw new Exception
+                            ( "Could not create enough Components to service your "
+                              + "request (Timed out)." );
+                    }
+                }
+
+                try
+                {
+                    m_semaphore.wait( blockWait );
+                }
+                catch( InterruptedException e )
+                {
+                }
+            }
+        }
+        finally
+        {
+            if( ( waiter.m_poolable == null ) && !waiter.m_mayCreate )
+            {
+                // Giving up, so make sure that nothing is handed to this thread.
+                m_waiters.remove( waiter );
+            }
+        }
+
+        Poolable poolable = waiter.m_poolable;
+        if( waiter.m_mayCreate )
+        {
+            // The room for the new poolable was already counted when it was freed up.  Give
+            //  it back while the poolable is created so that m_size is only incremented
+            //  once the poolable exists, just as it is when a get() does not block.
+            m_size--;
+            try
+            {
+                poolable = newPoolable();
+            }
+            catch( Exception e )
+            {
+                handOffRoom();
+                throw e;
+            }
+            m_size++;
+        }
+
+        long now = System.currentTimeMillis();
+        recordBlockTime( now - blockStart );
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Blocked for " + ( now - blockStart ) + "ms "
+                               + "waiting for a Poolable to become available. "
+                               + "Thread: " + Thread.currentThread().getName() );
+        }
+
+        return poolable;
+    }
+
+    /**
+     * Records the time that a get() was blocked in the block time instruments.
+     *
+     * @param blockTime The time, in milliseconds, that the get() was blocked.
+     */
+    private void recordBlockTime( final long blockTime )
+    {
+        m_blockTimeInstrument.setValue( (int)Math.min( blockTime, Integer.MAX_VALUE ) );
+
+        int bucket = 0;
+        while( ( bucket < BLOCK_TIME_BUCKETS.length )
+            && ( blockTime >= BLOCK_TIME_BUCKETS[ bucket ] ) )
+        {
+            bucket++;
+        }
+        m_blockTimeHistogramInstruments[ bucket ].increment();
+    }
+
+    /**
+     * In a fair pool, room which has been freed up belongs to the longest waiting thread.
+     *  The room is counted in m_size right away so that no other thread can take it.
+     * <p>
+     * This method is only called by threads that have m_semaphore locked.
+     */
+    private void handOffRoom()
+    {
+        if( ( m_waiters != null ) && ( m_waiters.size() > 0 ) && !m_disposed
+            && ( m_size < m_max ) )
+        {
+            Waiter waiter = (Waiter)m_waiters.removeFirst();
+            waiter.m_mayCreate = true;
+            m_size++;
+            m_semaphore.notifyAll();
+        }
+    }
+
     /**
      * Forces the pool to trim, remove, old Poolables from the pool.  If the Pool
      *  was created with a non-zero value for trimInterval, then this method will
@@ -744,25 +1047,38 @@ public class InstrumentedResourceLimitingPool
     {
         int trimCount = 0;
 
+        // Old poolables which are needed to maintain the minimum number of ready poolables
+        //  are kept rather than trimmed and then created again.
+        int keepCount = Math.min( m_oldReadySize, Math.max( 0, m_minReady - m_readySize ) );
+
         // Remove any poolables in the m_oldReady list.
-        if( m_oldReadySize > 0 )
+        if( m_oldReadySize > keepCount )
         {
             if( getLogger().isDebugEnabled() )
             {
-                getLogger().debug( "Trimming " + m_oldReadySize + " idle objects from pool." );
+                getLogger().debug( "Trimming " + ( m_oldReadySize - keepCount )
+                                   + " idle objects from pool." );
             }
 
-            trimCount = m_oldReadySize;
+            trimCount = m_oldReadySize - keepCount;
 
-            for( Iterator iter = m_oldReady.iterator(); iter.hasNext(); )
+            while( m_oldReadySize > keepCount )
             {
-                Poolable poolable = (Poolable)iter.next();
-                iter.remove();
+                Poolable poolable = (Poolable)m_oldReady.removeFirst();
                 m_oldReadySize--;
                 permanentlyRemovePoolable( poolable );
             }
         }
 
+        // Move any kept poolables to the front of the m_ready list so that they will be the
+        //  last ones to be used.
+        while( m_oldReadySize > 0 )
+        {
+            m_ready.addFirst( m_oldReady.removeLast() );
+            m_oldReadySize--;
+            m_readySize++;
+        }
+
         // Move the poolables in m_ready into m_oldReady (swap lists)
         if( getLogger().isDebugEnabled() )
         {
@@ -776,6 +1092,150 @@ public class InstrumentedResourceLimitingPool
 
         m_lastTrim = System.currentTimeMillis();
 
+        // Replace any poolables that were needed to maintain the minimum number of ready
+        //  poolables.
+        replenish();
+
         return trimCount;
     }
+
+    /**
+     * Starts a background thread to create new Poolables if there are fewer than m_minReady
+     *  Poolables ready in the pool.  Does nothing if the thread is already running.
+     * <p>
+     * This method is only called by threads that have m_semaphore locked.
+     */
+    private void replenish()
+    {
+        if( ( m_replenisher == null ) && isReplenishNeeded() )
+        {
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Replenishing the pool. Ready: "
+                                   + ( m_readySize + m_oldReadySize ) + ", minimum: "
+                                   + m_minReady + "." );
+            }
+
+            m_replenisher = new Thread( new Replenisher(),
+                                        "InstrumentedResourceLimitingPool Replenisher" );
+            m_replenisher.setDaemon( true );
+            m_replenisher.start();
+        }
+    }
+
+    /**
+     * Returns true if there are fewer than m_minReady Poolables ready in the pool and there
+     *  is room to create more.
+     * <p>
+     * This method is only called by threads that have m_semaphore locked.
+     */
+    private boolean isReplenishNeeded()
+    {
+        return !m_disposed && ( m_readySize + m_oldReadySize < m_minReady ) && ( m_size < m_max );
+    }
+
+    /*---------------------------------------------------------------
+     * Inner Classes
+     *-------------------------------------------------------------*/
+    /**
+     * Creates new Poolables in the background until the pool holds m_minReady ready
+     *  Poolables.  The ObjectFactory is called without m_semaphore locked so that other
+     *  threads can keep using the pool in the mean time.
+     */
+    private final class Replenisher
+        implements Runnable
+    {
+        public void run()
+        {
+            while( true )
+            {
+                synchronized( m_semaphore )
+                {
+                    if( !isReplenishNeeded() )
+                    {
+                        m_replenisher = null;
+                        return;
+                    }
+
+                    // Count the new poolable right away so that no other thread can take
+                    //  its room in the pool.
+                    m_size++;
+                }
+
+                Poolable poolable;
+                try
+                {
+                    poolable = newPoolable();
+                }
+                catch( Exception e )
+                {
+                    // Give up until the pool needs to be replenished again rather than
+                    //  hammering a failing ObjectFactory.
+                    getLogger().warn( "Unable to create a new Poolable to replenish the pool.",
+                                      e );
+                    synchronized( m_semaphore )
+                    {
+                        m_size--;
+                        m_replenisher = null;
+                        handOffRoom();
+                    }
+                    m_sizeInstrument.setValue( getSize() );
+                    return;
+                }
+
+                int size;
+                int readySize;
+                synchronized( m_semaphore )
+                {
+                    if( m_disposed )
+                    {
+                        permanentlyRemovePoolable( poolable );
+                    }
+                    else if( ( m_waiters != null ) && ( m_waiters.size() > 0 ) )
+                    {
+                        Waiter waiter = (Waiter)m_waiters.removeFirst();
+                        waiter.m_poolable = poolable;
+                        m_semaphore.notifyAll();
+                    }
+                    else
+                    {
+                        m_ready.addLast( poolable );
+                        m_readySize++;
+
+                        // Let any waiting threads know that a poolable has become available.
+                        if( m_blocking )
+                        {
+                            m_semaphore.notify();
+                        }
+                    }
+
+                    if( getLogger().isDebugEnabled() )
+                    {
+                        getLogger().debug( "Created a new " + poolable.getClass().getName()
+                                           + " to replenish the pool." );
+                    }
+
+                    size = getSize();
+                    readySize = getReadySizeSync();
+                }
+
+                // Notify the InstrumentManager
+                m_sizeInstrument.setValue( size );
+                m_readySizeInstrument.setValue( readySize );
+            }
+        }
+    }
+
+    /**
+     * A thread which is blocking in a fair pool.  Only accessed by threads that have
+     *  m_semaphore locked.
+     */
+    private static final class Waiter
+    {
+        /** Poolable handed to the waiting thread by put(). */
+        Poolable m_poolable;
+
+        /** Set when the waiting thread has been given room to create a new Poolable. */
+        boolean m_mayCreate;
+    }
 }
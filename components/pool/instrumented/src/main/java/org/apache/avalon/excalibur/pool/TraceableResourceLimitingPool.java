@@ -18,14 +18,29 @@
  */
 package org.apache.avalon.excalibur.pool;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.ValueInstrument;
+
 /**
  * A ResourceLimitingPool which can be configured so that it will trace the
  *  where get is being called fron.  The pool can then be queried for its
  *  status.
+ * <p>
+ * Recording the stack trace of every get is too expensive for a production system, so
+ *  the pool can instead be told to only record the stack trace of 1 in every N gets.  The
+ *  time at which each Poolable was borrowed is still recorded for every get, which makes
+ *  it possible to detect leaks cheaply.  The system clock is only read when tracing or
+ *  leak detection is enabled.  If a leak threshold is set, then any Poolable
+ *  which is held for longer than the threshold is flagged as a possible leak.  Leaks are
+ *  logged as warnings, counted by the "leaks" instrument and can be listed with
+ *  {@link #dumpLeaks()}.
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @version CVS $Revision: 1.6 $ $Date: 2004/03/31 08:07:28 $
@@ -34,15 +49,40 @@ import java.util.Map;
 public class TraceableResourceLimitingPool
     extends InstrumentedResourceLimitingPool
 {
+    public static final String INSTRUMENT_BORROW_TIME_NAME = "borrow-time";
+    public static final String INSTRUMENT_LONG_BORROWS_NAME = "long-borrows";
+    public static final String INSTRUMENT_LEAKS_NAME = "leaks";
+
     /*---------------------------------------------------------------
      * Private Fields
      *-------------------------------------------------------------*/
     /** True if tracing is enabled for the pool. */
     private boolean m_tracing;
-    
+
+    /** The stack trace is recorded for 1 in every m_sampleRate gets, 0 for none. */
+    private final int m_sampleRate;
+
+    /** Time in milliseconds after which a borrowed poolable is a possible leak, 0 for never. */
+    private final long m_leakThreshold;
+
+    /** Number of gets since the last one whose stack trace was recorded. */
+    private int m_unsampledGets;
+
+    /** The last time that the pool was checked for leaks. */
+    private long m_lastLeakCheck;
+
     /** Map of elements describing each poolable. */
     private Map m_elementMap;
 
+    /** Instrument used to profile the time, in milliseconds, that each poolable was held. */
+    private ValueInstrument m_borrowTimeInstrument;
+
+    /** Instrument used to profile the number of poolables held longer than the threshold. */
+    private CounterInstrument m_longBorrowsInstrument;
+
+    /** Instrument used to profile the number of poolables flagged as possible leaks. */
+    private CounterInstrument m_leaksInstrument;
+
     /*---------------------------------------------------------------
      * Constructors
      *-------------------------------------------------------------*/
@@ -71,14 +111,92 @@ public class TraceableResourceLimitingPool
                                           long trimInterval,
                                           boolean trace )
     {
+        this( factory, max, maxStrict, blocking, blockTimeout, trimInterval, trace, false );
+    }
 
-        super( factory, max, maxStrict, blocking, blockTimeout, trimInterval );
-        
-        m_tracing = trace;
+    /**
+     * Creates a new TraceableResourceLimitingPool
+     *
+     * @param factory The ObjectFactory which will be used to create new Poolables as needed by
+     *  the pool.
+     * @param max Maximum number of Poolables which can be stored in the pool, 0 implies no limit.
+     * @param maxStrict true if the pool should never allow more than max Poolable to be created.
+     *  Will cause an exception to be thrown if more than max Poolables are requested and blocking
+     *  is false.
+     * @param blocking true if the pool should cause a thread calling get() to block when Poolables
+     *  are not currently available on the pool.
+     * @param blockTimeout The maximum amount of time, in milliseconds, that a call to get() will
+     *  block before an exception is thrown.  A value of 0 implies an indefinate wait.
+     * @param trimInterval The minimum interval with which old unused poolables will be removed
+     *  from the pool.  A value of 0 will cause the pool to never trim poolables.
+     * @param trace True if tracing of gets is enabled for the pool.
+     * @param fair true if blocked threads should be given Poolables in the order that they
+     *  started waiting.
+     */
+    public TraceableResourceLimitingPool( final ObjectFactory factory,
+                                          int max,
+                                          boolean maxStrict,
+                                          boolean blocking,
+                                          long blockTimeout,
+                                          long trimInterval,
+                                          boolean trace,
+                                          boolean fair )
+    {
+        this( factory, max, maxStrict, blocking, blockTimeout, trimInterval, fair,
+              ( trace ? 1 : 0 ), 0 );
+    }
+
+    /**
+     * Creates a new TraceableResourceLimitingPool which samples the stack traces of gets
+     *  and detects leaked poolables.
+     *
+     * @param factory The ObjectFactory which will be used to create new Poolables as needed by
+     *  the pool.
+     * @param max Maximum number of Poolables which can be stored in the pool, 0 implies no limit.
+     * @param maxStrict true if the pool should never allow more than max Poolable to be created.
+     *  Will cause an exception to be thrown if more than max Poolables are requested and blocking
+     *  is false.
+     * @param blocking true if the pool should cause a thread calling get() to block when Poolables
+     *  are not currently available on the pool.
+     * @param blockTimeout The maximum amount of time, in milliseconds, that a call to get() will
+     *  block before an exception is thrown.  A value of 0 implies an indefinate wait.
+     * @param trimInterval The minimum interval with which old unused poolables will be removed
+     *  from the pool.  A value of 0 will cause the pool to never trim poolables.
+     * @param fair true if blocked threads should be given Poolables in the order that they
+     *  started waiting.
+     * @param sampleRate The stack trace of 1 in every sampleRate gets will be recorded.  A value
+     *  of 1 traces every get and a value of 0 never records stack traces.
+     * @param leakThreshold The time, in milliseconds, after which a Poolable which has not been
+     *  returned to the pool is flagged as a possible leak.  A value of 0 disables leak detection.
+     */
+    public TraceableResourceLimitingPool( final ObjectFactory factory,
+                                          int max,
+                                          boolean maxStrict,
+                                          boolean blocking,
+                                          long blockTimeout,
+                                          long trimInterval,
+                                          boolean fair,
+                                          int sampleRate,
+                                          long leakThreshold )
+    {
+        super( factory, max, maxStrict, blocking, blockTimeout, trimInterval, fair );
+
+        if( sampleRate < 0 )
+        {
+            throw new IllegalArgumentException( "sampleRate must not be negative: " + sampleRate );
+        }
+
+        m_sampleRate = sampleRate;
+        m_leakThreshold = ( leakThreshold < 0 ? 0 : leakThreshold );
+        m_tracing = ( m_sampleRate > 0 ) || ( m_leakThreshold > 0 );
         if ( m_tracing )
         {
             m_elementMap = new HashMap();
         }
+
+        m_borrowTimeInstrument = new ValueInstrument( INSTRUMENT_BORROW_TIME_NAME );
+        m_longBorrowsInstrument = new CounterInstrument( INSTRUMENT_LONG_BORROWS_NAME );
+        m_leaksInstrument = new CounterInstrument( INSTRUMENT_LEAKS_NAME );
     }
 
     /*---------------------------------------------------------------
@@ -108,7 +226,22 @@ public class TraceableResourceLimitingPool
                     element = new PoolElement( poolable );
                     m_elementMap.put( poolable, element );
                 }
-                element.trace();
+
+                // Only a sample of the gets pay for a stack trace.
+                boolean sample = false;
+                if ( ( m_sampleRate > 0 ) && ( ++m_unsampledGets >= m_sampleRate ) )
+                {
+                    m_unsampledGets = 0;
+                    sample = true;
+                }
+
+                long now = System.currentTimeMillis();
+                element.trace( sample, now );
+
+                if ( ( m_leakThreshold > 0 ) && ( now - m_lastLeakCheck >= m_leakThreshold ) )
+                {
+                    checkForLeaks( now );
+                }
                 
                 return poolable;
             }
@@ -135,8 +268,21 @@ public class TraceableResourceLimitingPool
                 {
                     getLogger().error( "PoolElement not found in put for poolable: " + poolable );
                 }
-                else
+                else if ( element.m_thread != null )
                 {
+                    long borrowTime = System.currentTimeMillis() - element.m_time;
+                    m_borrowTimeInstrument.setValue(
+                        (int)Math.min( borrowTime, Integer.MAX_VALUE ) );
+                    if ( ( m_leakThreshold > 0 ) && ( borrowTime > m_leakThreshold ) )
+                    {
+                        m_longBorrowsInstrument.increment();
+                        if ( element.m_leak && getLogger().isInfoEnabled() )
+                        {
+                            getLogger().info( "Possible leak of " + poolable + " was returned "
+                                + "to the pool after " + borrowTime + "ms." );
+                        }
+                    }
+
                     element.clear();
                 }
                 
@@ -173,11 +319,34 @@ public class TraceableResourceLimitingPool
         super.removePoolable( poolable );
     }
 
+    /**
+     * Obtain a reference to all the Instruments that the Instrumentable object
+     *  wishes to expose.  All sampling is done directly through the
+     *  Instruments as opposed to the Instrumentable interface.
+     *
+     * @return An array of the Instruments available for profiling.  Should
+     *         never be null.  If there are no Instruments, then
+     *         EMPTY_INSTRUMENT_ARRAY can be returned.  This should never be
+     *         the case though unless there are child Instrumentables with
+     *         Instruments.
+     */
+    public Instrument[] getInstruments()
+    {
+        Instrument[] superInstruments = super.getInstruments();
+        Instrument[] instruments = new Instrument[ superInstruments.length + 3 ];
+        System.arraycopy( superInstruments, 0, instruments, 0, superInstruments.length );
+        instruments[ superInstruments.length ] = m_borrowTimeInstrument;
+        instruments[ superInstruments.length + 1 ] = m_longBorrowsInstrument;
+        instruments[ superInstruments.length + 2 ] = m_leaksInstrument;
+        return instruments;
+    }
+
     /*---------------------------------------------------------------
      * Public Methods
      *-------------------------------------------------------------*/
     /**
-     * Returns a snapshot of the current state of the pool.
+     * Returns a snapshot of the current state of the pool.  The trace exception of a
+     *  Poolable is null if the stack trace of its get was not sampled.
      *
      * @return A snapshot of the current pool state.
      */
@@ -226,6 +395,86 @@ public class TraceableResourceLimitingPool
             throw new IllegalStateException( "Trace is disabled for this pool." );
         }
     }
+
+    /**
+     * Returns a description of each Poolable which has been held for longer than the leak
+     *  threshold, including the stack trace of the get if it was recorded.
+     *
+     * @return A description of the possible leaks.
+     */
+    public String dumpLeaks()
+    {
+        if ( m_leakThreshold <= 0 )
+        {
+            throw new IllegalStateException( "Leak detection is disabled for this pool." );
+        }
+
+        StringWriter buffer = new StringWriter();
+        PrintWriter out = new PrintWriter( buffer );
+        synchronized ( m_semaphore )
+        {
+            long now = System.currentTimeMillis();
+            checkForLeaks( now );
+
+            int count = 0;
+            for ( Iterator iter = m_elementMap.values().iterator(); iter.hasNext(); )
+            {
+                PoolElement element = (PoolElement)iter.next();
+                if ( element.m_leak )
+                {
+                    out.println( element.m_poolable + " has been held for "
+                        + ( now - element.m_time ) + "ms by " + element.m_thread.getName() );
+                    if ( element.m_traceException != null )
+                    {
+                        element.m_traceException.printStackTrace( out );
+                    }
+                    else
+                    {
+                        out.println( "    (get was not sampled)" );
+                    }
+                    count++;
+                }
+            }
+            out.println( count + " possible leaks of " + getSize() + " poolables." );
+        }
+        out.flush();
+
+        return buffer.toString();
+    }
+
+    /*---------------------------------------------------------------
+     * Private Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Flags any poolables which have been held for longer than the leak threshold.  Each
+     *  poolable is only flagged once for each time that it is borrowed.
+     * <p>
+     * This method is only called by threads that have m_semaphore locked.
+     *
+     * @param now The current time.
+     */
+    private void checkForLeaks( long now )
+    {
+        m_lastLeakCheck = now;
+
+        for ( Iterator iter = m_elementMap.values().iterator(); iter.hasNext(); )
+        {
+            PoolElement element = (PoolElement)iter.next();
+            if ( ( element.m_thread != null ) && !element.m_leak
+                && ( now - element.m_time > m_leakThreshold ) )
+            {
+                element.m_leak = true;
+                m_leaksInstrument.increment();
+
+                if ( getLogger().isWarnEnabled() )
+                {
+                    getLogger().warn( "Possible leak, " + element.m_poolable
+                        + " has been held for " + ( now - element.m_time ) + "ms by "
+                        + element.m_thread.getName(), element.m_traceException );
+                }
+            }
+        }
+    }
     
     /*---------------------------------------------------------------
      * Inner Classes
@@ -282,24 +531,34 @@ public class TraceableResourceLimitingPool
         private Thread m_thread;
         private TraceException m_traceException;
         private long m_time;
+        private boolean m_leak;
         
         private PoolElement( Poolable poolable )
         {
             m_poolable = poolable;
         }
         
-        private void trace()
+        private void trace( boolean sample, long now )
         {
             m_thread = Thread.currentThread();
-            m_traceException = new TraceException();
-            m_traceException.fillInStackTrace();
-            m_time = System.currentTimeMillis();
+            if ( sample )
+            {
+                m_traceException = new TraceException();
+                m_traceException.fillInStackTrace();
+            }
+            else
+            {
+                m_traceException = null;
+            }
+            m_time = now;
+            m_leak = false;
         }
         
         private void clear()
         {
             m_thread = null;
             m_traceException = null;
+            m_leak = false;
         }
     }
     
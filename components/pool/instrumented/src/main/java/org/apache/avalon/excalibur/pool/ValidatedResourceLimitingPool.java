@@ -66,7 +66,38 @@ public class ValidatedResourceLimitingPool
                                           long trimInterval,
                                           boolean trace )
     {
-        super( factory, max, maxStrict, blocking, blockTimeout, trimInterval, trace );
+        this( factory, max, maxStrict, blocking, blockTimeout, trimInterval, trace, false );
+    }
+
+    /**
+     * Creates a new ValidatedResourceLimitingPool
+     *
+     * @param factory The ObjectFactory which will be used to create new Poolables as needed by
+     *  the pool.
+     * @param max Maximum number of Poolables which can be stored in the pool, 0 implies no limit.
+     * @param maxStrict true if the pool should never allow more than max Poolable to be created.
+     *  Will cause an exception to be thrown if more than max Poolables are requested and blocking
+     *  is false.
+     * @param blocking true if the pool should cause a thread calling get() to block when Poolables
+     *  are not currently available on the pool.
+     * @param blockTimeout The maximum amount of time, in milliseconds, that a call to get() will
+     *  block before an exception is thrown.  A value of 0 implies an indefinate wait.
+     * @param trimInterval The minimum interval with which old unused poolables will be removed
+     *  from the pool.  A value of 0 will cause the pool to never trim poolables.
+     * @param trace True if tracing of gets is enabled for the pool.
+     * @param fair true if blocked threads should be given Poolables in the order that they
+     *  started waiting.
+     */
+    public ValidatedResourceLimitingPool( final ObjectFactory factory,
+                                          int max,
+                                          boolean maxStrict,
+                                          boolean blocking,
+                                          long blockTimeout,
+                                          long trimInterval,
+                                          boolean trace,
+                                          boolean fair )
+    {
+        super( factory, max, maxStrict, blocking, blockTimeout, trimInterval, trace, fair );
     }
     
     /**
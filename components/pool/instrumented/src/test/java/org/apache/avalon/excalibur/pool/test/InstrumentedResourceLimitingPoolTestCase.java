@@ -0,0 +1,173 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.pool.InstrumentedResourceLimitingPool;
+import org.apache.avalon.excalibur.pool.ObjectFactory;
+import org.apache.avalon.excalibur.pool.Poolable;
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.InstrumentProxy;
+import org.apache.excalibur.instrument.ValueInstrument;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class InstrumentedResourceLimitingPoolTestCase extends TestCase
+{
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    public InstrumentedResourceLimitingPoolTestCase()
+    {
+        this( "InstrumentedResourceLimitingPool Test Case" );
+    }
+
+    public InstrumentedResourceLimitingPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    /*---------------------------------------------------------------
+     * TestCases
+     *-------------------------------------------------------------*/
+    public void testMinReady() throws Exception
+    {
+        InstrumentedResourceLimitingPool pool = new InstrumentedResourceLimitingPool(
+            new TestObjectFactory(), 4, false, false, 0, 1000000 );
+        pool.enableLogging( new NullLogger() );
+        ValueProxy sizeProxy = new ValueProxy();
+        getValueInstrument( pool, InstrumentedResourceLimitingPool.INSTRUMENT_SIZE_NAME )
+            .setInstrumentProxy( sizeProxy );
+
+        // Prefill the pool.
+        pool.setMinReady( 3 );
+        assertEquals( "Min Ready", 3, pool.getMinReady() );
+        waitForReadySize( pool, 3 );
+
+        assertEquals( "1) Pool Ready Size", 3, pool.getReadySize() );
+        assertEquals( "1) Pool Size", 3, pool.getSize() );
+
+        // Taking a poolable should cause the pool to be topped back up.
+        Poolable p1 = pool.get();
+        waitForReadySize( pool, 3 );
+
+        assertEquals( "2) Pool Ready Size", 3, pool.getReadySize() );
+        assertEquals( "2) Pool Size", 4, pool.getSize() );
+
+        // The pool is full, so it can not be topped back up any further.
+        Poolable p2 = pool.get();
+        Thread.sleep( 200 );
+
+        assertEquals( "3) Pool Ready Size", 2, pool.getReadySize() );
+        assertEquals( "3) Pool Size", 4, pool.getSize() );
+        assertEquals( "3) Size Instrument", 4, sizeProxy.m_value );
+
+        pool.put( p1 );
+        pool.put( p2 );
+
+        // Trimming must not remove the poolables needed to maintain the minimum.
+        assertEquals( "1) Trim Count", 1, pool.trim() );
+        assertEquals( "2) Trim Count", 0, pool.trim() );
+        assertEquals( "3) Trim Count", 0, pool.trim() );
+
+        assertEquals( "4) Pool Ready Size", 3, pool.getReadySize() );
+        assertEquals( "4) Pool Size", 3, pool.getSize() );
+
+        pool.dispose();
+
+        assertEquals( "5) Pool Ready Size", 0, pool.getReadySize() );
+        assertEquals( "5) Pool Size", 0, pool.getSize() );
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    private void waitForReadySize( InstrumentedResourceLimitingPool pool, int readySize )
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while( ( pool.getReadySize() < readySize ) && ( System.currentTimeMillis() < end ) )
+        {
+            Thread.sleep( 10 );
+        }
+    }
+
+    private ValueInstrument getValueInstrument( InstrumentedResourceLimitingPool pool,
+                                                String name )
+    {
+        Instrument[] instruments = pool.getInstruments();
+        for ( int i = 0; i < instruments.length; i++ )
+        {
+            if ( name.equals( instruments[i].getInstrumentName() ) )
+            {
+                return (ValueInstrument)instruments[i];
+            }
+        }
+        throw new IllegalArgumentException( name );
+    }
+
+    /*---------------------------------------------------------------
+     * Inner Classes
+     *-------------------------------------------------------------*/
+    private static class ValueProxy
+        implements InstrumentProxy
+    {
+        volatile int m_value;
+
+        public boolean isActive()
+        {
+            return true;
+        }
+
+        public void increment( int count )
+        {
+        }
+
+        public void setValue( int value )
+        {
+            m_value = value;
+        }
+    }
+
+    private static class TestPoolable
+        implements Poolable
+    {
+    }
+
+    private static class TestObjectFactory
+        implements ObjectFactory
+    {
+        public Object newInstance()
+        {
+            return new TestPoolable();
+        }
+
+        public Class getCreatedClass()
+        {
+            return TestPoolable.class;
+        }
+
+        public void decommission( Object object )
+        {
+        }
+    }
+}
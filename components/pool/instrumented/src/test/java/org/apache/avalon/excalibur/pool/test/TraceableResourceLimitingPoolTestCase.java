@@ -0,0 +1,166 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.pool.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.pool.ObjectFactory;
+import org.apache.avalon.excalibur.pool.Poolable;
+import org.apache.avalon.excalibur.pool.TraceableResourceLimitingPool;
+import org.apache.avalon.framework.logger.NullLogger;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class TraceableResourceLimitingPoolTestCase extends TestCase
+{
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    public TraceableResourceLimitingPoolTestCase()
+    {
+        this( "TraceableResourceLimitingPool Test Case" );
+    }
+
+    public TraceableResourceLimitingPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    /*---------------------------------------------------------------
+     * TestCases
+     *-------------------------------------------------------------*/
+    public void testTracingDisabled() throws Exception
+    {
+        TraceableResourceLimitingPool pool = createPool( 0, 0 );
+
+        Poolable poolable = pool.get();
+        pool.put( poolable );
+        try
+        {
+            pool.getState();
+            fail( "getState() should fail when tracing is disabled" );
+        }
+        catch ( IllegalStateException e )
+        {
+            // Expected
+        }
+
+        pool.dispose();
+    }
+
+    public void testSampledState() throws Exception
+    {
+        TraceableResourceLimitingPool pool = createPool( 2, 0 );
+
+        long before = System.currentTimeMillis();
+        Poolable p1 = pool.get();
+        Poolable p2 = pool.get();
+        Poolable p3 = pool.get();
+        long after = System.currentTimeMillis();
+
+        TraceableResourceLimitingPool.State state = pool.getState();
+        assertEquals( "1) Size", 3, state.getSize() );
+        assertEquals( "1) Ready Size", 0, state.getReadySize() );
+        assertEquals( "1) Outstanding", 3, state.getTraceThreads().length );
+
+        // Only the second get was sampled.
+        int sampled = 0;
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertSame( "1) Thread", Thread.currentThread(), state.getTraceThreads()[i] );
+            assertTrue( "1) Time", state.getTraceTimes()[i] >= before );
+            assertTrue( "1) Time", state.getTraceTimes()[i] <= after );
+            if ( state.getTraceExceptions()[i] != null )
+            {
+                sampled++;
+            }
+        }
+        assertEquals( "1) Sampled", 1, sampled );
+
+        pool.put( p2 );
+        state = pool.getState();
+        assertEquals( "2) Ready Size", 1, state.getReadySize() );
+        assertEquals( "2) Outstanding", 2, state.getTraceThreads().length );
+
+        pool.put( p1 );
+        pool.put( p3 );
+        assertEquals( "3) Outstanding", 0, pool.getState().getTraceThreads().length );
+
+        pool.dispose();
+    }
+
+    public void testLeakDetection() throws Exception
+    {
+        TraceableResourceLimitingPool pool = createPool( 1, 50 );
+
+        Poolable held = pool.get();
+        Poolable returned = pool.get();
+        pool.put( returned );
+        Thread.sleep( 100 );
+
+        String leaks = pool.dumpLeaks();
+        assertTrue( leaks, leaks.indexOf( held + " has been held for " ) >= 0 );
+        assertTrue( leaks, leaks.indexOf( "TraceException" ) >= 0 );
+        assertTrue( leaks, leaks.indexOf( "1 possible leaks of 2 poolables." ) >= 0 );
+
+        pool.put( held );
+        leaks = pool.dumpLeaks();
+        assertTrue( leaks, leaks.indexOf( "0 possible leaks of 2 poolables." ) >= 0 );
+
+        pool.dispose();
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    private TraceableResourceLimitingPool createPool( int sampleRate, long leakThreshold )
+    {
+        TraceableResourceLimitingPool pool = new TraceableResourceLimitingPool(
+            new TestObjectFactory(), 0, false, false, 0, 0, false, sampleRate, leakThreshold );
+        pool.enableLogging( new NullLogger() );
+        return pool;
+    }
+
+    /*---------------------------------------------------------------
+     * Inner Classes
+     *-------------------------------------------------------------*/
+    private static class TestPoolable
+        implements Poolable
+    {
+    }
+
+    private static class TestObjectFactory
+        implements ObjectFactory
+    {
+        public Object newInstance()
+        {
+            return new TestPoolable();
+        }
+
+        public Class getCreatedClass()
+        {
+            return TestPoolable.class;
+        }
+
+        public void decommission( Object object )
+        {
+        }
+    }
+}
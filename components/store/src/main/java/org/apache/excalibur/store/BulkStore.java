@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A Store which can get, store and remove many objects at once.  Callers
+ * which work on a group of related keys use these methods to lock the
+ * store once, and to let persistent stores read and write the objects in
+ * one batch.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: BulkStore.java,v 1.1 2004/02/28 11:47:34 cziegeler Exp $
+ * @since 2.2.3
+ */
+public interface BulkStore extends Store
+{
+    /**
+     * Get the objects associated to the given keys.
+     *
+     * @param keys The keys of the requested objects
+     * @return A Map of the keys which were found to their objects
+     */
+    Map getAll( Collection keys );
+
+    /**
+     * Store the given objects.
+     *
+     * @param objects A Map of the keys to the objects to store
+     */
+    void storeAll( Map objects ) throws IOException;
+
+    /**
+     * Remove the objects associated to the given keys.
+     */
+    void removeAll( Collection keys );
+
+    /**
+     * Remove the objects whose keys start with the given prefix, when
+     * turned into Strings by their toString() method.
+     */
+    void removeIf( String prefix );
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store;
+
+import java.io.IOException;
+
+/**
+ * A Serializer turns the objects held by a store into bytes and back.
+ * Stores which keep their objects outside the heap or on disk use a
+ * Serializer, so that the form of the bytes can be chosen to suit the
+ * objects.
+ * <p>
+ * Implementations must be thread safe.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: Serializer.java,v 1.1 2004/02/28 11:47:34 cziegeler Exp $
+ * @since 2.2.3
+ */
+public interface Serializer
+{
+    /**
+     * Turns an object into bytes.
+     *
+     * @param object The object
+     * @return The bytes of the object
+     * @exception IOException If the object cannot be serialized
+     */
+    byte[] serialize( Object object ) throws IOException;
+
+    /**
+     * Turns bytes returned by {@link #serialize(Object)} into an object again.
+     *
+     * @param bytes The bytes of the object
+     * @return The object
+     * @exception IOException If the bytes cannot be deserialized
+     */
+    Object deserialize( byte[] bytes ) throws IOException;
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store;
+
+/**
+ * A Weigher estimates how much memory an object held by a store uses.
+ * Stores which are given a Weigher can be limited by the number of bytes
+ * they hold rather than by the number of objects, and the StoreJanitor
+ * can free them by bytes.
+ * <p>
+ * A Weigher is called whenever an object is held, so it should be quick.
+ * The estimate only needs to be good enough to compare objects with each
+ * other.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: Weigher.java,v 1.1 2004/02/28 11:47:34 cziegeler Exp $
+ * @since 2.2.3
+ */
+public interface Weigher
+{
+    /**
+     * Estimates the memory used by an object held under the given key.
+     *
+     * @param key The key of the object
+     * @param value The object
+     * @return The estimated size in bytes, never negative
+     */
+    long weigh( Object key, Object value );
+}
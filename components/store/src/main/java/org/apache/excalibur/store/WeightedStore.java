@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store;
+
+/**
+ * A Store which knows the estimated size in bytes of the objects it holds
+ * in memory.  The StoreJanitor frees such stores by bytes rather than by
+ * number of objects.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: WeightedStore.java,v 1.1 2004/02/28 11:47:34 cziegeler Exp $
+ * @since 2.2.3
+ */
+public interface WeightedStore extends Store
+{
+    /**
+     * Returns the estimated size in bytes of the objects held in memory,
+     * or -1 if it is not known.
+     */
+    long getWeight();
+}
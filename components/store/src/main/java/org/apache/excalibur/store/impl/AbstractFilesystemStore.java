@@ -17,15 +17,38 @@
 package org.apache.excalibur.store.impl;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import EDU.oswego.cs.dl.util.concurrent.Sync;
 
+import org.apache.excalibur.store.Serializer;
+
 /**
  * Stores objects on the filesystem: String objects as text files,
  * all other objects are serialized. This class must be subclassed
  * in order to set the directory the store should work on.
+ * <p>
+ * The files are spread over two levels of directories named by the
+ * hash code of the key, e.g. <code>3f/a0/</code>, so that no directory
+ * grows too large.  Directories written by older versions, which held
+ * all files directly in the store directory, are moved into this layout
+ * when the directory is set.
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @version CVS $Id: AbstractFilesystemStore.java,v 1.4 2004/02/28 11:47:31 cziegeler Exp $
@@ -33,10 +56,59 @@ import EDU.oswego.cs.dl.util.concurrent.Sync;
 public abstract class AbstractFilesystemStore
 extends AbstractReadWriteStore {
 
+    /** The file marking a directory which uses the sharded layout */
+    private static final String LAYOUT_FILE = ".layout";
+
+    /** The content of the layout file */
+    private static final String LAYOUT_VERSION = "sharded-2x256";
+
+    /** The directory holding files in the old layout while they are moved */
+    private static final String LEGACY_DIR = ".legacy";
+
+    /** The prefix of the files objects are written to before they are moved into place */
+    private static final String TEMP_PREFIX = ".tmp-";
+
+    /** The number of objects from which bulk operations use the walker threads */
+    private static final int PARALLEL_THRESHOLD = 8;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Accepts the first level shard directories */
+    private static final FileFilter SHARD_FILTER = new FileFilter()
+    {
+        public boolean accept(File file)
+        {
+            final String name = file.getName();
+            return name.length() == 2
+                && Character.digit(name.charAt(0), 16) >= 0
+                && Character.digit(name.charAt(1), 16) >= 0
+                && file.isDirectory();
+        }
+    };
+
     /** The directory repository */
     protected File m_directoryFile;
     protected volatile String m_directoryPath;
 
+    /**
+     * The shard directories known to exist.  Without synchronization
+     * a thread may not see that a directory was created; it then just
+     * calls mkdirs() once more.
+     */
+    private boolean[] m_createdShards = new boolean[256 * 256];
+
+    /** The number of threads walking the shards and reading or writing objects in bulk */
+    private int m_walkerThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /** The threads walking the shards, created on first use */
+    private ExecutorService m_walkers;
+
+    /** The number of temporary files written */
+    private final AtomicLong m_tempFiles = new AtomicLong();
+
+    /** The serializer of the objects, or null for Java serialization */
+    protected Serializer m_serializer;
+
     /**
      * Sets the repository's location
      */
@@ -82,6 +154,39 @@ extends AbstractReadWriteStore {
                 "Directory '" + this.m_directoryPath + "' is not readable/writable"
             );
         }
+
+        this.m_createdShards = new boolean[256 * 256];
+        this.migrateLegacyLayout();
+
+        /* Remove temporary files left by a crash */
+        final File[] files = this.m_directoryFile.listFiles();
+        for (int i = 0; i < files.length; i++)
+        {
+            if (files[i].getName().startsWith(TEMP_PREFIX))
+            {
+                files[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Sets the number of threads which walk the directories to count or
+     * list the keys.  With one thread the directories are walked by the
+     * calling thread.
+     */
+    public void setWalkerThreads(final int threads)
+    {
+        this.m_walkerThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the Serializer which writes objects to their files.  Objects
+     * are written with Java serialization if none is set.  The Serializers
+     * of this package read files written by Java serialization too.
+     */
+    public void setSerializer(final Serializer serializer)
+    {
+        this.m_serializer = serializer;
     }
 
     /**
@@ -96,6 +201,24 @@ extends AbstractReadWriteStore {
      * Get the File object associated with the given unique key name.
      */
     protected Object doGet(final Object key) 
+    {
+        try 
+        {
+            return this.doGetOptimistic(key);
+        } 
+        catch (Exception any) {
+            getLogger().error("Error during deseralization.", any);
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the File object associated with the given unique key name,
+     * throwing the errors of the deserialization.
+     */
+    protected Object doGetOptimistic(final Object key)
+    throws IOException, ClassNotFoundException
     {
         final File file = fileFromKey(key);
 
@@ -105,13 +228,7 @@ extends AbstractReadWriteStore {
             {
                 getLogger().debug("Found file: " + key);
             }
-            try 
-            {
-                return this.deserializeObject(file);
-            } 
-            catch (Exception any) {
-                getLogger().error("Error during deseralization.", any);
-            }
+            return this.deserializeObject(file);
         } 
         else 
         {
@@ -136,12 +253,196 @@ extends AbstractReadWriteStore {
         final File file = fileFromKey(key);
 
         /* Create subdirectories as needed */
-        final File parent = file.getParentFile();
-        if (parent != null) 
+        this.makeParent(key, file);
+
+        if (value == null)
         {
-            parent.mkdirs();
+            this.writeValue(file, null);
+            return;
+        }
+
+        /* Write a temporary file and move it into place, so that readers
+           never see a file which is only partly written */
+        final File temp = new File(this.m_directoryFile, TEMP_PREFIX + this.m_tempFiles.incrementAndGet());
+        try
+        {
+            this.writeValue(temp, value);
+            if (!temp.renameTo(file))
+            {
+                /* The directory was removed behind our back, or the
+                   platform does not replace existing files */
+                file.getParentFile().mkdirs();
+                file.delete();
+                if (!temp.renameTo(file))
+                {
+                    throw new IOException("Unable to move '" + temp + "' to '" + file + "'");
+                }
+            }
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Get the objects associated to the given keys, reading the files on
+     * the walker threads when there are enough of them.
+     */
+    protected void doGetAll(final Collection keys, final Map found)
+    {
+        if (!this.isParallel(keys.size()))
+        {
+            super.doGetAll(keys, found);
+            return;
+        }
+
+        final List chunks = this.split(keys);
+        final List tasks = new ArrayList(chunks.size());
+        for (int i = 0; i < chunks.size(); i++)
+        {
+            final List chunk = (List) chunks.get(i);
+            tasks.add(new Callable()
+            {
+                public Object call()
+                {
+                    final Map part = new HashMap();
+                    for (int j = 0; j < chunk.size(); j++)
+                    {
+                        final Object value = doGet(chunk.get(j));
+                        if (value != null)
+                        {
+                            part.put(chunk.get(j), value);
+                        }
+                    }
+                    return part;
+                }
+            });
+        }
+
+        try
+        {
+            final List parts = this.invokeAll(tasks);
+            for (int i = 0; i < parts.size(); i++)
+            {
+                found.putAll((Map) parts.get(i));
+            }
+        }
+        catch (IOException e)
+        {
+            getLogger().error("Error during reading.", e);
+        }
+    }
+
+    /**
+     * Store the given objects, writing the files on the walker threads
+     * when there are enough of them.
+     */
+    protected void doStoreAll(final Map objects)
+    throws IOException
+    {
+        if (!this.isParallel(objects.size()))
+        {
+            super.doStoreAll(objects);
+            return;
+        }
+
+        final List chunks = this.split(objects.entrySet());
+        final List tasks = new ArrayList(chunks.size());
+        for (int i = 0; i < chunks.size(); i++)
+        {
+            final List chunk = (List) chunks.get(i);
+            tasks.add(new Callable()
+            {
+                public Object call() throws IOException
+                {
+                    for (int j = 0; j < chunk.size(); j++)
+                    {
+                        final Map.Entry entry = (Map.Entry) chunk.get(j);
+                        doStore(entry.getKey(), entry.getValue());
+                    }
+                    return null;
+                }
+            });
+        }
+        this.invokeAll(tasks);
+    }
+
+    /**
+     * Bulk operations on many objects use the walker threads, as the time
+     * goes into waiting for the disk.
+     */
+    private boolean isParallel(final int count)
+    {
+        return this.m_walkerThreads > 1 && count >= PARALLEL_THRESHOLD;
+    }
+
+    /**
+     * Splits the elements into one list for each walker thread.
+     */
+    private List split(final Collection elements)
+    {
+        final int count = Math.min(this.m_walkerThreads, elements.size());
+        final List chunks = new ArrayList(count);
+        for (int i = 0; i < count; i++)
+        {
+            chunks.add(new ArrayList(elements.size() / count + 1));
         }
+        int next = 0;
+        for (Iterator i = elements.iterator(); i.hasNext(); next = (next + 1) % count)
+        {
+            ((List) chunks.get(next)).add(i.next());
+        }
+        return chunks;
+    }
 
+    /**
+     * Runs the tasks on the walker threads and returns their results.
+     */
+    private List invokeAll(final List tasks)
+    throws IOException
+    {
+        try
+        {
+            final List futures = this.getWalkers().invokeAll(tasks);
+            final List results = new ArrayList(futures.size());
+            for (int i = 0; i < futures.size(); i++)
+            {
+                results.add(((Future) futures.get(i)).get());
+            }
+            return results;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while accessing " + this.m_directoryPath);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Error accessing " + this.m_directoryPath, e.getCause());
+        }
+    }
+
+    /**
+     * Objects are stored in files of their own, so operations on
+     * different keys may run at the same time.
+     */
+    protected boolean isPerKeyLocking()
+    {
+        return true;
+    }
+
+    private void writeValue(final File file, final Object value)
+    throws IOException
+    {
         /* Store object as file */
         if (value == null) 
         { /* Directory */
@@ -213,10 +514,14 @@ extends AbstractReadWriteStore {
     /**
      * Returns the list of stored files as an Enumeration of Files
      */
-    protected Enumeration doGetKeys() 
+    protected Enumeration doGetKeys()
     {
         final FSEnumeration enumer = new FSEnumeration();
-        this.addKeys(enumer, this.m_directoryFile);
+        final Object[] shards = this.walkShards(true);
+        for (int i = 0; i < shards.length; i++)
+        {
+            enumer.addAll((FSEnumeration) shards[i]);
+        }
         return enumer;
     }
 
@@ -224,33 +529,56 @@ extends AbstractReadWriteStore {
      * Returns count of the objects in the store, or -1 if could not be
      * obtained.
      */
-    protected int doGetSize() 
+    protected int doGetSize()
     {
-        return countKeys(this.m_directoryFile);
+        int count = 0;
+        final Object[] shards = this.walkShards(false);
+        for (int i = 0; i < shards.length; i++)
+        {
+            count += ((Integer) shards[i]).intValue();
+        }
+        return count;
     }
 
-    protected void addKeys(FSEnumeration enumer, File directory) 
+    /**
+     * Adds the keys of all files below a first level shard directory.
+     */
+    protected void addKeys(FSEnumeration enumer, File directory)
+    {
+        /* The key starts after the two shard directories */
+        final int subStringBegin = directory.getAbsolutePath().length() + 4;
+        this.addKeys(enumer, directory, subStringBegin);
+    }
+
+    private void addKeys(FSEnumeration enumer, File directory, int subStringBegin)
     {
-        final int subStringBegin = this.m_directoryFile.getAbsolutePath().length() + 1;
         final File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return;
+        }
         for (int i=0; i<files.length; i++)
          {
-            if (files[i].isDirectory()) 
+            if (files[i].isDirectory())
             {
-                this.addKeys(enumer, files[i]);
-            } 
-            else 
+                this.addKeys(enumer, files[i], subStringBegin);
+            }
+            else
             {
                 enumer.add(this.decode(files[i].getAbsolutePath().substring(subStringBegin)));
             }
         }
     }
 
-    protected int countKeys(File directory) 
+    protected int countKeys(File directory)
     {
         int count = 0;
         final File[] files = directory.listFiles();
-        for (int i=0; i<files.length; i++) 
+        if (files == null)
+        {
+            return 0;
+        }
+        for (int i=0; i<files.length; i++)
         {
             if (files[i].isDirectory()) 
             {
@@ -264,7 +592,103 @@ extends AbstractReadWriteStore {
         return count;
     }
 
-    final class FSEnumeration implements Enumeration 
+    /**
+     * Walks the first level shard directories, in parallel if more than
+     * one walker thread is configured, and returns for each of them an
+     * FSEnumeration of its keys or an Integer count of its keys.
+     */
+    private Object[] walkShards(final boolean keys)
+    {
+        final File[] shards = this.m_directoryFile.listFiles(SHARD_FILTER);
+        if (shards == null)
+        {
+            return new Object[0];
+        }
+        final List tasks = new ArrayList(shards.length);
+        for (int i = 0; i < shards.length; i++)
+        {
+            tasks.add(new ShardWalker(shards[i], keys));
+        }
+
+        final Object[] results = new Object[shards.length];
+        if (this.m_walkerThreads == 1 || shards.length < 2)
+        {
+            for (int i = 0; i < results.length; i++)
+            {
+                results[i] = ((ShardWalker) tasks.get(i)).call();
+            }
+            return results;
+        }
+
+        try
+        {
+            final List futures = this.getWalkers().invokeAll(tasks);
+            for (int i = 0; i < results.length; i++)
+            {
+                results[i] = ((Future) futures.get(i)).get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while walking " + this.m_directoryPath);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException("Error walking " + this.m_directoryPath, e.getCause());
+        }
+        return results;
+    }
+
+    private synchronized ExecutorService getWalkers()
+    {
+        if (this.m_walkers == null)
+        {
+            final ThreadPoolExecutor walkers = new ThreadPoolExecutor(
+                this.m_walkerThreads, this.m_walkerThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue(), new ThreadFactory()
+                {
+                    public Thread newThread(Runnable runnable)
+                    {
+                        final Thread thread = new Thread(runnable, "filesystem-store-walker");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            /* Idle stores keep no threads */
+            walkers.allowCoreThreadTimeOut(true);
+            this.m_walkers = walkers;
+        }
+        return this.m_walkers;
+    }
+
+    /**
+     * Counts or lists the keys below one first level shard directory.
+     */
+    private final class ShardWalker implements Callable
+    {
+        private final File m_shard;
+        private final boolean m_keys;
+
+        ShardWalker(File shard, boolean keys)
+        {
+            this.m_shard = shard;
+            this.m_keys = keys;
+        }
+
+        public Object call()
+        {
+            if (this.m_keys)
+            {
+                final FSEnumeration enumer = new FSEnumeration();
+                addKeys(enumer, this.m_shard);
+                return enumer;
+            }
+            return new Integer(countKeys(this.m_shard));
+        }
+    }
+
+    final class FSEnumeration implements Enumeration
     {
         private String[] array;
         private int      index;
@@ -289,6 +713,18 @@ extends AbstractReadWriteStore {
             this.length++;
         }
 
+        public void addAll(FSEnumeration other)
+        {
+            if (this.length + other.length > this.array.length)
+            {
+                String[] newarray = new String[this.length + other.length + 16];
+                System.arraycopy(this.array, 0, newarray, 0, this.length);
+                this.array = newarray;
+            }
+            System.arraycopy(other.array, 0, this.array, this.length, other.length);
+            this.length += other.length;
+        }
+
         public boolean hasMoreElements() 
         {
             return (this.index < this.length);
@@ -306,12 +742,48 @@ extends AbstractReadWriteStore {
     }
 
     /* Utility Methods*/
-    protected File fileFromKey(final Object key) 
+    protected File fileFromKey(final Object key)
     {
-        File file = new File(this.m_directoryFile, this.encode(key.toString()));
-        File parent = file.getParentFile();
-        if (parent != null) parent.mkdirs();
-        return file;
+        final String name = key.toString();
+        final int hash = shardOf(name);
+        final String encoded = this.encode(name);
+        final StringBuffer path = new StringBuffer(this.m_directoryPath.length() + encoded.length() + 6);
+        path.append(this.m_directoryPath);
+        path.append(HEX[(hash >> 12) & 0xF]).append(HEX[(hash >> 8) & 0xF]).append(File.separatorChar);
+        path.append(HEX[(hash >> 4) & 0xF]).append(HEX[hash & 0xF]).append(File.separatorChar);
+        path.append(encoded);
+        return new File(path.toString());
+    }
+
+    /**
+     * Returns the shard of a key, from 0 to 0xFFFF.
+     */
+    private static int shardOf(final String key)
+    {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return hash & 0xFFFF;
+    }
+
+    /**
+     * Creates the directories a file is stored in, unless they are known
+     * to exist already.
+     */
+    private void makeParent(final Object key, final File file)
+    {
+        final File parent = file.getParentFile();
+        if (parent.getPath().length() != this.m_directoryPath.length() + 5)
+        {
+            /* A long key is split over several directories */
+            parent.mkdirs();
+            return;
+        }
+        final int shard = shardOf(key.toString());
+        if (!this.m_createdShards[shard])
+        {
+            parent.mkdirs();
+            this.m_createdShards[shard] = true;
+        }
     }
 
     public String getString(final Object key)
@@ -364,13 +836,146 @@ extends AbstractReadWriteStore {
         return null;
     }
 
+    /**
+     * Moves the files of a directory written in the old layout, where the
+     * files were stored directly in the store directory, into the shard
+     * directories.  The files are first moved aside, then the directory
+     * is marked as sharded, then the files are moved to their shards, so
+     * that a crash at any point is recovered from by the next call.
+     */
+    private void migrateLegacyLayout()
+    throws IOException
+    {
+        final File marker = new File(this.m_directoryFile, LAYOUT_FILE);
+        final File legacy = new File(this.m_directoryFile, LEGACY_DIR);
+        if (!marker.exists())
+        {
+            final File[] files = this.m_directoryFile.listFiles();
+            for (int i = 0; i < files.length; i++)
+            {
+                if (files[i].getName().equals(LEGACY_DIR))
+                {
+                    continue;
+                }
+                if (!legacy.exists() && !legacy.mkdir())
+                {
+                    throw new IOException("Error creating directory '" + legacy + "'");
+                }
+                if (!files[i].renameTo(new File(legacy, files[i].getName())))
+                {
+                    throw new IOException("Error moving '" + files[i] + "' to '" + legacy + "'");
+                }
+            }
+            this.serializeString(marker, LAYOUT_VERSION);
+        }
+
+        if (legacy.exists())
+        {
+            if (getLogger().isInfoEnabled())
+            {
+                getLogger().info("Moving files of " + this.m_directoryPath + " into shard directories");
+            }
+            this.moveLegacyFiles(legacy, legacy.getAbsolutePath().length() + 1);
+            this.deleteAll(legacy);
+        }
+    }
+
+    private void moveLegacyFiles(final File directory, final int subStringBegin)
+    {
+        final File[] files = directory.listFiles();
+        for (int i = 0; i < files.length; i++)
+        {
+            if (files[i].isDirectory())
+            {
+                this.moveLegacyFiles(files[i], subStringBegin);
+                continue;
+            }
+            final String key = this.decodeLegacy(files[i].getAbsolutePath().substring(subStringBegin));
+            final File file = this.fileFromKey(key);
+            this.makeParent(key, file);
+            file.delete();
+            if (!files[i].renameTo(file))
+            {
+                getLogger().warn("Dropping '" + files[i] + "': cannot move it to '" + file + "'");
+            }
+        }
+    }
+
+    private void deleteAll(final File file)
+    {
+        if (file.isDirectory())
+        {
+            final File[] files = file.listFiles();
+            for (int i = 0; i < files.length; i++)
+            {
+                this.deleteAll(files[i]);
+            }
+        }
+        file.delete();
+    }
+
     /**
      * Inverse of encode exept it do not use path.
      * So decode(encode(s) - m_path) = s.
      * In other words it returns a String that can be used as key to retive
      * the record contained in the 'filename' file.
      */
-    protected String decode( String filename )
+    protected String decode(final String filename)
+    {
+        final int length = filename.length();
+        final StringBuffer out = new StringBuffer(length);
+        byte[] bytes = null;
+        int count = 0;
+        for (int i = 0; i < length; i++)
+        {
+            final char c = filename.charAt(i);
+            if (c == '%' && i + 2 < length)
+            {
+                if (bytes == null)
+                {
+                    bytes = new byte[(length - i) / 3];
+                }
+                bytes[count++] = (byte) ((Character.digit(filename.charAt(i + 1), 16) << 4)
+                                         | Character.digit(filename.charAt(i + 2), 16));
+                i += 2;
+                continue;
+            }
+            if (count > 0)
+            {
+                out.append(decodeUTF8(bytes, count));
+                count = 0;
+            }
+            /* Long keys are split by separators, which are never part of a key */
+            if (c != File.separatorChar)
+            {
+                out.append(c);
+            }
+        }
+        if (count > 0)
+        {
+            out.append(decodeUTF8(bytes, count));
+        }
+        return out.toString();
+    }
+
+    private static String decodeUTF8(final byte[] bytes, final int count)
+    {
+        try
+        {
+            return new String(bytes, 0, count, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            /* UTF-8 is always supported */
+            throw new IllegalStateException(e.toString());
+        }
+    }
+
+    /**
+     * The decode method of older versions, which is used to read the
+     * keys of files stored in the old layout.
+     */
+    private String decodeLegacy( String filename )
     {
         // if the key is longer than 127 bytes a File.separator
         // is added each 127 bytes
@@ -392,7 +997,6 @@ extends AbstractReadWriteStore {
 
     /** A BitSet defining the characters which don't need encoding */
     static BitSet charactersDontNeedingEncoding;
-    static final int characterCaseDiff = ('a' - 'A');
 
     /** Initialize the BitSet */
     static
@@ -415,6 +1019,12 @@ extends AbstractReadWriteStore {
         charactersDontNeedingEncoding.set('_');
         charactersDontNeedingEncoding.set('(');
         charactersDontNeedingEncoding.set(')');
+        charactersDontNeedingEncoding.set(',');
+        charactersDontNeedingEncoding.set('=');
+        charactersDontNeedingEncoding.set('+');
+        charactersDontNeedingEncoding.set('~');
+        charactersDontNeedingEncoding.set('@');
+        charactersDontNeedingEncoding.set('!');
     }
 
     /**
@@ -424,62 +1034,84 @@ extends AbstractReadWriteStore {
      * doesn't change between different JVM executions (like
      * it may normally happen). For this reason, it's highly recommended
      * (even if not mandated) that Strings be used as keys.
+     * <p>
+     * The file of a key is named with this method, and keys() turns the
+     * names back into keys with decode(), so the two are overridden
+     * together.
+     */
+    protected String encode(String s)
+    {
+        final StringBuffer out = new StringBuffer(s.length() + 16);
+        this.encode(s, out);
+        return out.toString();
+    }
+
+    /**
+     * Appends the encoded form of a key to a buffer.  Characters which
+     * are safe in file names are kept, all others are written as the
+     * %-escaped bytes of their UTF-8 form.  Dots are kept too, except at
+     * the start and end of a file name.  Every 127 characters or so a
+     * File.separator is added, to keep file names short.
      */
-    protected String encode(String s) 
+    private void encode(final String s, final StringBuffer out)
     {
-        final StringBuffer out = new StringBuffer( s.length() );
-        final ByteArrayOutputStream buf = new ByteArrayOutputStream( 32 );
-        final OutputStreamWriter writer = new OutputStreamWriter( buf );
-        for (int i = 0; i < s.length(); i++)
+        final int length = s.length();
+        int nameLength = 0;
+        for (int i = 0; i < length; i++)
         {
-            int c = s.charAt(i);
-            if (charactersDontNeedingEncoding.get(c))
+            final char c = s.charAt(i);
+            if (c < 256 && charactersDontNeedingEncoding.get(c))
+            {
+                out.append(c);
+                nameLength++;
+            }
+            else if (c == '.' && nameLength > 0 && nameLength < 126 && i < length - 1)
+            {
+                out.append(c);
+                nameLength++;
+            }
+            else if (c < 0x80)
+            {
+                appendEscaped(out, c);
+                nameLength += 3;
+            }
+            else if (c < 0x800)
+            {
+                appendEscaped(out, 0xC0 | (c >> 6));
+                appendEscaped(out, 0x80 | (c & 0x3F));
+                nameLength += 6;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length
+                     && Character.isLowSurrogate(s.charAt(i + 1)))
             {
-                out.append((char)c);
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                appendEscaped(out, 0xF0 | (cp >> 18));
+                appendEscaped(out, 0x80 | ((cp >> 12) & 0x3F));
+                appendEscaped(out, 0x80 | ((cp >> 6) & 0x3F));
+                appendEscaped(out, 0x80 | (cp & 0x3F));
+                nameLength += 12;
             }
             else
             {
-                try
-                {
-                    writer.write(c);
-                    writer.flush();
-                }
-                catch(IOException e)
-                {
-                    buf.reset();
-                    continue;
-                }
-                byte[] ba = buf.toByteArray();
-                for (int j = 0; j < ba.length; j++)
-                {
-                    out.append('%');
-                    char ch = Character.forDigit((ba[j] >> 4) & 0xF, 16);
-                    // converting to use uppercase letter as part of
-                    // the hex value if ch is a letter.
-                    if (Character.isLetter(ch))
-                    {
-                        ch -= characterCaseDiff;
-                    }
-                    out.append(ch);
-                    ch = Character.forDigit(ba[j] & 0xF, 16);
-                    if (Character.isLetter(ch))
-                    {
-                        ch -= characterCaseDiff;
-                    }
-                    out.append(ch);
-                }
-                buf.reset();
+                appendEscaped(out, 0xE0 | (c >> 12));
+                appendEscaped(out, 0x80 | ((c >> 6) & 0x3F));
+                appendEscaped(out, 0x80 | (c & 0x3F));
+                nameLength += 9;
             }
-        }
 
-        // if the key is longer than 127 bytes add a File.separator
-        // each 127 bytes
-        int pos = 127;
-        while (out.length() > pos) {
-            out.insert(pos, File.separatorChar);
-            pos += 127;
+            if (nameLength >= 127 && i < length - 1)
+            {
+                out.append(File.separatorChar);
+                nameLength = 0;
+            }
         }
-        return out.toString();
+    }
+
+    private static void appendEscaped(final StringBuffer out, final int b)
+    {
+        out.append('%');
+        out.append(Character.toUpperCase(HEX[(b >> 4) & 0xF]));
+        out.append(Character.toUpperCase(HEX[b & 0xF]));
     }
 
     /**
@@ -544,6 +1176,21 @@ extends AbstractReadWriteStore {
     public void serializeObject(File file, Object object)
     throws IOException 
     {
+        if (this.m_serializer != null)
+        {
+            final byte[] bytes = this.m_serializer.serialize(object);
+            final OutputStream out = new FileOutputStream(file);
+            try
+            {
+                out.write(bytes);
+            }
+            finally
+            {
+                out.close();
+            }
+            return;
+        }
+
         FileOutputStream fos = new FileOutputStream(file);
         try 
         {
@@ -567,6 +1214,21 @@ extends AbstractReadWriteStore {
     public Object deserializeObject(File file)
     throws IOException, ClassNotFoundException 
     {
+        if (this.m_serializer != null)
+        {
+            final byte[] bytes = new byte[(int) file.length()];
+            final DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try
+            {
+                in.readFully(bytes);
+            }
+            finally
+            {
+                in.close();
+            }
+            return this.m_serializer.deserialize(bytes);
+        }
+
         FileInputStream fis = new FileInputStream(file);
         Object object = null;
         try 
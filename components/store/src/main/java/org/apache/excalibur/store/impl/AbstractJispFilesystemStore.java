@@ -19,8 +19,13 @@ package org.apache.excalibur.store.impl;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import com.coyotegulch.jisp.BTreeIndex;
@@ -29,6 +34,8 @@ import com.coyotegulch.jisp.IndexedObjectDatabase;
 import com.coyotegulch.jisp.KeyNotFound;
 import com.coyotegulch.jisp.KeyObject;
 
+import org.apache.excalibur.store.Serializer;
+
 /**
  * This store is based on the Jisp library
  * (http://www.coyotegulch.com/jisp/index.html). This store uses B-Tree indexes
@@ -48,6 +55,33 @@ public abstract class AbstractJispFilesystemStore
     
     /** And the index */
     protected BTreeIndex m_Index;
+
+    /** The serializer of the values, or null for Java serialization */
+    protected Serializer m_serializer;
+
+    /** Reads values serialized while a Serializer was set, once none is set */
+    private static final Serializer DEFAULT_SERIALIZER = new JavaSerializer();
+
+    /** Orders pairs of a wrapped key object and its key by the key object */
+    private static final Comparator INDEX_ORDER = new Comparator()
+    {
+        public int compare(Object o1, Object o2)
+        {
+            return ((KeyObject) ((Object[]) o1)[0]).compareTo((KeyObject) ((Object[]) o2)[0]);
+        }
+    };
+
+    /**
+     * Sets the Serializer which turns values into the bytes kept in the
+     * data file.  Values are written with Java serialization if none is
+     * set.  Values written before a Serializer was set are still read, and
+     * values written by a Serializer are read by a <code>JavaSerializer</code>
+     * once none is set.
+     */
+    public void setSerializer(final Serializer serializer)
+    {
+        this.m_serializer = serializer;
+    }
     
     /**
      * Sets the repository's location
@@ -96,6 +130,12 @@ public abstract class AbstractJispFilesystemStore
         try 
         {
             value = m_Database.read(this.wrapKeyObject(key), m_Index);
+            if (value instanceof SerializedObject)
+            {
+                final Serializer serializer =
+                    (m_serializer != null) ? m_serializer : DEFAULT_SERIALIZER;
+                value = serializer.deserialize(((SerializedObject) value).getBytes());
+            }
             if (getLogger().isDebugEnabled()) 
             {
                 if (value != null) 
@@ -111,6 +151,7 @@ public abstract class AbstractJispFilesystemStore
         catch (Exception e) 
         {
             getLogger().error("get(..): Exception", e);
+            value = null;
         }
         
         return value;
@@ -135,6 +176,11 @@ public abstract class AbstractJispFilesystemStore
                 + value.toString());
         }
         
+        if (m_serializer != null)
+        {
+            value = new SerializedObject(m_serializer.serialize(value));
+        }
+
         if (value instanceof Serializable) 
         {
             try 
@@ -233,6 +279,56 @@ public abstract class AbstractJispFilesystemStore
         }
     }
     
+    /**
+     * Gets the values of the given keys in the order of the index, so
+     * that neighbouring keys find their index pages in the cache.
+     */
+    protected void doGetAll(Collection keys, Map found)
+    {
+        final Object[] sorted = this.sortKeys(keys);
+        for (int i = 0; i < sorted.length; i++)
+        {
+            final Object value = this.doGet(sorted[i]);
+            if (value != null)
+            {
+                found.put(sorted[i], value);
+            }
+        }
+    }
+
+    /**
+     * Removes the values of the given keys in the order of the index.
+     */
+    protected void doRemoveAll(Collection keys)
+    {
+        final Object[] sorted = this.sortKeys(keys);
+        for (int i = 0; i < sorted.length; i++)
+        {
+            this.doRemove(sorted[i]);
+        }
+    }
+
+    /**
+     * Sorts the keys in the order of their wrapped key objects.
+     */
+    private Object[] sortKeys(Collection keys)
+    {
+        final Object[][] pairs = new Object[keys.size()][];
+        int count = 0;
+        for (Iterator i = keys.iterator(); i.hasNext();)
+        {
+            final Object key = i.next();
+            pairs[count++] = new Object[] { this.wrapKeyObject(key), key };
+        }
+        Arrays.sort(pairs, INDEX_ORDER);
+        final Object[] sorted = new Object[count];
+        for (int i = 0; i < count; i++)
+        {
+            sorted[i] = pairs[i][1];
+        }
+        return sorted;
+    }
+
     /**
      *  Test if the the index file contains the given key
      *
@@ -17,11 +17,23 @@
 package org.apache.excalibur.store.impl;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import EDU.oswego.cs.dl.util.concurrent.FIFOReadWriteLock;
 import EDU.oswego.cs.dl.util.concurrent.ReadWriteLock;
+import EDU.oswego.cs.dl.util.concurrent.ReentrantLock;
+import EDU.oswego.cs.dl.util.concurrent.ReentrantWriterPreferenceReadWriteLock;
 import EDU.oswego.cs.dl.util.concurrent.Sync;
 
 import org.apache.avalon.framework.component.Component;
@@ -31,18 +43,39 @@ import org.apache.excalibur.instrument.CounterInstrument;
 import org.apache.excalibur.instrument.Instrument;
 import org.apache.excalibur.instrument.Instrumentable;
 import org.apache.excalibur.instrument.ValueInstrument;
-import org.apache.excalibur.store.Store;
+import org.apache.excalibur.store.BulkStore;
 
 /**
  * This is a base implementation for stores that are synchronized by
  * using a read/write lock.
+ * <p>
+ * The lock is reentrant, and a thread holding the write lock may take
+ * the read lock too, so the do-methods may call the public methods of
+ * the store.
+ * <p>
+ * Stores whose keys are independent of each other can return true from
+ * {@link #isPerKeyLocking()}.  Then changes to different keys run at the
+ * same time: they share the read lock and each takes the lock of its
+ * stripe of keys, and get() and containsKey() first try to run without
+ * any lock, only taking the locks when a change was made meanwhile.
+ * <p>
+ * The number of objects is counted as they are stored and removed, so
+ * doGetSize() is only called after free(), or by the first change or
+ * call of size(), which also gives the size instrument its first value.
+ * <p>
+ * The bulk operations of {@link BulkStore} take the locks once for all
+ * their keys.  Stores which can read or write many objects faster than
+ * one by one override doGetAll(), doStoreAll() and doRemoveAll().
  * 
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @version CVS $Id: AbstractReadWriteStore.java,v 1.6 2004/03/11 21:38:47 unico Exp $
  */
 public abstract class AbstractReadWriteStore
 extends AbstractLogEnabled
-implements Store, ThreadSafe, Component {
+implements BulkStore, ThreadSafe, Component {
+
+    /** The number of key stripes in per key locking */
+    private static final int STRIPES = 64;
 
     private ValueInstrument m_sizeInstrument = new ValueInstrument("size");
     private CounterInstrument m_hitsInstrument = new CounterInstrument("hits");
@@ -51,8 +84,39 @@ implements Store, ThreadSafe, Component {
     private String m_instrumentableName;
 
     /** The lock */
-    protected ReadWriteLock lock = new FIFOReadWriteLock();
-    
+    protected ReadWriteLock lock = new ReentrantWriterPreferenceReadWriteLock();
+
+    /** The locks of the key stripes, used in per key locking */
+    private final Sync[] m_stripes = new Sync[STRIPES];
+
+    /** The number of changes started and finished, for optimistic reads */
+    private final AtomicLong m_changesStarted = new AtomicLong();
+    private final AtomicLong m_changesFinished = new AtomicLong();
+
+    /** The number of objects, or -1 if it has to be counted */
+    private final AtomicInteger m_size = new AtomicInteger(-1);
+
+    public AbstractReadWriteStore()
+    {
+        for (int i = 0; i < STRIPES; i++)
+        {
+            m_stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns true if operations on different keys may run at the same
+     * time, because doGet(), doStore(), doRemove() and doContainsKey()
+     * only touch the state of their key.  A doGet() or doContainsKey()
+     * running while the same key is changed must not harm the store; it
+     * may return a wrong result, which is then thrown away.
+     * The default is false.
+     */
+    protected boolean isPerKeyLocking()
+    {
+        return false;
+    }
+
     /**
      * Returns a Object from the store associated with the Key Object
      *
@@ -62,22 +126,49 @@ implements Store, ThreadSafe, Component {
     public Object get(Object key) 
     {
         Object value = null;
-        Sync sync = this.lock.readLock();
-        try
+        boolean read = false;
+        if (this.isPerKeyLocking())
         {
-            sync.acquire();
-            try 
+            final long started = m_changesStarted.get();
+            if (started == m_changesFinished.get())
             {
-                value = this.doGet(key);
+                try
+                {
+                    value = this.doGetOptimistic(key);
+                    read = m_changesStarted.get() == started;
+                }
+                catch (Exception e)
+                {
+                    // Most likely a change meanwhile; the locked read reports it otherwise
+                    if (getLogger().isDebugEnabled())
+                    {
+                        getLogger().debug("Reading " + key + " without locks failed, retrying.", e);
+                    }
+                }
             }
-            finally 
+        }
+
+        if (!read)
+        {
+            final Sync[] syncs = this.readSyncs(key);
+            try
             {
-                sync.release();
+                acquire(syncs);
+                try 
+                {
+                    value = this.doGet(key);
+                }
+                finally 
+                {
+                    release(syncs);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                value = null;
             }
         }
-        catch (InterruptedException ignore)
-        {
-        } 
         
         if ( null == value )
         {
@@ -101,25 +192,33 @@ implements Store, ThreadSafe, Component {
     public void store(Object key, Object value)
     throws IOException 
     {
-        Sync sync = this.lock.writeLock();
+        this.initSize();
+        final Sync[] syncs = this.writeSyncs(key);
         try
         {
-            sync.acquire();
+            acquire(syncs);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while storing " + key);
+        }
 
-            try 
-            {
-                this.doStore(key, value);
-                m_sizeInstrument.setValue( doGetSize() );
-            } 
-            finally 
+        m_changesStarted.incrementAndGet();
+        try 
+        {
+            final boolean added = m_size.get() >= 0 && !this.doContainsKey(key);
+            this.doStore(key, value);
+            if (added)
             {
-                sync.release();
+                this.addToSize(1);
             }
-        }
-        catch (InterruptedException ignore)
+        } 
+        finally 
         {
+            m_changesFinished.incrementAndGet();
+            release(syncs);
         }
-        
     }
 
     /**
@@ -132,18 +231,22 @@ implements Store, ThreadSafe, Component {
         {
             sync.acquire();
 
+            m_changesStarted.incrementAndGet();
             try 
             {
                 this.doFree();
-                m_sizeInstrument.setValue( doGetSize() );
+                m_size.set(-1);
+                this.countSize();
             } 
             finally 
             {
+                m_changesFinished.incrementAndGet();
                 sync.release();
             }
         }
         catch (InterruptedException ignore)
         {
+            Thread.currentThread().interrupt();
         } 
     }
 
@@ -162,18 +265,22 @@ implements Store, ThreadSafe, Component {
         try
         {
             sync.acquire();
+            m_changesStarted.incrementAndGet();
             try 
             {
                 this.doClear();
+                m_size.set(0);
                 m_sizeInstrument.setValue( 0 );
             }
             finally 
             {
+                m_changesFinished.incrementAndGet();
                 sync.release();
             }
         }
         catch (InterruptedException ignore)
         {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -184,22 +291,30 @@ implements Store, ThreadSafe, Component {
      */
     public void remove(Object key)
     {
-        Sync sync = this.lock.writeLock();
+        this.initSize();
+        final Sync[] syncs = this.writeSyncs(key);
         try
         {
-            sync.acquire();
+            acquire(syncs);
+            m_changesStarted.incrementAndGet();
             try 
             {
+                final boolean removed = m_size.get() >= 0 && this.doContainsKey(key);
                 this.doRemove(key);
-                m_sizeInstrument.setValue( doGetSize() );
+                if (removed)
+                {
+                    this.addToSize(-1);
+                }
             }
             finally 
             {
-                sync.release();
+                m_changesFinished.incrementAndGet();
+                release(syncs);
             }
         }
         catch (InterruptedException ignore)
         {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -211,21 +326,35 @@ implements Store, ThreadSafe, Component {
      */
     public boolean containsKey(Object key) 
     {
-        Sync sync = this.lock.readLock();
+        if (this.isPerKeyLocking())
+        {
+            final long started = m_changesStarted.get();
+            if (started == m_changesFinished.get())
+            {
+                final boolean contained = this.doContainsKey(key);
+                if (m_changesStarted.get() == started)
+                {
+                    return contained;
+                }
+            }
+        }
+
+        final Sync[] syncs = this.readSyncs(key);
         try
         {
-            sync.acquire();
+            acquire(syncs);
             try 
             {
                 return this.doContainsKey(key);
             }
             finally 
             {
-                sync.release();
+                release(syncs);
             }
         }
         catch (InterruptedException ignore)
         {
+            Thread.currentThread().interrupt();
             return false;
         } 
     }
@@ -252,19 +381,27 @@ implements Store, ThreadSafe, Component {
         }
         catch (InterruptedException ignore)
         {
+            Thread.currentThread().interrupt();
             return Collections.enumeration(Collections.EMPTY_LIST);
         } 
     }
 
     public int size() 
     {
-        Sync sync = this.lock.readLock();
+        final int size = m_size.get();
+        if (size >= 0)
+        {
+            return size;
+        }
+
+        // Counting needs the write lock, as changes to keys only take the read lock
+        Sync sync = this.lock.writeLock();
         try
         {
             sync.acquire();
             try 
             {
-                return this.doGetSize();
+                return this.countSize();
             }
             finally 
             {
@@ -273,10 +410,364 @@ implements Store, ThreadSafe, Component {
         }
         catch (InterruptedException ignore)
         {
+            Thread.currentThread().interrupt();
             return 0;
         } 
     }
 
+    /**
+     * Get the objects associated to the given keys.
+     *
+     * @param keys the Key objects
+     * @return a Map of the keys which were found to their objects
+     */
+    public Map getAll(Collection keys)
+    {
+        final Map found = new HashMap();
+        boolean read = false;
+        if (this.isPerKeyLocking())
+        {
+            final long started = m_changesStarted.get();
+            if (started == m_changesFinished.get())
+            {
+                this.doGetAll(keys, found);
+                read = m_changesStarted.get() == started;
+            }
+        }
+
+        if (!read)
+        {
+            found.clear();
+            final Sync[] syncs = this.readSyncs(keys);
+            try
+            {
+                acquire(syncs);
+                try
+                {
+                    this.doGetAll(keys, found);
+                }
+                finally
+                {
+                    release(syncs);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                found.clear();
+            }
+        }
+
+        if (found.size() > 0)
+        {
+            m_hitsInstrument.increment( found.size() );
+        }
+        if (keys.size() > found.size())
+        {
+            m_missesInstrument.increment( keys.size() - found.size() );
+        }
+        return found;
+    }
+
+    /**
+     * Store the given objects, taking the write lock once.
+     *
+     * @param objects a Map of the key objects to the value objects
+     * @exception  IOException
+     */
+    public void storeAll(Map objects)
+    throws IOException
+    {
+        Sync sync = this.lock.writeLock();
+        try
+        {
+            sync.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while storing " + objects.size() + " objects");
+        }
+
+        m_changesStarted.incrementAndGet();
+        try
+        {
+            this.countSize();
+            int added = 0;
+            if (m_size.get() >= 0)
+            {
+                for (Iterator i = objects.keySet().iterator(); i.hasNext();)
+                {
+                    if (!this.doContainsKey(i.next()))
+                    {
+                        added++;
+                    }
+                }
+            }
+            try
+            {
+                this.doStoreAll(objects);
+            }
+            catch (IOException e)
+            {
+                // Some of the objects may have been stored
+                m_size.set(-1);
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                m_size.set(-1);
+                throw e;
+            }
+            this.addToSize(added);
+        }
+        finally
+        {
+            m_changesFinished.incrementAndGet();
+            sync.release();
+        }
+    }
+
+    /**
+     * Removes the values with the given keys, taking the write lock once.
+     *
+     * @param keys the key objects
+     */
+    public void removeAll(Collection keys)
+    {
+        Sync sync = this.lock.writeLock();
+        try
+        {
+            sync.acquire();
+            m_changesStarted.incrementAndGet();
+            try
+            {
+                this.removeKeys(keys instanceof Set ? keys : new HashSet(keys));
+            }
+            finally
+            {
+                m_changesFinished.incrementAndGet();
+                sync.release();
+            }
+        }
+        catch (InterruptedException ignore)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes the values whose keys start with the given prefix.
+     *
+     * @param prefix the prefix of the keys as Strings
+     */
+    public void removeIf(String prefix)
+    {
+        Sync sync = this.lock.writeLock();
+        try
+        {
+            sync.acquire();
+            m_changesStarted.incrementAndGet();
+            try
+            {
+                final List keys = new ArrayList();
+                for (Enumeration e = this.doGetKeys(); e.hasMoreElements();)
+                {
+                    final Object key = e.nextElement();
+                    if (String.valueOf(key).startsWith(prefix))
+                    {
+                        keys.add(key);
+                    }
+                }
+                this.removeKeys(keys);
+            }
+            finally
+            {
+                m_changesFinished.incrementAndGet();
+                sync.release();
+            }
+        }
+        catch (InterruptedException ignore)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes the given keys and counts them.  Must hold the write lock.
+     */
+    private void removeKeys(Collection keys)
+    {
+        this.countSize();
+        int removed = 0;
+        if (m_size.get() >= 0)
+        {
+            for (Iterator i = keys.iterator(); i.hasNext();)
+            {
+                if (this.doContainsKey(i.next()))
+                {
+                    removed++;
+                }
+            }
+        }
+        try
+        {
+            this.doRemoveAll(keys);
+        }
+        catch (RuntimeException e)
+        {
+            m_size.set(-1);
+            throw e;
+        }
+        this.addToSize(-removed);
+    }
+
+    /**
+     * Counts the objects with doGetSize(), unless they are counted
+     * already.  Must hold the write lock.
+     */
+    private int countSize()
+    {
+        int size = m_size.get();
+        if (size < 0)
+        {
+            size = this.doGetSize();
+            if (size >= 0)
+            {
+                m_size.set(size);
+                m_sizeInstrument.setValue( size );
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Counts the objects before the first change, so that the changes
+     * keep the count and the size instrument up to date.  Called before
+     * taking the locks of a change, as counting needs the write lock.
+     */
+    private void initSize()
+    {
+        if (m_size.get() < 0)
+        {
+            this.size();
+        }
+    }
+
+    private void addToSize(int delta)
+    {
+        int size;
+        do
+        {
+            size = m_size.get();
+            if (size < 0)
+            {
+                return;
+            }
+        }
+        while (!m_size.compareAndSet(size, size + delta));
+        m_sizeInstrument.setValue( size + delta );
+    }
+
+    /**
+     * Returns the locks to take for reading a key: the read lock, and with
+     * per key locking the lock of the key's stripe.
+     */
+    private Sync[] readSyncs(Object key)
+    {
+        if (this.isPerKeyLocking())
+        {
+            return new Sync[] { this.lock.readLock(), this.stripe(key) };
+        }
+        return new Sync[] { this.lock.readLock() };
+    }
+
+    /**
+     * Returns the locks to take for reading many keys: the read lock, and
+     * with per key locking the locks of their stripes, in the order of the
+     * stripes.
+     */
+    private Sync[] readSyncs(Collection keys)
+    {
+        if (!this.isPerKeyLocking())
+        {
+            return new Sync[] { this.lock.readLock() };
+        }
+        final boolean[] used = new boolean[STRIPES];
+        int count = 1;
+        for (Iterator i = keys.iterator(); i.hasNext();)
+        {
+            final int stripe = stripeOf(i.next());
+            if (!used[stripe])
+            {
+                used[stripe] = true;
+                count++;
+            }
+        }
+        final Sync[] syncs = new Sync[count];
+        syncs[0] = this.lock.readLock();
+        for (int i = 0, j = 1; i < STRIPES; i++)
+        {
+            if (used[i])
+            {
+                syncs[j++] = m_stripes[i];
+            }
+        }
+        return syncs;
+    }
+
+    /**
+     * Returns the locks to take for changing a key: the write lock, or with
+     * per key locking the read lock and the lock of the key's stripe.
+     */
+    private Sync[] writeSyncs(Object key)
+    {
+        if (this.isPerKeyLocking())
+        {
+            return new Sync[] { this.lock.readLock(), this.stripe(key) };
+        }
+        return new Sync[] { this.lock.writeLock() };
+    }
+
+    private Sync stripe(Object key)
+    {
+        return m_stripes[stripeOf(key)];
+    }
+
+    private static int stripeOf(Object key)
+    {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return hash & (STRIPES - 1);
+    }
+
+    private static void acquire(Sync[] syncs) throws InterruptedException
+    {
+        for (int i = 0; i < syncs.length; i++)
+        {
+            try
+            {
+                syncs[i].acquire();
+            }
+            catch (InterruptedException e)
+            {
+                while (--i >= 0)
+                {
+                    syncs[i].release();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static void release(Sync[] syncs)
+    {
+        for (int i = syncs.length - 1; i >= 0; i--)
+        {
+            syncs[i].release();
+        }
+    }
+
     public void setInstrumentableName(String name)
     {
         m_instrumentableName = name;    
@@ -301,6 +792,18 @@ implements Store, ThreadSafe, Component {
      */
     protected abstract Object doGet( Object key );
 
+    /**
+     * Get the object associated to the given unique key without taking
+     * any lock, in per key locking.  A change of the key meanwhile may
+     * make it fail, so it throws its failures rather than reporting them,
+     * and get() then reads the key again with the locks.
+     * The default calls doGet().
+     */
+    protected Object doGetOptimistic( Object key ) throws Exception
+    {
+        return this.doGet(key);
+    }
+
     /**
      * Store the given object. It is up to the
      * caller to ensure that the key has a persistent state across
@@ -340,4 +843,46 @@ implements Store, ThreadSafe, Component {
      * obtained.
      */
     protected abstract int doGetSize();
+
+    /**
+     * Put the objects associated to the given keys into the found Map.
+     * The default gets them one by one with doGet().
+     */
+    protected void doGetAll( Collection keys, Map found )
+    {
+        for (Iterator i = keys.iterator(); i.hasNext();)
+        {
+            final Object key = i.next();
+            final Object value = this.doGet(key);
+            if (value != null)
+            {
+                found.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Store the given objects.  The default stores them one by one with
+     * doStore().
+     */
+    protected void doStoreAll( Map objects ) throws IOException
+    {
+        for (Iterator i = objects.entrySet().iterator(); i.hasNext();)
+        {
+            final Map.Entry entry = (Map.Entry)i.next();
+            this.doStore(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Remove the objects associated to the given keys.  The default
+     * removes them one by one with doRemove().
+     */
+    protected void doRemoveAll( Collection keys )
+    {
+        for (Iterator i = keys.iterator(); i.hasNext();)
+        {
+            this.doRemove(i.next());
+        }
+    }
 }
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameterizable;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.excalibur.store.Serializer;
+
+/**
+ * A Serializer writing a compact binary form of Strings, byte arrays and
+ * registered Externalizable classes.  All other objects are written with
+ * Java serialization.
+ * <p>
+ * Each object starts with a tag byte, followed by the UTF-8 bytes of a
+ * String, the bytes of a byte array, or the number of a registered class
+ * and the data written by its writeExternal() method.  Objects nested by
+ * writeObject() are written in the same form, preceded by their length.
+ * Bytes written by Java serialization are read as well, so a store can
+ * switch to this Serializer without losing its objects.
+ * <p>
+ * The classes are numbered in the order they are registered, so classes
+ * may only be added at the end of the list once objects have been stored.
+ * Classes must be registered before the Serializer is used.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: BinarySerializer.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+public class BinarySerializer
+    implements Serializer, Parameterizable
+{
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_BYTES = 2;
+    private static final byte TAG_EXTERNALIZABLE = 3;
+
+    /** The first byte written by Java serialization */
+    private static final byte JAVA_MAGIC = (byte)0xAC;
+
+    private final JavaSerializer m_javaSerializer = new JavaSerializer();
+
+    /** The registered classes, by number */
+    private final List m_classes = new ArrayList();
+
+    /** The numbers of the registered classes, by class */
+    private final Map m_numbers = new HashMap();
+
+    /**
+     * Registers Externalizable classes.
+     * <UL>
+     *  <LI>externalizables: Whitespace or comma separated list of the
+     *      names of Externalizable classes (Default: none)</LI>
+     * </UL>
+     *
+     * @param params Serializer parameters
+     * @exception ParameterException
+     */
+    public void parameterize( Parameters params ) throws ParameterException
+    {
+        final StringTokenizer names =
+            new StringTokenizer( params.getParameter( "externalizables", "" ), " \t\r\n," );
+        while( names.hasMoreTokens() )
+        {
+            final String name = names.nextToken();
+            try
+            {
+                register( SerializerFactory.loadClass( name ) );
+            }
+            catch( ClassNotFoundException e )
+            {
+                throw new ParameterException( "Unable to load class " + name, e );
+            }
+        }
+    }
+
+    /**
+     * Registers an Externalizable class.
+     *
+     * @param type The class, which must have a public no-argument constructor
+     */
+    public void register( Class type )
+    {
+        if( !Externalizable.class.isAssignableFrom( type ) )
+        {
+            throw new IllegalArgumentException( type.getName() + " is not Externalizable" );
+        }
+        if( !m_numbers.containsKey( type ) )
+        {
+            m_numbers.put( type, new Integer( m_classes.size() ) );
+            m_classes.add( type );
+        }
+    }
+
+    public byte[] serialize( Object object ) throws IOException
+    {
+        if( object instanceof String )
+        {
+            final byte[] string = ( (String)object ).getBytes( "UTF-8" );
+            final byte[] bytes = new byte[ string.length + 1 ];
+            bytes[ 0 ] = TAG_STRING;
+            System.arraycopy( string, 0, bytes, 1, string.length );
+            return bytes;
+        }
+        if( object instanceof byte[] )
+        {
+            final byte[] value = (byte[])object;
+            final byte[] bytes = new byte[ value.length + 1 ];
+            bytes[ 0 ] = TAG_BYTES;
+            System.arraycopy( value, 0, bytes, 1, value.length );
+            return bytes;
+        }
+        if( object == null )
+        {
+            return new byte[] { TAG_NULL };
+        }
+
+        final Integer number = (Integer)m_numbers.get( object.getClass() );
+        if( number == null )
+        {
+            return m_javaSerializer.serialize( object );
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+        final BinaryObjectOutput out = new BinaryObjectOutput( bytes );
+        out.writeByte( TAG_EXTERNALIZABLE );
+        Varint.write( out, number.intValue() );
+        ( (Externalizable)object ).writeExternal( out );
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public Object deserialize( byte[] bytes ) throws IOException
+    {
+        if( bytes.length == 0 )
+        {
+            throw new IOException( "No bytes to deserialize" );
+        }
+        switch( bytes[ 0 ] )
+        {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return new String( bytes, 1, bytes.length - 1, "UTF-8" );
+            case TAG_BYTES:
+                final byte[] value = new byte[ bytes.length - 1 ];
+                System.arraycopy( bytes, 1, value, 0, value.length );
+                return value;
+            case TAG_EXTERNALIZABLE:
+                return readExternalizable( bytes );
+            case JAVA_MAGIC:
+                return m_javaSerializer.deserialize( bytes );
+            default:
+                throw new IOException( "Unknown object tag " + bytes[ 0 ] );
+        }
+    }
+
+    private Object readExternalizable( byte[] bytes ) throws IOException
+    {
+        final BinaryObjectInput in = new BinaryObjectInput( new ByteArrayInputStream( bytes, 1, bytes.length - 1 ) );
+        final int number = Varint.read( in );
+        if( number >= m_classes.size() )
+        {
+            throw new IOException( "Unknown Externalizable class number " + number );
+        }
+        final Class type = (Class)m_classes.get( number );
+        final Externalizable object;
+        try
+        {
+            object = (Externalizable)type.newInstance();
+            object.readExternal( in );
+        }
+        catch( ClassNotFoundException e )
+        {
+            throw new IOException( "Unable to deserialize " + type.getName() + ": " + e );
+        }
+        catch( InstantiationException e )
+        {
+            throw new IOException( "Unable to create " + type.getName() + ": " + e );
+        }
+        catch( IllegalAccessException e )
+        {
+            throw new IOException( "Unable to create " + type.getName() + ": " + e );
+        }
+        return object;
+    }
+
+    /**
+     * The ObjectOutput handed to writeExternal().  Nested objects are
+     * written by this Serializer, preceded by their length.
+     */
+    private final class BinaryObjectOutput
+        extends DataOutputStream
+        implements ObjectOutput
+    {
+        BinaryObjectOutput( OutputStream out )
+        {
+            super( out );
+        }
+
+        public void writeObject( Object object ) throws IOException
+        {
+            final byte[] bytes = serialize( object );
+            Varint.write( this, bytes.length );
+            write( bytes );
+        }
+    }
+
+    /**
+     * The ObjectInput handed to readExternal().
+     */
+    private final class BinaryObjectInput
+        extends DataInputStream
+        implements ObjectInput
+    {
+        BinaryObjectInput( InputStream in )
+        {
+            super( in );
+        }
+
+        public Object readObject() throws IOException
+        {
+            final byte[] bytes = new byte[ Varint.read( this ) ];
+            readFully( bytes );
+            return deserialize( bytes );
+        }
+    }
+}
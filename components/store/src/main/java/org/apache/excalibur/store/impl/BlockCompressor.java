@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.IOException;
+
+/**
+ * Compresses byte arrays in the block format of LZ4: a sequence of
+ * tokens, each followed by literal bytes and a back reference of at most
+ * 64KB.  It trades compression ratio for speed, which suits objects which
+ * are written and read again often, like cached objects.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: BlockCompressor.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+final class BlockCompressor
+{
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+
+    /** The last bytes of a block are always literals */
+    private static final int LAST_LITERALS = 5;
+
+    /** No match starts in the last bytes of a block */
+    private static final int MATCH_LIMIT = 12;
+
+    private BlockCompressor()
+    {
+    }
+
+    /**
+     * Compresses bytes.
+     *
+     * @param src The bytes to compress
+     * @return The compressed bytes, or <code>null</code> if they are not
+     *         smaller than the given bytes
+     */
+    static byte[] compress( byte[] src )
+    {
+        final int length = src.length;
+        final byte[] dst = new byte[ length + length / 255 + 16 ];
+        final int[] table = new int[ 1 << HASH_LOG ];
+        final int limit = length - MATCH_LIMIT;
+        int anchor = 0;
+        int dp = 0;
+        int i = 0;
+
+        while( i < limit )
+        {
+            final int sequence = readInt( src, i );
+            final int hash = ( sequence * -1640531535 ) >>> ( 32 - HASH_LOG );
+            int ref = table[ hash ] - 1;
+            table[ hash ] = i + 1;
+            if( ref < 0 || i - ref > MAX_OFFSET || readInt( src, ref ) != sequence )
+            {
+                i++;
+                continue;
+            }
+
+            // extend the match backwards over the pending literals
+            while( i > anchor && ref > 0 && src[ i - 1 ] == src[ ref - 1 ] )
+            {
+                i--;
+                ref--;
+            }
+            int matchLength = MIN_MATCH;
+            final int maxLength = length - LAST_LITERALS - i;
+            while( matchLength < maxLength && src[ i + matchLength ] == src[ ref + matchLength ] )
+            {
+                matchLength++;
+            }
+
+            final int literals = i - anchor;
+            final int token = dp++;
+            dp = writeLength( dst, dp, literals );
+            System.arraycopy( src, anchor, dst, dp, literals );
+            dp += literals;
+            dst[ dp++ ] = (byte)( i - ref );
+            dst[ dp++ ] = (byte)( ( i - ref ) >>> 8 );
+            dp = writeLength( dst, dp, matchLength - MIN_MATCH );
+            dst[ token ] = (byte)( ( Math.min( literals, 15 ) << 4 )
+                                   | Math.min( matchLength - MIN_MATCH, 15 ) );
+
+            i += matchLength;
+            anchor = i;
+            if( dp >= length )
+            {
+                return null;
+            }
+        }
+
+        final int literals = length - anchor;
+        final int token = dp++;
+        dp = writeLength( dst, dp, literals );
+        System.arraycopy( src, anchor, dst, dp, literals );
+        dp += literals;
+        dst[ token ] = (byte)( Math.min( literals, 15 ) << 4 );
+        if( dp >= length )
+        {
+            return null;
+        }
+
+        final byte[] compressed = new byte[ dp ];
+        System.arraycopy( dst, 0, compressed, 0, dp );
+        return compressed;
+    }
+
+    /**
+     * Decompresses bytes returned by {@link #compress(byte[])}.
+     *
+     * @param src The buffer holding the compressed bytes
+     * @param offset The offset of the compressed bytes
+     * @param length The number of compressed bytes
+     * @param originalLength The number of bytes before compression
+     * @return The decompressed bytes
+     * @exception IOException If the bytes are corrupt
+     */
+    static byte[] decompress( byte[] src, int offset, int length, int originalLength )
+        throws IOException
+    {
+        final byte[] dst = new byte[ originalLength ];
+        final int end = offset + length;
+        int sp = offset;
+        int dp = 0;
+        try
+        {
+            while( true )
+            {
+                final int token = src[ sp++ ] & 0xFF;
+                int literals = token >>> 4;
+                if( literals == 15 )
+                {
+                    int b;
+                    do
+                    {
+                        b = src[ sp++ ] & 0xFF;
+                        literals += b;
+                    }
+                    while( b == 255 );
+                }
+                System.arraycopy( src, sp, dst, dp, literals );
+                sp += literals;
+                dp += literals;
+                if( sp >= end )
+                {
+                    break;
+                }
+
+                final int matchOffset = ( src[ sp++ ] & 0xFF ) | ( ( src[ sp++ ] & 0xFF ) << 8 );
+                int matchLength = token & 0x0F;
+                if( matchLength == 15 )
+                {
+                    int b;
+                    do
+                    {
+                        b = src[ sp++ ] & 0xFF;
+                        matchLength += b;
+                    }
+                    while( b == 255 );
+                }
+                matchLength += MIN_MATCH;
+                int ref = dp - matchOffset;
+                if( matchOffset == 0 || ref < 0 || dp + matchLength > originalLength )
+                {
+                    throw new IOException( "Corrupt compressed block at " + ( sp - offset ) );
+                }
+                // byte by byte, as the match may overlap the bytes it copies
+                for( int i = 0; i < matchLength; i++ )
+                {
+                    dst[ dp++ ] = dst[ ref++ ];
+                }
+            }
+        }
+        catch( IndexOutOfBoundsException e )
+        {
+            throw new IOException( "Corrupt compressed block at " + ( sp - offset ) );
+        }
+        if( dp != originalLength )
+        {
+            throw new IOException( "Compressed block has " + dp + " bytes instead of "
+                                   + originalLength );
+        }
+        return dst;
+    }
+
+    /**
+     * Writes the part of a length which does not fit into its token.
+     */
+    private static int writeLength( byte[] dst, int dp, int length )
+    {
+        if( length >= 15 )
+        {
+            length -= 15;
+            while( length >= 255 )
+            {
+                dst[ dp++ ] = (byte)255;
+                length -= 255;
+            }
+            dst[ dp++ ] = (byte)length;
+        }
+        return dp;
+    }
+
+    private static int readInt( byte[] src, int i )
+    {
+        return ( src[ i ] & 0xFF ) | ( ( src[ i + 1 ] & 0xFF ) << 8 )
+            | ( ( src[ i + 2 ] & 0xFF ) << 16 ) | ( src[ i + 3 ] << 24 );
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.IOException;
+
+import org.apache.excalibur.store.Serializer;
+
+/**
+ * A Serializer which compresses the bytes of another Serializer.
+ * Bytes shorter than a threshold, and bytes which do not get smaller,
+ * are left as they are, so objects written without compression can
+ * still be read.  The compressed bytes start with a marker byte which
+ * neither Java serialization nor {@link BinarySerializer} write first.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: CompressingSerializer.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+public class CompressingSerializer
+    implements Serializer
+{
+    /** The first byte of compressed bytes */
+    static final byte COMPRESSED = (byte)0xC4;
+
+    private final Serializer m_serializer;
+    private final int m_threshold;
+
+    /**
+     * Create a new CompressingSerializer.
+     *
+     * @param serializer The Serializer whose bytes are compressed
+     * @param threshold The number of bytes below which bytes are not
+     *                  compressed
+     */
+    public CompressingSerializer( Serializer serializer, int threshold )
+    {
+        m_serializer = serializer;
+        m_threshold = threshold;
+    }
+
+    public byte[] serialize( Object object ) throws IOException
+    {
+        final byte[] bytes = m_serializer.serialize( object );
+        if( bytes.length < m_threshold )
+        {
+            return bytes;
+        }
+        final byte[] compressed = BlockCompressor.compress( bytes );
+        if( compressed == null || compressed.length + 6 >= bytes.length )
+        {
+            return bytes;
+        }
+
+        final byte[] result = new byte[ compressed.length + 6 ];
+        result[ 0 ] = COMPRESSED;
+        int pos = Varint.write( result, 1, bytes.length );
+        System.arraycopy( compressed, 0, result, pos, compressed.length );
+        pos += compressed.length;
+        if( pos == result.length )
+        {
+            return result;
+        }
+        final byte[] trimmed = new byte[ pos ];
+        System.arraycopy( result, 0, trimmed, 0, pos );
+        return trimmed;
+    }
+
+    public Object deserialize( byte[] bytes ) throws IOException
+    {
+        if( bytes.length == 0 || bytes[ 0 ] != COMPRESSED )
+        {
+            return m_serializer.deserialize( bytes );
+        }
+        final int length = Varint.read( bytes, 1 );
+        final int pos = 1 + Varint.size( length );
+        return m_serializer.deserialize(
+            BlockCompressor.decompress( bytes, pos, bytes.length - pos, length ) );
+    }
+}
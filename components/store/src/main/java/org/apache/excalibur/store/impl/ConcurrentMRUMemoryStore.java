@@ -0,0 +1,696 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.component.Component;
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameterizable;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.service.ServiceException;
+import org.apache.avalon.framework.service.ServiceManager;
+import org.apache.avalon.framework.service.Serviceable;
+import org.apache.avalon.framework.thread.ThreadSafe;
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.Instrumentable;
+import org.apache.excalibur.instrument.ValueInstrument;
+import org.apache.excalibur.store.Store;
+import org.apache.excalibur.store.StoreJanitor;
+
+/**
+ * An MRU (Most Recently Used) cache for many concurrent readers.  It is a
+ * drop in replacement for the {@link MRUMemoryStore}, taking its maxobjects
+ * and use-persistent-cache parameters and providing the size, hits and
+ * misses instruments.
+ * <p>
+ * The keys are spread over a number of segments by their hash code.  Each
+ * segment is an access ordered LinkedHashMap with its own lock, so threads
+ * working with keys in different segments never wait for each other, and
+ * moving a key to the top of its segment on a hit takes constant time.
+ * When a segment is full its least recently used entry is removed.  Entries
+ * which are removed to make room are swapped to the persistent store after
+ * the segment lock has been released.  Until the persistent store has them
+ * they are still found by get(), and a hold(), remove() or clear() of their
+ * key meanwhile keeps them from reaching the persistent store at all.
+ * <p>
+ * Recency is tracked per segment, so the entry removed is the least recently
+ * used of its segment rather than of the whole store.  With the default 16
+ * segments and a store of a useful size the difference is not noticeable.
+ *
+ * @avalon.component
+ * @avalon.service type=Store
+ * @x-avalon.info name=concurrent-mru-store
+ * @x-avalon.lifestyle type=singleton
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: ConcurrentMRUMemoryStore.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+public class ConcurrentMRUMemoryStore
+    extends AbstractLogEnabled
+    implements Store, Parameterizable, Serviceable, Disposable, ThreadSafe, Instrumentable, Component
+{
+    private String m_instrumentableName;
+    private int m_maxobjects;
+    private boolean m_persistent;
+    private Segment[] m_segments;
+    private final AtomicInteger m_size = new AtomicInteger();
+    private final AtomicInteger m_freeIndex = new AtomicInteger();
+    private Store m_persistentStore;
+    private StoreJanitor m_storeJanitor;
+    private ServiceManager m_manager;
+
+    private ValueInstrument m_sizeInstrument = new ValueInstrument("size");
+    private CounterInstrument m_hitsInstrument = new CounterInstrument("hits");
+    private CounterInstrument m_missesInstrument = new CounterInstrument("misses");
+
+    /**
+     * Get components of the ComponentLocator
+     *
+     * @param manager The ComponentLocator
+     * @avalon.dependency type=org.apache.excalibur.store.Store
+     * @avalon.dependency type=org.apache.excalibur.store.StoreJanitor
+     */
+    public void service( ServiceManager manager )
+        throws ServiceException
+    {
+        m_manager = manager;
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Looking up " + StoreJanitor.ROLE );
+        }
+        m_storeJanitor = (StoreJanitor)manager.lookup( StoreJanitor.ROLE );
+    }
+
+    /**
+     * Initialize the ConcurrentMRUMemoryStore.
+     * A few options can be used:
+     * <UL>
+     *  <LI>maxobjects: Maximum number of objects stored in memory (Default: 100 objects)</LI>
+     *  <LI>use-persistent-cache: Use persistent cache to keep objects persisted after
+     *      container shutdown or not (Default: false)</LI>
+     *  <LI>segments: Number of independently locked segments the objects are spread
+     *      over.  Never more than maxobjects (Default: 16)</LI>
+     * </UL>
+     *
+     * @param params Store parameters
+     * @exception ParameterException
+     */
+    public void parameterize( Parameters params ) throws ParameterException
+    {
+        m_maxobjects = params.getParameterAsInteger( "maxobjects", 100 );
+        m_persistent = params.getParameterAsBoolean( "use-persistent-cache", false );
+        int segments = params.getParameterAsInteger( "segments", 16 );
+        if( ( m_maxobjects < 1 ) )
+        {
+            throw new ParameterException( "ConcurrentMRUMemoryStore maxobjects must be at least 1!" );
+        }
+        if( ( segments < 1 ) )
+        {
+            throw new ParameterException( "ConcurrentMRUMemoryStore segments must be at least 1!" );
+        }
+
+        if ( m_persistent )
+        {
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Looking up " + Store.PERSISTENT_STORE );
+            }
+            try
+            {
+                m_persistentStore = (Store)m_manager.lookup( Store.PERSISTENT_STORE );
+            }
+            catch (ServiceException se)
+            {
+                throw new ParameterException("Unable to look up persistent store.", se);
+            }
+        }
+
+        // Share maxobjects out so that the segments add up to exactly maxobjects.
+        segments = Math.min( segments, m_maxobjects );
+        m_segments = new Segment[ segments ];
+        for( int i = 0; i < segments; i++ )
+        {
+            int capacity = m_maxobjects / segments + ( i < m_maxobjects % segments ? 1 : 0 );
+            m_segments[ i ] = new Segment( capacity );
+        }
+        m_storeJanitor.register( this );
+    }
+
+    /**
+     * Dispose the component
+     */
+    public void dispose()
+    {
+        if( m_manager != null )
+        {
+            getLogger().debug( "Disposing component!" );
+
+            if( m_storeJanitor != null )
+            {
+                m_storeJanitor.unregister( this );
+            }
+            m_manager.release( m_storeJanitor );
+            m_storeJanitor = null;
+
+            // save all cache entries to filesystem
+            if( m_persistent )
+            {
+                getLogger().debug( "Final cache size: " + m_size.get() );
+                for( int i = 0; i < m_segments.length; i++ )
+                {
+                    Map entries = m_segments[ i ].removeAll();
+                    m_size.addAndGet( -entries.size() );
+                    for( Iterator iter = entries.entrySet().iterator(); iter.hasNext(); )
+                    {
+                        Map.Entry entry = (Map.Entry)iter.next();
+                        try
+                        {
+                            if( checkSerializable( entry.getValue() ) )
+                            {
+                                m_persistentStore.store( entry.getKey(), entry.getValue() );
+                            }
+                        }
+                        catch( IOException ioe )
+                        {
+                            getLogger().error( "Error in dispose()", ioe );
+                        }
+                    }
+                }
+            }
+            m_manager.release( m_persistentStore );
+            m_persistentStore = null;
+        }
+
+        m_manager = null;
+    }
+
+    /**
+     * Store the given object in a persistent state. It is up to the
+     * caller to ensure that the key has a persistent state across
+     * different JVM executions.
+     *
+     * @param key The key for the object to store
+     * @param value The object to store
+     */
+    public void store( Object key, Object value )
+    {
+        hold( key, value );
+    }
+
+    /**
+     * This method holds the requested object in the segment for its key.
+     * If the segment is full, its least recently used object is removed
+     * and, if configured, stored in the persistent store.
+     *
+     * @param key The key of the object to be stored
+     * @param value The object to be stored
+     */
+    public void hold( Object key, Object value )
+    {
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Holding object in memory:" );
+            getLogger().debug( "  key: " + key );
+            getLogger().debug( "  value: " + value );
+        }
+        Segment segment = segmentFor( key );
+        Evicted evicted = null;
+        synchronized( segment )
+        {
+            segment.cancelOverflow( key );
+            if( segment.put( key, value ) == null )
+            {
+                if( segment.size() > segment.m_capacity )
+                {
+                    evicted = evictEldest( segment );
+                }
+                else
+                {
+                    m_size.incrementAndGet();
+                }
+            }
+        }
+        m_sizeInstrument.setValue( m_size.get() );
+
+        if( evicted != null )
+        {
+            swap( segment, evicted );
+        }
+    }
+
+    /**
+     * Get the object associated to the given unique key.
+     *
+     * @param key The key of the requested object
+     * @return the requested object
+     */
+    public Object get( Object key )
+    {
+        Segment segment = segmentFor( key );
+        Object value;
+        synchronized( segment )
+        {
+            // Moves the key to the top of the segment.
+            value = segment.get( key );
+            if( value == null )
+            {
+                // ...or on its way to the persistent store
+                Evicted evicted = (Evicted)segment.m_overflowing.get( key );
+                if( evicted != null )
+                {
+                    value = evicted.m_value;
+                }
+            }
+        }
+        if( value != null )
+        {
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Found key: " + key.toString() );
+            }
+            m_hitsInstrument.increment();
+            return value;
+        }
+
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "NOT Found key: " + key.toString() );
+        }
+
+        /** try to fetch from filesystem */
+        if( m_persistent )
+        {
+            value = m_persistentStore.get( key );
+            if( value != null )
+            {
+                try
+                {
+                    boolean cached;
+                    synchronized( segment )
+                    {
+                        cached = segment.containsKey( key );
+                    }
+                    if( !cached )
+                    {
+                        hold( key, value );
+                    }
+                    m_hitsInstrument.increment();
+                    return value;
+                }
+                catch( Exception e )
+                {
+                    getLogger().error( "Error in get()!", e );
+                }
+            }
+        }
+        m_missesInstrument.increment();
+        return null;
+    }
+
+    /**
+     * Remove the object associated to the given key.
+     *
+     * @param key The key of to be removed object
+     */
+    public void remove( Object key )
+    {
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Removing object from store" );
+            getLogger().debug( "  key: " + key );
+        }
+        Segment segment = segmentFor( key );
+        synchronized( segment )
+        {
+            if( segment.remove( key ) != null )
+            {
+                m_size.decrementAndGet();
+            }
+            segment.cancelOverflow( key );
+        }
+        m_sizeInstrument.setValue( m_size.get() );
+
+        if( m_persistent && key != null )
+        {
+            synchronized( segment.m_overflowLock )
+            {
+                m_persistentStore.remove( key );
+            }
+        }
+    }
+
+    /**
+     * Clear the Store of all elements
+     */
+    public void clear()
+    {
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            Segment segment = m_segments[ i ];
+            List keys;
+            synchronized( segment )
+            {
+                keys = new ArrayList( segment.removeAll().keySet() );
+                m_size.addAndGet( -keys.size() );
+                keys.addAll( segment.cancelOverflows() );
+            }
+            if( m_persistent )
+            {
+                synchronized( segment.m_overflowLock )
+                {
+                    for( Iterator iter = keys.iterator(); iter.hasNext(); )
+                    {
+                        Object key = iter.next();
+                        if( key != null )
+                        {
+                            m_persistentStore.remove( key );
+                        }
+                    }
+                }
+            }
+        }
+        m_sizeInstrument.setValue( m_size.get() );
+    }
+
+    /**
+     * Indicates if the given key is associated to a contained object.
+     *
+     * @param key The key of the object
+     * @return true if the key exists
+     */
+    public boolean containsKey( Object key )
+    {
+        Segment segment = segmentFor( key );
+        boolean cached;
+        synchronized( segment )
+        {
+            cached = segment.containsKey( key ) || segment.m_overflowing.containsKey( key );
+        }
+        if( m_persistent )
+        {
+            return ( cached || m_persistentStore.containsKey( key ) );
+        }
+        else
+        {
+            return cached;
+        }
+    }
+
+    /**
+     * Returns the list of used keys as an Enumeration.  The enumeration
+     * is a snapshot, taken one segment at a time.
+     *
+     * @return the enumeration of the cache
+     */
+    public Enumeration keys()
+    {
+        List keys = new ArrayList( m_size.get() );
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            Segment segment = m_segments[ i ];
+            synchronized( segment )
+            {
+                keys.addAll( segment.keySet() );
+            }
+        }
+        return Collections.enumeration( keys );
+    }
+
+    /**
+     * Returns count of the objects in the store, or -1 if could not be
+     * obtained.
+     */
+    public int size()
+    {
+        return m_size.get();
+    }
+
+    /**
+     * Frees some of the fast memory used by this store.
+     * It removes the least recently used element of the next segment
+     * which is not empty.  Each call starts with a different segment,
+     * so repeated calls free memory evenly across the store.
+     */
+    public void free()
+    {
+        try
+        {
+            int start = m_freeIndex.getAndIncrement();
+            for( int i = 0; i < m_segments.length; i++ )
+            {
+                Segment segment =
+                    m_segments[ ( ( start + i ) & Integer.MAX_VALUE ) % m_segments.length ];
+                Evicted evicted;
+                synchronized( segment )
+                {
+                    if( segment.isEmpty() )
+                    {
+                        continue;
+                    }
+                    evicted = evictEldest( segment );
+                }
+                m_size.decrementAndGet();
+
+                if( getLogger().isDebugEnabled() )
+                {
+                    getLogger().debug( "Freeing cache." );
+                    getLogger().debug( "  key: " + evicted.m_key );
+                    getLogger().debug( "  value: " + evicted.m_value );
+                }
+
+                swap( segment, evicted );
+                m_sizeInstrument.setValue( m_size.get() );
+                return;
+            }
+        }
+        catch( Exception e )
+        {
+            getLogger().error( "Error in free()", e );
+        }
+    }
+
+    /**
+     * Returns the segment which holds the given key.
+     */
+    private Segment segmentFor( Object key )
+    {
+        // Spread the hash so that keys with similar hash codes use different segments.
+        int hash = key.hashCode();
+        hash ^= ( hash >>> 20 ) ^ ( hash >>> 12 );
+        hash ^= ( hash >>> 7 ) ^ ( hash >>> 4 );
+        return m_segments[ ( hash & Integer.MAX_VALUE ) % m_segments.length ];
+    }
+
+    /**
+     * Removes the least recently used entry of the segment.  If the store
+     * is persistent, the entry is found by get() until swap() has stored
+     * it.  Must hold the segment lock.
+     */
+    private Evicted evictEldest( Segment segment )
+    {
+        Evicted evicted = segment.removeEldest();
+        if( m_persistent )
+        {
+            segment.cancelOverflow( evicted.m_key );
+            segment.m_overflowing.put( evicted.m_key, evicted );
+        }
+        return evicted;
+    }
+
+    /**
+     * Stores an object removed from memory in the persistent store, if
+     * configured, unless its key was held or removed meanwhile.  Never
+     * called while holding a segment lock.
+     */
+    private void swap( Segment segment, Evicted evicted )
+    {
+        if( m_persistent )
+        {
+            try
+            {
+                // Swap object on fs.
+                if( checkSerializable( evicted.m_value ) )
+                {
+                    synchronized( segment.m_overflowLock )
+                    {
+                        synchronized( segment )
+                        {
+                            if( evicted.m_cancelled )
+                            {
+                                return;
+                            }
+                        }
+                        m_persistentStore.store( evicted.m_key, evicted.m_value );
+                    }
+                }
+            }
+            catch( Exception e )
+            {
+                getLogger().error( "Error storing object on fs", e );
+            }
+            finally
+            {
+                synchronized( segment )
+                {
+                    if( segment.m_overflowing.get( evicted.m_key ) == evicted )
+                    {
+                        segment.m_overflowing.remove( evicted.m_key );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * This method checks if an object is seriazable.
+     *
+     * @param object The object to be checked
+     * @return true if the object is storeable
+     */
+    private boolean checkSerializable( Object object )
+    {
+
+        if( object == null ) return false;
+
+        return ( object instanceof java.io.Serializable );
+    }
+
+    public void setInstrumentableName(String name)
+    {
+        m_instrumentableName = name;
+    }
+
+    public String getInstrumentableName()
+    {
+        return m_instrumentableName;
+    }
+
+    public Instrument[] getInstruments()
+    {
+        return new Instrument[] { m_sizeInstrument, m_hitsInstrument, m_missesInstrument };
+    }
+
+    public Instrumentable[] getChildInstrumentables() {
+        return Instrumentable.EMPTY_INSTRUMENTABLE_ARRAY;
+    }
+
+    /**
+     * One segment of the store.  An access ordered map, so its eldest entry
+     * is the least recently used one.  All access is synchronized on the
+     * segment.
+     */
+    private static final class Segment extends LinkedHashMap
+    {
+        private final int m_capacity;
+
+        /** The evicted entries not yet stored in the persistent store, by key. */
+        private final Map m_overflowing = new HashMap();
+
+        /** Orders the calls to the persistent store for the keys of this
+            segment, so that a remove() never overtakes the store() of an
+            object it removed. */
+        private final Object m_overflowLock = new Object();
+
+        Segment( int capacity )
+        {
+            super( (int)( capacity * 1.2 ) + 1, 0.75f, true );
+            m_capacity = capacity;
+        }
+
+        /**
+         * Removes and returns the least recently used entry.
+         */
+        Evicted removeEldest()
+        {
+            Iterator iter = entrySet().iterator();
+            Map.Entry eldest = (Map.Entry)iter.next();
+            Evicted evicted = new Evicted( eldest.getKey(), eldest.getValue() );
+            iter.remove();
+            return evicted;
+        }
+
+        /**
+         * Keeps an evicted entry for the given key, if there is one on its
+         * way, from being stored in the persistent store.
+         */
+        void cancelOverflow( Object key )
+        {
+            Evicted evicted = (Evicted)m_overflowing.remove( key );
+            if( evicted != null )
+            {
+                evicted.m_cancelled = true;
+            }
+        }
+
+        /**
+         * Keeps all evicted entries on their way from being stored in the
+         * persistent store, and returns their keys.
+         */
+        List cancelOverflows()
+        {
+            List keys = new ArrayList( m_overflowing.keySet() );
+            for( Iterator iter = m_overflowing.values().iterator(); iter.hasNext(); )
+            {
+                ( (Evicted)iter.next() ).m_cancelled = true;
+            }
+            m_overflowing.clear();
+            return keys;
+        }
+
+        /**
+         * Removes and returns all of the entries.
+         */
+        synchronized Map removeAll()
+        {
+            Map entries = new LinkedHashMap( this );
+            clear();
+            return entries;
+        }
+    }
+
+    /**
+     * An entry removed from a segment, on its way to the persistent store.
+     */
+    private static final class Evicted
+    {
+        final Object m_key;
+        final Object m_value;
+
+        /** True if the key was held or removed meanwhile. */
+        boolean m_cancelled;
+
+        Evicted( Object key, Object value )
+        {
+            m_key = key;
+            m_value = value;
+        }
+    }
+}
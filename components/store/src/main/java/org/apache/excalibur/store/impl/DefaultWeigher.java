@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+import org.apache.excalibur.store.Weigher;
+
+/**
+ * A Weigher for any object.  Strings, arrays of primitives and the
+ * primitive wrappers are weighed by their layout in memory.  Other
+ * serializable objects are weighed by the length of their serialized form,
+ * which is slower but follows the size of the object graph.  Any other
+ * object is given a fixed weight.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: DefaultWeigher.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+public class DefaultWeigher
+    implements Weigher
+{
+    /** The weight given to objects which cannot be weighed. */
+    private final long m_defaultWeight;
+
+    /**
+     * Creates a DefaultWeigher which gives objects that cannot be weighed
+     * a weight of 1024 bytes.
+     */
+    public DefaultWeigher()
+    {
+        this( 1024 );
+    }
+
+    /**
+     * Creates a DefaultWeigher.
+     *
+     * @param defaultWeight The weight given to objects which cannot be weighed
+     */
+    public DefaultWeigher( long defaultWeight )
+    {
+        m_defaultWeight = defaultWeight;
+    }
+
+    public long weigh( Object key, Object value )
+    {
+        // The key is only worth weighing if it is a String.
+        long weight = ( key instanceof String ) ? weighSimple( key ) : 0;
+        long valueWeight = weighSimple( value );
+        if( valueWeight < 0 )
+        {
+            valueWeight = ( value instanceof Serializable )
+                ? weighSerialized( value ) : m_defaultWeight;
+        }
+        return weight + valueWeight;
+    }
+
+    /**
+     * Weighs objects with a known layout, or returns -1.
+     */
+    private long weighSimple( Object value )
+    {
+        if( value == null )
+        {
+            return 0;
+        }
+        else if( value instanceof String )
+        {
+            return 40 + 2 * ( (String)value ).length();
+        }
+        else if( value instanceof byte[] )
+        {
+            return 16 + ( (byte[])value ).length;
+        }
+        else if( value instanceof char[] )
+        {
+            return 16 + 2 * ( (char[])value ).length;
+        }
+        else if( value instanceof int[] )
+        {
+            return 16 + 4 * ( (int[])value ).length;
+        }
+        else if( value instanceof long[] )
+        {
+            return 16 + 8 * ( (long[])value ).length;
+        }
+        else if( value instanceof Long || value instanceof Double )
+        {
+            return 24;
+        }
+        else if( value instanceof Number || value instanceof Boolean
+            || value instanceof Character )
+        {
+            return 16;
+        }
+        return -1;
+    }
+
+    /**
+     * Weighs a serializable object by the length of its serialized form.
+     */
+    private long weighSerialized( Object value )
+    {
+        CountingOutputStream counter = new CountingOutputStream();
+        try
+        {
+            ObjectOutputStream out = new ObjectOutputStream( counter );
+            out.writeObject( value );
+            out.close();
+            return counter.m_count;
+        }
+        catch( IOException e )
+        {
+            // Not serializable after all, for example because of a field.
+            return m_defaultWeight;
+        }
+    }
+
+    /**
+     * Counts the bytes written to it and discards them.
+     */
+    private static final class CountingOutputStream extends OutputStream
+    {
+        private long m_count;
+
+        public void write( int b )
+        {
+            m_count++;
+        }
+
+        public void write( byte[] b, int off, int len )
+        {
+            m_count += len;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
+import org.apache.excalibur.store.Serializer;
+
+/**
+ * A Serializer using Java serialization.  Works for any Serializable
+ * object.  Classes are loaded by the context class loader of the current
+ * thread if they can be, so that a caller can choose the class loader.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: JavaSerializer.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+public class JavaSerializer
+    implements Serializer
+{
+    public byte[] serialize( Object object ) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( bytes );
+        out.writeObject( object );
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    public Object deserialize( byte[] bytes ) throws IOException
+    {
+        ObjectInputStream in = new ContextObjectInputStream( new ByteArrayInputStream( bytes ) );
+        try
+        {
+            return in.readObject();
+        }
+        catch( ClassNotFoundException e )
+        {
+            throw new IOException( "Unable to deserialize object: " + e );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * An ObjectInputStream which tries the context class loader first.
+     */
+    private static final class ContextObjectInputStream
+        extends ObjectInputStream
+    {
+        ContextObjectInputStream( InputStream in ) throws IOException
+        {
+            super( in );
+        }
+
+        protected Class resolveClass( ObjectStreamClass desc )
+            throws IOException, ClassNotFoundException
+        {
+            final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if( loader != null )
+            {
+                try
+                {
+                    return Class.forName( desc.getName(), false, loader );
+                }
+                catch( ClassNotFoundException e )
+                {
+                    // fall back to the default class loader
+                }
+            }
+            return super.resolveClass( desc );
+        }
+    }
+}
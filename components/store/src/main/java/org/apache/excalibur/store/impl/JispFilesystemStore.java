@@ -51,6 +51,9 @@ public class JispFilesystemStore extends AbstractJispFilesystemStore
      *    <LI> index-file = the name of the index file (Default: store.idx)
      *    </LI>
      *    <LI> order = The page size of the B-Tree</LI>
+     *    <LI> serializer, compression, compression-threshold = The
+     *    serializer of the values, see {@link SerializerFactory}
+     *    (Default: Java serialization)</LI>
      *  </UL>
      *
      * @param params the configuration paramters
@@ -69,6 +72,8 @@ public class JispFilesystemStore extends AbstractJispFilesystemStore
             throw new ParameterException("Unable to set directory", e);
         }
 
+        this.setSerializer(SerializerFactory.createSerializer(params));
+
         final String databaseName = params.getParameter("data-file", "store.dat");
         final String indexName = params.getParameter("index-file", "store.idx");
         final int order = params.getParameterAsInteger("order", 301);
@@ -0,0 +1,771 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameterizable;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.excalibur.store.Serializer;
+
+/**
+ * A persistent store which appends every change to a log, rather than
+ * writing a file per key.  The log is split into segment files of a fixed
+ * size which are mapped into memory.  An index in memory maps each key to
+ * the last record stored for it, so reading an object is a lookup in the
+ * index and a copy out of the mapped segment, and size() is the size of the
+ * index.
+ * <p>
+ * Storing an object appends a record with the key and the value; removing
+ * one appends a record with only the key.  The records which are no longer
+ * the latest for their key are dead.  When the dead records make up more
+ * than a configured share of the log, all live records are copied into new
+ * segments and the old segments are deleted.
+ * <p>
+ * Each record carries its length and a checksum.  On startup the segments
+ * are read in order to rebuild the index.  A record which was only partly
+ * written when the JVM stopped fails its checksum, and the rest of its
+ * segment is ignored.  As records are only ever appended, and compaction
+ * deletes the old segments only once their live records have been copied,
+ * the store can always be recovered to a consistent state.  Unless
+ * <code>sync</code> is set, the operating system decides when the
+ * changes reach the disk, so the last changes before a crash of the
+ * machine may be lost.
+ * <p>
+ * The keys and values are stored in the form written by the configured
+ * serializer.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: LogStructuredStore.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+public class LogStructuredStore extends AbstractReadWriteStore
+    implements Parameterizable,
+               Disposable
+{
+    /** Length of the record header: the length of the body and its checksum. */
+    private static final int HEADER_LENGTH = 8;
+
+    /** Record type of a stored object. */
+    private static final byte TYPE_STORE = 1;
+
+    /** Record type of a removed object. */
+    private static final byte TYPE_REMOVE = 2;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /** The file holding the id of the oldest segment which is still part of the log. */
+    private static final String BASE_FILE = "segments.base";
+
+    /** The directory of the segment files */
+    protected File m_directoryFile;
+
+    private int m_segmentSize;
+    private int m_compactionPercent;
+    private boolean m_sync;
+
+    /** The serializer of the keys and values */
+    private Serializer m_serializer;
+
+    /** The segments, oldest first.  The last one is appended to. */
+    private final List m_segments = new ArrayList();
+
+    /** The latest record for each key. */
+    private final Map m_index = new HashMap();
+
+    private int m_nextSegmentId;
+
+    /** The bytes of all records in all segments. */
+    private long m_totalBytes;
+
+    /** The bytes of the records which are no longer the latest for their key. */
+    private long m_deadBytes;
+
+    /**
+     *  Configure the Component.<br>
+     *  A few options can be used
+     *  <UL>
+     *    <LI> directory - The directory of the segment files</LI>
+     *    <LI> segment-size - The size of a segment file in bytes (Default: 16MB).
+     *         Objects larger than this get a segment of their own.</LI>
+     *    <LI> compaction-percent - Share of the log which may be taken up by dead
+     *         records before the log is compacted (Default: 50)</LI>
+     *    <LI> sync - Force each change to the disk before returning (Default: false)</LI>
+     *    <LI> serializer, compression, compression-threshold - The serializer of the
+     *         keys and values, see {@link SerializerFactory} (Default: Java serialization)</LI>
+     *  </UL>
+     *
+     * @param params the configuration paramters
+     * @exception  ParameterException
+     */
+    public void parameterize(Parameters params) throws ParameterException
+    {
+        m_directoryFile = new File(params.getParameter("directory"));
+        m_segmentSize = params.getParameterAsInteger("segment-size", 16 * 1024 * 1024);
+        m_compactionPercent = params.getParameterAsInteger("compaction-percent", 50);
+        m_sync = params.getParameterAsBoolean("sync", false);
+        m_serializer = SerializerFactory.createSerializer(params);
+        if (m_serializer == null)
+        {
+            m_serializer = new JavaSerializer();
+        }
+
+        if (m_segmentSize < 1024)
+        {
+            throw new ParameterException("LogStructuredStore segment-size has to be at least 1024");
+        }
+        if (m_compactionPercent < 1 || m_compactionPercent > 100)
+        {
+            throw new ParameterException("LogStructuredStore compaction-percent has to be between 1 and 100");
+        }
+        if (getLogger().isDebugEnabled())
+        {
+            getLogger().debug("Directory = " + m_directoryFile);
+            getLogger().debug("Segment size = " + m_segmentSize);
+            getLogger().debug("Compaction percent = " + m_compactionPercent);
+            getLogger().debug("Sync = " + m_sync);
+        }
+
+        try
+        {
+            if (!m_directoryFile.isDirectory() && !m_directoryFile.mkdirs())
+            {
+                throw new IOException("Unable to create directory " + m_directoryFile);
+            }
+            recover();
+        }
+        catch (IOException e)
+        {
+            getLogger().error("parameterize(..) Exception", e);
+            throw new ParameterException("Unable to open the log in " + m_directoryFile, e);
+        }
+    }
+
+    public void dispose()
+    {
+        getLogger().debug("Disposing");
+        closeSegments(m_segments);
+        m_segments.clear();
+        m_index.clear();
+    }
+
+    /*---------------------------------------------------------------
+     * AbstractReadWriteStore Methods
+     *-------------------------------------------------------------*/
+    protected Object doGet(Object key)
+    {
+        Location location = (Location)m_index.get(key);
+        if (location == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            ByteBuffer buffer = location.m_segment.m_buffer.duplicate();
+            int keyLength = buffer.getInt(location.m_offset + HEADER_LENGTH + 1);
+            int valueOffset = location.m_offset + HEADER_LENGTH + 5 + keyLength;
+            byte[] value = new byte[location.m_length - (valueOffset - location.m_offset)];
+            buffer.position(valueOffset);
+            buffer.get(value);
+            return m_serializer.deserialize(value);
+        }
+        catch (Exception e)
+        {
+            getLogger().error("Error reading object for key " + key, e);
+            return null;
+        }
+    }
+
+    protected void doStore(Object key, Object value) throws IOException
+    {
+        byte[] keyBytes = m_serializer.serialize(key);
+        byte[] valueBytes = m_serializer.serialize(value);
+        Location location = append(TYPE_STORE, keyBytes, valueBytes, m_sync);
+        kill((Location)m_index.put(key, location));
+        compactIfNeeded();
+    }
+
+    /**
+     * Appends the records of all objects and forces them to the disk once.
+     * The objects are serialized first, so a failing object stores none.
+     */
+    protected void doStoreAll(Map objects) throws IOException
+    {
+        Object[] keys = new Object[objects.size()];
+        byte[][] keyBytes = new byte[keys.length][];
+        byte[][] valueBytes = new byte[keys.length][];
+        int count = 0;
+        for (Iterator i = objects.entrySet().iterator(); i.hasNext(); count++)
+        {
+            Map.Entry entry = (Map.Entry)i.next();
+            keys[count] = entry.getKey();
+            keyBytes[count] = m_serializer.serialize(entry.getKey());
+            valueBytes[count] = m_serializer.serialize(entry.getValue());
+        }
+
+        int firstSegment = m_segments.size() - 1;
+        for (int i = 0; i < count; i++)
+        {
+            Location location = append(TYPE_STORE, keyBytes[i], valueBytes[i], false);
+            kill((Location)m_index.put(keys[i], location));
+        }
+        force(firstSegment);
+        compactIfNeeded();
+    }
+
+    protected void doRemove(Object key)
+    {
+        Location old = (Location)m_index.remove(key);
+        if (old == null)
+        {
+            return;
+        }
+
+        kill(old);
+        try
+        {
+            // The record of the removal is dead from the start.
+            kill(append(TYPE_REMOVE, m_serializer.serialize(key), new byte[0], m_sync));
+            compactIfNeeded();
+        }
+        catch (IOException e)
+        {
+            getLogger().error("Error removing object for key " + key, e);
+        }
+    }
+
+    /**
+     * Appends the records of all removals and forces them to the disk once.
+     */
+    protected void doRemoveAll(Collection keys)
+    {
+        int firstSegment = m_segments.size() - 1;
+        try
+        {
+            for (Iterator i = keys.iterator(); i.hasNext();)
+            {
+                Object key = i.next();
+                Location old = (Location)m_index.remove(key);
+                if (old != null)
+                {
+                    kill(old);
+                    kill(append(TYPE_REMOVE, m_serializer.serialize(key), new byte[0], false));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            getLogger().error("Error removing objects", e);
+        }
+        try
+        {
+            force(firstSegment);
+        }
+        catch (IOException e)
+        {
+            getLogger().error("Error forcing the log", e);
+        }
+        compactIfNeeded();
+    }
+
+    protected void doClear()
+    {
+        List segments = new ArrayList(m_segments);
+        m_segments.clear();
+        m_index.clear();
+        m_totalBytes = 0;
+        m_deadBytes = 0;
+        try
+        {
+            writeBase(newSegment(m_segmentSize).m_id);
+        }
+        catch (IOException e)
+        {
+            getLogger().error("Error creating a new segment", e);
+        }
+        deleteSegments(segments);
+    }
+
+    protected void doFree()
+    {
+        // Nothing is held in memory but the index.
+    }
+
+    protected boolean doContainsKey(Object key)
+    {
+        return m_index.containsKey(key);
+    }
+
+    protected Enumeration doGetKeys()
+    {
+        return Collections.enumeration(new ArrayList(m_index.keySet()));
+    }
+
+    protected int doGetSize()
+    {
+        return m_index.size();
+    }
+
+    /*---------------------------------------------------------------
+     * Log Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Appends a record to the last segment, or to a new one if it does not
+     * fit, and returns where it was written.
+     */
+    private Location append(byte type, byte[] key, byte[] value, boolean force) throws IOException
+    {
+        byte[] body = new byte[5 + key.length + value.length];
+        ByteBuffer bodyBuffer = ByteBuffer.wrap(body);
+        bodyBuffer.put(type);
+        bodyBuffer.putInt(key.length);
+        bodyBuffer.put(key);
+        bodyBuffer.put(value);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        int length = HEADER_LENGTH + body.length;
+        Segment segment = segmentFor(length);
+        int offset = segment.m_position;
+        ByteBuffer buffer = segment.m_buffer.duplicate();
+        buffer.position(offset + HEADER_LENGTH);
+        buffer.put(body);
+        buffer.putInt(offset + 4, (int)crc.getValue());
+        // The length goes last, so a record is not found until it is complete.
+        buffer.putInt(offset, body.length);
+        if (force)
+        {
+            segment.m_buffer.force();
+        }
+
+        segment.m_position += length;
+        m_totalBytes += length;
+        return new Location(segment, offset, length);
+    }
+
+    /**
+     * Forces the segments from the given one on to the disk, if sync is on.
+     */
+    private void force(int firstSegment) throws IOException
+    {
+        if (m_sync)
+        {
+            for (int i = Math.max(0, firstSegment); i < m_segments.size(); i++)
+            {
+                ((Segment)m_segments.get(i)).m_buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Returns the segment to append a record of the given length to.
+     */
+    private Segment segmentFor(int length) throws IOException
+    {
+        Segment segment = (Segment)m_segments.get(m_segments.size() - 1);
+        // Keep room for the zero length which marks the end of the segment.
+        if (segment.m_position + length + 4 > segment.m_capacity)
+        {
+            segment = newSegment(Math.max(m_segmentSize, length + 4));
+        }
+        return segment;
+    }
+
+    /**
+     * Counts a record which is no longer the latest for its key as dead.
+     */
+    private void kill(Location location)
+    {
+        if (location != null)
+        {
+            m_deadBytes += location.m_length;
+        }
+    }
+
+    private void compactIfNeeded()
+    {
+        if (m_segments.size() > 1 && m_deadBytes * 100 > m_totalBytes * m_compactionPercent)
+        {
+            try
+            {
+                compact();
+            }
+            catch (IOException e)
+            {
+                getLogger().error("Error compacting the log", e);
+            }
+        }
+    }
+
+    /**
+     * Copies the live records into new segments and deletes the old ones.
+     * The copies are forced to the disk before the base file is moved past
+     * the old segments, so a crash at any point leaves either the old or the
+     * new records.
+     */
+    protected void compact() throws IOException
+    {
+        long start = System.currentTimeMillis();
+        long before = m_totalBytes;
+        List old = new ArrayList(m_segments);
+        m_totalBytes = 0;
+        m_deadBytes = 0;
+        int base = newSegment(m_segmentSize).m_id;
+
+        for (Iterator iter = m_index.entrySet().iterator(); iter.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry)iter.next();
+            Location location = (Location)entry.getValue();
+            byte[] record = new byte[location.m_length];
+            ByteBuffer source = location.m_segment.m_buffer.duplicate();
+            source.position(location.m_offset);
+            source.get(record);
+
+            Segment segment = segmentFor(record.length);
+            int offset = segment.m_position;
+            ByteBuffer target = segment.m_buffer.duplicate();
+            target.position(offset);
+            target.put(record);
+            segment.m_position += record.length;
+            m_totalBytes += record.length;
+            entry.setValue(new Location(segment, offset, record.length));
+        }
+
+        for (int i = old.size(); i < m_segments.size(); i++)
+        {
+            ((Segment)m_segments.get(i)).m_buffer.force();
+        }
+        writeBase(base);
+        m_segments.removeAll(old);
+        deleteSegments(old);
+
+        if (getLogger().isInfoEnabled())
+        {
+            getLogger().info("Compacted the log from " + before + " to " + m_totalBytes
+                             + " bytes in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * Opens the existing segments and rebuilds the index from them.
+     */
+    private void recover() throws IOException
+    {
+        File[] files = m_directoryFile.listFiles();
+        List ids = new ArrayList();
+        for (int i = 0; i < files.length; i++)
+        {
+            String name = files[i].getName();
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+            {
+                try
+                {
+                    ids.add(new Integer(name.substring(SEGMENT_PREFIX.length(),
+                                                       name.length() - SEGMENT_SUFFIX.length())));
+                }
+                catch (NumberFormatException e)
+                {
+                    getLogger().warn("Ignoring file " + files[i]);
+                }
+            }
+        }
+        Integer[] sorted = (Integer[])ids.toArray(new Integer[ids.size()]);
+        Arrays.sort(sorted);
+
+        int base = readBase();
+        for (int i = 0; i < sorted.length; i++)
+        {
+            int id = sorted[i].intValue();
+            if (id < base)
+            {
+                // Left over from a compaction which was interrupted.
+                segmentFile(id).delete();
+                continue;
+            }
+            Segment segment = new Segment(id, segmentFile(id), 0);
+            m_segments.add(segment);
+            m_nextSegmentId = id + 1;
+            replay(segment, i == sorted.length - 1);
+        }
+        m_nextSegmentId = Math.max(m_nextSegmentId, base);
+        if (m_segments.isEmpty())
+        {
+            newSegment(m_segmentSize);
+        }
+
+        if (getLogger().isInfoEnabled())
+        {
+            getLogger().info("Recovered " + m_index.size() + " keys from " + m_segments.size()
+                             + " segments in " + m_directoryFile);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Returns the id of the oldest segment which is part of the log.
+     */
+    private int readBase() throws IOException
+    {
+        File file = new File(m_directoryFile, BASE_FILE);
+        if (!file.exists())
+        {
+            return 0;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            return raf.readInt();
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Sets the id of the oldest segment which is part of the log.  The file
+     * is replaced by renaming, so that it is never seen half written.
+     */
+    private void writeBase(int base) throws IOException
+    {
+        File file = new File(m_directoryFile, BASE_FILE);
+        File temp = new File(m_directoryFile, BASE_FILE + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        try
+        {
+            raf.setLength(0);
+            raf.writeInt(base);
+            raf.getFD().sync();
+        }
+        finally
+        {
+            raf.close();
+        }
+        if (!temp.renameTo(file))
+        {
+            // Some platforms do not rename over an existing file.
+            file.delete();
+            if (!temp.renameTo(file))
+            {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a segment into the index, up to the end of the
+     * segment or the first record which is not complete.
+     */
+    private void replay(Segment segment, boolean last) throws IOException
+    {
+        ByteBuffer buffer = segment.m_buffer.duplicate();
+        CRC32 crc = new CRC32();
+        int position = 0;
+        while (position + HEADER_LENGTH <= segment.m_capacity)
+        {
+            int bodyLength = buffer.getInt(position);
+            if (bodyLength == 0)
+            {
+                break;
+            }
+
+            byte[] body = null;
+            if (bodyLength >= 5 && position + HEADER_LENGTH + bodyLength <= segment.m_capacity)
+            {
+                body = new byte[bodyLength];
+                buffer.position(position + HEADER_LENGTH);
+                buffer.get(body);
+                crc.reset();
+                crc.update(body);
+                if ((int)crc.getValue() != buffer.getInt(position + 4))
+                {
+                    body = null;
+                }
+            }
+            if (body == null)
+            {
+                getLogger().warn("Ignoring incomplete record at " + position + " and the rest of "
+                                 + segment.m_file);
+                if (last)
+                {
+                    // Clear the rest, so that nothing after the new records looks valid.
+                    for (int i = position; i < segment.m_capacity; i++)
+                    {
+                        buffer.put(i, (byte)0);
+                    }
+                }
+                break;
+            }
+
+            int length = HEADER_LENGTH + bodyLength;
+            ByteBuffer bodyBuffer = ByteBuffer.wrap(body);
+            byte type = bodyBuffer.get();
+            byte[] keyBytes = new byte[bodyBuffer.getInt()];
+            bodyBuffer.get(keyBytes);
+            Object key;
+            try
+            {
+                key = m_serializer.deserialize(keyBytes);
+            }
+            catch (IOException e)
+            {
+                throw new IOException("Unable to read key at " + position + " of "
+                                      + segment.m_file + ": " + e);
+            }
+
+            Location old;
+            if (type == TYPE_STORE)
+            {
+                old = (Location)m_index.put(key, new Location(segment, position, length));
+            }
+            else
+            {
+                old = (Location)m_index.remove(key);
+                m_deadBytes += length;
+            }
+            kill(old);
+            m_totalBytes += length;
+            position += length;
+        }
+        segment.m_position = position;
+    }
+
+    /**
+     * Creates a new segment at the end of the log.
+     */
+    private Segment newSegment(int capacity) throws IOException
+    {
+        int id = m_nextSegmentId++;
+        Segment segment = new Segment(id, segmentFile(id), capacity);
+        m_segments.add(segment);
+        return segment;
+    }
+
+    private File segmentFile(int id)
+    {
+        String number = String.valueOf(id);
+        StringBuffer name = new StringBuffer(SEGMENT_PREFIX);
+        for (int i = number.length(); i < 8; i++)
+        {
+            name.append('0');
+        }
+        return new File(m_directoryFile, name.append(number).append(SEGMENT_SUFFIX).toString());
+    }
+
+    private void closeSegments(List segments)
+    {
+        for (Iterator iter = segments.iterator(); iter.hasNext();)
+        {
+            Segment segment = (Segment)iter.next();
+            try
+            {
+                segment.close();
+            }
+            catch (IOException e)
+            {
+                getLogger().error("Error closing " + segment.m_file, e);
+            }
+        }
+    }
+
+    private void deleteSegments(List segments)
+    {
+        closeSegments(segments);
+        for (Iterator iter = segments.iterator(); iter.hasNext();)
+        {
+            Segment segment = (Segment)iter.next();
+            if (!segment.m_file.delete())
+            {
+                getLogger().warn("Unable to delete " + segment.m_file);
+            }
+        }
+    }
+
+    /**
+     * A segment file, mapped into memory.
+     */
+    private static final class Segment
+    {
+        final int m_id;
+        final File m_file;
+        final int m_capacity;
+        private final RandomAccessFile m_raf;
+        final MappedByteBuffer m_buffer;
+
+        /** Where the next record is appended. */
+        int m_position;
+
+        /**
+         * Opens a segment file, creating it with the given capacity if it is
+         * shorter.
+         */
+        Segment(int id, File file, int capacity) throws IOException
+        {
+            m_id = id;
+            m_file = file;
+            m_raf = new RandomAccessFile(file, "rw");
+            if (m_raf.length() < capacity)
+            {
+                m_raf.setLength(capacity);
+            }
+            m_capacity = (int)m_raf.length();
+            m_buffer = m_raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, m_capacity);
+        }
+
+        void close() throws IOException
+        {
+            m_buffer.force();
+            m_raf.close();
+        }
+    }
+
+    /**
+     * Where the latest record for a key is.
+     */
+    private static final class Location
+    {
+        final Segment m_segment;
+        final int m_offset;
+        final int m_length;
+
+        Location(Segment segment, int offset, int length)
+        {
+            m_segment = segment;
+            m_offset = offset;
+            m_length = length;
+        }
+    }
+}
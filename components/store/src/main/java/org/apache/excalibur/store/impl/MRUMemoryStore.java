@@ -17,9 +17,15 @@
 package org.apache.excalibur.store.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.apache.avalon.framework.activity.Disposable;
@@ -36,14 +42,28 @@ import org.apache.excalibur.instrument.CounterInstrument;
 import org.apache.excalibur.instrument.Instrument;
 import org.apache.excalibur.instrument.Instrumentable;
 import org.apache.excalibur.instrument.ValueInstrument;
+import org.apache.excalibur.store.BulkStore;
 import org.apache.excalibur.store.Store;
 import org.apache.excalibur.store.StoreJanitor;
+import org.apache.excalibur.store.Weigher;
+import org.apache.excalibur.store.WeightedStore;
 
 /**
  * This class provides a cache algorithm for the requested documents.
  * It combines a HashMap and a LinkedList to create a so called MRU
  * (Most Recently Used) cache.
- * 
+ * <p>
+ * Freed objects can be swapped to the persistent store by a background
+ * thread, so that a slow disk does not hold up the readers of the cache.
+ * Objects waiting to be swapped are still found by get().
+ * <p>
+ * The store can also be limited by the estimated number of bytes its
+ * objects use, as estimated by a {@link Weigher}.
+ * <p>
+ * The bulk operations of {@link BulkStore} lock the store once, and pass
+ * the objects not found in memory on to the persistent store in one call
+ * if it is a BulkStore too.
+ *
  * @avalon.component
  * @avalon.service type=Store
  * @x-avalon.info name=mru-store
@@ -54,20 +74,35 @@ import org.apache.excalibur.store.StoreJanitor;
  */
 public class MRUMemoryStore
     extends AbstractLogEnabled
-    implements Store, Parameterizable, Serviceable, Disposable, ThreadSafe, Instrumentable, Component
+    implements WeightedStore, BulkStore, Parameterizable, Serviceable, Disposable, ThreadSafe, Instrumentable, Component
 {
     private String m_instrumentableName;
     private int m_maxobjects;
+    private long m_maxbytes;
+    private Weigher m_weigher;
+    private HashMap m_weights;
+    private long m_bytes;
     private boolean m_persistent;
     private Hashtable m_cache;
     private LinkedList m_mrulist;
     private Store m_persistentStore;
     private StoreJanitor m_storeJanitor;
     private ServiceManager m_manager;
+    private WriteBehindQueue m_writeBehind;
+    /** Counts the removals, so that objects read from the persistent store
+        are not held again if they were removed while being weighed. */
+    private long m_removals;
     
     private ValueInstrument m_sizeInstrument = new ValueInstrument("size");
     private CounterInstrument m_hitsInstrument = new CounterInstrument("hits");
     private CounterInstrument m_missesInstrument = new CounterInstrument("misses");
+    private ValueInstrument m_bytesInstrument = new ValueInstrument("bytes");
+    private ValueInstrument m_writeBehindSizeInstrument =
+        new ValueInstrument("write-behind-size");
+    private CounterInstrument m_writeBehindWaitsInstrument =
+        new CounterInstrument("write-behind-waits");
+    private CounterInstrument m_writeBehindWaitTimeInstrument =
+        new CounterInstrument("write-behind-wait-time");
 
     /**
      * Get components of the ComponentLocator
@@ -94,6 +129,17 @@ public class MRUMemoryStore
      *  <LI>maxobjects: Maximum number of objects stored in memory (Default: 100 objects)</LI>
      *  <LI>use-persistent-cache: Use persistent cache to keep objects persisted after
      *      container shutdown or not (Default: false)</LI>
+     *  <LI>write-behind-queue-size: If greater than 0, objects are swapped to the
+     *      persistent cache by a background thread, and up to this many objects may
+     *      wait to be swapped.  Threads storing objects while the queue is full wait
+     *      for it to have room.  If 0, objects are swapped by the thread which frees
+     *      them (Default: 0)</LI>
+     *  <LI>maxbytes: Maximum estimated number of bytes used by the objects stored in
+     *      memory.  The most recently stored object is always held, even if it alone
+     *      is larger.  If 0, only maxobjects limits the store (Default: 0)</LI>
+     *  <LI>weigher: Class name of the {@link Weigher} which estimates the bytes used
+     *      by an object (Default: {@link DefaultWeigher} if maxbytes is set, otherwise
+     *      objects are not weighed)</LI>
      * </UL>
      *
      * @param params Store parameters
@@ -103,10 +149,42 @@ public class MRUMemoryStore
     {
         m_maxobjects = params.getParameterAsInteger( "maxobjects", 100 );
         m_persistent = params.getParameterAsBoolean( "use-persistent-cache", false );
+        int writeBehindQueueSize = params.getParameterAsInteger( "write-behind-queue-size", 0 );
+        m_maxbytes = params.getParameterAsLong( "maxbytes", 0 );
+        String weigher = params.getParameter( "weigher", null );
         if( ( m_maxobjects < 1 ) )
         {
             throw new ParameterException( "MRUMemoryStore maxobjects must be at least 1!" );
         }
+        if( ( writeBehindQueueSize < 0 ) )
+        {
+            throw new ParameterException( "MRUMemoryStore write-behind-queue-size must not be negative!" );
+        }
+        if( ( m_maxbytes < 0 ) )
+        {
+            throw new ParameterException( "MRUMemoryStore maxbytes must not be negative!" );
+        }
+
+        if( weigher != null )
+        {
+            try
+            {
+                m_weigher = (Weigher)Thread.currentThread().getContextClassLoader()
+                    .loadClass( weigher ).newInstance();
+            }
+            catch( Exception e )
+            {
+                throw new ParameterException( "Unable to create weigher " + weigher, e );
+            }
+        }
+        else if( m_maxbytes > 0 )
+        {
+            m_weigher = new DefaultWeigher();
+        }
+        if( m_weigher != null )
+        {
+            m_weights = new HashMap( (int)( m_maxobjects * 1.2 ) );
+        }
 
         if ( m_persistent )
         {
@@ -122,6 +200,17 @@ public class MRUMemoryStore
             {
                 throw new ParameterException("Unable to look up persistent store.", se);
             }
+
+            if( writeBehindQueueSize > 0 )
+            {
+                m_writeBehind = new WriteBehindQueue( m_persistentStore,
+                                                      writeBehindQueueSize,
+                                                      getLogger(),
+                                                      m_writeBehindSizeInstrument,
+                                                      m_writeBehindWaitsInstrument,
+                                                      m_writeBehindWaitTimeInstrument );
+                m_writeBehind.start( "MRUMemoryStore write-behind" );
+            }
         }
 
         m_cache = new Hashtable( (int)( m_maxobjects * 1.2 ) );
@@ -145,6 +234,13 @@ public class MRUMemoryStore
             m_manager.release( m_storeJanitor );
             m_storeJanitor = null;
 
+            // store the objects which are waiting to be swapped
+            if( m_writeBehind != null )
+            {
+                m_writeBehind.close();
+                m_writeBehind = null;
+            }
+
             // save all cache entries to filesystem
             if( m_persistent )
             {
@@ -186,7 +282,7 @@ public class MRUMemoryStore
      * @param key The key for the object to store
      * @param value The object to store
      */
-    public synchronized void store( Object key, Object value )
+    public void store( Object key, Object value )
     {
         hold( key, value );
     }
@@ -199,7 +295,18 @@ public class MRUMemoryStore
      * @param key The key of the object to be stored
      * @param value The object to be stored
      */
-    public synchronized void hold( Object key, Object value )
+    public void hold( Object key, Object value )
+    {
+        // Wait for room to swap before locking out the readers.
+        awaitSwapCapacity();
+        long weight = weigh( key, value );
+        synchronized( this )
+        {
+            doHold( key, value, weight );
+        }
+    }
+
+    private void doHold( Object key, Object value, long weight )
     {
         if( getLogger().isDebugEnabled() )
         {
@@ -211,13 +318,24 @@ public class MRUMemoryStore
         while( m_mrulist.size() >= m_maxobjects )
         {
             /** ...ok, heapsize is reached, remove the last element... */
-            free();
+            doFree();
+        }
+        /** ...then make room for the bytes of the new object... */
+        removeWeight( key );
+        while( m_maxbytes > 0 && m_bytes + weight > m_maxbytes && !m_mrulist.isEmpty() )
+        {
+            doFree();
         }
         /** ..put the new object in the cache, on the top of course ... */
         m_cache.put( key, value );
         m_mrulist.remove( key );
         m_mrulist.addFirst( key );
-        m_sizeInstrument.setValue( m_mrulist.size() );
+        if( m_weigher != null )
+        {
+            m_weights.put( key, new Long( weight ) );
+            m_bytes += weight;
+        }
+        updateSizeInstruments();
     }
 
     /**
@@ -226,50 +344,87 @@ public class MRUMemoryStore
      * @param key The key of the requested object
      * @return the requested object
      */
-    public synchronized Object get( Object key )
+    public Object get( Object key )
     {
-        Object value = m_cache.get( key );
-        if( value != null )
+        Object value;
+        long removals;
+        synchronized( this )
         {
-            /** put the accessed key on top of the linked list */
-            m_mrulist.remove( key );
-            m_mrulist.addFirst( key );
+            value = m_cache.get( key );
+            if( value != null )
+            {
+                /** put the accessed key on top of the linked list */
+                m_mrulist.remove( key );
+                m_mrulist.addFirst( key );
+                if( getLogger().isDebugEnabled() )
+                {
+                    getLogger().debug( "Found key: " + key.toString() );
+                }
+                m_hitsInstrument.increment();
+                return value;
+            }
+
             if( getLogger().isDebugEnabled() )
             {
-                getLogger().debug( "Found key: " + key.toString() );
+                getLogger().debug( "NOT Found key: " + key.toString() );
+            }
+
+            /** try to fetch from filesystem */
+            if( m_persistent )
+            {
+                /** ...or from the objects still waiting to be swapped */
+                if( m_writeBehind != null )
+                {
+                    value = m_writeBehind.get( key );
+                }
+                if( value == null )
+                {
+                    value = m_persistentStore.get( key );
+                }
+            }
+            if( value == null )
+            {
+                m_missesInstrument.increment();
+                return null;
             }
             m_hitsInstrument.increment();
-            return value;
+            if( m_weigher == null )
+            {
+                holdFetched( key, value, 0 );
+                return value;
+            }
+            removals = m_removals;
         }
 
-        if( getLogger().isDebugEnabled() )
+        // Weigh the object without locking out the readers, like hold().
+        long weight = weigh( key, value );
+        synchronized( this )
         {
-            getLogger().debug( "NOT Found key: " + key.toString() );
+            if( removals == m_removals )
+            {
+                holdFetched( key, value, weight );
+            }
         }
+        return value;
+    }
 
-        /** try to fetch from filesystem */
-        if( m_persistent )
+    /**
+     * Holds an object read from the persistent store in memory again,
+     * unless a newer object has been stored for its key meanwhile.
+     */
+    private void holdFetched( Object key, Object value, long weight )
+    {
+        try
         {
-            value = m_persistentStore.get( key );
-            if( value != null )
+            if( !m_cache.containsKey( key ) )
             {
-                try
-                {
-                    if( !m_cache.containsKey( key ) )
-                    {
-                        hold( key, value );
-                    }
-                    m_hitsInstrument.increment();
-                    return value;
-                }
-                catch( Exception e )
-                {
-                    getLogger().error( "Error in get()!", e );
-                }
+                doHold( key, value, weight );
             }
         }
-        m_missesInstrument.increment();
-        return null;
+        catch( Exception e )
+        {
+            getLogger().error( "Error in get()!", e );
+        }
     }
 
     /**
@@ -286,14 +441,276 @@ public class MRUMemoryStore
         }
         m_cache.remove( key );
         m_mrulist.remove( key );
-        m_sizeInstrument.setValue( m_mrulist.size() );
+        removeWeight( key );
+        m_removals++;
+        updateSizeInstruments();
         
         if( m_persistent && key != null )
         {
+            if( m_writeBehind != null )
+            {
+                m_writeBehind.remove( key );
+            }
             m_persistentStore.remove( key );
         }
     }
 
+    /**
+     * Get the objects associated to the given keys.  Objects found in the
+     * persistent store are held in memory again, like with get().
+     *
+     * @param keys The keys of the requested objects
+     * @return a Map of the keys which were found to their objects
+     */
+    public Map getAll( Collection keys )
+    {
+        Map found = new HashMap();
+        Map fetched = new HashMap();
+        long removals;
+        synchronized( this )
+        {
+            removals = getAll( keys, found, fetched );
+        }
+
+        // Weigh the objects without locking out the readers, like storeAll().
+        if( m_weigher != null && !fetched.isEmpty() )
+        {
+            Object[] fetchedKeys = fetched.keySet().toArray();
+            long[] weights = new long[fetchedKeys.length];
+            for( int i = 0; i < fetchedKeys.length; i++ )
+            {
+                weights[i] = weigh( fetchedKeys[i], fetched.get( fetchedKeys[i] ) );
+            }
+            synchronized( this )
+            {
+                if( removals == m_removals )
+                {
+                    for( int i = 0; i < fetchedKeys.length; i++ )
+                    {
+                        holdFetched( fetchedKeys[i], fetched.get( fetchedKeys[i] ), weights[i] );
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Looks the keys up in memory and in the persistent store, with the
+     * store locked.  Objects read from the persistent store are added to
+     * fetched too, and are only held in memory again here if objects are
+     * not weighed.
+     *
+     * @return the number of removals so far
+     */
+    private long getAll( Collection keys, Map found, Map fetched )
+    {
+        List missing = new ArrayList();
+        for( Iterator i = keys.iterator(); i.hasNext(); )
+        {
+            Object key = i.next();
+            Object value = m_cache.get( key );
+            if( value != null )
+            {
+                /** put the accessed key on top of the linked list */
+                m_mrulist.remove( key );
+                m_mrulist.addFirst( key );
+                found.put( key, value );
+            }
+            else
+            {
+                missing.add( key );
+            }
+        }
+
+        if( m_persistent && !missing.isEmpty() )
+        {
+            /** ...first from the objects still waiting to be swapped... */
+            if( m_writeBehind != null )
+            {
+                for( Iterator i = missing.iterator(); i.hasNext(); )
+                {
+                    Object key = i.next();
+                    Object value = m_writeBehind.get( key );
+                    if( value != null )
+                    {
+                        fetched.put( key, value );
+                        i.remove();
+                    }
+                }
+            }
+            /** ...then from the filesystem */
+            if( !missing.isEmpty() )
+            {
+                if( m_persistentStore instanceof BulkStore )
+                {
+                    fetched.putAll( ( (BulkStore)m_persistentStore ).getAll( missing ) );
+                }
+                else
+                {
+                    for( Iterator i = missing.iterator(); i.hasNext(); )
+                    {
+                        Object key = i.next();
+                        Object value = m_persistentStore.get( key );
+                        if( value != null )
+                        {
+                            fetched.put( key, value );
+                        }
+                    }
+                }
+            }
+            if( m_weigher == null )
+            {
+                for( Iterator i = fetched.entrySet().iterator(); i.hasNext(); )
+                {
+                    Map.Entry entry = (Map.Entry)i.next();
+                    holdFetched( entry.getKey(), entry.getValue(), 0 );
+                }
+            }
+            found.putAll( fetched );
+        }
+
+        if( found.size() > 0 )
+        {
+            m_hitsInstrument.increment( found.size() );
+        }
+        if( keys.size() > found.size() )
+        {
+            m_missesInstrument.increment( keys.size() - found.size() );
+        }
+        return m_removals;
+    }
+
+    /**
+     * Store the given objects, locking the store once.
+     *
+     * @param objects A Map of the keys to the objects to store
+     */
+    public void storeAll( Map objects )
+    {
+        // Wait for room to swap before locking out the readers.
+        awaitSwapCapacity();
+        Object[] keys = new Object[objects.size()];
+        Object[] values = new Object[keys.length];
+        long[] weights = new long[keys.length];
+        int count = 0;
+        for( Iterator i = objects.entrySet().iterator(); i.hasNext(); count++ )
+        {
+            Map.Entry entry = (Map.Entry)i.next();
+            keys[count] = entry.getKey();
+            values[count] = entry.getValue();
+            weights[count] = weigh( keys[count], values[count] );
+        }
+        synchronized( this )
+        {
+            for( int i = 0; i < count; i++ )
+            {
+                doHold( keys[i], values[i], weights[i] );
+            }
+        }
+    }
+
+    /**
+     * Remove the objects associated to the given keys.
+     *
+     * @param keys The keys of the objects to be removed
+     */
+    public synchronized void removeAll( Collection keys )
+    {
+        List removed = new ArrayList( keys.size() );
+        for( Iterator i = keys.iterator(); i.hasNext(); )
+        {
+            Object key = i.next();
+            if( key == null )
+            {
+                continue;
+            }
+            m_cache.remove( key );
+            m_mrulist.remove( key );
+            removeWeight( key );
+            removed.add( key );
+        }
+        m_removals++;
+        updateSizeInstruments();
+
+        if( m_persistent )
+        {
+            if( m_writeBehind != null )
+            {
+                for( Iterator i = removed.iterator(); i.hasNext(); )
+                {
+                    m_writeBehind.remove( i.next() );
+                }
+            }
+            removePersistent( removed );
+        }
+    }
+
+    /**
+     * Remove the objects whose keys start with the given prefix.
+     *
+     * @param prefix The prefix of the keys as Strings
+     */
+    public synchronized void removeIf( String prefix )
+    {
+        for( Iterator i = m_mrulist.iterator(); i.hasNext(); )
+        {
+            Object key = i.next();
+            if( String.valueOf( key ).startsWith( prefix ) )
+            {
+                i.remove();
+                m_cache.remove( key );
+                removeWeight( key );
+            }
+        }
+        m_removals++;
+        updateSizeInstruments();
+
+        if( m_persistent )
+        {
+            if( m_writeBehind != null )
+            {
+                m_writeBehind.removeIf( prefix );
+            }
+            if( m_persistentStore instanceof BulkStore )
+            {
+                ( (BulkStore)m_persistentStore ).removeIf( prefix );
+            }
+            else
+            {
+                List keys = new ArrayList();
+                for( Enumeration e = m_persistentStore.keys(); e.hasMoreElements(); )
+                {
+                    Object key = e.nextElement();
+                    if( String.valueOf( key ).startsWith( prefix ) )
+                    {
+                        keys.add( key );
+                    }
+                }
+                removePersistent( keys );
+            }
+        }
+    }
+
+    /**
+     * Removes the given keys from the persistent store, in one call if it
+     * is a BulkStore.
+     */
+    private void removePersistent( Collection keys )
+    {
+        if( m_persistentStore instanceof BulkStore )
+        {
+            ( (BulkStore)m_persistentStore ).removeAll( keys );
+        }
+        else
+        {
+            for( Iterator i = keys.iterator(); i.hasNext(); )
+            {
+                m_persistentStore.remove( i.next() );
+            }
+        }
+    }
+
     /**
      * Clear the Store of all elements
      */
@@ -309,7 +726,12 @@ public class MRUMemoryStore
             }
             remove( key );
         }
-        m_sizeInstrument.setValue( 0 );
+        if( m_writeBehind != null )
+        {
+            m_writeBehind.clear();
+        }
+        m_removals++;
+        updateSizeInstruments();
     }
 
     /**
@@ -322,7 +744,9 @@ public class MRUMemoryStore
     {
         if( m_persistent )
         {
-            return ( m_cache.containsKey( key ) || m_persistentStore.containsKey( key ) );
+            return ( m_cache.containsKey( key )
+                     || ( m_writeBehind != null && m_writeBehind.containsKey( key ) )
+                     || m_persistentStore.containsKey( key ) );
         }
         else
         {
@@ -349,11 +773,29 @@ public class MRUMemoryStore
         return m_cache.size();
     }
 
+    /**
+     * Returns the estimated number of bytes used by the objects in memory,
+     * or -1 if the objects are not weighed.
+     */
+    public synchronized long getWeight()
+    {
+        return ( m_weigher != null ) ? m_bytes : -1;
+    }
+
     /**
      * Frees some of the fast memory used by this store.
      * It removes the last element in the store.
      */
-    public synchronized void free()
+    public void free()
+    {
+        awaitSwapCapacity();
+        synchronized( this )
+        {
+            doFree();
+        }
+    }
+
+    private void doFree()
     {
         try
         {
@@ -366,6 +808,7 @@ public class MRUMemoryStore
                 {
                     getLogger().warn( "Concurrency condition in free()" );
                 }
+                removeWeight( key );
 
                 if( getLogger().isDebugEnabled() )
                 {
@@ -381,7 +824,14 @@ public class MRUMemoryStore
                     {
                         try
                         {
-                            m_persistentStore.store( key, value );
+                            if( m_writeBehind != null )
+                            {
+                                m_writeBehind.put( key, value );
+                            }
+                            else
+                            {
+                                m_persistentStore.store( key, value );
+                            }
                         }
                         catch( Exception e )
                         {
@@ -390,7 +840,7 @@ public class MRUMemoryStore
                     }
                 }
                 
-                m_sizeInstrument.setValue( m_mrulist.size() );
+                updateSizeInstruments();
             }
         }
         catch( NoSuchElementException e )
@@ -403,6 +853,47 @@ public class MRUMemoryStore
         }
     }
 
+    /**
+     * Estimates the bytes used by an object, if objects are weighed.
+     */
+    private long weigh( Object key, Object value )
+    {
+        return ( m_weigher != null ) ? m_weigher.weigh( key, value ) : 0;
+    }
+
+    /**
+     * Forgets the weight of the object for the given key.
+     */
+    private void removeWeight( Object key )
+    {
+        if( m_weigher != null )
+        {
+            Long weight = (Long)m_weights.remove( key );
+            if( weight != null )
+            {
+                m_bytes -= weight.longValue();
+            }
+        }
+    }
+
+    private void updateSizeInstruments()
+    {
+        m_sizeInstrument.setValue( m_mrulist.size() );
+        m_bytesInstrument.setValue( (int)Math.min( m_bytes, Integer.MAX_VALUE ) );
+    }
+
+    /**
+     * Waits while the write-behind queue is full, if there is one.
+     */
+    private void awaitSwapCapacity()
+    {
+        WriteBehindQueue writeBehind = m_writeBehind;
+        if( writeBehind != null )
+        {
+            writeBehind.awaitCapacity();
+        }
+    }
+
     /**
      * This method checks if an object is seriazable.
      *
@@ -429,7 +920,10 @@ public class MRUMemoryStore
 
     public Instrument[] getInstruments()
     {
-        return new Instrument[] { m_sizeInstrument, m_hitsInstrument, m_missesInstrument };
+        return new Instrument[] { m_sizeInstrument, m_hitsInstrument, m_missesInstrument,
+                                  m_bytesInstrument,
+                                  m_writeBehindSizeInstrument, m_writeBehindWaitsInstrument,
+                                  m_writeBehindWaitTimeInstrument };
     }
 
     public Instrumentable[] getChildInstrumentables() {
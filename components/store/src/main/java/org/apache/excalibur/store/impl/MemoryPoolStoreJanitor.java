@@ -0,0 +1,506 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.avalon.framework.activity.Startable;
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameterizable;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.thread.ThreadSafe;
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.Instrumentable;
+import org.apache.excalibur.instrument.ValueInstrument;
+import org.apache.excalibur.store.Store;
+import org.apache.excalibur.store.StoreJanitor;
+import org.apache.excalibur.store.WeightedStore;
+
+/**
+ * A StoreJanitor which is told by the JVM when memory runs low, rather
+ * than polling for it.  It sets a usage threshold on each heap memory pool
+ * which supports one, and listens for the notifications sent when a pool
+ * crosses its threshold and for the notifications sent after each garbage
+ * collection.  When the heap is over a threshold, every registered store is
+ * freed by the same fraction, in parallel.  It never invokes the garbage
+ * collector itself.
+ * <p>
+ * The fraction freed is at least <code>percent_to_free</code>, and more if
+ * the pool is further over its threshold, so that the stores give back
+ * about as much as is needed to bring the pool under its threshold again.
+ * Stores which know the bytes their objects use ({@link WeightedStore}s)
+ * are freed by that fraction of their bytes, other stores by that fraction
+ * of their objects.
+ *
+ * <p>A few parameters can be used:
+ * <ul>
+ *  <li><b>usage-threshold</b>:
+ *      Percentage of the maximum size of a heap memory pool above which the
+ *      stores are freed (1-100). (Default: 80%)</li>
+ *  <li><b>percent_to_free</b>:
+ *      The smallest fraction of each store to free (1-100). (Default: 10%)</li>
+ *  <li><b>cleanup-threads</b>:
+ *      Number of threads which free stores in parallel. (Default: number of
+ *      processors)</li>
+ *  <li><b>min-interval</b>:
+ *      Minimum time (ms) between two cleanups, as one cleanup takes a garbage
+ *      collection to show. (Default: 1000ms)</li>
+ * </ul></p>
+ * <p>
+ * The usage thresholds are set on the memory pools of the whole JVM, so
+ * only one such janitor should run in a JVM.
+ *
+ * @avalon.component
+ * @avalon.service type=StoreJanitor
+ * @x-avalon.info name=memory-pool-store-janitor
+ * @x-avalon.lifestyle type=singleton
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: MemoryPoolStoreJanitor.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+public class MemoryPoolStoreJanitor
+    extends AbstractLogEnabled
+    implements StoreJanitor, Parameterizable, ThreadSafe, Startable, Instrumentable,
+               NotificationListener
+{
+    private int m_threshold;
+    private double m_fraction;
+    private int m_threads;
+    private long m_minInterval;
+
+    private final ArrayList m_storelist = new ArrayList();
+    /** The pools with a threshold, read by the threads sending notifications. */
+    private volatile MemoryPoolMXBean[] m_pools = new MemoryPoolMXBean[ 0 ];
+    private final List m_emitters = new ArrayList();
+
+    private ExecutorService m_dispatcher;
+    private ExecutorService m_workers;
+    private final AtomicBoolean m_pending = new AtomicBoolean();
+    private volatile long m_lastCleanup;
+
+    private String m_instrumentableName;
+    private CounterInstrument m_cleanupsInstrument = new CounterInstrument( "cleanups" );
+    private ValueInstrument m_triggerUsedInstrument = new ValueInstrument( "trigger-used-kb" );
+    private ValueInstrument m_triggerPercentInstrument =
+        new ValueInstrument( "trigger-used-percent" );
+    private ValueInstrument m_cleanupTimeInstrument = new ValueInstrument( "cleanup-time" );
+    private CounterInstrument m_freedObjectsInstrument = new CounterInstrument( "freed-objects" );
+    private CounterInstrument m_freedKilobytesInstrument = new CounterInstrument( "freed-kb" );
+
+    /**
+     * Parameterize the MemoryPoolStoreJanitor.
+     *
+     * @param params the Configuration of the application
+     * @exception ParameterException
+     */
+    public void parameterize( Parameters params ) throws ParameterException
+    {
+        m_threshold = params.getParameterAsInteger( "usage-threshold", 80 );
+        int percent = params.getParameterAsInteger( "percent_to_free", 10 );
+        m_threads = params.getParameterAsInteger( "cleanup-threads",
+                                                  Runtime.getRuntime().availableProcessors() );
+        m_minInterval = params.getParameterAsLong( "min-interval", 1000 );
+
+        if( m_threshold < 1 || m_threshold > 100 )
+        {
+            throw new ParameterException( "MemoryPoolStoreJanitor usage-threshold has to be between 1 and 100" );
+        }
+        if( percent < 1 || percent > 100 )
+        {
+            throw new ParameterException( "MemoryPoolStoreJanitor percent_to_free has to be between 1 and 100" );
+        }
+        if( m_threads < 1 )
+        {
+            throw new ParameterException( "MemoryPoolStoreJanitor cleanup-threads has to be at least 1" );
+        }
+        m_fraction = percent / 100.0D;
+
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "usage threshold=" + m_threshold + "%" );
+            getLogger().debug( "percent=" + percent );
+            getLogger().debug( "cleanup threads=" + m_threads );
+            getLogger().debug( "min interval=" + m_minInterval );
+        }
+    }
+
+    /**
+     * Sets the usage thresholds and starts listening for notifications.
+     */
+    public void start()
+    {
+        m_dispatcher = Executors.newSingleThreadExecutor( new DaemonThreadFactory( "janitor" ) );
+        m_workers = Executors.newFixedThreadPool( m_threads, new DaemonThreadFactory( "janitor-worker" ) );
+
+        List pools = new ArrayList();
+        for( Iterator iter = ManagementFactory.getMemoryPoolMXBeans().iterator(); iter.hasNext(); )
+        {
+            MemoryPoolMXBean pool = (MemoryPoolMXBean)iter.next();
+            long max = pool.getUsage().getMax();
+            if( pool.getType() != MemoryType.HEAP || !pool.isUsageThresholdSupported() || max <= 0 )
+            {
+                continue;
+            }
+
+            long threshold = max / 100 * m_threshold;
+            pool.setUsageThreshold( threshold );
+            if( pool.isCollectionUsageThresholdSupported() )
+            {
+                pool.setCollectionUsageThreshold( threshold );
+            }
+            pools.add( pool );
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Watching memory pool " + pool.getName() + " with threshold "
+                                   + threshold + " of " + max + " bytes" );
+            }
+        }
+
+        m_pools = (MemoryPoolMXBean[])pools.toArray( new MemoryPoolMXBean[ pools.size() ] );
+
+        addListener( ManagementFactory.getMemoryMXBean() );
+        for( Iterator iter = ManagementFactory.getGarbageCollectorMXBeans().iterator(); iter.hasNext(); )
+        {
+            addListener( (GarbageCollectorMXBean)iter.next() );
+        }
+    }
+
+    /**
+     * Stops listening for notifications.  The usage thresholds are left set.
+     */
+    public void stop()
+    {
+        for( Iterator iter = m_emitters.iterator(); iter.hasNext(); )
+        {
+            try
+            {
+                ( (NotificationEmitter)iter.next() ).removeNotificationListener( this );
+            }
+            catch( ListenerNotFoundException e )
+            {
+                // Already gone.
+            }
+        }
+        m_emitters.clear();
+        m_pools = new MemoryPoolMXBean[ 0 ];
+
+        m_dispatcher.shutdownNow();
+        m_workers.shutdownNow();
+    }
+
+    private void addListener( Object bean )
+    {
+        if( bean instanceof NotificationEmitter )
+        {
+            ( (NotificationEmitter)bean ).addNotificationListener( this, null, null );
+            m_emitters.add( bean );
+        }
+    }
+
+    /**
+     * Called by the JVM when a memory pool crosses its threshold and after
+     * each garbage collection.  Only schedules a cleanup, as it is called
+     * by a thread of the JVM.
+     */
+    public void handleNotification( Notification notification, Object handback )
+    {
+        String type = notification.getType();
+        if( MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals( type )
+            || MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals( type ) )
+        {
+            MemoryNotificationInfo info =
+                MemoryNotificationInfo.from( (CompositeData)notification.getUserData() );
+            schedule( info.getPoolName(), info.getUsage() );
+        }
+        else
+        {
+            // After a garbage collection, check whether it left any pool over its threshold.
+            MemoryPoolMXBean[] pools = m_pools;
+            for( int i = 0; i < pools.length; i++ )
+            {
+                MemoryPoolMXBean pool = pools[ i ];
+                if( pool.isCollectionUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdExceeded() )
+                {
+                    schedule( pool.getName(), pool.getCollectionUsage() );
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules a cleanup, unless one is already waiting to run.
+     */
+    private void schedule( final String poolName, final MemoryUsage usage )
+    {
+        if( usage == null || !m_pending.compareAndSet( false, true ) )
+        {
+            return;
+        }
+        try
+        {
+            m_dispatcher.execute( new Runnable()
+            {
+                public void run()
+                {
+                    m_pending.set( false );
+                    if( System.currentTimeMillis() - m_lastCleanup >= m_minInterval )
+                    {
+                        cleanup( poolName, usage );
+                    }
+                }
+            } );
+        }
+        catch( RuntimeException e )
+        {
+            // Stopped.
+            m_pending.set( false );
+        }
+    }
+
+    /**
+     * Frees every registered store by the same fraction, in parallel, and
+     * waits for them all.
+     *
+     * @param poolName the name of the memory pool which is over its threshold
+     * @param usage the usage of that pool
+     */
+    void cleanup( String poolName, MemoryUsage usage )
+    {
+        long start = System.currentTimeMillis();
+        int percentUsed = ( usage.getMax() > 0 ) ? (int)( usage.getUsed() * 100 / usage.getMax() ) : -1;
+
+        // Free enough to get back under the threshold, but at least the configured fraction.
+        double fraction = m_fraction;
+        if( usage.getMax() > 0 && usage.getUsed() > 0 )
+        {
+            long threshold = usage.getMax() / 100 * m_threshold;
+            fraction = Math.max( fraction, ( usage.getUsed() - threshold ) / (double)usage.getUsed() );
+            fraction = Math.min( fraction, 1.0D );
+        }
+
+        m_cleanupsInstrument.increment();
+        m_triggerUsedInstrument.setValue( (int)( usage.getUsed() / 1024 ) );
+        m_triggerPercentInstrument.setValue( percentUsed );
+        if( getLogger().isWarnEnabled() )
+        {
+            getLogger().warn( "Memory pool " + poolName + " uses " + usage.getUsed() + " of "
+                              + usage.getMax() + " bytes (" + percentUsed + "%). Freeing "
+                              + (int)( fraction * 100 ) + "% of every store." );
+        }
+
+        Store[] stores;
+        synchronized( this )
+        {
+            stores = (Store[])m_storelist.toArray( new Store[ m_storelist.size() ] );
+        }
+
+        final double storeFraction = fraction;
+        Future[] futures = new Future[ stores.length ];
+        for( int i = 0; i < stores.length; i++ )
+        {
+            final Store store = stores[ i ];
+            futures[ i ] = m_workers.submit( new Runnable()
+            {
+                public void run()
+                {
+                    freeStore( store, storeFraction );
+                }
+            } );
+        }
+        for( int i = 0; i < futures.length; i++ )
+        {
+            try
+            {
+                futures[ i ].get();
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch( Exception e )
+            {
+                getLogger().error( "Exception while freeing store " + stores[ i ], e );
+            }
+        }
+
+        m_lastCleanup = System.currentTimeMillis();
+        long time = m_lastCleanup - start;
+        m_cleanupTimeInstrument.setValue( (int)time );
+        if( getLogger().isInfoEnabled() )
+        {
+            getLogger().info( "Freed " + stores.length + " stores in " + time + "ms" );
+        }
+    }
+
+    /**
+     * Frees a fraction of one store.
+     */
+    private void freeStore( Store store, double fraction )
+    {
+        try
+        {
+            int size = store.size();
+            if( size <= 0 )
+            {
+                return;
+            }
+
+            long weight = ( store instanceof WeightedStore )
+                ? ( (WeightedStore)store ).getWeight() : -1;
+            int freed = 0;
+            if( weight >= 0 )
+            {
+                // Each free() removes at least one object, so stop after all of them.
+                long target = weight - (long)( weight * fraction );
+                long current = weight;
+                while( current > target && current > 0 && freed < size )
+                {
+                    store.free();
+                    freed++;
+                    current = ( (WeightedStore)store ).getWeight();
+                }
+                m_freedKilobytesInstrument.increment( (int)( ( weight - current ) / 1024 ) );
+            }
+            else
+            {
+                int limit = (int)Math.ceil( size * fraction );
+                for( ; freed < limit; freed++ )
+                {
+                    store.free();
+                }
+            }
+            m_freedObjectsInstrument.increment( freed );
+
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Freed " + freed + " of " + size + " objects from store " + store );
+            }
+        }
+        catch( OutOfMemoryError e )
+        {
+            getLogger().error( "OutOfMemoryError in freeStore()" );
+        }
+    }
+
+    /**
+     * This method register the stores
+     *
+     * @param store the store to be registered
+     */
+    public synchronized void register( Store store )
+    {
+        m_storelist.add( store );
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Registered store instance " + store + ". Stores now: "
+                               + m_storelist.size() );
+        }
+    }
+
+    /**
+     * This method unregister the stores
+     *
+     * @param store the store to be unregistered
+     */
+    public synchronized void unregister( Store store )
+    {
+        m_storelist.remove( store );
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Unregistered store instance " + store + ". Stores now: "
+                               + m_storelist.size() );
+        }
+    }
+
+    /**
+     * This method return a java.util.Iterator of every registered stores
+     *
+     * @return a java.util.Iterator
+     */
+    public Iterator iterator()
+    {
+        return m_storelist.iterator();
+    }
+
+    public void setInstrumentableName( String name )
+    {
+        m_instrumentableName = name;
+    }
+
+    public String getInstrumentableName()
+    {
+        return m_instrumentableName;
+    }
+
+    public Instrument[] getInstruments()
+    {
+        return new Instrument[] { m_cleanupsInstrument, m_triggerUsedInstrument,
+                                  m_triggerPercentInstrument, m_cleanupTimeInstrument,
+                                  m_freedObjectsInstrument, m_freedKilobytesInstrument };
+    }
+
+    public Instrumentable[] getChildInstrumentables()
+    {
+        return Instrumentable.EMPTY_INSTRUMENTABLE_ARRAY;
+    }
+
+    /**
+     * Creates the daemon threads which free the stores.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory
+    {
+        private final String m_name;
+        private int m_count;
+
+        DaemonThreadFactory( String name )
+        {
+            m_name = name;
+        }
+
+        public synchronized Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, m_name + "-" + ( ++m_count ) );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
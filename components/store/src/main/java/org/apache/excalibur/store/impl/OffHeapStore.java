@@ -0,0 +1,703 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.component.Component;
+import org.apache.avalon.framework.logger.AbstractLogEnabled;
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameterizable;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.service.ServiceException;
+import org.apache.avalon.framework.service.ServiceManager;
+import org.apache.avalon.framework.service.Serviceable;
+import org.apache.avalon.framework.thread.ThreadSafe;
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.Instrumentable;
+import org.apache.excalibur.instrument.ValueInstrument;
+import org.apache.excalibur.store.Serializer;
+import org.apache.excalibur.store.Store;
+
+/**
+ * A store which keeps its objects outside the Java heap, in direct
+ * ByteBuffers, so that they do not add to the work of the garbage
+ * collector.  It is meant to sit between a memory store and a filesystem
+ * store: configured as the persistent store of an {@link MRUMemoryStore},
+ * it takes the objects which that store frees, and it can in turn pass the
+ * objects it has to free on to an overflow store.
+ * <p>
+ * Byte arrays are held as they are; other objects are turned into bytes by
+ * a {@link Serializer} and back again on every get(), so get() returns a
+ * copy of the stored object.
+ * <p>
+ * The direct memory is allocated up front, as slabs which are divided into
+ * blocks of a fixed size.  An object takes as many blocks as its bytes
+ * need, wherever they are free, so the memory never becomes fragmented.
+ * When there are not enough free blocks the least recently used objects
+ * are removed.
+ * <p>
+ * Removed objects are passed on to the overflow store after the lock of
+ * the store is released.  Until the overflow store has them they are still
+ * found by get(), and a remove() or clear() meanwhile keeps them from
+ * reaching the overflow store at all.
+ *
+ * @avalon.component
+ * @avalon.service type=Store
+ * @x-avalon.info name=off-heap-store
+ * @x-avalon.lifestyle type=singleton
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: OffHeapStore.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+public class OffHeapStore
+    extends AbstractLogEnabled
+    implements Store, Parameterizable, Serviceable, Disposable, ThreadSafe, Instrumentable, Component
+{
+    private String m_instrumentableName;
+    private ServiceManager m_manager;
+    private Serializer m_serializer;
+    private Store m_overflowStore;
+
+    private int m_blockSize;
+    private int m_blocksPerSlab;
+    private ByteBuffer[] m_slabs;
+
+    /** The free blocks, as a stack of block numbers. */
+    private int[] m_freeBlocks;
+    private int m_freeCount;
+
+    /** The entries by key, least recently used first. */
+    private final LinkedHashMap m_entries = new LinkedHashMap( 16, 0.75f, true );
+
+    /** The evicted entries not yet passed on to the overflow store, by key. */
+    private final Map m_overflowing = new HashMap();
+
+    /** Orders the calls to the overflow store, so that a remove() never
+        overtakes the store() of an object it removed. */
+    private final Object m_overflowLock = new Object();
+
+    private ValueInstrument m_sizeInstrument = new ValueInstrument("size");
+    private CounterInstrument m_hitsInstrument = new CounterInstrument("hits");
+    private CounterInstrument m_missesInstrument = new CounterInstrument("misses");
+    private ValueInstrument m_bytesInstrument = new ValueInstrument("bytes");
+
+    /**
+     * Get components of the ComponentLocator
+     *
+     * @param manager The ComponentLocator
+     * @avalon.dependency type=org.apache.excalibur.store.Store optional=true
+     */
+    public void service( ServiceManager manager )
+        throws ServiceException
+    {
+        m_manager = manager;
+    }
+
+    /**
+     * Initialize the OffHeapStore.
+     * A few options can be used:
+     * <UL>
+     *  <LI>maxbytes: Direct memory to hold objects in (Default: 64MB)</LI>
+     *  <LI>slab-size: Size of each direct ByteBuffer allocated (Default: 4MB)</LI>
+     *  <LI>block-size: Size of the blocks objects are stored in.  Objects
+     *      take a whole number of blocks (Default: 512 bytes)</LI>
+     *  <LI>serializer, compression, compression-threshold: The
+     *      {@link Serializer} for objects which are not byte arrays, see
+     *      {@link SerializerFactory} (Default: {@link JavaSerializer})</LI>
+     *  <LI>overflow-store: Role of the store which objects are passed on to
+     *      when they are freed, and which is asked for objects which are not
+     *      found (Default: none)</LI>
+     * </UL>
+     *
+     * @param params Store parameters
+     * @exception ParameterException
+     */
+    public void parameterize( Parameters params ) throws ParameterException
+    {
+        long maxbytes = params.getParameterAsLong( "maxbytes", 64 * 1024 * 1024 );
+        int slabSize = params.getParameterAsInteger( "slab-size", 4 * 1024 * 1024 );
+        m_blockSize = params.getParameterAsInteger( "block-size", 512 );
+        String overflowRole = params.getParameter( "overflow-store", null );
+
+        if( m_blockSize < 16 )
+        {
+            throw new ParameterException( "OffHeapStore block-size must be at least 16!" );
+        }
+        if( slabSize < m_blockSize )
+        {
+            throw new ParameterException( "OffHeapStore slab-size must be at least block-size!" );
+        }
+        if( maxbytes < slabSize )
+        {
+            throw new ParameterException( "OffHeapStore maxbytes must be at least slab-size!" );
+        }
+
+        m_serializer = SerializerFactory.createSerializer( params );
+        if( m_serializer == null )
+        {
+            m_serializer = new JavaSerializer();
+        }
+
+        if( overflowRole != null )
+        {
+            try
+            {
+                m_overflowStore = (Store)m_manager.lookup( overflowRole );
+            }
+            catch( ServiceException se )
+            {
+                throw new ParameterException( "Unable to look up overflow store.", se );
+            }
+        }
+
+        m_blocksPerSlab = slabSize / m_blockSize;
+        int slabs = (int)( ( maxbytes + slabSize - 1 ) / slabSize );
+        m_slabs = new ByteBuffer[ slabs ];
+        for( int i = 0; i < slabs; i++ )
+        {
+            m_slabs[ i ] = ByteBuffer.allocateDirect( m_blocksPerSlab * m_blockSize );
+        }
+        m_freeBlocks = new int[ slabs * m_blocksPerSlab ];
+        for( int i = 0; i < m_freeBlocks.length; i++ )
+        {
+            // Hand out the lowest blocks first.
+            m_freeBlocks[ i ] = m_freeBlocks.length - 1 - i;
+        }
+        m_freeCount = m_freeBlocks.length;
+
+        if( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Allocated " + slabs + " slabs of " + m_blocksPerSlab + " blocks of "
+                               + m_blockSize + " bytes" );
+        }
+    }
+
+    /**
+     * Dispose the component
+     */
+    public void dispose()
+    {
+        if( m_manager != null )
+        {
+            getLogger().debug( "Disposing component!" );
+
+            // pass all entries on to the overflow store
+            if( m_overflowStore != null )
+            {
+                List evicted;
+                synchronized( this )
+                {
+                    evicted = new ArrayList( m_entries.size() );
+                    while( !m_entries.isEmpty() )
+                    {
+                        evicted.add( evictEldest() );
+                    }
+                }
+                overflow( evicted );
+                m_manager.release( m_overflowStore );
+                m_overflowStore = null;
+            }
+        }
+
+        synchronized( this )
+        {
+            m_entries.clear();
+            m_slabs = null;
+        }
+        m_manager = null;
+    }
+
+    /**
+     * Store the given object outside the heap.  Objects which are neither
+     * byte arrays nor serializable by the serializer are not stored, and
+     * any object stored before for the key is removed.
+     *
+     * @param key The key for the object to store
+     * @param value The object to store
+     */
+    public void store( Object key, Object value ) throws IOException
+    {
+        boolean raw = value instanceof byte[];
+        byte[] bytes;
+        try
+        {
+            bytes = raw ? (byte[])value : m_serializer.serialize( value );
+        }
+        catch( NotSerializableException e )
+        {
+            if( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Not storing object for key " + key + ": " + e.getMessage() );
+            }
+            remove( key );
+            return;
+        }
+        int blocks = ( bytes.length + m_blockSize - 1 ) / m_blockSize;
+
+        List evicted = new ArrayList();
+        synchronized( this )
+        {
+            Entry old = (Entry)m_entries.remove( key );
+            if( old != null )
+            {
+                release( old );
+            }
+            cancelOverflow( key );
+            if( blocks > m_freeBlocks.length )
+            {
+                getLogger().warn( "Object for key " + key + " is larger than the store: "
+                                  + bytes.length + " bytes" );
+                evicted = null;
+            }
+            else
+            {
+                while( m_freeCount < blocks )
+                {
+                    evicted.add( evictEldest() );
+                }
+                m_entries.put( key, write( bytes, blocks, raw ) );
+            }
+            updateSizeInstruments();
+        }
+
+        if( evicted == null )
+        {
+            if( m_overflowStore != null )
+            {
+                synchronized( m_overflowLock )
+                {
+                    m_overflowStore.store( key, value );
+                }
+            }
+        }
+        else
+        {
+            overflow( evicted );
+        }
+    }
+
+    /**
+     * Get the object associated to the given unique key.
+     *
+     * @param key The key of the requested object
+     * @return a copy of the requested object
+     */
+    public Object get( Object key )
+    {
+        byte[] bytes = null;
+        boolean raw = false;
+        synchronized( this )
+        {
+            Entry entry = (Entry)m_entries.get( key );
+            if( entry != null )
+            {
+                bytes = read( entry );
+                raw = entry.m_raw;
+            }
+            else
+            {
+                // ...or on its way to the overflow store
+                Evicted evicted = (Evicted)m_overflowing.get( key );
+                if( evicted != null )
+                {
+                    bytes = (byte[])evicted.m_bytes.clone();
+                    raw = evicted.m_raw;
+                }
+            }
+        }
+
+        if( bytes != null )
+        {
+            m_hitsInstrument.increment();
+            if( raw )
+            {
+                return bytes;
+            }
+            try
+            {
+                return m_serializer.deserialize( bytes );
+            }
+            catch( IOException e )
+            {
+                getLogger().error( "Error in get()!", e );
+                return null;
+            }
+        }
+
+        if( m_overflowStore != null )
+        {
+            Object value = m_overflowStore.get( key );
+            if( value != null )
+            {
+                try
+                {
+                    store( key, value );
+                }
+                catch( IOException e )
+                {
+                    getLogger().error( "Error in get()!", e );
+                }
+                m_hitsInstrument.increment();
+                return value;
+            }
+        }
+        m_missesInstrument.increment();
+        return null;
+    }
+
+    /**
+     * Remove the object associated to the given key.
+     *
+     * @param key The key of to be removed object
+     */
+    public void remove( Object key )
+    {
+        synchronized( this )
+        {
+            Entry entry = (Entry)m_entries.remove( key );
+            if( entry != null )
+            {
+                release( entry );
+            }
+            cancelOverflow( key );
+            updateSizeInstruments();
+        }
+        if( m_overflowStore != null )
+        {
+            synchronized( m_overflowLock )
+            {
+                m_overflowStore.remove( key );
+            }
+        }
+    }
+
+    /**
+     * Clear the Store of all elements
+     */
+    public void clear()
+    {
+        List keys;
+        synchronized( this )
+        {
+            keys = new ArrayList( m_entries.keySet() );
+            for( Iterator iter = m_entries.values().iterator(); iter.hasNext(); )
+            {
+                release( (Entry)iter.next() );
+            }
+            m_entries.clear();
+            for( Iterator iter = m_overflowing.values().iterator(); iter.hasNext(); )
+            {
+                Evicted evicted = (Evicted)iter.next();
+                evicted.m_cancelled = true;
+                keys.add( evicted.m_key );
+            }
+            m_overflowing.clear();
+            updateSizeInstruments();
+        }
+        if( m_overflowStore != null )
+        {
+            synchronized( m_overflowLock )
+            {
+                for( Iterator iter = keys.iterator(); iter.hasNext(); )
+                {
+                    m_overflowStore.remove( iter.next() );
+                }
+            }
+        }
+    }
+
+    /**
+     * Frees some of the direct memory used by this store.
+     * It passes the least recently used object on to the overflow store.
+     */
+    public void free()
+    {
+        List evicted = new ArrayList( 1 );
+        synchronized( this )
+        {
+            if( !m_entries.isEmpty() )
+            {
+                evicted.add( evictEldest() );
+                updateSizeInstruments();
+            }
+        }
+        overflow( evicted );
+    }
+
+    /**
+     * Indicates if the given key is associated to a contained object.
+     *
+     * @param key The key of the object
+     * @return true if the key exists
+     */
+    public boolean containsKey( Object key )
+    {
+        synchronized( this )
+        {
+            if( m_entries.containsKey( key ) || m_overflowing.containsKey( key ) )
+            {
+                return true;
+            }
+        }
+        return m_overflowStore != null && m_overflowStore.containsKey( key );
+    }
+
+    /**
+     * Returns the list of keys held outside the heap as an Enumeration.
+     *
+     * @return the enumeration of the keys
+     */
+    public synchronized Enumeration keys()
+    {
+        return Collections.enumeration( new ArrayList( m_entries.keySet() ) );
+    }
+
+    /**
+     * Returns count of the objects held outside the heap.
+     */
+    public synchronized int size()
+    {
+        return m_entries.size();
+    }
+
+    /**
+     * Returns the number of bytes of direct memory used by the objects,
+     * counted in whole blocks.
+     */
+    public synchronized long getUsedBytes()
+    {
+        return (long)( m_freeBlocks.length - m_freeCount ) * m_blockSize;
+    }
+
+    /*---------------------------------------------------------------
+     * Block Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Copies bytes into free blocks.  Must hold the lock.
+     */
+    private Entry write( byte[] bytes, int count, boolean raw )
+    {
+        int[] blocks = new int[ count ];
+        for( int i = 0; i < count; i++ )
+        {
+            int block = m_freeBlocks[ --m_freeCount ];
+            int offset = i * m_blockSize;
+            ByteBuffer slab = slabOf( block );
+            slab.position( positionOf( block ) );
+            slab.put( bytes, offset, Math.min( m_blockSize, bytes.length - offset ) );
+            blocks[ i ] = block;
+        }
+        return new Entry( blocks, bytes.length, raw );
+    }
+
+    /**
+     * Copies the bytes of an entry out of its blocks.  Must hold the lock.
+     */
+    private byte[] read( Entry entry )
+    {
+        byte[] bytes = new byte[ entry.m_length ];
+        for( int i = 0; i < entry.m_blocks.length; i++ )
+        {
+            int block = entry.m_blocks[ i ];
+            int offset = i * m_blockSize;
+            ByteBuffer slab = slabOf( block );
+            slab.position( positionOf( block ) );
+            slab.get( bytes, offset, Math.min( m_blockSize, bytes.length - offset ) );
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the blocks of an entry to the free blocks.  Must hold the lock.
+     */
+    private void release( Entry entry )
+    {
+        for( int i = 0; i < entry.m_blocks.length; i++ )
+        {
+            m_freeBlocks[ m_freeCount++ ] = entry.m_blocks[ i ];
+        }
+    }
+
+    /**
+     * Removes the least recently used entry and returns its key and bytes.
+     * If there is an overflow store, the entry is found by get() until
+     * overflow() has passed it on.  Must hold the lock.
+     */
+    private Evicted evictEldest()
+    {
+        Iterator iter = m_entries.entrySet().iterator();
+        Map.Entry eldest = (Map.Entry)iter.next();
+        Entry entry = (Entry)eldest.getValue();
+        iter.remove();
+        Evicted evicted = new Evicted( eldest.getKey(), read( entry ), entry.m_raw );
+        release( entry );
+        if( m_overflowStore != null )
+        {
+            cancelOverflow( evicted.m_key );
+            m_overflowing.put( evicted.m_key, evicted );
+        }
+        return evicted;
+    }
+
+    /**
+     * Keeps an evicted entry for the given key, if there is one on its
+     * way, from being passed on to the overflow store.  Called when the key
+     * is removed or stored again.  Must hold the lock.
+     */
+    private void cancelOverflow( Object key )
+    {
+        Evicted evicted = (Evicted)m_overflowing.remove( key );
+        if( evicted != null )
+        {
+            evicted.m_cancelled = true;
+        }
+    }
+
+    /**
+     * Passes evicted entries on to the overflow store, if there is one,
+     * unless they were cancelled meanwhile.  Never called while holding
+     * the lock.
+     */
+    private void overflow( List evicted )
+    {
+        if( m_overflowStore == null )
+        {
+            return;
+        }
+        for( Iterator iter = evicted.iterator(); iter.hasNext(); )
+        {
+            Evicted entry = (Evicted)iter.next();
+            try
+            {
+                Object value = entry.m_raw
+                    ? entry.m_bytes : m_serializer.deserialize( entry.m_bytes );
+                synchronized( m_overflowLock )
+                {
+                    synchronized( this )
+                    {
+                        if( entry.m_cancelled )
+                        {
+                            continue;
+                        }
+                    }
+                    m_overflowStore.store( entry.m_key, value );
+                }
+            }
+            catch( IOException e )
+            {
+                getLogger().error( "Error passing object on to the overflow store", e );
+            }
+            finally
+            {
+                synchronized( this )
+                {
+                    if( m_overflowing.get( entry.m_key ) == entry )
+                    {
+                        m_overflowing.remove( entry.m_key );
+                    }
+                }
+            }
+        }
+    }
+
+    private ByteBuffer slabOf( int block )
+    {
+        return m_slabs[ block / m_blocksPerSlab ];
+    }
+
+    private int positionOf( int block )
+    {
+        return ( block % m_blocksPerSlab ) * m_blockSize;
+    }
+
+    private void updateSizeInstruments()
+    {
+        m_sizeInstrument.setValue( m_entries.size() );
+        m_bytesInstrument.setValue( (int)Math.min( getUsedBytes(), Integer.MAX_VALUE ) );
+    }
+
+    public void setInstrumentableName(String name)
+    {
+        m_instrumentableName = name;
+    }
+
+    public String getInstrumentableName()
+    {
+        return m_instrumentableName;
+    }
+
+    public Instrument[] getInstruments()
+    {
+        return new Instrument[] { m_sizeInstrument, m_hitsInstrument, m_missesInstrument,
+                                  m_bytesInstrument };
+    }
+
+    public Instrumentable[] getChildInstrumentables() {
+        return Instrumentable.EMPTY_INSTRUMENTABLE_ARRAY;
+    }
+
+    /**
+     * The bytes of an evicted object on its way to the overflow store.
+     */
+    private static final class Evicted
+    {
+        final Object m_key;
+        final byte[] m_bytes;
+        final boolean m_raw;
+
+        /** True if the key was removed or stored again meanwhile. */
+        boolean m_cancelled;
+
+        Evicted( Object key, byte[] bytes, boolean raw )
+        {
+            m_key = key;
+            m_bytes = bytes;
+            m_raw = raw;
+        }
+    }
+
+    /**
+     * The blocks holding the bytes of an object.
+     */
+    private static final class Entry
+    {
+        final int[] m_blocks;
+        final int m_length;
+        final boolean m_raw;
+
+        Entry( int[] blocks, int length, boolean raw )
+        {
+            m_blocks = blocks;
+            m_length = length;
+            m_raw = raw;
+        }
+    }
+}
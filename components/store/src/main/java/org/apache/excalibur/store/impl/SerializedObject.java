@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Holds the bytes a {@link org.apache.excalibur.store.Serializer} made of
+ * a value, in stores which serialize their values themselves.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: SerializedObject.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+public final class SerializedObject
+    implements Externalizable
+{
+    private static final long serialVersionUID = 1L;
+
+    private byte[] m_bytes;
+
+    /**
+     * Needed by Externalizable.
+     */
+    public SerializedObject()
+    {
+    }
+
+    SerializedObject( byte[] bytes )
+    {
+        m_bytes = bytes;
+    }
+
+    byte[] getBytes()
+    {
+        return m_bytes;
+    }
+
+    public void writeExternal( ObjectOutput out ) throws IOException
+    {
+        out.writeInt( m_bytes.length );
+        out.write( m_bytes );
+    }
+
+    public void readExternal( ObjectInput in ) throws IOException
+    {
+        m_bytes = new byte[ in.readInt() ];
+        in.readFully( m_bytes );
+    }
+}
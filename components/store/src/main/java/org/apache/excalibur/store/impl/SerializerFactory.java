@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameterizable;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.excalibur.store.Serializer;
+
+/**
+ * Creates the {@link Serializer} of a store from the store's parameters,
+ * so that every store is configured the same way:
+ * <UL>
+ *  <LI>serializer: <code>java</code>, <code>binary</code> or the class name
+ *      of a Serializer.  A Serializer which is Parameterizable is given
+ *      the parameters of the store (Default: java)</LI>
+ *  <LI>compression: <code>none</code> or <code>lz4</code>, which compresses
+ *      the serialized bytes (Default: none)</LI>
+ *  <LI>compression-threshold: Number of serialized bytes below which
+ *      objects are not compressed (Default: 512)</LI>
+ * </UL>
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: SerializerFactory.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+public final class SerializerFactory
+{
+    private SerializerFactory()
+    {
+    }
+
+    /**
+     * Creates the Serializer configured by the given parameters.
+     *
+     * @param params The parameters of the store
+     * @return The Serializer, or <code>null</code> if neither a serializer
+     *         nor compression is configured
+     * @exception ParameterException If the Serializer cannot be created
+     */
+    public static Serializer createSerializer( Parameters params ) throws ParameterException
+    {
+        final String name = params.getParameter( "serializer", null );
+        final String compression = params.getParameter( "compression", "none" );
+        if( name == null && "none".equals( compression ) )
+        {
+            return null;
+        }
+
+        Serializer serializer;
+        if( name == null || "java".equals( name ) )
+        {
+            serializer = new JavaSerializer();
+        }
+        else if( "binary".equals( name ) )
+        {
+            serializer = new BinarySerializer();
+        }
+        else
+        {
+            try
+            {
+                serializer = (Serializer)loadClass( name ).newInstance();
+            }
+            catch( Exception e )
+            {
+                throw new ParameterException( "Unable to create serializer " + name, e );
+            }
+        }
+        if( serializer instanceof Parameterizable )
+        {
+            ( (Parameterizable)serializer ).parameterize( params );
+        }
+
+        if( "lz4".equals( compression ) )
+        {
+            final int threshold = params.getParameterAsInteger( "compression-threshold", 512 );
+            serializer = new CompressingSerializer( serializer, threshold );
+        }
+        else if( !"none".equals( compression ) )
+        {
+            throw new ParameterException( "Unknown compression " + compression );
+        }
+        return serializer;
+    }
+
+    /**
+     * Loads a class by the context class loader of the current thread,
+     * or by the class loader of this class if there is none.
+     */
+    static Class loadClass( String name ) throws ClassNotFoundException
+    {
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if( loader != null )
+        {
+            return loader.loadClass( name );
+        }
+        return SerializerFactory.class.getClassLoader().loadClass( name );
+    }
+}
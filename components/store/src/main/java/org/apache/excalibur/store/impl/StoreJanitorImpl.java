@@ -27,6 +27,7 @@ import org.apache.avalon.framework.parameters.Parameters;
 import org.apache.avalon.framework.thread.ThreadSafe;
 import org.apache.excalibur.store.Store;
 import org.apache.excalibur.store.StoreJanitor;
+import org.apache.excalibur.store.WeightedStore;
 
 /**
  * This class is a implentation of a StoreJanitor. Store classes
@@ -50,7 +51,10 @@ import org.apache.excalibur.store.StoreJanitor;
  *  <li><b>threadpriority</b>:
  *      Priority of the thread (1-10). (Default: 10)</li>
  *  <li><b>percent_to_free</b>:
- *      What fraction of the store to free when memory is low (1-100). (Default: 10%)</li>
+ *      What fraction of the store to free when memory is low (1-100). (Default: 10%)
+ *      Stores which know the bytes their objects use ({@link WeightedStore}s) are
+ *      freed by that fraction of their bytes, other stores by that fraction of
+ *      their objects.</li>
  *  <li><b>invokegc</b>:
  *      Invoke the gc on low memory first (true|false; default: false)</li>
  * </ul></p>
@@ -408,6 +412,11 @@ public class StoreJanitorImpl extends AbstractLogEnabled
 
             // Delete proportionate elements out of the store as configured.
             Store store = (Store)getStoreList().get(getIndex());
+            if (store instanceof WeightedStore && ((WeightedStore)store).getWeight() >= 0)
+            {
+                freeBytes((WeightedStore)store);
+                return;
+            }
             int limit = calcToFree(store);
             if (getLogger().isInfoEnabled())
             {
@@ -435,6 +444,44 @@ public class StoreJanitorImpl extends AbstractLogEnabled
         }
     }
 
+    /**
+     * Frees the configured fraction of the bytes used by a store, however
+     * many objects that takes.
+     *
+     * @param store the Store which was selected as victim
+     */
+    private void freeBytes(WeightedStore store)
+    {
+        final long weight = store.getWeight();
+        final long target = weight - (long)(weight * fraction);
+        if (getLogger().isInfoEnabled())
+        {
+            getLogger().info("Freeing " + (weight - target) + " of " + weight
+                             + " bytes from store N " + getIndex());
+        }
+
+        // Each free() removes at least one object, so stop after all of them.
+        int limit = store.size();
+        long current = weight;
+        while (current > target && current > 0 && limit-- > 0)
+        {
+            try
+            {
+                store.free();
+            }
+            catch (OutOfMemoryError e)
+            {
+                getLogger().error("OutOfMemoryError in freeMemory()");
+            }
+            current = store.getWeight();
+        }
+
+        if (getLogger().isDebugEnabled())
+        {
+            getLogger().debug("Store N " + getIndex() + " now uses " + current + " bytes");
+        }
+    }
+
     /**
      * This method claculates the number of Elements to be freememory
      * out of the Cache.
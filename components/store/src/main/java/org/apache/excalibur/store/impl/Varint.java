@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Reads and writes non-negative ints in 1 to 5 bytes, 7 bits at a time,
+ * low bits first.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: Varint.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+final class Varint
+{
+    private Varint()
+    {
+    }
+
+    static int size( int value )
+    {
+        int size = 1;
+        while( ( value >>>= 7 ) != 0 )
+        {
+            size++;
+        }
+        return size;
+    }
+
+    static int write( byte[] dst, int pos, int value )
+    {
+        while( ( value & ~0x7F ) != 0 )
+        {
+            dst[ pos++ ] = (byte)( ( value & 0x7F ) | 0x80 );
+            value >>>= 7;
+        }
+        dst[ pos++ ] = (byte)value;
+        return pos;
+    }
+
+    static void write( DataOutput out, int value ) throws IOException
+    {
+        while( ( value & ~0x7F ) != 0 )
+        {
+            out.writeByte( ( value & 0x7F ) | 0x80 );
+            value >>>= 7;
+        }
+        out.writeByte( value );
+    }
+
+    static int read( byte[] src, int pos ) throws IOException
+    {
+        int value = 0;
+        for( int shift = 0; shift < 35; shift += 7 )
+        {
+            if( pos >= src.length )
+            {
+                throw new IOException( "Truncated length" );
+            }
+            final int b = src[ pos++ ];
+            value |= ( b & 0x7F ) << shift;
+            if( b >= 0 )
+            {
+                return value;
+            }
+        }
+        throw new IOException( "Malformed length" );
+    }
+
+    static int read( DataInput in ) throws IOException
+    {
+        int value = 0;
+        for( int shift = 0; shift < 35; shift += 7 )
+        {
+            final int b = in.readByte();
+            value |= ( b & 0x7F ) << shift;
+            if( b >= 0 )
+            {
+                return value;
+            }
+        }
+        throw new IOException( "Malformed length" );
+    }
+}
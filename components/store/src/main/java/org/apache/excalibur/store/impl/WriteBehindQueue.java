@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.avalon.framework.logger.Logger;
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.ValueInstrument;
+import org.apache.excalibur.store.Store;
+
+/**
+ * Queues objects to be stored in a (slow) store, and stores them with a
+ * background thread.  Used by the {@link MRUMemoryStore} to swap objects
+ * to the persistent store without making its callers wait for the disk.
+ * <p>
+ * An object stays in the queue until it has been stored, so it can always
+ * be found either in the queue or in the store.  Queuing a key which is
+ * already queued replaces its object.  Objects are stored in the order
+ * they were first queued.
+ * <p>
+ * The queue is bounded.  Callers which are about to queue objects call
+ * {@link #awaitCapacity()} first, before taking any of their own locks,
+ * and wait there while the queue is full.  As a caller may queue more than
+ * one object afterwards, the queue may grow somewhat beyond its capacity.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Id: WriteBehindQueue.java,v 1.1 2004/02/28 11:47:31 cziegeler Exp $
+ * @since 2.2.3
+ */
+final class WriteBehindQueue
+    implements Runnable
+{
+    private final Store m_store;
+    private final int m_capacity;
+    private final Logger m_logger;
+    private final ValueInstrument m_sizeInstrument;
+    private final CounterInstrument m_waitsInstrument;
+    private final CounterInstrument m_waitTimeInstrument;
+
+    /** The queued objects by key, in the order they were queued. */
+    private final LinkedHashMap m_pending = new LinkedHashMap();
+
+    /** The key which the writer thread is storing, or null. */
+    private Object m_writingKey;
+
+    /** True if the key being stored was removed while it was stored. */
+    private boolean m_writingRemoved;
+
+    private Thread m_thread;
+    private boolean m_closed;
+
+    /**
+     * Creates a new queue.  It does not store anything until it is started.
+     *
+     * @param store The store to store the objects in
+     * @param capacity The number of objects which may be queued before
+     *  callers of awaitCapacity() have to wait
+     * @param logger The logger to report errors to
+     * @param sizeInstrument Set to the number of queued objects
+     * @param waitsInstrument Incremented each time a caller has to wait
+     *  for the queue to have room
+     * @param waitTimeInstrument Incremented by the number of milliseconds
+     *  that callers waited
+     */
+    WriteBehindQueue( Store store,
+                      int capacity,
+                      Logger logger,
+                      ValueInstrument sizeInstrument,
+                      CounterInstrument waitsInstrument,
+                      CounterInstrument waitTimeInstrument )
+    {
+        m_store = store;
+        m_capacity = capacity;
+        m_logger = logger;
+        m_sizeInstrument = sizeInstrument;
+        m_waitsInstrument = waitsInstrument;
+        m_waitTimeInstrument = waitTimeInstrument;
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    synchronized void start( String name )
+    {
+        m_thread = new Thread( this, name );
+        m_thread.setDaemon( true );
+        m_thread.start();
+    }
+
+    /**
+     * Stores all of the queued objects and stops the writer thread.  Objects
+     * queued afterwards are stored by the calling thread.
+     */
+    void close()
+    {
+        Thread thread;
+        synchronized( this )
+        {
+            m_closed = true;
+            thread = m_thread;
+            notifyAll();
+        }
+        if( thread != null )
+        {
+            try
+            {
+                thread.join();
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits while the queue is full.  Must not be called while holding a
+     * lock which a reader of the queue may need.
+     */
+    synchronized void awaitCapacity()
+    {
+        if( m_closed || m_pending.size() < m_capacity )
+        {
+            return;
+        }
+
+        m_waitsInstrument.increment();
+        long start = System.currentTimeMillis();
+        try
+        {
+            while( !m_closed && m_pending.size() >= m_capacity )
+            {
+                wait();
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        m_waitTimeInstrument.increment( (int)( System.currentTimeMillis() - start ) );
+    }
+
+    /**
+     * Queues an object to be stored.  Never waits.
+     */
+    void put( Object key, Object value )
+    {
+        synchronized( this )
+        {
+            if( !m_closed )
+            {
+                m_pending.put( key, value );
+                m_sizeInstrument.setValue( m_pending.size() );
+                notifyAll();
+                return;
+            }
+        }
+        write( key, value );
+    }
+
+    /**
+     * Returns the queued object for the given key, or null.
+     */
+    synchronized Object get( Object key )
+    {
+        return m_pending.get( key );
+    }
+
+    /**
+     * Indicates if an object is queued for the given key.
+     */
+    synchronized boolean containsKey( Object key )
+    {
+        return m_pending.containsKey( key );
+    }
+
+    /**
+     * Removes the object for the given key from the queue.  If the object
+     * is being stored, it is removed from the store again afterwards.
+     */
+    synchronized void remove( Object key )
+    {
+        m_pending.remove( key );
+        m_sizeInstrument.setValue( m_pending.size() );
+        if( key.equals( m_writingKey ) )
+        {
+            m_writingRemoved = true;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Removes the objects whose keys start with the given prefix from the
+     * queue, like {@link #remove(Object)}.
+     */
+    synchronized void removeIf( String prefix )
+    {
+        for( Iterator i = m_pending.keySet().iterator(); i.hasNext(); )
+        {
+            if( String.valueOf( i.next() ).startsWith( prefix ) )
+            {
+                i.remove();
+            }
+        }
+        m_sizeInstrument.setValue( m_pending.size() );
+        if( m_writingKey != null && String.valueOf( m_writingKey ).startsWith( prefix ) )
+        {
+            m_writingRemoved = true;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Removes all of the objects from the queue.
+     */
+    synchronized void clear()
+    {
+        m_pending.clear();
+        m_sizeInstrument.setValue( 0 );
+        if( m_writingKey != null )
+        {
+            m_writingRemoved = true;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Stores the queued objects until the queue is closed and empty.
+     */
+    public void run()
+    {
+        while( true )
+        {
+            Object key;
+            Object value;
+            synchronized( this )
+            {
+                while( m_pending.isEmpty() && !m_closed )
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch( InterruptedException e )
+                    {
+                        // Only close() stops the writer.
+                    }
+                }
+                if( m_pending.isEmpty() )
+                {
+                    return;
+                }
+
+                // Leave the object in the queue until it has been stored.
+                Iterator iter = m_pending.entrySet().iterator();
+                Map.Entry entry = (Map.Entry)iter.next();
+                key = entry.getKey();
+                value = entry.getValue();
+                m_writingKey = key;
+                m_writingRemoved = false;
+            }
+
+            write( key, value );
+
+            boolean removed;
+            synchronized( this )
+            {
+                // The key may have been queued again with a new object meanwhile.
+                if( m_pending.get( key ) == value )
+                {
+                    m_pending.remove( key );
+                }
+                removed = m_writingRemoved;
+                m_writingKey = null;
+                m_writingRemoved = false;
+                m_sizeInstrument.setValue( m_pending.size() );
+                notifyAll();
+            }
+
+            if( removed )
+            {
+                m_store.remove( key );
+            }
+        }
+    }
+
+    private void write( Object key, Object value )
+    {
+        try
+        {
+            m_store.store( key, value );
+        }
+        catch( Exception e )
+        {
+            m_logger.error( "Error storing object on fs", e );
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.service.DefaultServiceManager;
+import org.apache.excalibur.store.BulkStore;
+import org.apache.excalibur.store.Store;
+import org.apache.excalibur.store.StoreJanitor;
+
+/**
+ * This TestCase gets, stores and removes many objects at once in the
+ * stores implementing <code>BulkStore</code>.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class BulkStoreTestCase extends TestCase {
+
+    /** temp dir for this test */
+    private File m_tempDir;
+
+    public void setUp() throws Exception {
+        m_tempDir = File.createTempFile("bulk", "test");
+        m_tempDir.delete();
+        m_tempDir.mkdir();
+    }
+
+    protected void tearDown() throws Exception {
+        deleteAll(m_tempDir);
+    }
+
+    private FilesystemStore openFilesystemStore() throws Exception {
+        final FilesystemStore store = new FilesystemStore();
+        store.enableLogging(new NullLogger());
+        store.setWalkerThreads(4);
+        store.setDirectory(m_tempDir);
+        return store;
+    }
+
+    private LogStructuredStore openLogStructuredStore() throws Exception {
+        final Parameters params = new Parameters();
+        params.setParameter("directory", m_tempDir.toString());
+        params.setParameter("segment-size", "4096");
+        params.setParameter("sync", "true");
+        params.makeReadOnly();
+
+        final LogStructuredStore store = new LogStructuredStore();
+        store.enableLogging(new NullLogger());
+        store.parameterize(params);
+        return store;
+    }
+
+    /**
+     * Returns a map of keys with the given prefixes to Integers.
+     */
+    private Map objects(String[] prefixes, int count) {
+        final Map objects = new HashMap();
+        for (int p = 0; p < prefixes.length; p++) {
+            for (int i = 0; i < count; i++) {
+                objects.put(prefixes[p] + i, new Integer(i));
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Runs the bulk operations against a store holding no objects.
+     */
+    private void checkBulkOperations(BulkStore store) throws Exception {
+        store.store("single", new Long(1));
+        store.storeAll(objects(new String[] { "a/", "b/" }, 20));
+        assertEquals(41, store.size());
+        assertEquals(new Integer(7), store.get("b/7"));
+
+        final List keys = new ArrayList(Arrays.asList(new String[] { "a/3", "b/19", "single", "missing" }));
+        final Map found = store.getAll(keys);
+        assertEquals(3, found.size());
+        assertEquals(new Integer(3), found.get("a/3"));
+        assertEquals(new Integer(19), found.get("b/19"));
+        assertEquals(new Long(1), found.get("single"));
+        assertFalse(found.containsKey("missing"));
+
+        // replacing objects does not change the size
+        store.storeAll(objects(new String[] { "a/" }, 5));
+        assertEquals(41, store.size());
+
+        store.removeAll(Arrays.asList(new String[] { "a/0", "a/1", "missing" }));
+        assertEquals(39, store.size());
+        assertFalse(store.containsKey("a/0"));
+        assertTrue(store.containsKey("a/2"));
+
+        store.removeIf("b/");
+        assertEquals(19, store.size());
+        assertFalse(store.containsKey("b/5"));
+        assertEquals(new Long(1), store.get("single"));
+        assertEquals(0, store.getAll(objects(new String[] { "b/" }, 20).keySet()).size());
+    }
+
+    /**
+     * Test the bulk operations of the filesystem store, which reads and
+     * writes many objects on its walker threads.
+     */
+    public void testFilesystemStore() throws Exception {
+        checkBulkOperations(openFilesystemStore());
+        assertEquals(19, openFilesystemStore().size());
+    }
+
+    /**
+     * Test the bulk operations of the log structured store, and that the
+     * objects survive reopening it.
+     */
+    public void testLogStructuredStore() throws Exception {
+        final LogStructuredStore store = openLogStructuredStore();
+        try {
+            checkBulkOperations(store);
+        } finally {
+            store.dispose();
+        }
+
+        final LogStructuredStore reopened = openLogStructuredStore();
+        try {
+            assertEquals(19, reopened.size());
+            assertEquals(new Integer(4), reopened.get("a/4"));
+            assertFalse(reopened.containsKey("b/0"));
+        } finally {
+            reopened.dispose();
+        }
+    }
+
+    /**
+     * Test the bulk operations of the MRU store, whose objects partly
+     * live in its persistent store.
+     */
+    public void testMRUMemoryStore() throws Exception {
+        final FilesystemStore persistent = openFilesystemStore();
+        final DefaultServiceManager manager = new DefaultServiceManager();
+        manager.put(StoreJanitor.ROLE, new NullStoreJanitor());
+        manager.put(Store.PERSISTENT_STORE, persistent);
+        manager.makeReadOnly();
+
+        final Parameters params = new Parameters();
+        params.setParameter("maxobjects", "10");
+        params.setParameter("use-persistent-cache", "true");
+        params.makeReadOnly();
+
+        final MRUMemoryStore store = new MRUMemoryStore();
+        store.enableLogging(new NullLogger());
+        store.service(manager);
+        store.parameterize(params);
+
+        store.storeAll(objects(new String[] { "a/", "b/" }, 20));
+        assertEquals(10, store.size());
+        assertEquals(30, persistent.size());
+
+        // all objects are found, in memory or in the persistent store
+        final Map found = store.getAll(objects(new String[] { "a/", "b/" }, 20).keySet());
+        assertEquals(40, found.size());
+        assertEquals(new Integer(11), found.get("a/11"));
+
+        store.removeAll(Arrays.asList(new String[] { "a/0", "b/0" }));
+        assertFalse(store.containsKey("a/0"));
+        assertFalse(store.containsKey("b/0"));
+
+        store.removeIf("a/");
+        for (Iterator i = store.getAll(objects(new String[] { "a/", "b/" }, 20).keySet()).keySet().iterator(); i.hasNext();) {
+            assertTrue(((String) i.next()).startsWith("b/"));
+        }
+        assertEquals(0, store.getAll(objects(new String[] { "a/" }, 20).keySet()).size());
+        assertEquals(new Integer(5), store.get("b/5"));
+    }
+
+    /**
+     * Deletes files in directory recursively
+     * @param f
+     */
+    private void deleteAll(File f) {
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            for (int i = 0; i < children.length; i++) {
+                deleteAll(children[i]);
+            }
+        }
+
+        f.delete();
+    }
+
+    /**
+     * A store in the temp dir of the test.
+     */
+    private static class FilesystemStore extends AbstractFilesystemStore {
+    }
+
+    /**
+     * A janitor which never frees anything.
+     */
+    private static class NullStoreJanitor implements StoreJanitor {
+        public void register(Store store) {
+        }
+
+        public void unregister(Store store) {
+        }
+
+        public Iterator iterator() {
+            return null;
+        }
+    }
+}
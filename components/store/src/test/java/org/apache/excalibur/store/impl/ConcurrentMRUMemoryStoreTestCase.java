@@ -0,0 +1,323 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.service.DefaultServiceManager;
+import org.apache.excalibur.store.Store;
+import org.apache.excalibur.store.StoreJanitor;
+
+/**
+ * This TestCase checks the eviction order, the persistent swap and the
+ * size bookkeeping of the <code>ConcurrentMRUMemoryStore</code>.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class ConcurrentMRUMemoryStoreTestCase extends TestCase {
+
+    /** persistent store the evicted objects are swapped to */
+    private MemoryStore m_persistentStore;
+
+    /** store under test */
+    private ConcurrentMRUMemoryStore m_store;
+
+    /**
+     * Creates a store with the given parameters
+     */
+    private ConcurrentMRUMemoryStore createStore(int maxobjects, int segments, boolean persistent)
+        throws Exception {
+        return createStore(maxobjects, segments, persistent, new MemoryStore());
+    }
+
+    private ConcurrentMRUMemoryStore createStore(int maxobjects, int segments, boolean persistent,
+                                                 MemoryStore persistentStore)
+        throws Exception {
+        m_persistentStore = persistentStore;
+
+        final DefaultServiceManager manager = new DefaultServiceManager();
+        manager.put(StoreJanitor.ROLE, new NullStoreJanitor());
+        manager.put(Store.PERSISTENT_STORE, m_persistentStore);
+        manager.makeReadOnly();
+
+        final Parameters params = new Parameters();
+        params.setParameter("maxobjects", String.valueOf(maxobjects));
+        params.setParameter("segments", String.valueOf(segments));
+        params.setParameter("use-persistent-cache", String.valueOf(persistent));
+        params.makeReadOnly();
+
+        m_store = new ConcurrentMRUMemoryStore();
+        m_store.enableLogging(new NullLogger());
+        m_store.service(manager);
+        m_store.parameterize(params);
+        return m_store;
+    }
+
+    /**
+     * Test that the least recently used object is evicted and swapped
+     * to the persistent store, from where it can still be read.
+     */
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        final ConcurrentMRUMemoryStore store = createStore(3, 1, true);
+        store.store("a", "1");
+        store.store("b", "2");
+        store.store("c", "3");
+
+        // a becomes the most recently used, so b is the eldest
+        assertEquals("1", store.get("a"));
+        store.store("d", "4");
+
+        assertEquals(3, store.size());
+        assertFalse(m_persistentStore.containsKey("a"));
+        assertEquals("2", m_persistentStore.get("b"));
+        assertTrue(store.containsKey("b"));
+
+        // reading b from the persistent store holds it in memory again
+        assertEquals("2", store.get("b"));
+        assertEquals(3, store.size());
+        assertEquals("3", m_persistentStore.get("c"));
+    }
+
+    /**
+     * Test that the size stays within maxobjects when the keys are
+     * spread over several segments.
+     */
+    public void testSizeAcrossSegments() throws Exception {
+        final ConcurrentMRUMemoryStore store = createStore(100, 16, false);
+        for (int i = 0; i < 1000; i++) {
+            store.store("key" + i, "value" + i);
+        }
+        assertEquals(100, store.size());
+        assertEquals(100, count(store.keys()));
+
+        // replacing a value does not change the size
+        final Object key = store.keys().nextElement();
+        store.store(key, "other");
+        assertEquals(100, store.size());
+        assertEquals("other", store.get(key));
+
+        store.remove(key);
+        assertEquals(99, store.size());
+        assertNull(store.get(key));
+
+        for (int i = 0; i < 10; i++) {
+            store.free();
+        }
+        assertEquals(89, store.size());
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertFalse(store.keys().hasMoreElements());
+    }
+
+    /**
+     * Test that the size is kept right by many threads using the store
+     * at the same time.
+     */
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentMRUMemoryStore store = createStore(500, 16, false);
+        final Throwable[] failure = new Throwable[1];
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    final Random random = new Random(seed);
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            final String key = "key" + random.nextInt(1000);
+                            switch (random.nextInt(4)) {
+                            case 0:
+                                store.remove(key);
+                                break;
+                            case 1:
+                                store.free();
+                                break;
+                            default:
+                                store.store(key, key);
+                                final Object value = store.get(key);
+                                if (value != null && !key.equals(value)) {
+                                    throw new IllegalStateException(key + " -> " + value);
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+
+        assertNull("Failure in worker thread: " + failure[0], failure[0]);
+        assertTrue(store.size() <= 500);
+        assertEquals(store.size(), count(store.keys()));
+    }
+
+    /**
+     * Test that dispose() saves all objects in the persistent store.
+     */
+    public void testDispose() throws Exception {
+        final ConcurrentMRUMemoryStore store = createStore(10, 4, true);
+        for (int i = 0; i < 10; i++) {
+            store.store("key" + i, "value" + i);
+        }
+        store.dispose();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("value" + i, m_persistentStore.get("key" + i));
+        }
+    }
+
+    /**
+     * Test that an object removed while it is on its way to the persistent
+     * store does not reach it.
+     */
+    public void testRemoveWhileSwapping() throws Exception {
+        final GatedStore persistentStore = new GatedStore();
+        final ConcurrentMRUMemoryStore store = createStore(2, 1, true, persistentStore);
+        store.store("a", "1");
+        store.store("b", "2");
+
+        // a is evicted, and the persistent store holds it up
+        final Thread first = new Holder(store, "c");
+        first.start();
+        persistentStore.awaitEntered();
+
+        // b is evicted, and waits for a to be stored
+        final Thread second = new Holder(store, "d");
+        second.start();
+        while (!store.containsKey("d")) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, store.size());
+        assertTrue(store.containsKey("b"));
+        assertEquals("2", store.get("b"));
+
+        final Thread remover = new Thread() {
+            public void run() {
+                store.remove("b");
+            }
+        };
+        remover.start();
+        while (store.containsKey("b")) {
+            Thread.sleep(10);
+        }
+
+        persistentStore.open();
+        first.join(5000);
+        second.join(5000);
+        remover.join(5000);
+        assertEquals("1", persistentStore.get("a"));
+        assertFalse(persistentStore.containsKey("b"));
+        assertFalse(store.containsKey("b"));
+        assertNull(store.get("b"));
+    }
+
+    private int count(Enumeration keys) {
+        int count = 0;
+        while (keys.hasMoreElements()) {
+            keys.nextElement();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * A thread holding an object in the store.
+     */
+    private static class Holder extends Thread {
+        private final Store m_store;
+        private final String m_key;
+
+        Holder(Store store, String key) {
+            m_store = store;
+            m_key = key;
+        }
+
+        public void run() {
+            try {
+                m_store.store(m_key, m_key);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * A store which only stores objects once the test opens it.
+     */
+    private static class GatedStore extends MemoryStore {
+        private final Object m_gate = new Object();
+        private boolean m_open;
+        private boolean m_entered;
+
+        public void store(Object key, Object value) {
+            synchronized (m_gate) {
+                m_entered = true;
+                m_gate.notifyAll();
+                while (!m_open) {
+                    try {
+                        m_gate.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            super.store(key, value);
+        }
+
+        void awaitEntered() throws InterruptedException {
+            synchronized (m_gate) {
+                while (!m_entered) {
+                    m_gate.wait();
+                }
+            }
+        }
+
+        void open() {
+            synchronized (m_gate) {
+                m_open = true;
+                m_gate.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A janitor which never frees anything.
+     */
+    private static class NullStoreJanitor implements StoreJanitor {
+        public void register(Store store) {
+        }
+
+        public void unregister(Store store) {
+        }
+
+        public Iterator iterator() {
+            return null;
+        }
+    }
+}
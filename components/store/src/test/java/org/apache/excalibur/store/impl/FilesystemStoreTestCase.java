@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.InstrumentProxy;
+import org.apache.excalibur.instrument.ValueInstrument;
+
+/**
+ * This TestCase stores objects in an <code>AbstractFilesystemStore</code>
+ * and checks the encoding of the keys, the shard directories and the
+ * migration of directories written in the old layout.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class FilesystemStoreTestCase extends TestCase {
+
+    /** temp dir for this test */
+    private File m_tempDir;
+
+    public void setUp() throws Exception {
+        m_tempDir = File.createTempFile("store", "test");
+        m_tempDir.delete();
+        m_tempDir.mkdir();
+    }
+
+    protected void tearDown() throws Exception {
+        deleteAll(m_tempDir);
+    }
+
+    private FilesystemStore open(int walkers) throws Exception {
+        final FilesystemStore store = new FilesystemStore();
+        store.enableLogging(new NullLogger());
+        store.setWalkerThreads(walkers);
+        store.setDirectory(m_tempDir);
+        return store;
+    }
+
+    /**
+     * Test that odd keys survive encoding and decoding, and that the
+     * encoded names are safe file names.
+     */
+    public void testEncoding() throws Exception {
+        final FilesystemStore store = open(1);
+        final char[] chars = new char[300];
+        Arrays.fill(chars, '.');
+        final String[] keys = new String[] {
+            "simple", "/path/to/file.xml?a=b&c=d", ".hidden", "end.", "%41",
+            "\u00e4\u20ac\ud83d\ude00", new String(chars), "a\\b:c*d"
+        };
+        for (int i = 0; i < keys.length; i++) {
+            final String encoded = store.encode(keys[i]);
+            assertEquals(keys[i], store.decode(encoded));
+            final String[] names = encoded.split(File.separator.equals("\\") ? "\\\\" : File.separator);
+            for (int j = 0; j < names.length; j++) {
+                assertFalse(encoded, names[j].startsWith("."));
+                assertFalse(encoded, names[j].endsWith("."));
+                assertTrue(encoded, names[j].length() < 140);
+            }
+        }
+        assertEquals("file.xml", store.encode("file.xml"));
+    }
+
+    /**
+     * Test the basic operations of the store with keys spread over shards.
+     */
+    public void testStoreGetRemove() throws Exception {
+        final FilesystemStore store = open(4);
+        final char[] chars = new char[200];
+        Arrays.fill(chars, 'x');
+        final String longKey = new String(chars);
+        final Set expected = new HashSet();
+        for (int i = 0; i < 100; i++) {
+            store.store("key/" + i, new Integer(i));
+            expected.add("key/" + i);
+        }
+        store.store(longKey, "long");
+        expected.add(longKey);
+
+        assertEquals(101, store.size());
+        assertEquals(new Integer(42), store.get("key/42"));
+        assertEquals("long", store.getString(longKey));
+        assertTrue(store.containsKey("key/7"));
+        assertFalse(store.containsKey("key/100"));
+        assertNull(store.get("key/100"));
+
+        final Set found = new HashSet();
+        for (Enumeration keys = store.keys(); keys.hasMoreElements();) {
+            found.add(keys.nextElement());
+        }
+        assertEquals(expected, found);
+
+        store.remove("key/42");
+        assertEquals(100, store.size());
+        assertFalse(store.containsKey("key/42"));
+
+        // The store directory only holds shards and the layout marker
+        final File[] files = m_tempDir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            final String name = files[i].getName();
+            assertTrue(name, name.length() == 2 || name.equals(".layout"));
+        }
+    }
+
+    /**
+     * Test that files written in the old layout are moved into the shards.
+     */
+    public void testMigration() throws Exception {
+        final FilesystemStore writer = new FilesystemStore();
+        writer.serializeObject(new File(m_tempDir, "a%2Fb"), new Integer(1));
+        writer.serializeString(new File(m_tempDir, "text"), "value");
+        final char[] chars = new char[130];
+        Arrays.fill(chars, 'y');
+        final String longKey = new String(chars);
+        final File longDir = new File(m_tempDir, longKey.substring(0, 127));
+        longDir.mkdir();
+        writer.serializeString(new File(longDir, longKey.substring(127)), "long");
+
+        final FilesystemStore store = open(2);
+        assertEquals(3, store.size());
+        assertEquals(new Integer(1), store.get("a/b"));
+        assertEquals("value", store.getString("text"));
+        assertEquals("long", store.getString(longKey));
+        assertFalse(new File(m_tempDir, ".legacy").exists());
+        assertFalse(new File(m_tempDir, "text").exists());
+
+        // Reopening a migrated directory leaves it alone
+        assertEquals(3, open(1).size());
+    }
+
+    /**
+     * Test that threads storing different keys keep the size right, and
+     * that clear() removes everything.
+     */
+    public void testConcurrentStoreAndClear() throws Exception {
+        final FilesystemStore store = open(2);
+        store.store("existing", "value");
+        assertEquals(1, store.size());
+
+        final Exception[] failure = new Exception[1];
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            store.store("t" + thread + "-" + i, new Integer(i));
+                            store.store("t" + thread + "-" + i, new Integer(i + 1));
+                            assertEquals(new Integer(i + 1), store.get("t" + thread + "-" + i));
+                        }
+                        store.remove("t" + thread + "-0");
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertNull(failure[0]);
+        assertEquals(1 + 4 * 49, store.size());
+        assertEquals(1 + 4 * 49, open(1).size());
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertFalse(store.keys().hasMoreElements());
+    }
+
+    /**
+     * Deletes files in directory recursively
+     * @param f
+     */
+    private void deleteAll(File f) {
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            for (int i = 0; i < children.length; i++) {
+                deleteAll(children[i]);
+            }
+        }
+
+        f.delete();
+    }
+
+    /**
+     * Test that the files are named with an overridden encode(), and
+     * that keys() decodes their names with the matching decode().
+     */
+    public void testOverriddenEncoding() throws Exception {
+        final FilesystemStore store = new FilesystemStore() {
+            protected String encode(String s) {
+                return "k-" + super.encode(s);
+            }
+
+            protected String decode(String filename) {
+                return super.decode(filename.substring(2));
+            }
+        };
+        store.enableLogging(new NullLogger());
+        store.setDirectory(m_tempDir);
+        store.store("key", new Integer(1));
+
+        assertEquals("k-key", store.fileFromKey("key").getName());
+        assertTrue(store.fileFromKey("key").exists());
+        assertEquals(new Integer(1), store.get("key"));
+        final Enumeration keys = store.keys();
+        assertEquals("key", keys.nextElement());
+        assertFalse(keys.hasMoreElements());
+    }
+
+    /**
+     * Test that the size instrument follows the changes from the first
+     * one on, counting the objects found in the directory.
+     */
+    public void testSizeInstrument() throws Exception {
+        open(1).store("old", "value");
+
+        final FilesystemStore store = open(1);
+        final SizeProxy proxy = new SizeProxy();
+        final Instrument[] instruments = store.getInstruments();
+        for (int i = 0; i < instruments.length; i++) {
+            if ("size".equals(instruments[i].getInstrumentName())) {
+                ((ValueInstrument) instruments[i]).setInstrumentProxy(proxy);
+            }
+        }
+
+        store.store("new", "value");
+        assertEquals(2, proxy.m_value);
+        store.remove("old");
+        assertEquals(1, proxy.m_value);
+    }
+
+    /**
+     * A proxy keeping the last value of an instrument.
+     */
+    private static class SizeProxy implements InstrumentProxy {
+        int m_value = -1;
+
+        public boolean isActive() {
+            return true;
+        }
+
+        public void increment(int count) {
+        }
+
+        public void setValue(int value) {
+            m_value = value;
+        }
+    }
+
+    /**
+     * A store in the temp dir of the test.
+     */
+    private static class FilesystemStore extends AbstractFilesystemStore {
+    }
+}
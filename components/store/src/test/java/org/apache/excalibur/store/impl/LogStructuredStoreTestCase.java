@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Enumeration;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.Parameters;
+
+/**
+ * This TestCase stores objects in a <code>LogStructuredStore</code>, and
+ * checks that they are found again after compaction and after the store
+ * has been reopened, even if the last record was not written completely.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class LogStructuredStoreTestCase extends TestCase {
+
+    /** temp dir for this test */
+    private File m_tempDir;
+
+    /** store under test */
+    private LogStructuredStore m_store;
+
+    public void setUp() throws Exception {
+        m_tempDir = File.createTempFile("log", "test");
+        m_tempDir.delete();
+        m_tempDir.mkdir();
+        m_store = open();
+    }
+
+    protected void tearDown() throws Exception {
+        m_store.dispose();
+        deleteAll(m_tempDir);
+    }
+
+    /**
+     * Opens a store in the temp dir with small segments
+     */
+    private LogStructuredStore open() throws Exception {
+        final Parameters params = new Parameters();
+        params.setParameter("directory", m_tempDir.toString());
+        params.setParameter("segment-size", "4096");
+        params.makeReadOnly();
+
+        final LogStructuredStore store = new LogStructuredStore();
+        store.enableLogging(new NullLogger());
+        store.parameterize(params);
+        return store;
+    }
+
+    private LogStructuredStore reopen() throws Exception {
+        m_store.dispose();
+        m_store = open();
+        return m_store;
+    }
+
+    /**
+     * Test the basic operations of the store.
+     */
+    public void testStoreGetRemove() throws Exception {
+        m_store.store("a", "1");
+        m_store.store("b", new Integer(2));
+        m_store.store("a", "3");
+
+        assertEquals(2, m_store.size());
+        assertEquals("3", m_store.get("a"));
+        assertEquals(new Integer(2), m_store.get("b"));
+        assertTrue(m_store.containsKey("b"));
+        assertNull(m_store.get("c"));
+
+        m_store.remove("b");
+        assertEquals(1, m_store.size());
+        assertFalse(m_store.containsKey("b"));
+        assertNull(m_store.get("b"));
+
+        final Enumeration keys = m_store.keys();
+        assertEquals("a", keys.nextElement());
+        assertFalse(keys.hasMoreElements());
+
+        m_store.clear();
+        assertEquals(0, m_store.size());
+        assertNull(m_store.get("a"));
+        m_store.store("d", "4");
+        assertEquals("4", reopen().get("d"));
+        assertEquals(1, m_store.size());
+    }
+
+    /**
+     * Test that stored and removed objects survive reopening the store.
+     */
+    public void testRecovery() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            m_store.store("key" + i, "value" + i);
+        }
+        for (int i = 0; i < 200; i += 2) {
+            m_store.remove("key" + i);
+        }
+        m_store.store("key1", "changed");
+
+        final LogStructuredStore store = reopen();
+        assertEquals(100, store.size());
+        assertEquals("changed", store.get("key1"));
+        assertEquals("value3", store.get("key3"));
+        assertNull(store.get("key2"));
+    }
+
+    /**
+     * Test that a record which was not written completely is ignored.
+     */
+    public void testIncompleteRecord() throws Exception {
+        m_store.store("a", "1");
+        m_store.store("b", "2");
+        m_store.dispose();
+
+        // Damage the value of the last record
+        final File last = lastSegment();
+        final RandomAccessFile raf = new RandomAccessFile(last, "rw");
+        long end = raf.length() - 1;
+        raf.seek(end);
+        while (raf.readByte() == 0) {
+            raf.seek(--end);
+        }
+        raf.seek(end);
+        raf.writeByte(0x55);
+        raf.close();
+
+        m_store = open();
+        assertEquals(1, m_store.size());
+        assertEquals("1", m_store.get("a"));
+        assertNull(m_store.get("b"));
+
+        // New records after the damaged one are found again
+        m_store.store("c", "3");
+        assertEquals("3", reopen().get("c"));
+        assertEquals(2, m_store.size());
+    }
+
+    /**
+     * Test that overwriting keys compacts the log, and that the compacted
+     * log can be reopened.
+     */
+    public void testCompaction() throws Exception {
+        final char[] chars = new char[500];
+        Arrays.fill(chars, 'x');
+        final String large = new String(chars);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 10; i++) {
+                m_store.store("key" + i, large + round);
+            }
+        }
+        m_store.remove("key0");
+
+        // 20 rounds of 10 records of 500 bytes would take at least 25 segments
+        assertTrue("Segments: " + segmentCount(), segmentCount() < 10);
+        assertEquals(9, m_store.size());
+        assertEquals(large + 19, m_store.get("key5"));
+
+        final LogStructuredStore store = reopen();
+        assertEquals(9, store.size());
+        assertNull(store.get("key0"));
+        for (int i = 1; i < 10; i++) {
+            assertEquals(large + 19, store.get("key" + i));
+        }
+    }
+
+    private File[] segments() {
+        final File[] files = m_tempDir.listFiles();
+        int count = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].getName().endsWith(".log")) {
+                files[count++] = files[i];
+            }
+        }
+        final File[] segments = new File[count];
+        System.arraycopy(files, 0, segments, 0, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private int segmentCount() {
+        return segments().length;
+    }
+
+    private File lastSegment() {
+        final File[] segments = segments();
+        return segments[segments.length - 1];
+    }
+
+    /**
+     * Deletes files in directory recursively
+     * @param f
+     */
+    private void deleteAll(File f) {
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            for (int i = 0; i < children.length; i++) {
+                deleteAll(children[i]);
+            }
+        }
+
+        f.delete();
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.service.DefaultServiceManager;
+import org.apache.excalibur.store.Store;
+import org.apache.excalibur.store.StoreJanitor;
+import org.apache.excalibur.store.Weigher;
+
+/**
+ * This TestCase limits a <code>MRUMemoryStore</code> by the bytes its
+ * objects use rather than by their number.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class MRUMemoryStoreWeightTestCase extends TestCase {
+
+    /**
+     * Creates a store weighing byte arrays by their length
+     */
+    private MRUMemoryStore createStore(long maxbytes) throws Exception {
+        final DefaultServiceManager manager = new DefaultServiceManager();
+        manager.put(StoreJanitor.ROLE, new NullStoreJanitor());
+        manager.makeReadOnly();
+
+        final Parameters params = new Parameters();
+        params.setParameter("maxobjects", "100");
+        params.setParameter("maxbytes", String.valueOf(maxbytes));
+        params.setParameter("weigher", LengthWeigher.class.getName());
+        params.makeReadOnly();
+
+        final MRUMemoryStore store = new MRUMemoryStore();
+        store.enableLogging(new NullLogger());
+        store.service(manager);
+        store.parameterize(params);
+        return store;
+    }
+
+    /**
+     * Test that one large object evicts as many small objects as needed.
+     */
+    public void testEvictByBytes() throws Exception {
+        final MRUMemoryStore store = createStore(1000);
+        for (int i = 0; i < 10; i++) {
+            store.store("key" + i, new byte[100]);
+        }
+        assertEquals(10, store.size());
+        assertEquals(1000, store.getWeight());
+
+        store.store("large", new byte[450]);
+        assertEquals(6, store.size());
+        assertEquals(950, store.getWeight());
+        assertNull(store.get("key4"));
+        assertNotNull(store.get("key5"));
+    }
+
+    /**
+     * Test that replacing and removing objects keeps the bytes right.
+     */
+    public void testReplaceAndRemove() throws Exception {
+        final MRUMemoryStore store = createStore(1000);
+        store.store("a", new byte[100]);
+        store.store("b", new byte[200]);
+        store.store("a", new byte[300]);
+        assertEquals(500, store.getWeight());
+
+        store.remove("b");
+        assertEquals(300, store.getWeight());
+
+        store.free();
+        assertEquals(0, store.getWeight());
+        assertEquals(0, store.size());
+    }
+
+    /**
+     * Test that an object larger than maxbytes is still held on its own.
+     */
+    public void testOversizedObject() throws Exception {
+        final MRUMemoryStore store = createStore(1000);
+        store.store("a", new byte[100]);
+        store.store("huge", new byte[5000]);
+        assertEquals(1, store.size());
+        assertNotNull(store.get("huge"));
+        assertEquals(5000, store.getWeight());
+    }
+
+    /**
+     * Test that objects read from the persistent store are weighed without
+     * holding the lock of the store.
+     */
+    public void testWeighFetchedOutsideLock() throws Exception {
+        final MapStore persistent = new MapStore();
+        persistent.store("p", new byte[100]);
+        persistent.store("q", new byte[200]);
+
+        final DefaultServiceManager manager = new DefaultServiceManager();
+        manager.put(StoreJanitor.ROLE, new NullStoreJanitor());
+        manager.put(Store.PERSISTENT_STORE, persistent);
+        manager.makeReadOnly();
+
+        final Parameters params = new Parameters();
+        params.setParameter("maxobjects", "100");
+        params.setParameter("maxbytes", "1000");
+        params.setParameter("use-persistent-cache", "true");
+        params.setParameter("weigher", LockCheckingWeigher.class.getName());
+        params.makeReadOnly();
+
+        final MRUMemoryStore store = new MRUMemoryStore();
+        store.enableLogging(new NullLogger());
+        store.service(manager);
+        store.parameterize(params);
+        LockCheckingWeigher.c_store = store;
+        LockCheckingWeigher.c_locked = false;
+        try {
+            assertEquals(100, ((byte[])store.get("p")).length);
+            assertEquals(1, store.size());
+            assertEquals(100, store.getWeight());
+
+            final Map found = store.getAll(Arrays.asList(new Object[] {"p", "q", "r"}));
+            assertEquals(2, found.size());
+            assertEquals(2, store.size());
+            assertEquals(300, store.getWeight());
+            assertFalse(LockCheckingWeigher.c_locked);
+        } finally {
+            LockCheckingWeigher.c_store = null;
+            store.dispose();
+        }
+    }
+
+    /**
+     * Test that the default weigher follows the size of objects.
+     */
+    public void testDefaultWeigher() throws Exception {
+        final DefaultWeigher weigher = new DefaultWeigher(7);
+        assertTrue(weigher.weigh("k", "a long string value")
+                   > weigher.weigh("k", "short"));
+        assertTrue(weigher.weigh(null, new byte[1000]) >= 1000);
+
+        final ArrayList small = new ArrayList();
+        final ArrayList large = new ArrayList();
+        for (int i = 0; i < 100; i++) {
+            large.add("element" + i);
+        }
+        small.add("element");
+        assertTrue(weigher.weigh(null, large) > weigher.weigh(null, small));
+
+        assertEquals(7, weigher.weigh(null, new Object()));
+    }
+
+    /**
+     * Weighs byte arrays by their length.
+     */
+    public static class LengthWeigher implements Weigher {
+        public long weigh(Object key, Object value) {
+            return ((byte[])value).length;
+        }
+    }
+
+    /**
+     * Weighs byte arrays by their length, and notes whether it was called
+     * with the lock of the store held.
+     */
+    public static class LockCheckingWeigher implements Weigher {
+        static volatile Object c_store;
+        static volatile boolean c_locked;
+
+        public long weigh(Object key, Object value) {
+            final Object store = c_store;
+            if (store != null && Thread.holdsLock(store)) {
+                c_locked = true;
+            }
+            return ((byte[])value).length;
+        }
+    }
+
+    /**
+     * A store which keeps its objects in a map.
+     */
+    private static class MapStore implements Store {
+        private final Map m_map = new HashMap();
+
+        public synchronized Object get(Object key) {
+            return m_map.get(key);
+        }
+
+        public synchronized void store(Object key, Object value) {
+            m_map.put(key, value);
+        }
+
+        public void free() {
+        }
+
+        public synchronized void remove(Object key) {
+            m_map.remove(key);
+        }
+
+        public synchronized void clear() {
+            m_map.clear();
+        }
+
+        public synchronized boolean containsKey(Object key) {
+            return m_map.containsKey(key);
+        }
+
+        public synchronized Enumeration keys() {
+            return Collections.enumeration(m_map.keySet());
+        }
+
+        public synchronized int size() {
+            return m_map.size();
+        }
+    }
+
+    /**
+     * A janitor which never frees anything.
+     */
+    private static class NullStoreJanitor implements StoreJanitor {
+        public void register(Store store) {
+        }
+
+        public void unregister(Store store) {
+        }
+
+        public Iterator iterator() {
+            return null;
+        }
+    }
+}
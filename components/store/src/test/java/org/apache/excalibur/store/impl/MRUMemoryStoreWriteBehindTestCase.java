@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.service.DefaultServiceManager;
+import org.apache.excalibur.store.Store;
+import org.apache.excalibur.store.StoreJanitor;
+
+/**
+ * This TestCase swaps objects from a <code>MRUMemoryStore</code> through
+ * its write-behind queue to a persistent store which only stores objects
+ * when the test allows it to.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class MRUMemoryStoreWriteBehindTestCase extends TestCase {
+
+    /** persistent store which blocks in store() */
+    private GatedStore m_persistentStore;
+
+    /** store under test */
+    private MRUMemoryStore m_store;
+
+    public void setUp() throws Exception {
+        m_persistentStore = new GatedStore();
+
+        final DefaultServiceManager manager = new DefaultServiceManager();
+        manager.put(StoreJanitor.ROLE, new NullStoreJanitor());
+        manager.put(Store.PERSISTENT_STORE, m_persistentStore);
+        manager.makeReadOnly();
+
+        final Parameters params = new Parameters();
+        params.setParameter("maxobjects", "2");
+        params.setParameter("use-persistent-cache", "true");
+        params.setParameter("write-behind-queue-size", "2");
+        params.makeReadOnly();
+
+        m_store = new MRUMemoryStore();
+        m_store.enableLogging(new NullLogger());
+        m_store.service(manager);
+        m_store.parameterize(params);
+    }
+
+    protected void tearDown() throws Exception {
+        m_persistentStore.open();
+        m_store.dispose();
+    }
+
+    /**
+     * Test that objects waiting to be swapped are found by get() and
+     * containsKey(), and that they end up in the persistent store.
+     */
+    public void testReadFromQueue() throws Exception {
+        m_store.store("a", "1");
+        m_store.store("b", "2");
+        m_store.store("c", "3");
+
+        // a has been freed, but the persistent store has not stored it yet
+        assertEquals(2, m_store.size());
+        assertFalse(m_persistentStore.containsKey("a"));
+        assertTrue(m_store.containsKey("a"));
+        assertEquals("1", m_store.get("a"));
+
+        m_persistentStore.open();
+        m_persistentStore.awaitStored("a");
+        assertEquals("1", m_persistentStore.get("a"));
+    }
+
+    /**
+     * Test that a removed object is not stored once the writer gets to it.
+     */
+    public void testRemoveQueued() throws Exception {
+        m_store.store("a", "1");
+        m_store.store("b", "2");
+        m_store.store("c", "3");
+        m_store.store("d", "4");
+        m_store.remove("b");
+
+        assertNull(m_store.get("b"));
+
+        m_persistentStore.open();
+        m_persistentStore.awaitStored("a");
+        m_store.dispose();
+        assertFalse(m_persistentStore.containsKey("b"));
+    }
+
+    /**
+     * Test that storing waits while the queue is full, and that the
+     * wait is counted.
+     */
+    public void testBackpressure() throws Exception {
+        m_store.store("a", "1");
+        m_store.store("b", "2");
+        m_store.store("c", "3");
+        m_store.store("d", "4");
+
+        // the queue holds a and b, so freeing c has to wait
+        final Thread thread = new Thread() {
+            public void run() {
+                m_store.store("e", "5");
+            }
+        };
+        thread.start();
+        thread.join(200);
+        assertTrue("store() should wait for the queue", thread.isAlive());
+
+        // readers are not held up meanwhile
+        assertEquals("4", m_store.get("d"));
+        assertEquals("1", m_store.get("a"));
+
+        m_persistentStore.open();
+        thread.join(5000);
+        assertFalse("store() should continue once the queue has room", thread.isAlive());
+        assertEquals("5", m_store.get("e"));
+    }
+
+    /**
+     * Test that dispose() stores every object, whether it waited in the
+     * queue or was still in memory.
+     */
+    public void testFlushOnDispose() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            m_store.store("key" + i, "value" + i);
+        }
+        m_persistentStore.open();
+        m_store.dispose();
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("value" + i, m_persistentStore.get("key" + i));
+        }
+    }
+
+    /**
+     * A MemoryStore whose store() waits until the store has been opened.
+     */
+    private static class GatedStore extends MemoryStore {
+        private boolean m_open;
+
+        public void store(Object key, Object value) {
+            synchronized (this) {
+                while (!m_open) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            super.store(key, value);
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        synchronized void open() {
+            m_open = true;
+            notifyAll();
+        }
+
+        synchronized void awaitStored(Object key) throws InterruptedException {
+            final long end = System.currentTimeMillis() + 5000;
+            while (!containsKey(key) && System.currentTimeMillis() < end) {
+                wait(100);
+            }
+        }
+    }
+
+    /**
+     * A janitor which never frees anything.
+     */
+    private static class NullStoreJanitor implements StoreJanitor {
+        public void register(Store store) {
+        }
+
+        public void unregister(Store store) {
+        }
+
+        public Iterator iterator() {
+            return null;
+        }
+    }
+}
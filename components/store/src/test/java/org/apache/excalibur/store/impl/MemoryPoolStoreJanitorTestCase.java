@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.service.DefaultServiceManager;
+import org.apache.excalibur.store.StoreJanitor;
+
+/**
+ * This TestCase lets a <code>MemoryPoolStoreJanitor</code> free the
+ * stores registered with it.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class MemoryPoolStoreJanitorTestCase extends TestCase {
+
+    /** janitor under test */
+    private MemoryPoolStoreJanitor m_janitor;
+
+    public void setUp() throws Exception {
+        final Parameters params = new Parameters();
+        params.setParameter("usage-threshold", "80");
+        params.setParameter("percent_to_free", "10");
+        params.setParameter("cleanup-threads", "2");
+        params.makeReadOnly();
+
+        m_janitor = new MemoryPoolStoreJanitor();
+        m_janitor.enableLogging(new NullLogger());
+        m_janitor.parameterize(params);
+        m_janitor.start();
+    }
+
+    protected void tearDown() throws Exception {
+        m_janitor.stop();
+    }
+
+    /**
+     * Creates a store registered with the janitor
+     */
+    private MRUMemoryStore createStore(String maxbytes) throws Exception {
+        final DefaultServiceManager manager = new DefaultServiceManager();
+        manager.put(StoreJanitor.ROLE, m_janitor);
+        manager.makeReadOnly();
+
+        final Parameters params = new Parameters();
+        params.setParameter("maxobjects", "1000");
+        if (maxbytes != null) {
+            params.setParameter("maxbytes", maxbytes);
+        }
+        params.makeReadOnly();
+
+        final MRUMemoryStore store = new MRUMemoryStore();
+        store.enableLogging(new NullLogger());
+        store.service(manager);
+        store.parameterize(params);
+        return store;
+    }
+
+    /**
+     * Test that every store is freed, by objects or by bytes, and that a
+     * pool further over its threshold frees more.
+     */
+    public void testCleanup() throws Exception {
+        final MRUMemoryStore counted = createStore(null);
+        final MRUMemoryStore weighted = createStore("100000000");
+        for (int i = 0; i < 100; i++) {
+            counted.store("key" + i, "value" + i);
+            // the first half are ten times as large as the second half
+            weighted.store("key" + i, new byte[i < 50 ? 1000 : 100]);
+        }
+        final long weight = weighted.getWeight();
+
+        // 85% used of a pool with an 80% threshold: the configured 10% is enough
+        m_janitor.cleanup("test", new MemoryUsage(0, 85, 100, 100));
+        assertEquals(90, counted.size());
+        assertTrue(weighted.getWeight() <= weight - weight / 10);
+        // the least recently used objects are the large ones
+        assertTrue(weighted.size() >= 90);
+
+        // 100% used: a fifth of every store has to go
+        m_janitor.cleanup("test", new MemoryUsage(0, 100, 100, 100));
+        assertEquals(72, counted.size());
+
+        counted.dispose();
+        weighted.dispose();
+        assertFalse(m_janitor.iterator().hasNext());
+    }
+
+    /**
+     * Test that the janitor set a threshold on the heap pools which
+     * support one.
+     */
+    public void testThresholds() throws Exception {
+        for (Iterator iter = ManagementFactory.getMemoryPoolMXBeans().iterator(); iter.hasNext();) {
+            final MemoryPoolMXBean pool = (MemoryPoolMXBean)iter.next();
+            final long max = pool.getUsage().getMax();
+            if (pool.isUsageThresholdSupported() && max > 0
+                && pool.getType() == java.lang.management.MemoryType.HEAP) {
+                assertEquals(pool.getName(), max / 100 * 80, pool.getUsageThreshold());
+            }
+        }
+    }
+}
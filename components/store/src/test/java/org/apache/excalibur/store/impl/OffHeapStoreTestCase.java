@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.avalon.framework.service.DefaultServiceManager;
+import org.apache.excalibur.store.Store;
+
+/**
+ * This TestCase stores objects in an <code>OffHeapStore</code> and checks
+ * that the least recently used ones are passed on to its overflow store.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class OffHeapStoreTestCase extends TestCase {
+
+    /** overflow store of the store under test */
+    private MapStore m_overflow;
+
+    /** store under test */
+    private OffHeapStore m_store;
+
+    public void setUp() throws Exception {
+        m_overflow = new MapStore();
+        m_store = createStore(m_overflow);
+    }
+
+    private OffHeapStore createStore(Store overflow) throws Exception {
+        final DefaultServiceManager manager = new DefaultServiceManager();
+        manager.put("overflow", overflow);
+        manager.makeReadOnly();
+
+        // 4 slabs of 4 blocks of 256 bytes
+        final Parameters params = new Parameters();
+        params.setParameter("maxbytes", "4096");
+        params.setParameter("slab-size", "1024");
+        params.setParameter("block-size", "256");
+        params.setParameter("overflow-store", "overflow");
+        params.makeReadOnly();
+
+        final OffHeapStore store = new OffHeapStore();
+        store.enableLogging(new NullLogger());
+        store.service(manager);
+        store.parameterize(params);
+        return store;
+    }
+
+    protected void tearDown() throws Exception {
+        m_store.dispose();
+    }
+
+    /**
+     * Test the basic operations of the store.
+     */
+    public void testStoreGetRemove() throws Exception {
+        final byte[] bytes = new byte[600];
+        Arrays.fill(bytes, (byte)7);
+        m_store.store("a", "1");
+        m_store.store("b", bytes);
+        m_store.store("a", new Integer(3));
+
+        assertEquals(2, m_store.size());
+        assertEquals(new Integer(3), m_store.get("a"));
+        assertTrue(Arrays.equals(bytes, (byte[])m_store.get("b")));
+        // one block for "a", three for "b"
+        assertEquals(4 * 256, m_store.getUsedBytes());
+        assertNull(m_store.get("c"));
+
+        m_store.remove("b");
+        assertEquals(1, m_store.size());
+        assertFalse(m_store.containsKey("b"));
+        assertEquals(256, m_store.getUsedBytes());
+
+        final Enumeration keys = m_store.keys();
+        assertEquals("a", keys.nextElement());
+        assertFalse(keys.hasMoreElements());
+
+        m_store.clear();
+        assertEquals(0, m_store.size());
+        assertEquals(0, m_store.getUsedBytes());
+        assertNull(m_store.get("a"));
+    }
+
+    /**
+     * Test that the least recently used objects are passed on to the
+     * overflow store when the blocks run out, and come back on a get().
+     */
+    public void testOverflow() throws Exception {
+        // each object takes four blocks, so four of them fill the store
+        for (int i = 0; i < 4; i++) {
+            m_store.store("key" + i, new byte[1000]);
+        }
+        assertEquals(0, m_overflow.size());
+        m_store.get("key0");
+
+        m_store.store("key4", new byte[1000]);
+        assertEquals(4, m_store.size());
+        assertTrue(m_overflow.containsKey("key1"));
+        assertTrue(m_store.containsKey("key1"));
+
+        // key1 is found in the overflow store and pushes out key2
+        assertEquals(1000, ((byte[])m_store.get("key1")).length);
+        assertTrue(m_overflow.containsKey("key2"));
+        assertEquals(4, m_store.size());
+
+        m_store.free();
+        assertEquals(3, m_store.size());
+        assertTrue(m_overflow.containsKey("key3"));
+    }
+
+    /**
+     * Test that an object which can not be serialized is not stored, and
+     * takes the place of the object stored before for its key in neither
+     * store.
+     */
+    public void testNotSerializable() throws Exception {
+        m_store.store("a", "1");
+        m_overflow.store("a", "1");
+        m_store.store("a", new Object());
+
+        assertEquals(0, m_store.size());
+        assertEquals(0, m_store.getUsedBytes());
+        assertNull(m_store.get("a"));
+        assertFalse(m_overflow.containsKey("a"));
+    }
+
+    /**
+     * Test that an object larger than the store goes straight to the
+     * overflow store, and that disposing passes all objects on.
+     */
+    public void testLargeObjectAndDispose() throws Exception {
+        m_store.store("small", "value");
+        m_store.store("large", new byte[5000]);
+        assertEquals(1, m_store.size());
+        assertEquals(5000, ((byte[])m_overflow.get("large")).length);
+
+        m_store.dispose();
+        assertEquals("value", m_overflow.get("small"));
+    }
+
+    /**
+     * Test that evicted objects are found while they are on their way to
+     * the overflow store, and that removing one meanwhile keeps it from
+     * reaching the overflow store.
+     */
+    public void testRemoveWhileOverflowing() throws Exception {
+        final GatedStore overflow = new GatedStore();
+        final OffHeapStore store = createStore(overflow);
+        for (int i = 0; i < 4; i++) {
+            store.store("key" + i, new byte[1000]);
+        }
+
+        // key0 and key1 are evicted, and the overflow store holds up key0
+        final Thread storer = new Thread() {
+            public void run() {
+                try {
+                    store.store("large", new byte[2000]);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        storer.start();
+        overflow.awaitEntered();
+        assertEquals(3, store.size());
+        assertTrue(store.containsKey("key1"));
+        assertEquals(1000, ((byte[])store.get("key1")).length);
+
+        final Thread remover = new Thread() {
+            public void run() {
+                store.remove("key1");
+            }
+        };
+        remover.start();
+        while (store.containsKey("key1")) {
+            Thread.sleep(10);
+        }
+
+        overflow.open();
+        storer.join(5000);
+        remover.join(5000);
+        assertTrue(overflow.containsKey("key0"));
+        assertFalse(overflow.containsKey("key1"));
+        assertFalse(store.containsKey("key1"));
+        store.dispose();
+    }
+
+    /**
+     * A store which only stores objects once the test opens it.
+     */
+    private static class GatedStore extends MapStore {
+        private final Object m_gate = new Object();
+        private boolean m_open;
+        private boolean m_entered;
+
+        public void store(Object key, Object value) {
+            synchronized (m_gate) {
+                m_entered = true;
+                m_gate.notifyAll();
+                while (!m_open) {
+                    try {
+                        m_gate.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            super.store(key, value);
+        }
+
+        void awaitEntered() throws InterruptedException {
+            synchronized (m_gate) {
+                while (!m_entered) {
+                    m_gate.wait();
+                }
+            }
+        }
+
+        void open() {
+            synchronized (m_gate) {
+                m_open = true;
+                m_gate.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A store which keeps its objects in a map.
+     */
+    private static class MapStore implements Store {
+        private final Map m_map = new HashMap();
+
+        public synchronized Object get(Object key) {
+            return m_map.get(key);
+        }
+
+        public synchronized void store(Object key, Object value) {
+            m_map.put(key, value);
+        }
+
+        public void free() {
+        }
+
+        public synchronized void remove(Object key) {
+            m_map.remove(key);
+        }
+
+        public synchronized void clear() {
+            m_map.clear();
+        }
+
+        public synchronized boolean containsKey(Object key) {
+            return m_map.containsKey(key);
+        }
+
+        public synchronized Enumeration keys() {
+            return Collections.enumeration(m_map.keySet());
+        }
+
+        public synchronized int size() {
+            return m_map.size();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.excalibur.store.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.excalibur.store.Serializer;
+
+/**
+ * This TestCase writes objects with the serializers created by the
+ * <code>SerializerFactory</code> and reads them back.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class SerializerTestCase extends TestCase {
+
+    private Serializer create(String serializer, String compression) throws Exception {
+        final Parameters params = new Parameters();
+        params.setParameter("serializer", serializer);
+        params.setParameter("compression", compression);
+        params.setParameter("externalizables", Point.class.getName());
+        params.makeReadOnly();
+        return SerializerFactory.createSerializer(params);
+    }
+
+    /**
+     * Test that the binary form is compact and reads back, and that
+     * objects written by Java serialization are read too.
+     */
+    public void testBinary() throws Exception {
+        final Serializer serializer = create("binary", "none");
+
+        final byte[] string = serializer.serialize("hello");
+        assertEquals(6, string.length);
+        assertEquals("hello", serializer.deserialize(string));
+        assertEquals("\u00e4\u20ac", serializer.deserialize(serializer.serialize("\u00e4\u20ac")));
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3},
+                                 (byte[]) serializer.deserialize(serializer.serialize(new byte[] {1, 2, 3}))));
+
+        final Point point = new Point(3, 4, new Point(5, 6, null));
+        final byte[] bytes = serializer.serialize(point);
+        assertTrue(bytes.length < new JavaSerializer().serialize(point).length / 4);
+        assertEquals(point, serializer.deserialize(bytes));
+
+        // not registered: written by Java serialization
+        final List list = new ArrayList();
+        list.add("a");
+        assertEquals(list, serializer.deserialize(serializer.serialize(list)));
+
+        final ByteArrayOutputStream java = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(java);
+        out.writeObject("old");
+        out.close();
+        assertEquals("old", serializer.deserialize(java.toByteArray()));
+    }
+
+    /**
+     * Test that compressed objects are smaller and read back, and that
+     * objects written without compression are read too.
+     */
+    public void testCompression() throws Exception {
+        final Serializer serializer = create("binary", "lz4");
+        final StringBuffer buffer = new StringBuffer();
+        for (int i = 0; i < 1000; i++) {
+            buffer.append("line ").append(i % 10).append(" of the cached page\n");
+        }
+        final String text = buffer.toString();
+        final byte[] compressed = serializer.serialize(text);
+        assertTrue(compressed.length < text.length() / 10);
+        assertEquals(text, serializer.deserialize(compressed));
+
+        // small and incompressible objects are left alone
+        assertEquals(6, serializer.serialize("hello").length);
+        final byte[] random = new byte[4096];
+        new java.util.Random(42).nextBytes(random);
+        assertTrue(Arrays.equals(random, (byte[]) serializer.deserialize(serializer.serialize(random))));
+
+        final byte[] plain = create("binary", "none").serialize(text);
+        assertEquals(text, serializer.deserialize(plain));
+
+        // long runs and long literals
+        final byte[] mixed = new byte[100000];
+        System.arraycopy(random, 0, mixed, 50000, random.length);
+        assertTrue(Arrays.equals(mixed, (byte[]) serializer.deserialize(serializer.serialize(mixed))));
+    }
+
+    /**
+     * Test that corrupt compressed bytes are reported.
+     */
+    public void testCorrupt() throws Exception {
+        final Serializer serializer = create("java", "lz4");
+        final char[] chars = new char[2000];
+        Arrays.fill(chars, 'z');
+        final byte[] bytes = serializer.serialize(new String(chars));
+        bytes[bytes.length - 3] = (byte) 0xFF;
+        try {
+            serializer.deserialize(bytes);
+            fail("Corrupt bytes were read");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Test that no serializer is created unless one is configured.
+     */
+    public void testDefault() throws Exception {
+        assertNull(SerializerFactory.createSerializer(new Parameters()));
+    }
+
+    /**
+     * Test a Jisp store with a configured serializer.
+     */
+    public void testJispStore() throws Exception {
+        final File dir = File.createTempFile("jisp", "test");
+        dir.delete();
+        dir.mkdir();
+        final Parameters params = new Parameters();
+        params.setParameter("directory", dir.toString());
+        params.setParameter("serializer", "binary");
+        params.setParameter("compression", "lz4");
+        params.setParameter("externalizables", Point.class.getName());
+        params.makeReadOnly();
+
+        final JispFilesystemStore store = new JispFilesystemStore();
+        store.enableLogging(new NullLogger());
+        try {
+            store.parameterize(params);
+        } catch (ParameterException e) {
+            // Skipping test, JISP was not parameterized ok
+            deleteAll(dir);
+            return;
+        }
+        try {
+            store.store("point", new Point(1, 2, null));
+            store.store("text", "value");
+            assertEquals(new Point(1, 2, null), store.get("point"));
+            assertEquals("value", store.get("text"));
+        } finally {
+            store.dispose();
+            deleteAll(dir);
+        }
+    }
+
+    /**
+     * Test that a Jisp store reads serialized values after its serializer
+     * has been unset.
+     */
+    public void testJispStoreWithoutSerializer() throws Exception {
+        final File dir = File.createTempFile("jisp", "test");
+        dir.delete();
+        dir.mkdir();
+        final Parameters params = new Parameters();
+        params.setParameter("directory", dir.toString());
+        params.setParameter("serializer", "java");
+        params.makeReadOnly();
+
+        final JispFilesystemStore store = new JispFilesystemStore();
+        store.enableLogging(new NullLogger());
+        try {
+            store.parameterize(params);
+        } catch (ParameterException e) {
+            // Skipping test, JISP was not parameterized ok
+            deleteAll(dir);
+            return;
+        }
+        try {
+            store.store("text", "value");
+            store.setSerializer(null);
+            assertEquals("value", store.get("text"));
+        } finally {
+            store.dispose();
+            deleteAll(dir);
+        }
+    }
+
+    private void deleteAll(File dir) {
+        final File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * An Externalizable with a nested object.
+     */
+    public static class Point implements Externalizable {
+        private int m_x;
+        private int m_y;
+        private Point m_next;
+
+        public Point() {
+        }
+
+        Point(int x, int y, Point next) {
+            m_x = x;
+            m_y = y;
+            m_next = next;
+        }
+
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeInt(m_x);
+            out.writeInt(m_y);
+            out.writeObject(m_next);
+        }
+
+        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            m_x = in.readInt();
+            m_y = in.readInt();
+            m_next = (Point) in.readObject();
+        }
+
+        public boolean equals(Object other) {
+            if (!(other instanceof Point)) {
+                return false;
+            }
+            final Point point = (Point) other;
+            return m_x == point.m_x && m_y == point.m_y
+                && (m_next == null ? point.m_next == null : m_next.equals(point.m_next));
+        }
+
+        public int hashCode() {
+            return m_x * 31 + m_y;
+        }
+    }
+}
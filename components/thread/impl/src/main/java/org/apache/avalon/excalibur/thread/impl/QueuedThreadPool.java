@@ -0,0 +1,679 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.thread.impl;
+
+import java.util.LinkedList;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.activity.Executable;
+import org.apache.avalon.framework.logger.LogEnabled;
+import org.apache.avalon.framework.logger.Logger;
+import org.apache.avalon.framework.logger.NullLogger;
+
+import org.apache.excalibur.thread.ThreadControl;
+import org.apache.excalibur.thread.ThreadPool;
+
+/**
+ * A Thread Pool which queues work rather than handing it straight to an idle worker
+ *  thread.  Bursts of work which are larger than the number of worker threads are
+ *  absorbed by a bounded queue, so callers of execute() do not have to wait for a
+ *  worker to become available.
+ * <p>
+ * The pool keeps at least core worker threads alive once they have been started.  When
+ *  the queue is full, additional workers are started up to a maximum of max.  Workers
+ *  beyond the core size exit once they have been idle for the keep alive time.  When the
+ *  queue is full and max workers are busy, the rejection policy decides what happens to
+ *  the new work: it can be run by the calling thread, it can replace the oldest queued
+ *  work, or execute() can fail with an IllegalStateException.
+ * <p>
+ * Workers take queued work in batches of up to batchSize pieces of work at a time, so
+ *  that the queue lock does not have to be acquired for every piece of work under heavy
+ *  load.  A worker never takes more than its share of the queue so that other workers
+ *  are not left idle while work is waiting.
+ * <p>
+ * Worker threads are daemon threads unless {@link #setDaemonWorkers(boolean)} is used.
+ *  The pool itself, a ThreadGroup, should not be made a daemon group, as a daemon group
+ *  is destroyed once its last worker exits and no new workers can be started in it.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 17:22:49 $
+ * @since 2.2.3
+ */
+public class QueuedThreadPool
+    extends ThreadGroup
+    implements LogEnabled, Disposable, ThreadPool
+{
+    /** Rejected work causes execute() to throw an IllegalStateException. */
+    public static final int REJECT_FAIL = 0;
+
+    /** Rejected work is run by the thread which called execute(). */
+    public static final int REJECT_CALLER_RUNS = 1;
+
+    /** Rejected work replaces the oldest piece of work in the queue, which is dropped. */
+    public static final int REJECT_DROP_OLDEST = 2;
+
+    /*---------------------------------------------------------------
+     * Private Fields
+     *-------------------------------------------------------------*/
+    /** The logger used by the pool. */
+    private Logger m_logger = new NullLogger();
+
+    /** Lock used to synchronize access to the queue and worker counts. */
+    private final Object m_semaphore = new Object();
+
+    /** The number of worker threads which are kept alive even when idle. */
+    private final int m_core;
+
+    /** The maximum number of worker threads. */
+    private final int m_max;
+
+    /** The maximum number of pieces of work which can be waiting in the queue. */
+    private final int m_queueSize;
+
+    /** The time in milliseconds that workers beyond the core size are kept alive when idle. */
+    private final long m_keepAlive;
+
+    /** The maximum number of pieces of work which a worker takes from the queue at once. */
+    private final int m_batchSize;
+
+    /** What to do with work which can neither be queued nor given to a new worker. */
+    private final int m_rejectionPolicy;
+
+    /** True if worker threads are started as daemon threads. */
+    private boolean m_daemonWorkers = true;
+
+    /** Queue of Tasks which are waiting for a worker. */
+    private final LinkedList m_queue = new LinkedList();
+
+    /** The number of worker threads which are currently alive. */
+    private int m_workerCount;
+
+    /** The number of worker threads which are currently waiting for work. */
+    private int m_idleCount;
+
+    /** A running number used to name new worker threads. */
+    private int m_level;
+
+    /** Keeps track of whether or not the pool has been disposed. */
+    private boolean m_disposed;
+
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    /**
+     * Creates a new <code>QueuedThreadPool</code> with a keep alive time of 1 minute,
+     *  a batch size of 1 and the fail rejection policy.
+     *
+     * @param name Name which will used as the thread group name as well as the prefix of the
+     *  names of all threads created by the pool.
+     * @param core Number of worker threads which are kept alive even when idle.
+     * @param max Maximum number of worker threads.
+     * @param queueSize Maximum number of pieces of work which can wait in the queue.
+     */
+    public QueuedThreadPool( final String name,
+                             final int core,
+                             final int max,
+                             final int queueSize )
+    {
+        this( name, core, max, queueSize, 60000, 1, REJECT_FAIL );
+    }
+
+    /**
+     * Creates a new <code>QueuedThreadPool</code>.
+     *
+     * @param name Name which will used as the thread group name as well as the prefix of the
+     *  names of all threads created by the pool.
+     * @param core Number of worker threads which are kept alive even when idle.
+     * @param max Maximum number of worker threads.  Must not be less than core or 1.
+     * @param queueSize Maximum number of pieces of work which can wait in the queue.  A value
+     *  of 0 means that work is only accepted if a worker is idle or can be started.
+     * @param keepAlive Time in milliseconds that workers beyond the core size are kept alive
+     *  while idle.
+     * @param batchSize Maximum number of pieces of work that a worker takes from the queue at
+     *  once.
+     * @param rejectionPolicy One of {@link #REJECT_FAIL}, {@link #REJECT_CALLER_RUNS} or
+     *  {@link #REJECT_DROP_OLDEST}.
+     */
+    public QueuedThreadPool( final String name,
+                             final int core,
+                             final int max,
+                             final int queueSize,
+                             final long keepAlive,
+                             final int batchSize,
+                             final int rejectionPolicy )
+    {
+        super( name );
+
+        if( ( core < 0 ) || ( max < 1 ) || ( max < core ) )
+        {
+            throw new IllegalArgumentException( "Invalid core (" + core + ") or max (" + max
+                                                + ") number of worker threads." );
+        }
+        if( queueSize < 0 )
+        {
+            throw new IllegalArgumentException( "Invalid queue size: " + queueSize );
+        }
+        if( batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Invalid batch size: " + batchSize );
+        }
+        if( ( rejectionPolicy < REJECT_FAIL ) || ( rejectionPolicy > REJECT_DROP_OLDEST ) )
+        {
+            throw new IllegalArgumentException( "Invalid rejection policy: " + rejectionPolicy );
+        }
+
+        m_core = core;
+        m_max = max;
+        m_queueSize = queueSize;
+        m_keepAlive = keepAlive;
+        m_batchSize = batchSize;
+        m_rejectionPolicy = rejectionPolicy;
+    }
+
+    /*---------------------------------------------------------------
+     * LogEnabled Methods
+     *-------------------------------------------------------------*/
+    public void enableLogging( final Logger logger )
+    {
+        m_logger = logger;
+    }
+
+    /*---------------------------------------------------------------
+     * Disposable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Stops all worker threads once they have completed their current work.  Work which
+     *  is still waiting in the queue is never run.  It is finished with an
+     *  IllegalStateException so that threads waiting on it are released.
+     */
+    public void dispose()
+    {
+        synchronized( m_semaphore )
+        {
+            m_disposed = true;
+
+            if( ( m_queue.size() > 0 ) && m_logger.isDebugEnabled() )
+            {
+                m_logger.debug( "Discarding " + m_queue.size()
+                                + " queued tasks because the pool was disposed." );
+            }
+
+            while( m_queue.size() > 0 )
+            {
+                Task task = (Task)m_queue.removeFirst();
+                task.finish( new IllegalStateException( "The thread pool was disposed." ) );
+            }
+
+            // Wake up any idle workers so they notice that the pool has been disposed.
+            m_semaphore.notifyAll();
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Sets whether worker threads started from now on are daemon threads.  Workers are
+     *  daemon threads by default.
+     *
+     * @param daemon true if workers should be daemon threads.
+     */
+    public void setDaemonWorkers( final boolean daemon )
+    {
+        synchronized( m_semaphore )
+        {
+            m_daemonWorkers = daemon;
+        }
+    }
+
+    /**
+     * Returns true if new worker threads are started as daemon threads.
+     *
+     * @return true if workers are daemon threads.
+     */
+    public boolean isDaemonWorkers()
+    {
+        synchronized( m_semaphore )
+        {
+            return m_daemonWorkers;
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * ThreadPool Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final Runnable work )
+    {
+        if( null == work )
+        {
+            throw new NullPointerException( "work" );
+        }
+
+        return execute( new org.apache.excalibur.thread.Executable()
+        {
+            public void execute()
+            {
+                work.run();
+            }
+
+            public String toString()
+            {
+                return work.toString();
+            }
+        } );
+    }
+
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final Executable work )
+    {
+        return execute( new ExecutableExecuteable( work ) );
+    }
+
+    /**
+     * Queue work to be run by a worker thread.
+     * Return a valid ThreadControl to control the work.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     * @throws IllegalStateException if the pool has been disposed or if the work was
+     *  rejected with the fail rejection policy.
+     */
+    public ThreadControl execute( final org.apache.excalibur.thread.Executable work )
+    {
+        if( null == work )
+        {
+            throw new NullPointerException( "work" );
+        }
+
+        final Task task = new Task( work );
+        boolean callerRuns = false;
+        synchronized( m_semaphore )
+        {
+            if( m_disposed )
+            {
+                throw new IllegalStateException( "The thread pool has been disposed." );
+            }
+
+            if( m_workerCount < m_core )
+            {
+                // Always start the core workers before queueing anything.
+                startWorker( task );
+            }
+            else if( ( m_queue.size() < m_idleCount ) || ( m_queue.size() < m_queueSize ) )
+            {
+                m_queue.addLast( task );
+                if( m_idleCount > 0 )
+                {
+                    m_semaphore.notify();
+                }
+            }
+            else if( m_workerCount < m_max )
+            {
+                // The queue is full, so grow the pool.
+                startWorker( task );
+            }
+            else if( m_rejectionPolicy == REJECT_DROP_OLDEST )
+            {
+                Task oldest = ( m_queue.size() > 0 ) ? (Task)m_queue.removeFirst() : null;
+                if( oldest == null )
+                {
+                    // Without a queue there is nothing to drop in favour of the new work.
+                    throw new IllegalStateException(
+                        "Unable to queue work because all worker threads are busy." );
+                }
+
+                if( m_logger.isDebugEnabled() )
+                {
+                    m_logger.debug( "Dropped the oldest queued task to make room: " + oldest );
+                }
+                oldest.finish( new IllegalStateException(
+                    "The work was dropped from the queue to make room for newer work." ) );
+                m_queue.addLast( task );
+            }
+            else if( m_rejectionPolicy == REJECT_FAIL )
+            {
+                throw new IllegalStateException(
+                    "Unable to queue work because the queue is full and all "
+                    + m_max + " worker threads are busy." );
+            }
+            else
+            {
+                callerRuns = true;
+            }
+        }
+
+        if( callerRuns )
+        {
+            // The work was never queued, so it can only be run here.  This also slows down
+            //  the caller until the pool has caught up.
+            if( m_logger.isDebugEnabled() )
+            {
+                m_logger.debug( "Running rejected work in the calling thread: " + work );
+            }
+            task.claim();
+            task.run();
+        }
+
+        return task;
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Returns the number of worker threads which are currently alive.
+     *
+     * @return the number of worker threads.
+     */
+    public int getSize()
+    {
+        synchronized( m_semaphore )
+        {
+            return m_workerCount;
+        }
+    }
+
+    /**
+     * Returns the number of pieces of work which are waiting in the queue.
+     *
+     * @return the number of queued pieces of work.
+     */
+    public int getQueueSize()
+    {
+        synchronized( m_semaphore )
+        {
+            return m_queue.size();
+        }
+    }
+
+    /**
+     * Starts a new worker thread.
+     * <p>
+     * This method is only called by threads that have m_semaphore locked.
+     *
+     * @param firstTask the Task which the new worker runs before taking work from the queue.
+     */
+    private void startWorker( final Task firstTask )
+    {
+        final Thread worker =
+            new Thread( this, new Worker( firstTask ), getName() + " Worker #" + m_level++ );
+        worker.setDaemon( m_daemonWorkers );
+        m_workerCount++;
+        worker.start();
+
+        if( m_logger.isDebugEnabled() )
+        {
+            m_logger.debug( "Started " + worker.getName() + ". Workers: " + m_workerCount );
+        }
+    }
+
+    /**
+     * Waits for queued work and takes a batch of it from the queue.  Returns null if the
+     *  calling worker should exit.
+     */
+    private Task[] takeWork()
+    {
+        synchronized( m_semaphore )
+        {
+            long idleStart = System.currentTimeMillis();
+            while( !m_disposed && ( m_queue.size() == 0 ) )
+            {
+                long wait = 0;
+                if( m_workerCount > m_core )
+                {
+                    wait = m_keepAlive - ( System.currentTimeMillis() - idleStart );
+                    if( wait <= 0 )
+                    {
+                        // This worker has been idle long enough to be let go.
+                        m_workerCount--;
+                        if( m_logger.isDebugEnabled() )
+                        {
+                            m_logger.debug( "Stopping idle " + Thread.currentThread().getName()
+                                            + ". Workers: " + m_workerCount );
+                        }
+                        return null;
+                    }
+                }
+
+                m_idleCount++;
+                try
+                {
+                    m_semaphore.wait( wait );
+                }
+                catch( InterruptedException e )
+                {
+                }
+                finally
+                {
+                    m_idleCount--;
+                }
+            }
+
+            if( m_disposed )
+            {
+                m_workerCount--;
+                return null;
+            }
+
+            // Take no more than this worker's share of the queue.
+            int count = Math.max( 1, m_queue.size() / m_workerCount );
+            count = Math.min( count, m_batchSize );
+
+            Task[] tasks = new Task[ count ];
+            for( int i = 0; i < count; i++ )
+            {
+                tasks[ i ] = (Task)m_queue.removeFirst();
+            }
+            return tasks;
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Inner Classes
+     *-------------------------------------------------------------*/
+    /**
+     * The main loop of a worker thread.
+     */
+    private final class Worker
+        implements Runnable
+    {
+        /** The Task which is run before any work is taken from the queue. */
+        private final Task m_firstTask;
+
+        private Worker( final Task firstTask )
+        {
+            m_firstTask = firstTask;
+        }
+
+        public void run()
+        {
+            boolean counted = true;
+            try
+            {
+                if( m_firstTask.claim() )
+                {
+                    m_firstTask.run();
+                }
+                Thread.interrupted();
+
+                Task[] tasks;
+                while( ( tasks = takeWork() ) != null )
+                {
+                    for( int i = 0; i < tasks.length; i++ )
+                    {
+                        // Only run the task if it was not dropped or disposed in the mean time.
+                        if( tasks[ i ].claim() )
+                        {
+                            tasks[ i ].run();
+                        }
+
+                        // Clear any interrupt meant for the last task.
+                        Thread.interrupted();
+                    }
+                }
+
+                // takeWork() has already taken this worker off the count.
+                counted = false;
+            }
+            finally
+            {
+                if( counted )
+                {
+                    // The worker is dying of a ThreadDeath or other Error.
+                    synchronized( m_semaphore )
+                    {
+                        m_workerCount--;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A piece of queued work, which also acts as the ThreadControl for that work.
+     */
+    private final class Task
+        implements ThreadControl
+    {
+        /** The work to be done. */
+        private final org.apache.excalibur.thread.Executable m_work;
+
+        /** The thread running the work, or null if it has not been started. */
+        private Thread m_thread;
+
+        /** True once the work has been claimed by a thread to be run, or dropped. */
+        private boolean m_claimed;
+
+        /** True once the work has completed, failed or been dropped. */
+        private boolean m_finished;
+
+        /** Throwable that caused the work to fail, if any. */
+        private Throwable m_throwable;
+
+        private Task( final org.apache.excalibur.thread.Executable work )
+        {
+            m_work = work;
+        }
+
+        /**
+         * Claims the task to be run by the calling thread.  Returns false if the task has
+         *  already been claimed or finished.
+         */
+        private synchronized boolean claim()
+        {
+            if( m_claimed )
+            {
+                return false;
+            }
+            m_claimed = true;
+            m_thread = Thread.currentThread();
+            return true;
+        }
+
+        private void run()
+        {
+            Throwable throwable = null;
+            try
+            {
+                m_work.execute();
+            }
+            catch( final ThreadDeath threadDeath )
+            {
+                finish( threadDeath );
+                throw threadDeath;
+            }
+            catch( final Throwable t )
+            {
+                if( m_logger.isDebugEnabled() )
+                {
+                    m_logger.debug( "Error caught while running " + m_work, t );
+                }
+                throwable = t;
+            }
+            finish( throwable );
+        }
+
+        private synchronized void finish( final Throwable throwable )
+        {
+            m_claimed = true;
+            m_finished = true;
+            m_thread = null;
+            m_throwable = throwable;
+            notifyAll();
+        }
+
+        public synchronized void join( final long milliSeconds )
+            throws IllegalStateException, InterruptedException
+        {
+            if( milliSeconds <= 0 )
+            {
+                while( !m_finished )
+                {
+                    wait();
+                }
+            }
+            else
+            {
+                long end = System.currentTimeMillis() + milliSeconds;
+                long wait;
+                while( !m_finished && ( wait = end - System.currentTimeMillis() ) > 0 )
+                {
+                    wait( wait );
+                }
+            }
+        }
+
+        public synchronized void interrupt()
+            throws IllegalStateException, SecurityException
+        {
+            if( m_thread != null )
+            {
+                m_thread.interrupt();
+            }
+        }
+
+        public synchronized boolean isFinished()
+        {
+            return m_finished;
+        }
+
+        public synchronized Throwable getThrowable()
+        {
+            return m_throwable;
+        }
+
+        public String toString()
+        {
+            return m_work.toString();
+        }
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.thread.impl;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.activity.Executable;
+import org.apache.avalon.framework.logger.LogEnabled;
+import org.apache.avalon.framework.logger.Logger;
+import org.apache.avalon.framework.logger.NullLogger;
+
+import org.apache.excalibur.thread.ThreadControl;
+import org.apache.excalibur.thread.ThreadPool;
+
+/**
+ * A Thread Pool which runs each piece of work in its own new thread rather than in a
+ *  pooled WorkerThread.  On Java runtimes which support virtual threads, the threads are
+ *  virtual threads, which are cheap enough to create per piece of work and which do not
+ *  pin a platform thread while blocked on I/O.  This makes the pool a good fit for work
+ *  such as connection handlers, which spend most of their time blocked on sockets.
+ * <p>
+ * On older runtimes, or if virtual threads are disabled, the pool falls back to creating
+ *  a new daemon platform thread for each piece of work.  Virtual threads are looked up
+ *  by reflection so that the pool can be compiled and run on any Java version.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 17:22:49 $
+ * @since 2.2.3
+ */
+public class VirtualThreadPool
+    implements LogEnabled, Disposable, ThreadPool
+{
+    /** Thread.ofVirtual(), or null if virtual threads are not available. */
+    private static final Method OF_VIRTUAL;
+
+    /** Thread.Builder.name(String, long), or null if virtual threads are not available. */
+    private static final Method BUILDER_NAME;
+
+    /** Thread.Builder.factory(), or null if virtual threads are not available. */
+    private static final Method BUILDER_FACTORY;
+
+    static
+    {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        try
+        {
+            final Class builderClass = Class.forName( "java.lang.Thread$Builder" );
+            ofVirtual = Thread.class.getMethod( "ofVirtual", new Class[ 0 ] );
+            builderName =
+                builderClass.getMethod( "name", new Class[] { String.class, Long.TYPE } );
+            builderFactory = builderClass.getMethod( "factory", new Class[ 0 ] );
+        }
+        catch( final Exception e )
+        {
+            // Virtual threads are not supported by this runtime.
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+    }
+
+    /*---------------------------------------------------------------
+     * Private Fields
+     *-------------------------------------------------------------*/
+    /** The logger used by the pool. */
+    private Logger m_logger = new NullLogger();
+
+    /** The name of the pool, used as the prefix of thread names. */
+    private final String m_name;
+
+    /**
+     * The factory used to create virtual threads, or null to use platform threads.
+     *  Unlike a Thread.Builder, the factory may be used by many threads at once.
+     */
+    private final ThreadFactory m_factory;
+
+    /** Set of the controls of work which is currently running. */
+    private final HashSet m_active = new HashSet();
+
+    /** A running number used to name new platform threads. */
+    private long m_level;
+
+    /** Keeps track of whether or not the pool has been disposed. */
+    private boolean m_disposed;
+
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    /**
+     * Creates a new <code>VirtualThreadPool</code> which uses virtual threads if the
+     *  runtime supports them.
+     *
+     * @param name Name which will be used as the prefix of the names of all threads
+     *  created by the pool.
+     */
+    public VirtualThreadPool( final String name )
+    {
+        this( name, true );
+    }
+
+    /**
+     * Creates a new <code>VirtualThreadPool</code>.
+     *
+     * @param name Name which will be used as the prefix of the names of all threads
+     *  created by the pool.
+     * @param virtual true if virtual threads should be used when the runtime supports
+     *  them, false to always use platform threads.
+     */
+    public VirtualThreadPool( final String name, final boolean virtual )
+    {
+        if( null == name )
+        {
+            throw new NullPointerException( "name" );
+        }
+
+        m_name = name;
+
+        ThreadFactory factory = null;
+        if( virtual && isVirtualThreadSupported() )
+        {
+            try
+            {
+                Object builder = OF_VIRTUAL.invoke( null, new Object[ 0 ] );
+                builder = BUILDER_NAME.invoke(
+                    builder, new Object[] { name + " Worker #", Long.valueOf( 0 ) } );
+                factory = (ThreadFactory)BUILDER_FACTORY.invoke( builder, new Object[ 0 ] );
+            }
+            catch( final Exception e )
+            {
+                factory = null;
+            }
+        }
+        m_factory = factory;
+    }
+
+    /*---------------------------------------------------------------
+     * LogEnabled Methods
+     *-------------------------------------------------------------*/
+    public void enableLogging( final Logger logger )
+    {
+        m_logger = logger;
+
+        if( m_logger.isDebugEnabled() )
+        {
+            m_logger.debug( "ThreadPool " + m_name + " will use "
+                            + ( isVirtual() ? "virtual" : "platform" ) + " threads." );
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Disposable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Interrupts all work which is still running and stops the pool from accepting any
+     *  new work.
+     */
+    public void dispose()
+    {
+        synchronized( m_active )
+        {
+            m_disposed = true;
+
+            if( ( m_active.size() > 0 ) && m_logger.isDebugEnabled() )
+            {
+                m_logger.debug( "Interrupting " + m_active.size()
+                                + " running threads because the pool was disposed." );
+            }
+
+            for( Iterator iter = m_active.iterator(); iter.hasNext(); )
+            {
+                ( (Control)iter.next() ).interrupt();
+            }
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * ThreadPool Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final Runnable work )
+    {
+        if( null == work )
+        {
+            throw new NullPointerException( "work" );
+        }
+
+        return execute( new org.apache.excalibur.thread.Executable()
+        {
+            public void execute()
+            {
+                work.run();
+            }
+
+            public String toString()
+            {
+                return work.toString();
+            }
+        } );
+    }
+
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final Executable work )
+    {
+        return execute( new ExecutableExecuteable( work ) );
+    }
+
+    /**
+     * Run work in a new thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     * @throws IllegalStateException if the pool has been disposed or a thread could not be
+     *  created.
+     */
+    public ThreadControl execute( final org.apache.excalibur.thread.Executable work )
+    {
+        if( null == work )
+        {
+            throw new NullPointerException( "work" );
+        }
+
+        final Control control = new Control( work );
+        final Thread thread = newThread( control );
+        control.setThread( thread );
+
+        synchronized( m_active )
+        {
+            if( m_disposed )
+            {
+                throw new IllegalStateException( "The thread pool has been disposed." );
+            }
+            m_active.add( control );
+        }
+
+        thread.start();
+        return control;
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Returns true if the runtime supports virtual threads.
+     *
+     * @return true if virtual threads are supported.
+     */
+    public static boolean isVirtualThreadSupported()
+    {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Returns true if this pool runs work in virtual threads.
+     *
+     * @return true if virtual threads are used.
+     */
+    public boolean isVirtual()
+    {
+        return m_factory != null;
+    }
+
+    /**
+     * Returns the number of pieces of work which are currently running.
+     *
+     * @return the number of running pieces of work.
+     */
+    public int getSize()
+    {
+        synchronized( m_active )
+        {
+            return m_active.size();
+        }
+    }
+
+    /**
+     * Creates a new, unstarted, thread which will run the specified Runnable.
+     *
+     * @param runnable the Runnable to run.
+     * @return the new thread.
+     */
+    private Thread newThread( final Runnable runnable )
+    {
+        if( m_factory != null )
+        {
+            return m_factory.newThread( runnable );
+        }
+        else
+        {
+            final String name;
+            synchronized( m_active )
+            {
+                name = m_name + " Worker #" + m_level++;
+            }
+
+            final Thread thread = new Thread( runnable, name );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Inner Classes
+     *-------------------------------------------------------------*/
+    /**
+     * Runs a piece of work and acts as the ThreadControl for it.
+     */
+    private final class Control
+        implements Runnable, ThreadControl
+    {
+        /** The work to be done. */
+        private final org.apache.excalibur.thread.Executable m_work;
+
+        /** The thread running the work, or null once the work has finished. */
+        private Thread m_thread;
+
+        /** True once the work has completed or failed. */
+        private boolean m_finished;
+
+        /** Throwable that caused the work to fail, if any. */
+        private Throwable m_throwable;
+
+        private Control( final org.apache.excalibur.thread.Executable work )
+        {
+            m_work = work;
+        }
+
+        private synchronized void setThread( final Thread thread )
+        {
+            m_thread = thread;
+        }
+
+        public void run()
+        {
+            Throwable throwable = null;
+            try
+            {
+                m_work.execute();
+            }
+            catch( final ThreadDeath threadDeath )
+            {
+                finish( threadDeath );
+                throw threadDeath;
+            }
+            catch( final Throwable t )
+            {
+                if( m_logger.isDebugEnabled() )
+                {
+                    m_logger.debug( "Error caught while running " + m_work, t );
+                }
+                throwable = t;
+            }
+            finish( throwable );
+        }
+
+        private void finish( final Throwable throwable )
+        {
+            synchronized( m_active )
+            {
+                m_active.remove( this );
+            }
+
+            synchronized( this )
+            {
+                m_finished = true;
+                m_thread = null;
+                m_throwable = throwable;
+                notifyAll();
+            }
+        }
+
+        public synchronized void join( final long milliSeconds )
+            throws IllegalStateException, InterruptedException
+        {
+            if( milliSeconds <= 0 )
+            {
+                while( !m_finished )
+                {
+                    wait();
+                }
+            }
+            else
+            {
+                long end = System.currentTimeMillis() + milliSeconds;
+                long wait;
+                while( !m_finished && ( wait = end - System.currentTimeMillis() ) > 0 )
+                {
+                    wait( wait );
+                }
+            }
+        }
+
+        public synchronized void interrupt()
+            throws IllegalStateException, SecurityException
+        {
+            if( m_thread != null )
+            {
+                m_thread.interrupt();
+            }
+        }
+
+        public synchronized boolean isFinished()
+        {
+            return m_finished;
+        }
+
+        public synchronized Throwable getThrowable()
+        {
+            return m_throwable;
+        }
+
+        public String toString()
+        {
+            return m_work.toString();
+        }
+    }
+}
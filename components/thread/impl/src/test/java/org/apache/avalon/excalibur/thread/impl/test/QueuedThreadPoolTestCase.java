@@ -0,0 +1,345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.thread.impl.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.thread.impl.QueuedThreadPool;
+import org.apache.excalibur.thread.ThreadControl;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 17:22:49 $
+ */
+public final class QueuedThreadPoolTestCase
+    extends TestCase
+{
+    private volatile int m_completeCount;
+
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    public QueuedThreadPoolTestCase()
+    {
+        this( "QueuedThreadPool Test Case" );
+    }
+
+    public QueuedThreadPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    /*---------------------------------------------------------------
+     * Suite
+     *-------------------------------------------------------------*/
+    public void testQueueAbsorbsBurst() throws Exception
+    {
+        QueuedThreadPool pool = createPool( 2, 2, 10, 1, QueuedThreadPool.REJECT_FAIL );
+
+        long start = System.currentTimeMillis();
+        ThreadControl last = null;
+        for( int i = 0; i < 10; i++ )
+        {
+            last = pool.execute( new SleepRunner( 200 ) );
+        }
+        long dur = System.currentTimeMillis() - start;
+
+        // None of the calls to execute should have had to wait for a worker.
+        assertTrue( "Time to queue all tasks, " + dur + "ms, should have been short.",
+                    dur < 200 );
+        assertEquals( "Pool Size", 2, pool.getSize() );
+
+        last.join( 5000 );
+        waitForCompleteCount( 10 );
+
+        // 2 workers running 10 tasks of 200ms each.
+        dur = System.currentTimeMillis() - start;
+        assertTrue( "Time to complete all tasks, " + dur + "ms, was too short.", dur >= 950 );
+
+        pool.dispose();
+    }
+
+    public void testGrowsBeyondCoreWhenQueueIsFull() throws Exception
+    {
+        QueuedThreadPool pool = createPool( 1, 3, 1, 1, QueuedThreadPool.REJECT_FAIL );
+
+        // 1 runs on the core worker, 1 is queued and 2 more cause the pool to grow.
+        for( int i = 0; i < 4; i++ )
+        {
+            pool.execute( new SleepRunner( 200 ) );
+        }
+        assertEquals( "Pool Size", 3, pool.getSize() );
+
+        waitForCompleteCount( 4 );
+        pool.dispose();
+    }
+
+    public void testKeepAlive() throws Exception
+    {
+        QueuedThreadPool pool =
+            new QueuedThreadPool( "Test Worker Pool", 1, 3, 0, 100, 1,
+                                  QueuedThreadPool.REJECT_FAIL );
+        pool.enableLogging( new BufferedLogger() );
+
+        for( int i = 0; i < 3; i++ )
+        {
+            pool.execute( new SleepRunner( 50 ) );
+        }
+        assertEquals( "1) Pool Size", 3, pool.getSize() );
+
+        waitForCompleteCount( 3 );
+        Thread.sleep( 500 );
+
+        // Only the core worker is kept alive.
+        assertEquals( "2) Pool Size", 1, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testDaemonWorkers() throws Exception
+    {
+        QueuedThreadPool pool =
+            new QueuedThreadPool( "Test Worker Pool", 0, 1, 0, 50, 1,
+                                  QueuedThreadPool.REJECT_FAIL );
+        pool.enableLogging( new BufferedLogger() );
+        m_completeCount = 0;
+
+        assertTrue( "Daemon workers by default", pool.isDaemonWorkers() );
+        assertTrue( "1) Daemon", runAndCheckDaemon( pool ) );
+
+        pool.setDaemonWorkers( false );
+        assertFalse( "Daemon workers", pool.isDaemonWorkers() );
+
+        // With no core workers the pool is left empty between pieces of work, and must
+        //  still be able to start new workers.
+        Thread.sleep( 300 );
+        assertEquals( "Pool Size", 0, pool.getSize() );
+        assertFalse( "2) Daemon", runAndCheckDaemon( pool ) );
+        assertFalse( "Daemon group", pool.isDaemon() );
+
+        pool.dispose();
+    }
+
+    public void testWorkerDeath() throws Exception
+    {
+        QueuedThreadPool pool = createPool( 1, 2, 10, 1, QueuedThreadPool.REJECT_FAIL );
+
+        ThreadControl control = pool.execute( new Runnable()
+        {
+            public void run()
+            {
+                throw new ThreadDeath();
+            }
+        } );
+        control.join( 5000 );
+        assertTrue( "Finished", control.isFinished() );
+        for( int i = 0; ( i < 100 ) && ( pool.getSize() > 0 ); i++ )
+        {
+            Thread.sleep( 10 );
+        }
+
+        // The dead worker is no longer counted, so a new one is started for more work.
+        assertEquals( "Pool Size", 0, pool.getSize() );
+        pool.execute( new SleepRunner( 0 ) );
+        waitForCompleteCount( 1 );
+        assertEquals( "Pool Size after more work", 1, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testRejectFail() throws Exception
+    {
+        QueuedThreadPool pool = createPool( 1, 1, 1, 1, QueuedThreadPool.REJECT_FAIL );
+
+        pool.execute( new SleepRunner( 200 ) );
+        pool.execute( new SleepRunner( 200 ) );
+        try
+        {
+            pool.execute( new SleepRunner( 200 ) );
+            fail( "Should have failed when the queue was full." );
+        }
+        catch( IllegalStateException e )
+        {
+            // Expected
+        }
+
+        waitForCompleteCount( 2 );
+        pool.dispose();
+    }
+
+    public void testRejectCallerRuns() throws Exception
+    {
+        QueuedThreadPool pool = createPool( 1, 1, 1, 1, QueuedThreadPool.REJECT_CALLER_RUNS );
+
+        pool.execute( new SleepRunner( 200 ) );
+        pool.execute( new SleepRunner( 200 ) );
+
+        final Thread[] runThread = new Thread[ 1 ];
+        ThreadControl control = pool.execute( new Runnable()
+        {
+            public void run()
+            {
+                runThread[ 0 ] = Thread.currentThread();
+                incCompleteCount();
+            }
+        } );
+
+        assertTrue( "Rejected work should have been finished", control.isFinished() );
+        assertSame( "Rejected work should run in the caller", Thread.currentThread(),
+                    runThread[ 0 ] );
+
+        waitForCompleteCount( 3 );
+        pool.dispose();
+    }
+
+    public void testRejectDropOldest() throws Exception
+    {
+        QueuedThreadPool pool = createPool( 1, 1, 1, 1, QueuedThreadPool.REJECT_DROP_OLDEST );
+
+        pool.execute( new SleepRunner( 200 ) );
+        ThreadControl dropped = pool.execute( new SleepRunner( 200 ) );
+        ThreadControl kept = pool.execute( new SleepRunner( 200 ) );
+
+        assertTrue( "The oldest queued work should have been dropped", dropped.isFinished() );
+        assertNotNull( "The dropped work should have a throwable", dropped.getThrowable() );
+
+        kept.join( 5000 );
+        assertTrue( "The newest work should have been run", kept.isFinished() );
+        assertNull( "The newest work should not have failed", kept.getThrowable() );
+        assertEquals( "Complete Count", 2, m_completeCount );
+
+        pool.dispose();
+    }
+
+    public void testBatchDraining() throws Exception
+    {
+        QueuedThreadPool pool = createPool( 1, 1, 100, 10, QueuedThreadPool.REJECT_FAIL );
+
+        for( int i = 0; i < 100; i++ )
+        {
+            pool.execute( new SleepRunner( 0 ) );
+        }
+        waitForCompleteCount( 100 );
+
+        pool.dispose();
+    }
+
+    public void testDisposeDiscardsQueuedWork() throws Exception
+    {
+        QueuedThreadPool pool = createPool( 1, 1, 1, 1, QueuedThreadPool.REJECT_FAIL );
+
+        pool.execute( new SleepRunner( 200 ) );
+        ThreadControl queued = pool.execute( new SleepRunner( 200 ) );
+
+        pool.dispose();
+
+        assertTrue( "Queued work should be finished", queued.isFinished() );
+        assertTrue( "Queued work should have failed",
+                    queued.getThrowable() instanceof IllegalStateException );
+        try
+        {
+            pool.execute( new SleepRunner( 200 ) );
+            fail( "Should not accept work after being disposed." );
+        }
+        catch( IllegalStateException e )
+        {
+            // Expected
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    protected void incCompleteCount()
+    {
+        synchronized( this )
+        {
+            m_completeCount++;
+        }
+    }
+
+    private QueuedThreadPool createPool( int core,
+                                         int max,
+                                         int queueSize,
+                                         int batchSize,
+                                         int rejectionPolicy )
+    {
+        m_completeCount = 0;
+        QueuedThreadPool pool = new QueuedThreadPool(
+            "Test Worker Pool", core, max, queueSize, 60000, batchSize, rejectionPolicy );
+        pool.enableLogging( new BufferedLogger() );
+        return pool;
+    }
+
+    private boolean runAndCheckDaemon( QueuedThreadPool pool ) throws Exception
+    {
+        final boolean[] daemon = new boolean[ 1 ];
+        ThreadControl control = pool.execute( new Runnable()
+        {
+            public void run()
+            {
+                daemon[ 0 ] = Thread.currentThread().isDaemon();
+            }
+        } );
+        control.join( 5000 );
+        assertTrue( "Finished", control.isFinished() );
+        assertNull( "Throwable", control.getThrowable() );
+        return daemon[ 0 ];
+    }
+
+    private void waitForCompleteCount( int count )
+    {
+        long end = System.currentTimeMillis() + 10000;
+        while( ( m_completeCount < count ) && ( System.currentTimeMillis() < end ) )
+        {
+            try
+            {
+                Thread.sleep( 10 );
+            }
+            catch( InterruptedException e )
+            {
+            }
+        }
+        assertEquals( "Complete Count", count, m_completeCount );
+    }
+
+    private class SleepRunner
+        implements Runnable
+    {
+        private final long m_sleep;
+
+        SleepRunner( long sleep )
+        {
+            m_sleep = sleep;
+        }
+
+        public void run()
+        {
+            try
+            {
+                Thread.sleep( m_sleep );
+            }
+            catch( InterruptedException e )
+            {
+            }
+
+            incCompleteCount();
+        }
+    }
+}
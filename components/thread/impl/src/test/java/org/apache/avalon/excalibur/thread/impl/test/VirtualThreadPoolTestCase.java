@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.thread.impl.test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.thread.impl.VirtualThreadPool;
+import org.apache.excalibur.thread.Executable;
+import org.apache.excalibur.thread.ThreadControl;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 17:22:49 $
+ */
+public final class VirtualThreadPoolTestCase
+    extends TestCase
+{
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    public VirtualThreadPoolTestCase()
+    {
+        this( "VirtualThreadPool Test Case" );
+    }
+
+    public VirtualThreadPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    /*---------------------------------------------------------------
+     * Suite
+     *-------------------------------------------------------------*/
+    public void testVirtualPool() throws Exception
+    {
+        VirtualThreadPool pool = new VirtualThreadPool( "Test Worker Pool" );
+        pool.enableLogging( new BufferedLogger() );
+
+        assertEquals( "Uses virtual threads when supported",
+                      VirtualThreadPool.isVirtualThreadSupported(), pool.isVirtual() );
+        commonTest( pool );
+    }
+
+    public void testPlatformPool() throws Exception
+    {
+        VirtualThreadPool pool = new VirtualThreadPool( "Test Worker Pool", false );
+        pool.enableLogging( new BufferedLogger() );
+
+        assertFalse( "Uses platform threads", pool.isVirtual() );
+        commonTest( pool );
+    }
+
+    public void testManyBlockedTasks() throws Exception
+    {
+        VirtualThreadPool pool = new VirtualThreadPool( "Test Worker Pool" );
+        pool.enableLogging( new BufferedLogger() );
+
+        final Object lock = new Object();
+        ThreadControl[] controls = new ThreadControl[ 500 ];
+        synchronized( lock )
+        {
+            for( int i = 0; i < controls.length; i++ )
+            {
+                controls[ i ] = pool.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        synchronized( lock )
+                        {
+                            // Blocked until all of the work has been started.
+                        }
+                    }
+                } );
+            }
+            assertEquals( "Running Size", controls.length, pool.getSize() );
+        }
+
+        for( int i = 0; i < controls.length; i++ )
+        {
+            controls[ i ].join( 5000 );
+            assertTrue( "Finished " + i, controls[ i ].isFinished() );
+        }
+        assertEquals( "Running Size", 0, pool.getSize() );
+
+        pool.dispose();
+    }
+
+    public void testConcurrentExecute() throws Exception
+    {
+        final VirtualThreadPool pool = new VirtualThreadPool( "Test Worker Pool" );
+        pool.enableLogging( new BufferedLogger() );
+
+        // Many threads start work at once, and each worker must get its own name.
+        final Set names = new HashSet();
+        final int[] failures = new int[ 1 ];
+        Thread[] submitters = new Thread[ 8 ];
+        for( int i = 0; i < submitters.length; i++ )
+        {
+            submitters[ i ] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for( int j = 0; j < 50; j++ )
+                        {
+                            ThreadControl control = pool.execute( new Runnable()
+                            {
+                                public void run()
+                                {
+                                    synchronized( names )
+                                    {
+                                        names.add( Thread.currentThread().getName() );
+                                    }
+                                }
+                            } );
+                            control.join( 5000 );
+                        }
+                    }
+                    catch( Exception e )
+                    {
+                        synchronized( names )
+                        {
+                            failures[ 0 ]++;
+                        }
+                    }
+                }
+            };
+            submitters[ i ].start();
+        }
+        for( int i = 0; i < submitters.length; i++ )
+        {
+            submitters[ i ].join();
+        }
+
+        assertEquals( "Failures", 0, failures[ 0 ] );
+        assertEquals( "Unique names", submitters.length * 50, names.size() );
+
+        pool.dispose();
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    private void commonTest( VirtualThreadPool pool ) throws Exception
+    {
+        // Successful work.
+        final boolean[] ran = new boolean[ 1 ];
+        ThreadControl control = pool.execute( new Runnable()
+        {
+            public void run()
+            {
+                ran[ 0 ] = true;
+            }
+        } );
+        control.join( 5000 );
+        assertTrue( "1) Finished", control.isFinished() );
+        assertNull( "1) Throwable", control.getThrowable() );
+        assertTrue( "1) Ran", ran[ 0 ] );
+
+        // Failing work.
+        final Exception failure = new Exception( "Expected failure" );
+        control = pool.execute( new Executable()
+        {
+            public void execute() throws Exception
+            {
+                throw failure;
+            }
+        } );
+        control.join( 5000 );
+        assertTrue( "2) Finished", control.isFinished() );
+        assertSame( "2) Throwable", failure, control.getThrowable() );
+
+        // Interrupted work.
+        final boolean[] interrupted = new boolean[ 1 ];
+        control = pool.execute( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep( 10000 );
+                }
+                catch( InterruptedException e )
+                {
+                    interrupted[ 0 ] = true;
+                }
+            }
+        } );
+        Thread.sleep( 100 );
+        assertFalse( "3) Finished", control.isFinished() );
+        control.interrupt();
+        control.join( 5000 );
+        assertTrue( "3) Finished", control.isFinished() );
+        assertTrue( "3) Interrupted", interrupted[ 0 ] );
+
+        pool.dispose();
+        try
+        {
+            pool.execute( new Runnable()
+            {
+                public void run()
+                {
+                }
+            } );
+            fail( "Should not accept work after being disposed." );
+        }
+        catch( IllegalStateException e )
+        {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,718 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.thread.impl;
+
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avalon.framework.activity.Disposable;
+import org.apache.avalon.framework.activity.Executable;
+import org.apache.avalon.framework.activity.Initializable;
+import org.apache.avalon.framework.logger.LogEnabled;
+import org.apache.avalon.framework.logger.Logger;
+import org.apache.avalon.framework.logger.NullLogger;
+
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.Instrumentable;
+import org.apache.excalibur.instrument.ValueInstrument;
+
+import org.apache.excalibur.thread.ThreadControl;
+import org.apache.excalibur.thread.ThreadPool;
+
+/**
+ * A Thread Pool for short CPU bound work, which uses a fixed number of worker threads
+ *  that each have their own deque of work.  Work which is executed from within one of
+ *  the pool's worker threads is pushed onto that worker's deque, and is taken back off
+ *  in last in, first out order, so subtasks are normally run by the worker which forked
+ *  them without any handshake between threads.  Workers which run out of work steal the
+ *  oldest work from the deques of other workers.  Work executed from outside the pool is
+ *  placed in a shared submission queue.
+ * <p>
+ * Calling join() on the ThreadControl of a subtask from inside a worker thread does not
+ *  block the worker.  The worker runs other queued work until the subtask is finished.
+ * <p>
+ * The pool exposes the number of queued pieces of work with the "queue-depth" instrument
+ *  and the number of pieces of work stolen from other workers with the "steals"
+ *  instrument.
+ * <p>
+ * The worker threads are started by initialize().  Work executed before then stays
+ *  queued until the workers start.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @version CVS $Revision: 1.1 $ $Date: 2004/03/29 17:22:49 $
+ * @since 2.2.3
+ */
+public class ForkJoinThreadPool
+    extends ThreadGroup
+    implements LogEnabled, Initializable, Disposable, ThreadPool, Instrumentable
+{
+    public static final String DEFAULT_INSTRUMENTABLE_NAME = "fork-join-thread-pool";
+    public static final String INSTRUMENT_QUEUE_DEPTH_NAME = "queue-depth";
+    public static final String INSTRUMENT_STEALS_NAME = "steals";
+
+    /*---------------------------------------------------------------
+     * Private Fields
+     *-------------------------------------------------------------*/
+    /** The logger used by the pool. */
+    private Logger m_logger = new NullLogger();
+
+    /** Lock used by idle workers to wait for new work. */
+    private final Object m_semaphore = new Object();
+
+    /** The worker threads of the pool. */
+    private final Worker[] m_workers;
+
+    /** Queue of Tasks which were executed from outside of the pool's workers. */
+    private final LinkedList m_submissions = new LinkedList();
+
+    /** The total number of Tasks waiting in the submission queue and the worker deques. */
+    private final AtomicInteger m_queued = new AtomicInteger();
+
+    /** The number of workers which are waiting for work. */
+    private final AtomicInteger m_idle = new AtomicInteger();
+
+    /** The number of Tasks which have been stolen from other workers. */
+    private final AtomicInteger m_steals = new AtomicInteger();
+
+    /** Keeps track of whether or not the pool has been disposed. */
+    private volatile boolean m_disposed;
+
+    /** Instrumentable Name assigned to this Instrumentable */
+    private String m_instrumentableName = DEFAULT_INSTRUMENTABLE_NAME;
+
+    /** Instrument used to profile the number of queued Tasks. */
+    private ValueInstrument m_queueDepthInstrument;
+
+    /** Instrument used to profile the number of Tasks stolen from other workers. */
+    private CounterInstrument m_stealsInstrument;
+
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    /**
+     * Creates a new <code>ForkJoinThreadPool</code> with one worker for each available
+     *  processor.
+     *
+     * @param name Name which will used as the thread group name as well as the prefix of the
+     *  names of all threads created by the pool.
+     */
+    public ForkJoinThreadPool( final String name )
+    {
+        this( name, Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Creates a new <code>ForkJoinThreadPool</code>.
+     *
+     * @param name Name which will used as the thread group name as well as the prefix of the
+     *  names of all threads created by the pool.
+     * @param parallelism The number of worker threads.
+     */
+    public ForkJoinThreadPool( final String name, final int parallelism )
+    {
+        super( name );
+
+        if( parallelism < 1 )
+        {
+            throw new IllegalArgumentException( "Invalid parallelism: " + parallelism );
+        }
+
+        // Initialize the Instrumentable elements.
+        m_queueDepthInstrument = new ValueInstrument( INSTRUMENT_QUEUE_DEPTH_NAME );
+        m_stealsInstrument = new CounterInstrument( INSTRUMENT_STEALS_NAME );
+
+        m_workers = new Worker[ parallelism ];
+        for( int i = 0; i < parallelism; i++ )
+        {
+            m_workers[ i ] = new Worker( i, name + " Worker #" + i );
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * LogEnabled Methods
+     *-------------------------------------------------------------*/
+    public void enableLogging( final Logger logger )
+    {
+        m_logger = logger;
+    }
+
+    /*---------------------------------------------------------------
+     * Initializable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Starts the worker threads.
+     */
+    public void initialize()
+    {
+        for( int i = 0; i < m_workers.length; i++ )
+        {
+            m_workers[ i ].start();
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Disposable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Stops all worker threads once they have completed their current work.  Work which
+     *  is still queued is never run.  It is finished with an IllegalStateException so that
+     *  threads waiting on it are released.
+     */
+    public void dispose()
+    {
+        m_disposed = true;
+
+        synchronized( m_semaphore )
+        {
+            m_semaphore.notifyAll();
+        }
+
+        int discarded = 0;
+        Task task;
+        while( ( task = pollSubmission() ) != null )
+        {
+            taken();
+            task.finish( new IllegalStateException( "The thread pool was disposed." ) );
+            discarded++;
+        }
+        for( int i = 0; i < m_workers.length; i++ )
+        {
+            while( ( task = m_workers[ i ].steal() ) != null )
+            {
+                taken();
+                task.finish( new IllegalStateException( "The thread pool was disposed." ) );
+                discarded++;
+            }
+        }
+
+        if( ( discarded > 0 ) && m_logger.isDebugEnabled() )
+        {
+            m_logger.debug( "Discarded " + discarded
+                            + " queued tasks because the pool was disposed." );
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * ThreadPool Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final Runnable work )
+    {
+        if( null == work )
+        {
+            throw new NullPointerException( "work" );
+        }
+
+        return execute( new org.apache.excalibur.thread.Executable()
+        {
+            public void execute()
+            {
+                work.run();
+            }
+
+            public String toString()
+            {
+                return work.toString();
+            }
+        } );
+    }
+
+    /**
+     * Run work in separate thread.
+     * Return a valid ThreadControl to control work thread.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     */
+    public ThreadControl execute( final Executable work )
+    {
+        return execute( new ExecutableExecuteable( work ) );
+    }
+
+    /**
+     * Queue work to be run by one of the pool's workers.  If called from one of the
+     *  workers, the work is pushed onto that worker's own deque.
+     * Return a valid ThreadControl to control the work.
+     *
+     * @param work the work to be executed.
+     * @return the ThreadControl
+     * @throws IllegalStateException if the pool has been disposed.
+     */
+    public ThreadControl execute( final org.apache.excalibur.thread.Executable work )
+    {
+        if( null == work )
+        {
+            throw new NullPointerException( "work" );
+        }
+        if( m_disposed )
+        {
+            throw new IllegalStateException( "The thread pool has been disposed." );
+        }
+
+        final Task task = new Task( work );
+
+        // Count the Task before it can be taken, so that the count never drops below zero
+        //  and idle workers never see an empty count while work is queued.
+        m_queueDepthInstrument.setValue( m_queued.incrementAndGet() );
+
+        final Worker worker = getCurrentWorker();
+        boolean pushed = false;
+        try
+        {
+            if( worker != null )
+            {
+                worker.push( task );
+            }
+            else
+            {
+                synchronized( m_submissions )
+                {
+                    m_submissions.addLast( task );
+                }
+            }
+            pushed = true;
+        }
+        finally
+        {
+            if( !pushed )
+            {
+                taken();
+            }
+        }
+
+        // Wake up an idle worker if there is one.
+        if( m_idle.get() > 0 )
+        {
+            synchronized( m_semaphore )
+            {
+                m_semaphore.notify();
+            }
+        }
+
+        return task;
+    }
+
+    /*---------------------------------------------------------------
+     * Instrumentable Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Sets the name for the Instrumentable.  The Instrumentable Name is used
+     *  to uniquely identify the Instrumentable during the configuration of
+     *  the InstrumentManager and to gain access to an InstrumentableDescriptor
+     *  through the InstrumentManager.  The value should be a string which does
+     *  not contain spaces or periods.
+     * <p>
+     * This value may be set by a parent Instrumentable, or by the
+     *  InstrumentManager using the value of the 'instrumentable' attribute in
+     *  the configuration of the component.
+     *
+     * @param name The name used to identify a Instrumentable.
+     */
+    public void setInstrumentableName( String name )
+    {
+        m_instrumentableName = name;
+    }
+
+    /**
+     * Gets the name of the Instrumentable.
+     *
+     * @return The name used to identify a Instrumentable.
+     */
+    public String getInstrumentableName()
+    {
+        return m_instrumentableName;
+    }
+
+    /**
+     * Obtain a reference to all the Instruments that the Instrumentable object
+     *  wishes to expose.  All sampling is done directly through the
+     *  Instruments as opposed to the Instrumentable interface.
+     *
+     * @return An array of the Instruments available for profiling.  Should
+     *         never be null.  If there are no Instruments, then
+     *         EMPTY_INSTRUMENT_ARRAY can be returned.  This should never be
+     *         the case though unless there are child Instrumentables with
+     *         Instruments.
+     */
+    public Instrument[] getInstruments()
+    {
+        return new Instrument[]
+        {
+            m_queueDepthInstrument,
+            m_stealsInstrument
+        };
+    }
+
+    /**
+     * Any Object which implements Instrumentable can also make use of other
+     *  Instrumentable child objects.  This method is used to tell the
+     *  InstrumentManager about them.
+     *
+     * @return An array of child Instrumentables.  This method should never
+     *         return null.  If there are no child Instrumentables, then
+     *         EMPTY_INSTRUMENTABLE_ARRAY can be returned.
+     */
+    public Instrumentable[] getChildInstrumentables()
+    {
+        return Instrumentable.EMPTY_INSTRUMENTABLE_ARRAY;
+    }
+
+    /*---------------------------------------------------------------
+     * Methods
+     *-------------------------------------------------------------*/
+    /**
+     * Returns the number of worker threads in the pool.
+     *
+     * @return the number of worker threads.
+     */
+    public int getSize()
+    {
+        return m_workers.length;
+    }
+
+    /**
+     * Returns the number of pieces of work which are waiting to be run.
+     *
+     * @return the number of queued pieces of work.
+     */
+    public int getQueueSize()
+    {
+        return m_queued.get();
+    }
+
+    /**
+     * Returns the number of pieces of work which have been stolen by one worker from
+     *  another.
+     *
+     * @return the number of steals.
+     */
+    public int getStealCount()
+    {
+        return m_steals.get();
+    }
+
+    /**
+     * Returns the worker of this pool which is the current thread, or null if the current
+     *  thread is not one of this pool's workers.
+     */
+    private Worker getCurrentWorker()
+    {
+        final Thread thread = Thread.currentThread();
+        if( ( thread instanceof Worker ) && ( ( (Worker)thread ).getPool() == this ) )
+        {
+            return (Worker)thread;
+        }
+        return null;
+    }
+
+    /**
+     * Takes the oldest Task from the submission queue.
+     *
+     * @return the Task or null if the queue is empty.
+     */
+    private Task pollSubmission()
+    {
+        synchronized( m_submissions )
+        {
+            if( m_submissions.size() > 0 )
+            {
+                return (Task)m_submissions.removeFirst();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Called whenever a Task has been taken from a deque or the submission queue.
+     */
+    private void taken()
+    {
+        m_queueDepthInstrument.setValue( m_queued.decrementAndGet() );
+    }
+
+    /*---------------------------------------------------------------
+     * Inner Classes
+     *-------------------------------------------------------------*/
+    /**
+     * A worker thread with its own deque of Tasks.  The worker pushes and pops Tasks at
+     *  the tail of its deque while other workers steal from the head.
+     */
+    private final class Worker
+        extends Thread
+    {
+        /** Index of the worker in m_workers. */
+        private final int m_index;
+
+        /** The deque of Tasks forked by this worker. */
+        private final LinkedList m_deque = new LinkedList();
+
+        /** Index of the next worker to try stealing from. */
+        private int m_victim;
+
+        private Worker( final int index, final String name )
+        {
+            super( ForkJoinThreadPool.this, name );
+            m_index = index;
+            m_victim = index;
+            setDaemon( true );
+        }
+
+        private ForkJoinThreadPool getPool()
+        {
+            return ForkJoinThreadPool.this;
+        }
+
+        private void push( final Task task )
+        {
+            synchronized( m_deque )
+            {
+                m_deque.addLast( task );
+            }
+        }
+
+        private Task pop()
+        {
+            synchronized( m_deque )
+            {
+                if( m_deque.size() > 0 )
+                {
+                    return (Task)m_deque.removeLast();
+                }
+                return null;
+            }
+        }
+
+        private Task steal()
+        {
+            synchronized( m_deque )
+            {
+                if( m_deque.size() > 0 )
+                {
+                    return (Task)m_deque.removeFirst();
+                }
+                return null;
+            }
+        }
+
+        /**
+         * Finds the next Task for this worker to run.  Returns null if there is no work.
+         */
+        private Task findWork()
+        {
+            Task task = pop();
+            if( task == null )
+            {
+                task = pollSubmission();
+            }
+            if( task == null )
+            {
+                // Try each of the other workers in turn, starting after the last victim.
+                for( int i = 1; ( task == null ) && ( i < m_workers.length ); i++ )
+                {
+                    m_victim = ( m_victim + 1 ) % m_workers.length;
+                    if( m_victim != m_index )
+                    {
+                        task = m_workers[ m_victim ].steal();
+                    }
+                }
+                if( task != null )
+                {
+                    m_steals.incrementAndGet();
+                    m_stealsInstrument.increment();
+                }
+            }
+            if( task != null )
+            {
+                taken();
+            }
+            return task;
+        }
+
+        public void run()
+        {
+            while( !m_disposed )
+            {
+                final Task task = findWork();
+                if( task != null )
+                {
+                    task.run();
+
+                    // Clear any interrupt meant for the last task.
+                    Thread.interrupted();
+                }
+                else
+                {
+                    synchronized( m_semaphore )
+                    {
+                        m_idle.incrementAndGet();
+                        try
+                        {
+                            if( !m_disposed && ( m_queued.get() == 0 ) )
+                            {
+                                m_semaphore.wait();
+                            }
+                        }
+                        catch( InterruptedException e )
+                        {
+                        }
+                        finally
+                        {
+                            m_idle.decrementAndGet();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A piece of queued work, which also acts as the ThreadControl for that work.
+     */
+    private final class Task
+        implements ThreadControl
+    {
+        /** The work to be done. */
+        private final org.apache.excalibur.thread.Executable m_work;
+
+        /** The thread running the work, or null if it is not running. */
+        private Thread m_thread;
+
+        /** True once the work has completed, failed or been discarded. */
+        private boolean m_finished;
+
+        /** Throwable that caused the work to fail, if any. */
+        private Throwable m_throwable;
+
+        private Task( final org.apache.excalibur.thread.Executable work )
+        {
+            m_work = work;
+        }
+
+        private void run()
+        {
+            synchronized( this )
+            {
+                m_thread = Thread.currentThread();
+            }
+
+            Throwable throwable = null;
+            try
+            {
+                m_work.execute();
+            }
+            catch( final ThreadDeath threadDeath )
+            {
+                finish( threadDeath );
+                throw threadDeath;
+            }
+            catch( final Throwable t )
+            {
+                if( m_logger.isDebugEnabled() )
+                {
+                    m_logger.debug( "Error caught while running " + m_work, t );
+                }
+                throwable = t;
+            }
+            finish( throwable );
+        }
+
+        private synchronized void finish( final Throwable throwable )
+        {
+            m_finished = true;
+            m_thread = null;
+            m_throwable = throwable;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the work to finish.  When called from one of the pool's workers, the
+         *  worker runs other queued work while it waits rather than blocking.
+         */
+        public void join( final long milliSeconds )
+            throws IllegalStateException, InterruptedException
+        {
+            final long end = System.currentTimeMillis() + milliSeconds;
+            final Worker worker = getCurrentWorker();
+            while( !isFinished() )
+            {
+                long wait = 0;
+                if( milliSeconds > 0 )
+                {
+                    wait = end - System.currentTimeMillis();
+                    if( wait <= 0 )
+                    {
+                        return;
+                    }
+                }
+
+                final Task task = ( worker != null ) ? worker.findWork() : null;
+                if( task != null )
+                {
+                    task.run();
+                }
+                else
+                {
+                    synchronized( this )
+                    {
+                        if( !m_finished )
+                        {
+                            if( worker != null )
+                            {
+                                // Look for more work to help with before long.
+                                wait = ( wait == 0 ) ? 10 : Math.min( wait, 10 );
+                            }
+                            wait( wait );
+                        }
+                    }
+                }
+            }
+        }
+
+        public synchronized void interrupt()
+            throws IllegalStateException, SecurityException
+        {
+            if( m_thread != null )
+            {
+                m_thread.interrupt();
+            }
+        }
+
+        public synchronized boolean isFinished()
+        {
+            return m_finished;
+        }
+
+        public synchronized Throwable getThrowable()
+        {
+            return m_throwable;
+        }
+
+        public String toString()
+        {
+            return m_work.toString();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.thread.impl.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.thread.impl.ForkJoinThreadPool;
+import org.apache.avalon.framework.logger.NullLogger;
+import org.apache.excalibur.thread.ThreadControl;
+
+/**
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class ForkJoinThreadPoolTestCase
+    extends TestCase
+{
+    /*---------------------------------------------------------------
+     * Constructors
+     *-------------------------------------------------------------*/
+    public ForkJoinThreadPoolTestCase()
+    {
+        this( "ForkJoinThreadPool Test Case" );
+    }
+
+    public ForkJoinThreadPoolTestCase( final String name )
+    {
+        super( name );
+    }
+
+    /*---------------------------------------------------------------
+     * Suite
+     *-------------------------------------------------------------*/
+    public void testExecuteAndJoin() throws Exception
+    {
+        ForkJoinThreadPool pool = createPool( 2 );
+        pool.initialize();
+
+        final AtomicInteger count = new AtomicInteger();
+        ThreadControl[] controls = new ThreadControl[ 20 ];
+        for( int i = 0; i < controls.length; i++ )
+        {
+            controls[ i ] = pool.execute( new Runnable()
+            {
+                public void run()
+                {
+                    count.incrementAndGet();
+                }
+            } );
+        }
+        for( int i = 0; i < controls.length; i++ )
+        {
+            controls[ i ].join( 5000 );
+            assertTrue( "Finished", controls[ i ].isFinished() );
+            assertNull( "Throwable", controls[ i ].getThrowable() );
+        }
+        assertEquals( "Count", 20, count.get() );
+        assertEquals( "Queue Size", 0, pool.getQueueSize() );
+
+        pool.dispose();
+    }
+
+    public void testJoinInsideWorker() throws Exception
+    {
+        // A single worker can only finish the outer task by running the subtasks while
+        //  it joins them.
+        final ForkJoinThreadPool pool = createPool( 1 );
+        pool.initialize();
+
+        final AtomicInteger count = new AtomicInteger();
+        final Throwable[] failure = new Throwable[ 1 ];
+        ThreadControl outer = pool.execute( new Runnable()
+        {
+            public void run()
+            {
+                ThreadControl[] subtasks = new ThreadControl[ 10 ];
+                for( int i = 0; i < subtasks.length; i++ )
+                {
+                    subtasks[ i ] = pool.execute( new Runnable()
+                    {
+                        public void run()
+                        {
+                            count.incrementAndGet();
+                        }
+                    } );
+                }
+                try
+                {
+                    for( int i = 0; i < subtasks.length; i++ )
+                    {
+                        subtasks[ i ].join( 5000 );
+                    }
+                }
+                catch( Throwable t )
+                {
+                    failure[ 0 ] = t;
+                }
+            }
+        } );
+        outer.join( 5000 );
+
+        assertTrue( "Finished", outer.isFinished() );
+        assertNull( "Failure", failure[ 0 ] );
+        assertEquals( "Count", 10, count.get() );
+
+        pool.dispose();
+    }
+
+    public void testQueueDepthAndIdleWorkers() throws Exception
+    {
+        ForkJoinThreadPool pool = createPool( 2 );
+
+        // Nothing runs until the workers are started.
+        ThreadControl last = null;
+        for( int i = 0; i < 5; i++ )
+        {
+            last = pool.execute( new SleepRunner( 10 ) );
+        }
+        assertEquals( "1) Queue Size", 5, pool.getQueueSize() );
+
+        pool.initialize();
+        last.join( 5000 );
+        Thread.sleep( 200 );
+        assertEquals( "2) Queue Size", 0, pool.getQueueSize() );
+
+        // Idle workers wait for work rather than spinning.
+        Thread[] threads = new Thread[ pool.getSize() ];
+        assertEquals( "Workers", 2, pool.enumerate( threads ) );
+        for( int i = 0; i < threads.length; i++ )
+        {
+            assertEquals( "Worker State", Thread.State.WAITING, threads[ i ].getState() );
+        }
+
+        pool.dispose();
+    }
+
+    public void testDispose() throws Exception
+    {
+        ForkJoinThreadPool pool = createPool( 1 );
+        ThreadControl control = pool.execute( new SleepRunner( 10 ) );
+
+        pool.dispose();
+        assertTrue( "Finished", control.isFinished() );
+        assertTrue( "Throwable", control.getThrowable() instanceof IllegalStateException );
+        assertEquals( "Queue Size", 0, pool.getQueueSize() );
+
+        try
+        {
+            pool.execute( new SleepRunner( 10 ) );
+            fail( "execute() should fail after dispose()" );
+        }
+        catch( IllegalStateException e )
+        {
+            // Expected
+        }
+    }
+
+    /*---------------------------------------------------------------
+     * Utility Methods
+     *-------------------------------------------------------------*/
+    private ForkJoinThreadPool createPool( int parallelism )
+    {
+        ForkJoinThreadPool pool = new ForkJoinThreadPool( "Test Worker Pool", parallelism );
+        pool.enableLogging( new NullLogger() );
+        return pool;
+    }
+
+    /*---------------------------------------------------------------
+     * Inner Classes
+     *-------------------------------------------------------------*/
+    private static class SleepRunner
+        implements Runnable
+    {
+        private final long m_sleep;
+
+        private SleepRunner( long sleep )
+        {
+            m_sleep = sleep;
+        }
+
+        public void run()
+        {
+            try
+            {
+                Thread.sleep( m_sleep );
+            }
+            catch( InterruptedException e )
+            {
+            }
+        }
+    }
+}
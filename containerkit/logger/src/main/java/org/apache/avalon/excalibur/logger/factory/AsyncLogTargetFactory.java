@@ -18,13 +18,24 @@
  */
 package org.apache.avalon.excalibur.logger.factory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.avalon.excalibur.logger.LogTargetFactory;
 import org.apache.avalon.excalibur.logger.LogTargetFactoryManageable;
 import org.apache.avalon.excalibur.logger.LogTargetFactoryManager;
 import org.apache.avalon.framework.configuration.Configuration;
 import org.apache.avalon.framework.configuration.ConfigurationException;
+import org.apache.excalibur.instrument.CounterInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.Instrumentable;
+import org.apache.excalibur.instrument.ValueInstrument;
+import org.apache.log.LogEvent;
 import org.apache.log.LogTarget;
+import org.apache.log.Priority;
+import org.apache.log.output.AbstractWrappingTarget;
 import org.apache.log.output.AsyncLogTarget;
+import org.apache.log.output.RingBufferAsyncLogTarget;
 
 /**
  * AsyncLogTargetFactory class.
@@ -55,6 +66,31 @@ import org.apache.log.output.AsyncLogTarget;
  * number=priority number (see class java.lang.Thread)<br>
  * </blockquote>
  * </p>
+ * <p>
+ *  With a ring-buffer attribute of true the factory creates a
+ *  RingBufferAsyncLogTarget instead, which queues the events without
+ *  locking the logging threads:
+ * </p>
+ *
+ * <pre>
+ *
+ * &lt;async-target id="target-id" ring-buffer="true" queue-size="1024"
+ *   overflow="block|drop-lowest-priority|drop-newest" drop-priority="ERROR"
+ *   batch-size="64" priority="MIN|NORM|MAX|n"&gt;
+ *  &lt;any-target-definition/&gt;
+ * &lt;/async-target&gt;
+ *
+ * </pre>
+ * <p>
+ *  The overflow attribute decides what happens to events when the queue is
+ *  full (defaults to block), drop-priority is the priority below which
+ *  drop-lowest-priority drops events (defaults to ERROR), and batch-size the
+ *  most events sent on at once (defaults to 64).  The factory is Instrumentable,
+ *  with a child Instrumentable for each of these targets, named after the id of
+ *  the target, which has a queue-depth and a dropped-events instrument.  Only
+ *  targets created before the factory is registered with the InstrumentManager
+ *  are instrumented.
+ * </p>
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @version CVS $Revision: 1.8 $ $Date: 2004/03/10 13:54:50 $
@@ -62,11 +98,16 @@ import org.apache.log.output.AsyncLogTarget;
  */
 public final class AsyncLogTargetFactory
     extends AbstractTargetFactory
-    implements LogTargetFactoryManageable
+    implements LogTargetFactoryManageable, Instrumentable
 {
     /** The LogTargetFactoryManager */
     protected LogTargetFactoryManager m_logTargetFactoryManager;
 
+    private String m_instrumentableName = "async-target";
+
+    /** The Instrumentables of the ring buffer targets created so far */
+    private final List m_children = new ArrayList();
+
     /**
      * create a LogTarget based on a Configuration
      */
@@ -77,8 +118,12 @@ public final class AsyncLogTargetFactory
         final Configuration config = configuration.getChildren()[ 0 ];
         final LogTargetFactory factory = m_logTargetFactoryManager.getLogTargetFactory( config.getName() );
         final LogTarget target = factory.createTarget( config );
-        final AsyncLogTarget asyncTarget;
-        if( queuesize == -1 )
+        final AbstractWrappingTarget asyncTarget;
+        if( configuration.getAttributeAsBoolean( "ring-buffer", false ) )
+        {
+            asyncTarget = createRingBufferTarget( configuration, target, queuesize );
+        }
+        else if( queuesize == -1 )
         {
             asyncTarget = new AsyncLogTarget( target );
         }
@@ -101,13 +146,90 @@ public final class AsyncLogTargetFactory
         {
             threadPriority = configuration.getAttributeAsInteger( "priority", 1 );
         }
-        final Thread thread = new Thread( asyncTarget );
+        final Thread thread = new Thread( (Runnable)asyncTarget );
         thread.setPriority( threadPriority );
         thread.setDaemon( true );
         thread.start();
         return asyncTarget;
     }
 
+    private AbstractWrappingTarget createRingBufferTarget( final Configuration configuration,
+                                                          final LogTarget target,
+                                                          final int queuesize )
+        throws ConfigurationException
+    {
+        final String overflow = configuration.getAttribute( "overflow", "block" );
+        final int overflowPolicy;
+        if( "block".equals( overflow ) )
+        {
+            overflowPolicy = RingBufferAsyncLogTarget.OVERFLOW_BLOCK;
+        }
+        else if( "drop-lowest-priority".equals( overflow ) )
+        {
+            overflowPolicy = RingBufferAsyncLogTarget.OVERFLOW_DROP_LOWEST_PRIORITY;
+        }
+        else if( "drop-newest".equals( overflow ) )
+        {
+            overflowPolicy = RingBufferAsyncLogTarget.OVERFLOW_DROP_NEWEST;
+        }
+        else
+        {
+            throw new ConfigurationException( "Unknown overflow policy '" + overflow + "' at "
+                                              + configuration.getLocation() );
+        }
+
+        final String dropPriorityName = configuration.getAttribute( "drop-priority", "ERROR" );
+        final Priority dropPriority = Priority.getPriorityForName( dropPriorityName );
+        if( !dropPriority.getName().equals( dropPriorityName ) )
+        {
+            // getPriorityForName() falls back to DEBUG for unknown names
+            throw new ConfigurationException( "Unknown drop priority '" + dropPriorityName
+                                              + "' at " + configuration.getLocation() );
+        }
+        final int batchSize = configuration.getAttributeAsInteger( "batch-size", 64 );
+        try
+        {
+            final InstrumentedTarget asyncTarget =
+                new InstrumentedTarget( target, queuesize == -1 ? 1024 : queuesize,
+                                        overflowPolicy, dropPriority, batchSize );
+            synchronized( m_children )
+            {
+                final String id = configuration.getAttribute( "id", null );
+                asyncTarget.setInstrumentableName(
+                    null != id ? id : "target-" + ( m_children.size() + 1 ) );
+                m_children.add( asyncTarget );
+            }
+            return asyncTarget;
+        }
+        catch( final IllegalArgumentException iae )
+        {
+            throw new ConfigurationException( iae.getMessage() + " at " + configuration.getLocation() );
+        }
+    }
+
+    public void setInstrumentableName( final String name )
+    {
+        m_instrumentableName = name;
+    }
+
+    public String getInstrumentableName()
+    {
+        return m_instrumentableName;
+    }
+
+    public Instrument[] getInstruments()
+    {
+        return Instrumentable.EMPTY_INSTRUMENT_ARRAY;
+    }
+
+    public Instrumentable[] getChildInstrumentables()
+    {
+        synchronized( m_children )
+        {
+            return (Instrumentable[])m_children.toArray( new Instrumentable[ m_children.size() ] );
+        }
+    }
+
     /**
      * get the LogTargetFactoryManager
      */
@@ -116,5 +238,61 @@ public final class AsyncLogTargetFactory
         m_logTargetFactoryManager = logTargetFactoryManager;
     }
 
-}
+    /**
+     * A RingBufferAsyncLogTarget with its own instruments.  The queue depth
+     * is set whenever an event is queued or a batch is taken out of the ring.
+     */
+    private static final class InstrumentedTarget
+        extends RingBufferAsyncLogTarget
+        implements Instrumentable
+    {
+        private final ValueInstrument m_queueDepthInstrument = new ValueInstrument( "queue-depth" );
+        private final CounterInstrument m_droppedEventsInstrument =
+            new CounterInstrument( "dropped-events" );
+        private String m_instrumentableName;
+
+        InstrumentedTarget( final LogTarget target,
+                            final int capacity,
+                            final int overflowPolicy,
+                            final Priority dropPriority,
+                            final int batchSize )
+        {
+            super( target, capacity, overflowPolicy, dropPriority, batchSize, false );
+        }
+
+        protected void eventQueued( final LogEvent event )
+        {
+            m_queueDepthInstrument.setValue( getQueueDepth() );
+        }
 
+        protected void eventDropped( final LogEvent event )
+        {
+            m_droppedEventsInstrument.increment();
+        }
+
+        protected void batchDrained( final int count )
+        {
+            m_queueDepthInstrument.setValue( getQueueDepth() );
+        }
+
+        public void setInstrumentableName( final String name )
+        {
+            m_instrumentableName = name;
+        }
+
+        public String getInstrumentableName()
+        {
+            return m_instrumentableName;
+        }
+
+        public Instrument[] getInstruments()
+        {
+            return new Instrument[] { m_queueDepthInstrument, m_droppedEventsInstrument };
+        }
+
+        public Instrumentable[] getChildInstrumentables()
+        {
+            return Instrumentable.EMPTY_INSTRUMENTABLE_ARRAY;
+        }
+    }
+}
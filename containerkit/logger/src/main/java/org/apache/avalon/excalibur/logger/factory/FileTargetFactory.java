@@ -25,6 +25,7 @@ import org.apache.avalon.framework.configuration.Configuration;
 import org.apache.avalon.framework.configuration.ConfigurationException;
 import org.apache.avalon.framework.context.ContextException;
 import org.apache.log.LogTarget;
+import org.apache.log.Priority;
 import org.apache.log.format.Formatter;
 import org.apache.log.output.io.FileTarget;
 import org.apache.log.output.io.rotate.FileStrategy;
@@ -49,6 +50,7 @@ import org.apache.log.output.io.rotate.UniqueFileStrategy;
  *  &lt;filename&gt;${context-key}/real-name/...&lt;/filename&gt;
  *  &lt;format type="avalon|raw|pattern|extended"&gt;pattern to be used if needed&lt;/format&gt;
  *  &lt;append&gt;true|false&lt;/append&gt;
+ *  &lt;buffer size="8192" flush-interval="1000" flush-priority="ERROR"/&gt;
  *  &lt;rotation type="revolving" init="5" max="10"&gt;
  *
  * or
@@ -86,6 +88,15 @@ import org.apache.log.output.io.rotate.UniqueFileStrategy;
  *   (normally at the start of the applcation) or not and thus the log
  *   entries will be appended. This elements defaults to false.
  *  </dd>
+ *  <dt>&lt;buffer&gt;<dt>
+ *  <dd>
+ *   This is an optional element. If present, log entries are collected in a
+ *   buffer of size bytes (defaults to 8192) rather than flushed to the file one
+ *   by one. The buffer is flushed when it is full, every flush-interval
+ *   milliseconds (defaults to 1000, 0 for never), at once for entries of
+ *   flush-priority and above (defaults to ERROR), and before the file is
+ *   closed or rotated.
+ *  </dd>
  *  <dt>&lt;rotation&gt;</dt>
  *  <dd>
  *   This is an optional element.
@@ -157,7 +168,22 @@ public class FileTargetFactory
         final Configuration confFormat = configuration.getChild( "format" );
         final Formatter formatter = getFormatter( confFormat );
 
-        final LogTarget logtarget;
+        // checked before the file is opened, so that a bad buffer leaves no file open
+        final Configuration confBuffer = configuration.getChild( "buffer", false );
+        Priority flushPriority = null;
+        if( null != confBuffer )
+        {
+            final String flushPriorityName = confBuffer.getAttribute( "flush-priority", "ERROR" );
+            flushPriority = Priority.getPriorityForName( flushPriorityName );
+            if( !flushPriority.getName().equals( flushPriorityName ) )
+            {
+                // getPriorityForName() falls back to DEBUG for unknown names
+                throw new ConfigurationException( "Unknown flush priority '" + flushPriorityName
+                                                  + "' at " + confBuffer.getLocation() );
+            }
+        }
+
+        final FileTarget logtarget;
         try
         {
             final Configuration confRotation = configuration.getChild( "rotation", false );
@@ -186,6 +212,20 @@ public class FileTargetFactory
             throw new ConfigurationException( "cannot create FileTarget", ioe );
         }
 
+        if( null != confBuffer )
+        {
+            final int bufferSize = confBuffer.getAttributeAsInteger( "size", 8192 );
+            final long flushInterval = confBuffer.getAttributeAsLong( "flush-interval", 1000 );
+            try
+            {
+                logtarget.setBuffering( bufferSize, flushInterval, flushPriority );
+            }
+            catch( final IllegalArgumentException iae )
+            {
+                throw new ConfigurationException( iae.getMessage(), confBuffer );
+            }
+        }
+
         return logtarget;
     }
 
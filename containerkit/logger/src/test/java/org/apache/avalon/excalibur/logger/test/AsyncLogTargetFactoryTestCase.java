@@ -0,0 +1,255 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.logger.test;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.logger.LogTargetFactory;
+import org.apache.avalon.excalibur.logger.LogTargetFactoryManager;
+import org.apache.avalon.excalibur.logger.factory.AsyncLogTargetFactory;
+import org.apache.avalon.framework.configuration.Configuration;
+import org.apache.avalon.framework.configuration.ConfigurationException;
+import org.apache.avalon.framework.configuration.DefaultConfiguration;
+import org.apache.excalibur.instrument.AbstractInstrument;
+import org.apache.excalibur.instrument.Instrument;
+import org.apache.excalibur.instrument.InstrumentProxy;
+import org.apache.excalibur.instrument.Instrumentable;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.Priority;
+import org.apache.log.output.AbstractWrappingTarget;
+
+/**
+ * Test the ring buffer targets created by the AsyncLogTargetFactory.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class AsyncLogTargetFactoryTestCase
+    extends TestCase
+{
+    private final GatedTarget m_target = new GatedTarget();
+    private final AsyncLogTargetFactory m_factory = new AsyncLogTargetFactory();
+
+    public AsyncLogTargetFactoryTestCase()
+    {
+        this( "AsyncLogTargetFactory Test Case" );
+    }
+
+    public AsyncLogTargetFactoryTestCase( final String name )
+    {
+        super( name );
+    }
+
+    protected void setUp()
+    {
+        m_factory.setLogTargetFactoryManager( new LogTargetFactoryManager()
+        {
+            public LogTargetFactory getLogTargetFactory( final String factoryName )
+            {
+                return new LogTargetFactory()
+                {
+                    public LogTarget createTarget( final Configuration configuration )
+                    {
+                        return m_target;
+                    }
+                };
+            }
+        } );
+    }
+
+    public void testInstruments()
+        throws Exception
+    {
+        final AbstractWrappingTarget first = (AbstractWrappingTarget)m_factory.createTarget(
+            createConfiguration( "first", "drop-newest", "ERROR" ) );
+        final AbstractWrappingTarget second = (AbstractWrappingTarget)m_factory.createTarget(
+            createConfiguration( "second", "drop-newest", "ERROR" ) );
+        try
+        {
+            final Instrumentable[] children = m_factory.getChildInstrumentables();
+            assertEquals( "Children", 2, children.length );
+            assertEquals( "First name", "first", children[ 0 ].getInstrumentableName() );
+            assertEquals( "Second name", "second", children[ 1 ].getInstrumentableName() );
+
+            final RecordingProxy depth = new RecordingProxy();
+            final RecordingProxy dropped = new RecordingProxy();
+            final RecordingProxy otherDropped = new RecordingProxy();
+            getInstrument( children[ 0 ], "queue-depth" ).setInstrumentProxy( depth );
+            getInstrument( children[ 0 ], "dropped-events" ).setInstrumentProxy( dropped );
+            getInstrument( children[ 1 ], "dropped-events" ).setInstrumentProxy( otherDropped );
+
+            // The first event holds up the thread sending events on
+            first.processEvent( createEvent( "one" ) );
+            m_target.awaitEntered();
+            assertEquals( "Depth after drain", 0, depth.getValue() );
+
+            // The next two fill the ring and the fourth one is dropped
+            first.processEvent( createEvent( "two" ) );
+            assertEquals( "Depth after first offer", 1, depth.getValue() );
+            first.processEvent( createEvent( "three" ) );
+            assertEquals( "Depth after second offer", 2, depth.getValue() );
+            first.processEvent( createEvent( "four" ) );
+            assertEquals( "Dropped events", 1, dropped.getCount() );
+            assertEquals( "Dropped events of other target", 0, otherDropped.getCount() );
+        }
+        finally
+        {
+            m_target.open();
+            first.close();
+            second.close();
+        }
+        assertEquals( "Events written", 3, m_target.getCount() );
+    }
+
+    public void testUnknownDropPriority()
+        throws Exception
+    {
+        try
+        {
+            m_factory.createTarget( createConfiguration( "bad", "drop-lowest-priority", "EROR" ) );
+            fail( "Unknown drop-priority must be rejected" );
+        }
+        catch( final ConfigurationException ce )
+        {
+            // Expected
+        }
+        assertEquals( "Children", 0, m_factory.getChildInstrumentables().length );
+    }
+
+    private static Configuration createConfiguration( final String id,
+                                                      final String overflow,
+                                                      final String dropPriority )
+    {
+        final DefaultConfiguration configuration = new DefaultConfiguration( "async-target" );
+        configuration.setAttribute( "id", id );
+        configuration.setAttribute( "ring-buffer", "true" );
+        configuration.setAttribute( "queue-size", "2" );
+        configuration.setAttribute( "overflow", overflow );
+        configuration.setAttribute( "drop-priority", dropPriority );
+        configuration.setAttribute( "batch-size", "1" );
+        configuration.addChild( new DefaultConfiguration( "gated" ) );
+        return configuration;
+    }
+
+    private static LogEvent createEvent( final String message )
+    {
+        final LogEvent event = new LogEvent();
+        event.setPriority( Priority.DEBUG );
+        event.setMessage( message );
+        return event;
+    }
+
+    private static AbstractInstrument getInstrument( final Instrumentable instrumentable,
+                                                     final String name )
+    {
+        final Instrument[] instruments = instrumentable.getInstruments();
+        for( int i = 0; i < instruments.length; i++ )
+        {
+            if( name.equals( instruments[ i ].getInstrumentName() ) )
+            {
+                return (AbstractInstrument)instruments[ i ];
+            }
+        }
+        fail( "No instrument " + name );
+        return null;
+    }
+
+    /**
+     * An InstrumentProxy which records what it is given.
+     */
+    private static final class RecordingProxy
+        implements InstrumentProxy
+    {
+        private int m_count;
+        private int m_value = -1;
+
+        public boolean isActive()
+        {
+            return true;
+        }
+
+        public synchronized void increment( final int count )
+        {
+            m_count += count;
+        }
+
+        public synchronized void setValue( final int value )
+        {
+            m_value = value;
+        }
+
+        synchronized int getCount()
+        {
+            return m_count;
+        }
+
+        synchronized int getValue()
+        {
+            return m_value;
+        }
+    }
+
+    /**
+     * A target which does not return from processEvent() until it is opened.
+     */
+    private static final class GatedTarget
+        implements LogTarget
+    {
+        private boolean m_open;
+        private int m_count;
+
+        public synchronized void processEvent( final LogEvent event )
+        {
+            m_count++;
+            notifyAll();
+            while( !m_open )
+            {
+                try
+                {
+                    wait();
+                }
+                catch( final InterruptedException ie )
+                {
+                    return;
+                }
+            }
+        }
+
+        synchronized void awaitEntered()
+            throws InterruptedException
+        {
+            final long end = System.currentTimeMillis() + 5000;
+            while( 0 == m_count && System.currentTimeMillis() < end )
+            {
+                wait( 100 );
+            }
+        }
+
+        synchronized void open()
+        {
+            m_open = true;
+            notifyAll();
+        }
+
+        synchronized int getCount()
+        {
+            return m_count;
+        }
+    }
+}
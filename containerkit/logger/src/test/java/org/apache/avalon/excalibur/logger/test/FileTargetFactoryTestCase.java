@@ -0,0 +1,112 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avalon.excalibur.logger.test;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.avalon.excalibur.logger.factory.FileTargetFactory;
+import org.apache.avalon.framework.configuration.ConfigurationException;
+import org.apache.avalon.framework.configuration.DefaultConfiguration;
+import org.apache.log.LogEvent;
+import org.apache.log.Priority;
+import org.apache.log.output.io.FileTarget;
+
+/**
+ * Test the buffer configuration of the FileTargetFactory.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class FileTargetFactoryTestCase
+    extends TestCase
+{
+    private File m_file;
+
+    public FileTargetFactoryTestCase()
+    {
+        this( "FileTargetFactory Test Case" );
+    }
+
+    public FileTargetFactoryTestCase( final String name )
+    {
+        super( name );
+    }
+
+    protected void setUp()
+        throws Exception
+    {
+        m_file = File.createTempFile( "file-target", ".log" );
+        m_file.delete();
+    }
+
+    protected void tearDown()
+    {
+        m_file.delete();
+    }
+
+    public void testFlushPriority()
+        throws Exception
+    {
+        final FileTarget target =
+            (FileTarget)new FileTargetFactory().createTarget( createConfiguration( "WARN" ) );
+        target.processEvent( createEvent( Priority.INFO, "buffered" ) );
+        assertEquals( "Length before WARN", 0, m_file.length() );
+        target.processEvent( createEvent( Priority.WARN, "flushed" ) );
+        assertTrue( "Length after WARN", m_file.length() > 0 );
+        target.close();
+    }
+
+    public void testUnknownFlushPriority()
+        throws Exception
+    {
+        try
+        {
+            new FileTargetFactory().createTarget( createConfiguration( "WRAN" ) );
+            fail( "Unknown flush-priority must be rejected" );
+        }
+        catch( final ConfigurationException ce )
+        {
+            // Expected
+        }
+        assertFalse( "File created", m_file.exists() );
+    }
+
+    private DefaultConfiguration createConfiguration( final String flushPriority )
+    {
+        final DefaultConfiguration configuration = new DefaultConfiguration( "file" );
+        final DefaultConfiguration filename = new DefaultConfiguration( "filename" );
+        filename.setValue( m_file.getPath() );
+        configuration.addChild( filename );
+        final DefaultConfiguration buffer = new DefaultConfiguration( "buffer" );
+        buffer.setAttribute( "flush-interval", "0" );
+        buffer.setAttribute( "flush-priority", flushPriority );
+        configuration.addChild( buffer );
+        return configuration;
+    }
+
+    private static LogEvent createEvent( final Priority priority, final String message )
+    {
+        final LogEvent event = new LogEvent();
+        event.setPriority( priority );
+        event.setCategory( "test" );
+        event.setMessage( message );
+        return event;
+    }
+}
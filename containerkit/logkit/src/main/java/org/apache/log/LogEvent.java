@@ -18,6 +18,8 @@
  */
 package org.apache.log;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 
@@ -25,6 +27,11 @@ import java.io.Serializable;
  * This class encapsulates each individual log event.
  * LogEvents usually originate at a Logger and are routed
  * to LogTargets.
+ * <p>
+ * The message may be given as a pattern and arguments, in which case
+ * each <code>{}</code> in the pattern is replaced by the next argument
+ * when the message is first asked for.
+ * </p>
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @author Peter Donald
@@ -32,6 +39,12 @@ import java.io.Serializable;
 public final class LogEvent
     implements Serializable
 {
+    //The serialVersionUID of the events written by earlier versions
+    private static final long serialVersionUID = 1456470337427763559L;
+
+    //The anchor replaced by an argument in a message pattern
+    private static final String ANCHOR = "{}";
+
     //A Constant used when retrieving time relative to start of applicaiton start
     private static final long START_TIME = System.currentTimeMillis();
 
@@ -41,6 +54,12 @@ public final class LogEvent
     ///The message to be logged. (Must not be null)
     private String m_message;
 
+    ///The pattern of the message, if it is yet to be formatted. (May be null)
+    private transient String m_pattern;
+
+    ///The arguments of the message pattern. (May be null)
+    private transient Object[] m_arguments;
+
     ///The exception that caused LogEvent if any. (May be null)
     private Throwable m_throwable;
 
@@ -110,6 +129,10 @@ public final class LogEvent
      */
     public final String getMessage()
     {
+        if( null == m_message && null != m_pattern )
+        {
+            m_message = formatMessage( m_pattern, m_arguments );
+        }
         return m_message;
     }
 
@@ -161,6 +184,23 @@ public final class LogEvent
     public final void setMessage( final String message )
     {
         m_message = message;
+        m_pattern = null;
+        m_arguments = null;
+    }
+
+    /**
+     * Set the message for LogEvent as a pattern and its arguments.
+     * The message is formatted when it is first asked for, so the
+     * arguments must not change until the event has been written.
+     *
+     * @param pattern the message pattern
+     * @param arguments the arguments for the anchors in the pattern
+     */
+    public final void setMessage( final String pattern, final Object[] arguments )
+    {
+        m_message = null;
+        m_pattern = pattern;
+        m_arguments = arguments;
     }
 
     /**
@@ -183,6 +223,50 @@ public final class LogEvent
         m_time = time;
     }
 
+    /**
+     * Replace each anchor in the pattern by the next argument.
+     * Anchors left over when the arguments run out are kept as they are.
+     *
+     * @param pattern the message pattern
+     * @param arguments the arguments (may be null)
+     * @return the message
+     */
+    static String formatMessage( final String pattern, final Object[] arguments )
+    {
+        int index = pattern.indexOf( ANCHOR );
+        if( -1 == index || null == arguments || 0 == arguments.length )
+        {
+            return pattern;
+        }
+
+        final StringBuilder sb = new StringBuilder( pattern.length() + 16 * arguments.length );
+        int start = 0;
+        for( int i = 0; i < arguments.length && -1 != index; i++ )
+        {
+            sb.append( pattern, start, index );
+            sb.append( String.valueOf( arguments[ i ] ) );
+            start = index + ANCHOR.length();
+            index = pattern.indexOf( ANCHOR, start );
+        }
+        sb.append( pattern, start, pattern.length() );
+
+        return sb.toString();
+    }
+
+    /**
+     * Helper method that formats a pending message before the event is
+     * written, as only the formatted message is serialized.
+     *
+     * @param out the stream
+     * @exception IOException if an error occurs
+     */
+    private void writeObject( final ObjectOutputStream out )
+        throws IOException
+    {
+        getMessage();
+        out.defaultWriteObject();
+    }
+
     /**
      * Helper method that replaces deserialized priority with correct singleton.
      *
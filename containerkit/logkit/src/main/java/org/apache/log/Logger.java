@@ -22,6 +22,15 @@ import org.apache.log.util.LoggerListener;
 
 /**
  * The object interacted with by client objects to perform logging.
+ * <p>
+ * Messages may be given as a pattern with an anchor <code>{}</code> for
+ * each argument, so that they are only formatted when the priority is
+ * enabled. When all the targets an event reaches are
+ * {@link SynchronousLogTarget}s, the LogEvent objects are reused by
+ * each thread and the message is only formatted once a target writes
+ * it. Otherwise the message is formatted before the event is passed on,
+ * as a target may keep the event after the arguments have changed.
+ * </p>
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @author Peter Donald
@@ -35,6 +44,9 @@ public class Logger
      */
     public static final char CATEGORY_SEPARATOR = '.';
 
+    ///The LogEvent of each thread, taken out while in use
+    private static final ThreadLocal c_events = new ThreadLocal();
+
     // The ErrorHandler associated with Logger
     private final ErrorHandler m_errorHandler;
 
@@ -62,6 +74,13 @@ public class Logger
     ///Indicate that priority was set with setPriority() rather than inherited
     private boolean m_priorityForceSet;
 
+    ///Whether each priority is enabled, precomputed from m_priority
+    private boolean m_debugEnabled;
+    private boolean m_infoEnabled;
+    private boolean m_warnEnabled;
+    private boolean m_errorEnabled;
+    private boolean m_fatalErrorEnabled;
+
     /**
      * True means LogEvents will be sent to parents LogTargets
      * aswell as the ones set for this Logger.
@@ -104,7 +123,7 @@ public class Logger
      */
     public final boolean isDebugEnabled()
     {
-        return m_priority.isLowerOrEqual( Priority.DEBUG );
+        return m_debugEnabled;
     }
 
     /**
@@ -115,7 +134,7 @@ public class Logger
      */
     public final void debug( final String message, final Throwable throwable )
     {
-        if( isDebugEnabled() )
+        if( m_debugEnabled )
         {
             output( Priority.DEBUG, message, throwable );
         }
@@ -128,12 +147,31 @@ public class Logger
      */
     public final void debug( final String message )
     {
-        if( isDebugEnabled() )
+        if( m_debugEnabled )
         {
             output( Priority.DEBUG, message, null );
         }
     }
 
+    /**
+     * Log a debug priority event with a message that is only formatted
+     * if a target writes the event. A trailing Throwable argument is
+     * also logged as the throwable of the event.
+     *
+     * @param pattern the message pattern
+     * @param argument the argument for the first anchor
+     * @param arguments the arguments for the other anchors
+     */
+    public final void debug( final String pattern,
+                             final Object argument,
+                             final Object... arguments )
+    {
+        if( m_debugEnabled )
+        {
+            outputPattern( Priority.DEBUG, pattern, argument, arguments );
+        }
+    }
+
     /**
      * Determine if messages of priority INFO will be logged.
      *
@@ -141,7 +179,7 @@ public class Logger
      */
     public final boolean isInfoEnabled()
     {
-        return m_priority.isLowerOrEqual( Priority.INFO );
+        return m_infoEnabled;
     }
 
     /**
@@ -152,7 +190,7 @@ public class Logger
      */
     public final void info( final String message, final Throwable throwable )
     {
-        if( isInfoEnabled() )
+        if( m_infoEnabled )
         {
             output( Priority.INFO, message, throwable );
         }
@@ -165,12 +203,31 @@ public class Logger
      */
     public final void info( final String message )
     {
-        if( isInfoEnabled() )
+        if( m_infoEnabled )
         {
             output( Priority.INFO, message, null );
         }
     }
 
+    /**
+     * Log a info priority event with a message that is only formatted
+     * if a target writes the event. A trailing Throwable argument is
+     * also logged as the throwable of the event.
+     *
+     * @param pattern the message pattern
+     * @param argument the argument for the first anchor
+     * @param arguments the arguments for the other anchors
+     */
+    public final void info( final String pattern,
+                            final Object argument,
+                            final Object... arguments )
+    {
+        if( m_infoEnabled )
+        {
+            outputPattern( Priority.INFO, pattern, argument, arguments );
+        }
+    }
+
     /**
      * Determine if messages of priority WARN will be logged.
      *
@@ -178,7 +235,7 @@ public class Logger
      */
     public final boolean isWarnEnabled()
     {
-        return m_priority.isLowerOrEqual( Priority.WARN );
+        return m_warnEnabled;
     }
 
     /**
@@ -189,7 +246,7 @@ public class Logger
      */
     public final void warn( final String message, final Throwable throwable )
     {
-        if( isWarnEnabled() )
+        if( m_warnEnabled )
         {
             output( Priority.WARN, message, throwable );
         }
@@ -202,12 +259,31 @@ public class Logger
      */
     public final void warn( final String message )
     {
-        if( isWarnEnabled() )
+        if( m_warnEnabled )
         {
             output( Priority.WARN, message, null );
         }
     }
 
+    /**
+     * Log a warn priority event with a message that is only formatted
+     * if a target writes the event. A trailing Throwable argument is
+     * also logged as the throwable of the event.
+     *
+     * @param pattern the message pattern
+     * @param argument the argument for the first anchor
+     * @param arguments the arguments for the other anchors
+     */
+    public final void warn( final String pattern,
+                            final Object argument,
+                            final Object... arguments )
+    {
+        if( m_warnEnabled )
+        {
+            outputPattern( Priority.WARN, pattern, argument, arguments );
+        }
+    }
+
     /**
      * Determine if messages of priority ERROR will be logged.
      *
@@ -215,7 +291,7 @@ public class Logger
      */
     public final boolean isErrorEnabled()
     {
-        return m_priority.isLowerOrEqual( Priority.ERROR );
+        return m_errorEnabled;
     }
 
     /**
@@ -226,7 +302,7 @@ public class Logger
      */
     public final void error( final String message, final Throwable throwable )
     {
-        if( isErrorEnabled() )
+        if( m_errorEnabled )
         {
             output( Priority.ERROR, message, throwable );
         }
@@ -239,12 +315,31 @@ public class Logger
      */
     public final void error( final String message )
     {
-        if( isErrorEnabled() )
+        if( m_errorEnabled )
         {
             output( Priority.ERROR, message, null );
         }
     }
 
+    /**
+     * Log a error priority event with a message that is only formatted
+     * if a target writes the event. A trailing Throwable argument is
+     * also logged as the throwable of the event.
+     *
+     * @param pattern the message pattern
+     * @param argument the argument for the first anchor
+     * @param arguments the arguments for the other anchors
+     */
+    public final void error( final String pattern,
+                             final Object argument,
+                             final Object... arguments )
+    {
+        if( m_errorEnabled )
+        {
+            outputPattern( Priority.ERROR, pattern, argument, arguments );
+        }
+    }
+
     /**
      * Determine if messages of priority FATAL_ERROR will be logged.
      *
@@ -252,7 +347,7 @@ public class Logger
      */
     public final boolean isFatalErrorEnabled()
     {
-        return m_priority.isLowerOrEqual( Priority.FATAL_ERROR );
+        return m_fatalErrorEnabled;
     }
 
     /**
@@ -263,7 +358,7 @@ public class Logger
      */
     public final void fatalError( final String message, final Throwable throwable )
     {
-        if( isFatalErrorEnabled() )
+        if( m_fatalErrorEnabled )
         {
             output( Priority.FATAL_ERROR, message, throwable );
         }
@@ -276,12 +371,31 @@ public class Logger
      */
     public final void fatalError( final String message )
     {
-        if( isFatalErrorEnabled() )
+        if( m_fatalErrorEnabled )
         {
             output( Priority.FATAL_ERROR, message, null );
         }
     }
 
+    /**
+     * Log a fatalError priority event with a message that is only formatted
+     * if a target writes the event. A trailing Throwable argument is
+     * also logged as the throwable of the event.
+     *
+     * @param pattern the message pattern
+     * @param argument the argument for the first anchor
+     * @param arguments the arguments for the other anchors
+     */
+    public final void fatalError( final String pattern,
+                                  final Object argument,
+                                  final Object... arguments )
+    {
+        if( m_fatalErrorEnabled )
+        {
+            outputPattern( Priority.FATAL_ERROR, pattern, argument, arguments );
+        }
+    }
+
     /**
      * Make this logger additive. I.e. Send all log events to parent
      * loggers LogTargets regardless of whether or not the
@@ -337,6 +451,27 @@ public class Logger
         }
     }
 
+    /**
+     * Log a event at specific priority with a message that is only
+     * formatted if a target writes the event. A trailing Throwable
+     * argument is also logged as the throwable of the event.
+     *
+     * @param priority the priority
+     * @param pattern the message pattern
+     * @param argument the argument for the first anchor
+     * @param arguments the arguments for the other anchors
+     */
+    public final void log( final Priority priority,
+                           final String pattern,
+                           final Object argument,
+                           final Object... arguments )
+    {
+        if( m_priority.isLowerOrEqual( priority ) )
+        {
+            outputPattern( priority, pattern, argument, arguments );
+        }
+    }
+
     /**
      * Set the priority for this logger.
      *
@@ -345,6 +480,7 @@ public class Logger
     public synchronized void setPriority( final Priority priority )
     {
         m_priority = priority;
+        updatePriorityFlags();
         m_priorityForceSet = true;
         resetChildPriorities( false );
     }
@@ -375,6 +511,7 @@ public class Logger
         {
             m_priority = Priority.DEBUG;
         }
+        updatePriorityFlags();
 
         m_priorityForceSet = false;
         resetChildPriorities( recursive );
@@ -569,17 +706,90 @@ public class Logger
                                final String message,
                                final Throwable throwable )
     {
-        final LogEvent event = new LogEvent();
+        output( priority, message, null, throwable );
+    }
+
+    /**
+     * Internal method to output a parameterized message.
+     *
+     * @param priority the priority
+     * @param pattern the message pattern
+     * @param argument the first argument
+     * @param arguments the other arguments, of which a trailing Throwable is the throwable
+     */
+    private final void outputPattern( final Priority priority,
+                                      final String pattern,
+                                      final Object argument,
+                                      final Object[] arguments )
+    {
+        final Object[] all;
+        if( null == arguments || 0 == arguments.length )
+        {
+            all = new Object[]{argument};
+        }
+        else
+        {
+            all = new Object[ arguments.length + 1 ];
+            all[ 0 ] = argument;
+            System.arraycopy( arguments, 0, all, 1, arguments.length );
+        }
+
+        Throwable throwable = null;
+        if( all[ all.length - 1 ] instanceof Throwable )
+        {
+            throwable = (Throwable)all[ all.length - 1 ];
+        }
+
+        output( priority, pattern, all, throwable );
+    }
+
+    /**
+     * Internal method to create the event and output it.
+     *
+     * @param priority the priority
+     * @param message the message, or the message pattern if arguments is not null
+     * @param arguments the arguments of the message pattern (may be null)
+     * @param throwable the throwable
+     */
+    private final void output( final Priority priority,
+                               final String message,
+                               final Object[] arguments,
+                               final Throwable throwable )
+    {
+        //Events can only be reused if no target keeps them
+        final boolean reuse = isSynchronous();
+
+        LogEvent event = null;
+        if( reuse )
+        {
+            //Take the thread's event, so that logging from inside
+            //a target gets an event of its own
+            event = (LogEvent)c_events.get();
+            if( null != event )
+            {
+                c_events.set( null );
+            }
+        }
+        if( null == event )
+        {
+            event = new LogEvent();
+        }
+
         event.setCategory( m_category );
         event.setContextMap( ContextMap.getCurrentContext( false ) );
 
-        if( null != message )
+        final String text = ( null != message ) ? message : "";
+        if( null == arguments )
         {
-            event.setMessage( message );
+            event.setMessage( text );
+        }
+        else if( reuse )
+        {
+            event.setMessage( text, arguments );
         }
         else
         {
-            event.setMessage( "" );
+            event.setMessage( LogEvent.formatMessage( text, arguments ) );
         }
 
         event.setThrowable( throwable );
@@ -589,7 +799,58 @@ public class Logger
         //disable it sometimes and use a more granular approach
         event.setTime( System.currentTimeMillis() );
 
-        output( event );
+        if( !reuse )
+        {
+            output( event );
+            return;
+        }
+
+        try
+        {
+            output( event );
+        }
+        finally
+        {
+            //Drop references so that they are not kept by the thread
+            event.setContextMap( null );
+            event.setMessage( "" );
+            event.setThrowable( null );
+            c_events.set( event );
+        }
+    }
+
+    /**
+     * Determine whether all the targets an event would reach are
+     * synchronous, following the same route as output( LogEvent ).
+     *
+     * @return true if events may be reused
+     */
+    private boolean isSynchronous()
+    {
+        final LogTarget[] targets = m_logTargets;
+
+        if( null == targets )
+        {
+            return false;
+        }
+
+        if( !m_additivity || m_logTargetsForceSet )
+        {
+            for( int i = 0; i < targets.length; i++ )
+            {
+                if( !( targets[ i ] instanceof SynchronousLogTarget ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        if( m_additivity && null != m_parent )
+        {
+            return m_parent.isSynchronous();
+        }
+
+        return true;
     }
 
     private final void output( final LogEvent event )
@@ -635,6 +896,19 @@ public class Logger
         }
     }
 
+    /**
+     * Precompute whether each priority is enabled, so that the
+     * isXXXEnabled() checks only read a field.
+     */
+    private void updatePriorityFlags()
+    {
+        m_debugEnabled = m_priority.isLowerOrEqual( Priority.DEBUG );
+        m_infoEnabled = m_priority.isLowerOrEqual( Priority.INFO );
+        m_warnEnabled = m_priority.isLowerOrEqual( Priority.WARN );
+        m_errorEnabled = m_priority.isLowerOrEqual( Priority.ERROR );
+        m_fatalErrorEnabled = m_priority.isLowerOrEqual( Priority.FATAL_ERROR );
+    }
+
     /**
      * Update priority of children if any.
      */
@@ -671,6 +945,7 @@ public class Logger
         }
 
         m_priority = m_parent.m_priority;
+        updatePriorityFlags();
         resetChildPriorities( recursive );
     }
 
@@ -106,6 +106,11 @@ import org.apache.log.Priority;
  * then the category of the log event right justified with a minimum
  * and maximum size of 10, followed by the message of the log event
  * without any size restriction.
+ * </p><p>
+ * Events are formatted into a buffer kept by each thread, and formatted
+ * times are remembered for the rest of their second (or millisecond, if
+ * the time format shows milliseconds), so that threads logging at the
+ * same time neither allocate buffers nor wait for each other.
  * </p>
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @author Peter Donald
@@ -149,6 +154,14 @@ public class PatternFormatter
 
     private static final String EOL = System.getProperty( "line.separator", "\n" );
 
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    /** Larger buffers are not kept, so a huge event does not pin memory */
+    private static final int MAX_BUFFER_SIZE = 8192;
+
+    /** The buffer of each thread, taken out while in use */
+    private static final ThreadLocal c_buffers = new ThreadLocal();
+
     protected static class PatternRun
     {
         public String m_data;
@@ -159,10 +172,35 @@ public class PatternFormatter
         public String m_format;
     }
 
+    /**
+     * A time as formatted by the time format, for all times with the same
+     * key.
+     */
+    private static final class FormattedTime
+    {
+        private final long m_key;
+        private final String m_text;
+
+        FormattedTime( final long key, final String text )
+        {
+            m_key = key;
+            m_text = text;
+        }
+    }
+
     private PatternRun m_formatSpecification[];
 
-    private SimpleDateFormat m_simpleDateFormat;
-    private final Date m_date = new Date();
+    /** The time format, the first one used by a pattern run */
+    private volatile String m_timeFormat;
+
+    /** Whether the time format shows milliseconds */
+    private boolean m_millisecondFormat;
+
+    /** The SimpleDateFormat of each thread */
+    private final ThreadLocal m_simpleDateFormats = new ThreadLocal();
+
+    /** The time formatted last */
+    private volatile FormattedTime m_formattedTime;
 
     /**
      * Creation of a new patter formatter baseed on a supplied pattern.
@@ -340,13 +378,13 @@ public class PatternFormatter
     /**
      * Utility to append a string to buffer given certain constraints.
      *
-     * @param sb the StringBuffer
+     * @param sb the StringBuilder
      * @param minSize the minimum size of output (0 to ignore)
      * @param maxSize the maximum size of output (0 to ignore)
      * @param rightJustify true if the string is to be right justified in it's box.
      * @param output the input string
      */
-    private void append( final StringBuffer sb,
+    private void append( final StringBuilder sb,
                          final int minSize,
                          final int maxSize,
                          final boolean rightJustify,
@@ -372,11 +410,11 @@ public class PatternFormatter
         {
             if( rightJustify )
             {
-                sb.append( output.substring( size - maxSize ) );
+                sb.append( output, size - maxSize, size );
             }
             else
             {
-                sb.append( output.substring( 0, maxSize ) );
+                sb.append( output, 0, maxSize );
             }
         }
         else
@@ -386,12 +424,12 @@ public class PatternFormatter
     }
 
     /**
-     * Append a certain number of whitespace characters to a StringBuffer.
+     * Append a certain number of whitespace characters to a StringBuilder.
      *
-     * @param sb the StringBuffer
+     * @param sb the StringBuilder
      * @param length the number of spaces to append
      */
-    private void appendWhiteSpace( final StringBuffer sb, int length )
+    private void appendWhiteSpace( final StringBuilder sb, int length )
     {
         while( length >= 16 )
         {
@@ -432,8 +470,41 @@ public class PatternFormatter
      */
     public String format( final LogEvent event )
     {
-        final StringBuffer sb = new StringBuffer();
+        // Take the thread's buffer, so that formatting an event while
+        // formatting another one on the same thread gets a buffer of its own
+        StringBuilder sb = (StringBuilder)c_buffers.get();
+        if( null == sb )
+        {
+            sb = new StringBuilder( INITIAL_BUFFER_SIZE );
+        }
+        else
+        {
+            c_buffers.set( null );
+            sb.setLength( 0 );
+        }
+
+        try
+        {
+            format( sb, event );
+            return sb.toString();
+        }
+        finally
+        {
+            if( sb.capacity() <= MAX_BUFFER_SIZE )
+            {
+                c_buffers.set( sb );
+            }
+        }
+    }
 
+    /**
+     * Format the event according to the pattern into a buffer.
+     *
+     * @param sb the buffer
+     * @param event the event
+     */
+    private void format( final StringBuilder sb, final LogEvent event )
+    {
         for( int i = 0; i < m_formatSpecification.length; i++ )
         {
             final PatternRun run = m_formatSpecification[ i ];
@@ -452,8 +523,6 @@ public class PatternFormatter
                 }
             }
         }
-
-        return sb.toString();
     }
 
     /**
@@ -583,18 +652,69 @@ public class PatternFormatter
         {
             return Long.toString( time );
         }
-        else
+
+        // All times are formatted with the first format used
+        String timeFormat = m_timeFormat;
+        if( null == timeFormat )
         {
-            synchronized( m_date )
+            synchronized( this )
             {
-                if( null == m_simpleDateFormat )
+                if( null == m_timeFormat )
                 {
-                    m_simpleDateFormat = new SimpleDateFormat( format );
+                    m_millisecondFormat = isMillisecondFormat( format );
+                    m_timeFormat = format;
                 }
-                m_date.setTime( time );
-                return m_simpleDateFormat.format( m_date );
+                timeFormat = m_timeFormat;
             }
         }
+
+        final long key = m_millisecondFormat ? time : floorDiv( time, 1000 );
+        final FormattedTime formattedTime = m_formattedTime;
+        if( null != formattedTime && formattedTime.m_key == key )
+        {
+            return formattedTime.m_text;
+        }
+
+        SimpleDateFormat simpleDateFormat = (SimpleDateFormat)m_simpleDateFormats.get();
+        if( null == simpleDateFormat )
+        {
+            simpleDateFormat = new SimpleDateFormat( timeFormat );
+            m_simpleDateFormats.set( simpleDateFormat );
+        }
+        final String text = simpleDateFormat.format( new Date( time ) );
+        m_formattedTime = new FormattedTime( key, text );
+        return text;
+    }
+
+    /**
+     * Determine whether a SimpleDateFormat pattern shows milliseconds,
+     * skipping quoted text.
+     *
+     * @param format the pattern
+     * @return true if the pattern has a millisecond field
+     */
+    private static boolean isMillisecondFormat( final String format )
+    {
+        boolean quoted = false;
+        for( int i = 0; i < format.length(); i++ )
+        {
+            final char ch = format.charAt( i );
+            if( '\'' == ch )
+            {
+                quoted = !quoted;
+            }
+            else if( 'S' == ch && !quoted )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long floorDiv( final long value, final long divisor )
+    {
+        final long quotient = value / divisor;
+        return ( value % divisor < 0 ) ? quotient - 1 : quotient;
     }
 
     /**
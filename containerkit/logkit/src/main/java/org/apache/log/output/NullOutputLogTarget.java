@@ -18,6 +18,8 @@
  */
 package org.apache.log.output;
 
+import org.apache.log.SynchronousLogTarget;
+
 /**
  * A output target that does nothing. Useful for profiling.
  *
@@ -26,6 +28,7 @@ package org.apache.log.output;
  */
 public class NullOutputLogTarget
     extends AbstractOutputTarget
+    implements SynchronousLogTarget
 {
     /**
      * Creation of a new null log target.
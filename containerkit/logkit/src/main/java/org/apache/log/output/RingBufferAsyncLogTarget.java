@@ -0,0 +1,532 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log.ErrorAware;
+import org.apache.log.ErrorHandler;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.Priority;
+
+/**
+ * An asynchronous LogTarget that sends entries on in another thread,
+ * like {@link AsyncLogTarget}, but queues them in a preallocated ring
+ * buffer.  Logging threads claim a slot of the ring with a compare and
+ * set and do not lock anything unless the ring is full, and the thread
+ * sending the events on takes them out in batches.
+ * It is the responsibility of the user of this class to start
+ * the thread etc.
+ *
+ * <pre>
+ * LogTarget mySlowTarget = ...;
+ * RingBufferAsyncLogTarget asyncTarget = new RingBufferAsyncLogTarget( mySlowTarget );
+ * Thread thread = new Thread( asyncTarget );
+ * thread.setPriority( Thread.MIN_PRIORITY );
+ * thread.start();
+ *
+ * logger.setLogTargets( new LogTarget[] { asyncTarget } );
+ * </pre>
+ *
+ * When the ring is full, the overflow policy decides what happens to a
+ * new event:
+ * <ul>
+ * <li>{@link #OVERFLOW_BLOCK}: the logging thread waits for a free slot.</li>
+ * <li>{@link #OVERFLOW_DROP_LOWEST_PRIORITY}: events with a priority lower
+ *     than the drop priority are dropped, others wait for a free slot.</li>
+ * <li>{@link #OVERFLOW_DROP_NEWEST}: the new event is dropped.</li>
+ * </ul>
+ * The thread stops once the target is closed or the thread is
+ * interrupted, after sending on the events still queued.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class RingBufferAsyncLogTarget
+    extends AbstractWrappingTarget
+    implements Runnable
+{
+    /** Wait for a free slot when the ring is full */
+    public static final int OVERFLOW_BLOCK = 0;
+
+    /** Drop events below the drop priority when the ring is full */
+    public static final int OVERFLOW_DROP_LOWEST_PRIORITY = 1;
+
+    /** Drop new events when the ring is full */
+    public static final int OVERFLOW_DROP_NEWEST = 2;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int DEFAULT_BATCH_SIZE = 64;
+
+    /** How long close() waits for the queued events to be sent on */
+    private static final long CLOSE_TIMEOUT = 5000;
+
+    /** The events, in the slots of the ring */
+    private final AtomicReferenceArray m_events;
+
+    /**
+     * The sequence of each slot.  A slot is free for the producer of
+     * position p when its sequence is p, and holds the event of position p
+     * when its sequence is p + 1.
+     */
+    private final AtomicLongArray m_sequences;
+    private final int m_mask;
+
+    /** The next position producers claim */
+    private final AtomicLong m_tail = new AtomicLong();
+
+    /** The next position the consumer takes, only used by the consumer */
+    private long m_head;
+
+    /** The position the consumer took events up to, for the queue depth */
+    private volatile long m_drained;
+
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    private final int m_overflowPolicy;
+    private final Priority m_dropPriority;
+    private final int m_batchSize;
+
+    /** The monitor waited on by a consumer without events and producers without slots */
+    private final Object m_monitor = new Object();
+    private volatile boolean m_consumerWaiting;
+    private volatile int m_blockedProducers;
+    private volatile boolean m_closed;
+    private volatile Thread m_consumer;
+
+    /**
+     * Creation of a new async log target, with a ring of 1024 events
+     * which blocks when full.
+     * @param logTarget the underlying target
+     */
+    public RingBufferAsyncLogTarget( final LogTarget logTarget )
+    {
+        this( logTarget, DEFAULT_CAPACITY, OVERFLOW_BLOCK, false );
+    }
+
+    /**
+     * Creation of a new async log target.
+     * @param logTarget the underlying target
+     * @param capacity the number of events queued, rounded up to a power of two of at least 2
+     * @param overflowPolicy what to do with events when the ring is full
+     * @param closeTarget close the underlying target when this target is closed. This flag
+     *        has no effect unless the logTarget implements Closeable.
+     */
+    public RingBufferAsyncLogTarget( final LogTarget logTarget,
+                                     final int capacity,
+                                     final int overflowPolicy,
+                                     final boolean closeTarget )
+    {
+        this( logTarget, capacity, overflowPolicy, Priority.ERROR, DEFAULT_BATCH_SIZE, closeTarget );
+    }
+
+    /**
+     * Creation of a new async log target.
+     * @param logTarget the underlying target
+     * @param capacity the number of events queued, rounded up to a power of two of at least 2
+     * @param overflowPolicy what to do with events when the ring is full
+     * @param dropPriority the priority below which events are dropped
+     *        with {@link #OVERFLOW_DROP_LOWEST_PRIORITY}
+     * @param batchSize the most events taken out of the ring at once
+     * @param closeTarget close the underlying target when this target is closed. This flag
+     *        has no effect unless the logTarget implements Closeable.
+     */
+    public RingBufferAsyncLogTarget( final LogTarget logTarget,
+                                     final int capacity,
+                                     final int overflowPolicy,
+                                     final Priority dropPriority,
+                                     final int batchSize,
+                                     final boolean closeTarget )
+    {
+        super( logTarget, closeTarget );
+        if( capacity < 1 || capacity > ( 1 << 30 ) )
+        {
+            throw new IllegalArgumentException( "capacity must be between 1 and 2^30: " + capacity );
+        }
+        if( overflowPolicy < OVERFLOW_BLOCK || overflowPolicy > OVERFLOW_DROP_NEWEST )
+        {
+            throw new IllegalArgumentException( "Unknown overflow policy: " + overflowPolicy );
+        }
+        if( batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "batchSize must be positive: " + batchSize );
+        }
+        if( null == dropPriority )
+        {
+            throw new NullPointerException( "dropPriority" );
+        }
+
+        //A slot holding the event of position p has sequence p + 1, which
+        //a ring of one slot would take to be free for position p + 1
+        int size = 2;
+        while( size < capacity )
+        {
+            size <<= 1;
+        }
+        m_events = new AtomicReferenceArray( size );
+        m_sequences = new AtomicLongArray( size );
+        for( int i = 0; i < size; i++ )
+        {
+            m_sequences.set( i, i );
+        }
+        m_mask = size - 1;
+        m_overflowPolicy = overflowPolicy;
+        m_dropPriority = dropPriority;
+        m_batchSize = batchSize;
+        open();
+    }
+
+    /**
+     * Provide component with ErrorHandler.
+     *
+     * @param errorHandler the errorHandler
+     */
+    public synchronized void setErrorHandler( final ErrorHandler errorHandler )
+    {
+        super.setErrorHandler( errorHandler );
+
+        if( this.getLogTarget() instanceof ErrorAware )
+        {
+            ( (ErrorAware)this.getLogTarget() ).setErrorHandler( errorHandler );
+        }
+    }
+
+    /**
+     * Returns the number of events the ring holds.
+     */
+    public int getCapacity()
+    {
+        return m_mask + 1;
+    }
+
+    /**
+     * Returns the number of events waiting to be sent on.
+     */
+    public int getQueueDepth()
+    {
+        return (int)Math.max( 0, m_tail.get() - m_drained );
+    }
+
+    /**
+     * Returns the number of events dropped because the ring was full.
+     */
+    public long getDroppedEvents()
+    {
+        return m_dropped.get();
+    }
+
+    /**
+     * Process a log event by adding it to the ring.  Unlike the other
+     * targets, this does not lock the target, so that logging threads
+     * do not wait for each other.
+     *
+     * @param event the log event
+     */
+    public void processEvent( final LogEvent event )
+    {
+        if( m_closed )
+        {
+            getErrorHandler().error( "Writing event to closed stream.", null, event );
+            return;
+        }
+
+        doProcessEvent( event );
+    }
+
+    /**
+     * Process a log event by adding it to the ring.
+     *
+     * @param event the log event
+     */
+    protected void doProcessEvent( final LogEvent event )
+    {
+        boolean interrupted = false;
+        boolean queued;
+        while( !( queued = offer( event ) ) )
+        {
+            if( m_closed
+                || OVERFLOW_DROP_NEWEST == m_overflowPolicy
+                || ( OVERFLOW_DROP_LOWEST_PRIORITY == m_overflowPolicy
+                     && event.getPriority().isLower( m_dropPriority ) ) )
+            {
+                m_dropped.incrementAndGet();
+                eventDropped( event );
+                break;
+            }
+            interrupted |= awaitSlot();
+        }
+
+        if( queued )
+        {
+            eventQueued( event );
+        }
+        if( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called by the logging thread after it put an event into the ring.
+     * Does nothing by default.
+     *
+     * @param event the queued event
+     */
+    protected void eventQueued( final LogEvent event )
+    {
+    }
+
+    /**
+     * Called when an event is dropped because the ring is full.
+     * Does nothing by default.
+     *
+     * @param event the dropped event
+     */
+    protected void eventDropped( final LogEvent event )
+    {
+    }
+
+    /**
+     * Called by the thread sending the events on, after it took a batch
+     * of events out of the ring.  Does nothing by default.
+     *
+     * @param count the number of events in the batch
+     */
+    protected void batchDrained( final int count )
+    {
+    }
+
+    /**
+     * Shutdown target, waiting a while for the thread to send on the
+     * events still queued.
+     */
+    public void close()
+    {
+        m_closed = true;
+        synchronized( m_monitor )
+        {
+            m_monitor.notifyAll();
+        }
+
+        final Thread consumer = m_consumer;
+        if( null != consumer && Thread.currentThread() != consumer )
+        {
+            try
+            {
+                consumer.join( CLOSE_TIMEOUT );
+            }
+            catch( final InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        super.close();
+    }
+
+    /**
+     * Thread startup.
+     */
+    public void run()
+    {
+        m_consumer = Thread.currentThread();
+        final LogEvent[] batch = new LogEvent[ m_batchSize ];
+
+        //set this variable when thread is interupted
+        //so we know we can shutdown thread soon.
+        boolean interupted = false;
+        try
+        {
+            while( true )
+            {
+                int count = 0;
+                LogEvent event;
+                while( count < batch.length && null != ( event = poll() ) )
+                {
+                    batch[ count++ ] = event;
+                }
+
+                if( count > 0 )
+                {
+                    m_drained = m_head;
+                    if( m_blockedProducers > 0 )
+                    {
+                        //tell the "client" threads to wake up
+                        //as queue positions opened up
+                        synchronized( m_monitor )
+                        {
+                            m_monitor.notifyAll();
+                        }
+                    }
+                    batchDrained( count );
+
+                    for( int i = 0; i < count; i++ )
+                    {
+                        try
+                        {
+                            //actually process an event
+                            this.getLogTarget().processEvent( batch[ i ] );
+                        }
+                        catch( final Throwable throwable )
+                        {
+                            getErrorHandler().error( "Unknown error writing event.", throwable, batch[ i ] );
+                        }
+                        batch[ i ] = null;
+                    }
+                }
+                else if( m_closed || interupted || Thread.interrupted() )
+                {
+                    //ie there is nothing in queue and thread is interrupted
+                    //thus we stop thread
+                    return;
+                }
+                else
+                {
+                    try
+                    {
+                        awaitEvents();
+                    }
+                    catch( final InterruptedException ie )
+                    {
+                        //Ignore this and let it be dealt in next loop
+                        //Need to set variable as the exception throw cleared status
+                        interupted = true;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            m_consumer = null;
+        }
+    }
+
+    /**
+     * Puts the event into the next free slot, or returns false if the
+     * ring is full.
+     */
+    private boolean offer( final LogEvent event )
+    {
+        while( true )
+        {
+            final long position = m_tail.get();
+            final int index = (int)position & m_mask;
+            final long sequence = m_sequences.get( index );
+            if( sequence == position )
+            {
+                if( m_tail.compareAndSet( position, position + 1 ) )
+                {
+                    m_events.set( index, event );
+                    m_sequences.set( index, position + 1 );
+                    if( m_consumerWaiting )
+                    {
+                        synchronized( m_monitor )
+                        {
+                            m_consumerWaiting = false;
+                            m_monitor.notifyAll();
+                        }
+                    }
+                    return true;
+                }
+            }
+            else if( sequence < position )
+            {
+                //the slot still holds the event of the previous round
+                return false;
+            }
+            //else another producer claimed the slot first, so try the next one
+        }
+    }
+
+    /**
+     * Takes the next event out of the ring, or returns null if there is
+     * none.  Only called by the consumer.
+     */
+    private LogEvent poll()
+    {
+        final int index = (int)m_head & m_mask;
+        if( m_sequences.get( index ) != m_head + 1 )
+        {
+            return null;
+        }
+        final LogEvent event = (LogEvent)m_events.get( index );
+        m_events.set( index, null );
+        m_sequences.set( index, m_head + m_mask + 1 );
+        m_head++;
+        return event;
+    }
+
+    /**
+     * Waits until a producer added an event or the target is closed.
+     * A producer wakes the consumer if it sees it waiting after adding its
+     * event, and the consumer looks for events again after saying it is
+     * waiting, so one of them always sees the other.
+     */
+    private void awaitEvents()
+        throws InterruptedException
+    {
+        m_consumerWaiting = true;
+        try
+        {
+            synchronized( m_monitor )
+            {
+                while( m_consumerWaiting && !m_closed
+                       && m_sequences.get( (int)m_head & m_mask ) != m_head + 1 )
+                {
+                    m_monitor.wait();
+                }
+            }
+        }
+        finally
+        {
+            m_consumerWaiting = false;
+        }
+    }
+
+    /**
+     * Waits until the consumer freed a slot or the target is closed, and
+     * returns whether the thread was interrupted meanwhile.
+     */
+    private boolean awaitSlot()
+    {
+        synchronized( m_monitor )
+        {
+            m_blockedProducers++;
+            try
+            {
+                final long position = m_tail.get();
+                if( !m_closed && m_sequences.get( (int)position & m_mask ) < position )
+                {
+                    m_monitor.wait();
+                }
+                return false;
+            }
+            catch( final InterruptedException ie )
+            {
+                return true;
+            }
+            finally
+            {
+                m_blockedProducers--;
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import org.apache.log.SynchronousLogTarget;
+import org.apache.log.format.Formatter;
+import org.apache.log.output.AbstractOutputTarget;
+import org.apache.log.output.io.rotate.FileStrategy;
+import org.apache.log.output.io.rotate.RotateStrategy;
+
+/**
+ * A target that writes to a File through a FileChannel.
+ * <p>
+ * Unlike {@link FileTarget}, which turns every event into a new byte
+ * array, this target encodes the events with one CharsetEncoder into one
+ * direct ByteBuffer and hands the buffer to the channel, so events are
+ * not copied into new byte arrays on their way to the file.
+ * <p>
+ * Given a {@link RotateStrategy} and a {@link FileStrategy} the target
+ * rotates its files like {@link org.apache.log.output.io.rotate.RotatingFileTarget}.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public class FileChannelTarget
+    extends AbstractOutputTarget
+    implements SynchronousLogTarget
+{
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    ///File we are writing to
+    private File m_file;
+
+    ///Flag indicating whether or not file should be appended to
+    private final boolean m_append;
+
+    ///The rotation strategy to be used, or null
+    private final RotateStrategy m_rotateStrategy;
+
+    ///The file strategy to be used, or null
+    private final FileStrategy m_fileStrategy;
+
+    ///The stream of the file, closed with the channel
+    private FileOutputStream m_outputStream;
+
+    ///The channel we are writing to
+    private FileChannel m_channel;
+
+    ///The encoder turning the events into bytes
+    private final CharsetEncoder m_encoder;
+
+    ///The buffer the events are encoded into
+    private final ByteBuffer m_buffer;
+
+    /**
+     * Construct file target to write to a file with a formatter.
+     *
+     * @param file the file to write to
+     * @param append true if file is to be appended to, false otherwise
+     * @param formatter the Formatter
+     * @exception IOException if an error occurs
+     */
+    public FileChannelTarget( final File file, final boolean append, final Formatter formatter )
+        throws IOException
+    {
+        this( file, append, formatter, null );
+    }
+
+    /**
+     * Construct file target to write to a file with a formatter.
+     *
+     * @param file the file to write to
+     * @param append true if file is to be appended to, false otherwise
+     * @param formatter the Formatter
+     * @param encoding Desired encoding to use when writing to the log, null
+     *                 implies the default system encoding.
+     * @exception IOException if an error occurs
+     */
+    public FileChannelTarget( final File file,
+                              final boolean append,
+                              final Formatter formatter,
+                              final String encoding )
+        throws IOException
+    {
+        this( file, append, formatter, encoding, null, null );
+    }
+
+    /**
+     * Construct file target to write to rotating files with a formatter.
+     *
+     * @param append true if file is to be appended to, false otherwise
+     * @param formatter Formatter to be used
+     * @param encoding Desired encoding to use when writing to the log, null
+     *                 implies the default system encoding.
+     * @param rotateStrategy RotateStrategy to be used
+     * @param fileStrategy FileStrategy to be used
+     * @exception IOException if a file access or write related error occurs
+     */
+    public FileChannelTarget( final boolean append,
+                              final Formatter formatter,
+                              final String encoding,
+                              final RotateStrategy rotateStrategy,
+                              final FileStrategy fileStrategy )
+        throws IOException
+    {
+        this( fileStrategy.nextFile(), append, formatter, encoding, rotateStrategy, fileStrategy );
+    }
+
+    private FileChannelTarget( final File file,
+                               final boolean append,
+                               final Formatter formatter,
+                               final String encoding,
+                               final RotateStrategy rotateStrategy,
+                               final FileStrategy fileStrategy )
+        throws IOException
+    {
+        super( formatter );
+
+        if( null == file )
+        {
+            throw new NullPointerException( "file property must not be null" );
+        }
+
+        final Charset charset = ( null == encoding ) ? Charset.defaultCharset() : Charset.forName( encoding );
+        // Replace what can not be encoded, like String.getBytes() does
+        m_encoder = charset.newEncoder()
+            .onMalformedInput( CodingErrorAction.REPLACE )
+            .onUnmappableCharacter( CodingErrorAction.REPLACE );
+        m_buffer = ByteBuffer.allocateDirect( DEFAULT_BUFFER_SIZE );
+        m_file = file;
+        m_append = append;
+        m_rotateStrategy = rotateStrategy;
+        m_fileStrategy = fileStrategy;
+
+        openFile();
+    }
+
+    /**
+     * Open underlying file and allocate resources.
+     * This method will attempt to create directories below file and
+     * append to it if specified.
+     * @exception IOException if directories can not be created or file can not be opened
+     */
+    protected synchronized void openFile()
+        throws IOException
+    {
+        if( isOpen() )
+        {
+            close();
+        }
+
+        final File file = getFile().getCanonicalFile();
+
+        final File parent = file.getParentFile();
+        if( null != parent && !parent.exists() )
+        {
+            parent.mkdirs();
+        }
+
+        m_outputStream = new FileOutputStream( file.getPath(), m_append );
+        m_channel = m_outputStream.getChannel();
+        open();
+    }
+
+    /**
+     * Rotates the file.
+     * @exception IOException if a file access or write related error occurs
+     */
+    protected synchronized void rotate()
+        throws IOException
+    {
+        close();
+
+        m_file = m_fileStrategy.nextFile();
+        openFile();
+    }
+
+    /**
+     * Retrieve file associated with target.
+     * This allows subclasses to access file object.
+     *
+     * @return the output File
+     */
+    protected synchronized File getFile()
+    {
+        return m_file;
+    }
+
+    /**
+     * Output the log message, rotating the file first if needed.
+     *
+     * @param data the data to be output
+     */
+    protected synchronized void write( final String data )
+    {
+        // if rotation is needed, close old File, create new File
+        if( null != m_rotateStrategy && m_rotateStrategy.isRotationNeeded( data, getFile() ) )
+        {
+            try
+            {
+                rotate();
+
+                m_rotateStrategy.reset();
+            }
+            catch( final IOException ioe )
+            {
+                getErrorHandler().error( "Error rotating file", ioe, null );
+            }
+        }
+
+        final FileChannel channel = m_channel;
+        if( null == channel )
+        {
+            final String message = "Attempted to write data '" + data + "' to closed FileChannel";
+            getErrorHandler().error( message, null, null );
+            return;
+        }
+
+        try
+        {
+            final CharBuffer chars = CharBuffer.wrap( data );
+            m_encoder.reset();
+            while( m_encoder.encode( chars, m_buffer, true ).isOverflow() )
+            {
+                drain( channel );
+            }
+            CoderResult result = m_encoder.flush( m_buffer );
+            while( result.isOverflow() )
+            {
+                drain( channel );
+                result = m_encoder.flush( m_buffer );
+            }
+            drain( channel );
+        }
+        catch( final IOException ioe )
+        {
+            m_buffer.clear();
+            final String message = "Error writing data '" + data + "' to FileChannel";
+            getErrorHandler().error( message, ioe, null );
+        }
+    }
+
+    /**
+     * Shutdown target.
+     * Attempting to write to target after close() will cause errors to be logged.
+     *
+     */
+    public synchronized void close()
+    {
+        super.close();
+        shutdownChannel();
+    }
+
+    /**
+     * Shutdown the channel.
+     */
+    protected synchronized void shutdownChannel()
+    {
+        final FileOutputStream outputStream = m_outputStream;
+        m_outputStream = null;
+        m_channel = null;
+
+        try
+        {
+            if( null != outputStream )
+            {
+                outputStream.close();
+            }
+        }
+        catch( final IOException ioe )
+        {
+            getErrorHandler().error( "Error closing FileChannel", ioe, null );
+        }
+    }
+
+    /**
+     * Writes the encoded bytes to the channel and empties the buffer.
+     */
+    private void drain( final FileChannel channel )
+        throws IOException
+    {
+        m_buffer.flip();
+        while( m_buffer.hasRemaining() )
+        {
+            channel.write( m_buffer );
+        }
+        m_buffer.clear();
+    }
+}
@@ -18,18 +18,36 @@
  */
 package org.apache.log.output.io;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.log.LogEvent;
+import org.apache.log.Priority;
+import org.apache.log.SynchronousLogTarget;
 import org.apache.log.format.Formatter;
 import org.apache.log.output.AbstractOutputTarget;
 
 /**
  * A basic target that writes to an OutputStream.
+ * <p>
+ * By default every event is flushed to the stream as it is written.
+ * With {@link #setBuffering(int, long, Priority)} events are collected
+ * in a buffer instead, which is flushed when it is full, when an event
+ * of the flush priority or above is written, every flush interval, and
+ * before the stream is closed.
+ * <p>
+ * The buffers of all targets are flushed by one shared daemon thread,
+ * which exits while no buffering target is open.
  *
  * @author Peter Donald
  */
 public class StreamTarget
     extends AbstractOutputTarget
+    implements SynchronousLogTarget
 {
     /** OutputStream we are writing to. */
     private OutputStream m_outputStream;
@@ -37,6 +55,30 @@ public class StreamTarget
     /** The encoding to use when creating byte array for string, may be null. */
     private String m_encoding;
 
+    /** Milliseconds the flush thread is kept while there is nothing to flush. */
+    private static final long FLUSH_THREAD_KEEP_ALIVE = 60000;
+
+    /** Executor flushing the buffered targets, created on first use. */
+    private static ScheduledThreadPoolExecutor c_flushExecutor;
+
+    /** The size of the buffer, or 0 if every event is flushed. */
+    private int m_bufferSize;
+
+    /** The milliseconds between flushes of the buffer, or 0 for none. */
+    private long m_flushInterval;
+
+    /** Events of this priority and above are flushed at once. */
+    private Priority m_flushPriority = Priority.ERROR;
+
+    /** The buffer around the OutputStream, or null if not buffering. */
+    private BufferedOutputStream m_bufferedStream;
+
+    /** The task flushing the buffer every flush interval. */
+    private ScheduledFuture m_flushTask;
+
+    /** Flag indicating that the event being written must be flushed. */
+    private boolean m_flushEvent;
+
     /**
      * Constructor that writes to a stream and uses a particular formatter.
      *
@@ -89,7 +131,81 @@ public class StreamTarget
             throw new NullPointerException( "outputStream property must not be null" );
         }
 
+        flushBuffer();
         m_outputStream = outputStream;
+        m_bufferedStream = ( m_bufferSize > 0 ) ? new BufferedOutputStream( outputStream, m_bufferSize ) : null;
+        scheduleFlushTask();
+    }
+
+    /**
+     * Buffer the events written to the stream rather than flushing each.
+     *
+     * @param bufferSize the size of the buffer in bytes, or 0 to flush every event
+     * @param flushInterval the milliseconds between flushes of the buffer,
+     *        or 0 to only flush when it is full
+     * @param flushPriority events of this priority and above are flushed at once
+     */
+    public synchronized void setBuffering( final int bufferSize,
+                                           final long flushInterval,
+                                           final Priority flushPriority )
+    {
+        if( bufferSize < 0 || flushInterval < 0 )
+        {
+            throw new IllegalArgumentException( "bufferSize and flushInterval must not be negative" );
+        }
+        if( null == flushPriority )
+        {
+            throw new NullPointerException( "flushPriority property must not be null" );
+        }
+
+        flushBuffer();
+        m_bufferSize = bufferSize;
+        m_flushInterval = flushInterval;
+        m_flushPriority = flushPriority;
+        m_bufferedStream = ( bufferSize > 0 && null != m_outputStream )
+            ? new BufferedOutputStream( m_outputStream, bufferSize ) : null;
+
+        cancelFlushTask();
+        scheduleFlushTask();
+    }
+
+    /**
+     * Flush the events in the buffer to the stream.
+     */
+    public synchronized void flush()
+    {
+        final OutputStream outputStream = ( null != m_bufferedStream ) ? m_bufferedStream : m_outputStream;
+        if( null == outputStream )
+        {
+            return;
+        }
+
+        try
+        {
+            outputStream.flush();
+        }
+        catch( final IOException ioe )
+        {
+            getErrorHandler().error( "Error flushing OutputStream", ioe, null );
+        }
+    }
+
+    /**
+     * Process a log event, noting whether it has to be flushed at once.
+     *
+     * @param event the log event
+     */
+    protected void doProcessEvent( final LogEvent event )
+    {
+        m_flushEvent = !event.getPriority().isLower( m_flushPriority );
+        try
+        {
+            super.doProcessEvent( event );
+        }
+        finally
+        {
+            m_flushEvent = false;
+        }
     }
 
     /**
@@ -101,7 +217,7 @@ public class StreamTarget
     {
         //Cache method local version
         //so that can be replaced in another thread
-        final OutputStream outputStream = m_outputStream;
+        final OutputStream outputStream = ( null != m_bufferedStream ) ? m_bufferedStream : m_outputStream;
 
         if( null == outputStream )
         {
@@ -122,7 +238,10 @@ public class StreamTarget
                 bytes = data.getBytes( m_encoding );
             }
             outputStream.write( bytes );
-            outputStream.flush();
+            if( null == m_bufferedStream || m_flushEvent )
+            {
+                outputStream.flush();
+            }
         }
         catch( final IOException ioe )
         {
@@ -147,6 +266,9 @@ public class StreamTarget
      */
     protected synchronized void shutdownStream()
     {
+        flushBuffer();
+        cancelFlushTask();
+
         final OutputStream outputStream = m_outputStream;
         m_outputStream = null;
 
@@ -166,4 +288,84 @@ public class StreamTarget
             getErrorHandler().error( "Error closing OutputStream", ioe, null );
         }
     }
+
+    /**
+     * Flush the buffer into the stream, if there is one, so that nothing
+     * is lost when the stream is replaced or closed.
+     */
+    private void flushBuffer()
+    {
+        final BufferedOutputStream bufferedStream = m_bufferedStream;
+        m_bufferedStream = null;
+        if( null != bufferedStream )
+        {
+            try
+            {
+                bufferedStream.flush();
+            }
+            catch( final IOException ioe )
+            {
+                getErrorHandler().error( "Error flushing OutputStream", ioe, null );
+            }
+        }
+    }
+
+    /**
+     * Start flushing the buffer every flush interval, while there is a
+     * buffer to flush.
+     */
+    private void scheduleFlushTask()
+    {
+        if( null != m_bufferedStream && m_flushInterval > 0 && null == m_flushTask )
+        {
+            final Runnable task = new Runnable()
+            {
+                public void run()
+                {
+                    //A periodic task that throws is never run again
+                    try
+                    {
+                        flush();
+                    }
+                    catch( final Throwable t )
+                    {
+                        getErrorHandler().error( "Error flushing OutputStream", t, null );
+                    }
+                }
+            };
+            m_flushTask = getFlushExecutor().scheduleWithFixedDelay(
+                task, m_flushInterval, m_flushInterval, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    private void cancelFlushTask()
+    {
+        if( null != m_flushTask )
+        {
+            m_flushTask.cancel( false );
+            m_flushTask = null;
+
+            //Drop the cancelled task so the thread can exit when idle
+            getFlushExecutor().purge();
+        }
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getFlushExecutor()
+    {
+        if( null == c_flushExecutor )
+        {
+            c_flushExecutor = new ScheduledThreadPoolExecutor( 1, new ThreadFactory()
+            {
+                public Thread newThread( final Runnable runnable )
+                {
+                    final Thread thread = new Thread( runnable, "LogKit StreamTarget Flusher" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+            c_flushExecutor.setKeepAliveTime( FLUSH_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS );
+            c_flushExecutor.allowCoreThreadTimeOut( true );
+        }
+        return c_flushExecutor;
+    }
 }
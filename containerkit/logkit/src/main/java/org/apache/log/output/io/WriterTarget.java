@@ -20,6 +20,7 @@ package org.apache.log.output.io;
 
 import java.io.IOException;
 import java.io.Writer;
+import org.apache.log.SynchronousLogTarget;
 import org.apache.log.format.Formatter;
 import org.apache.log.output.AbstractOutputTarget;
 
@@ -30,6 +31,7 @@ import org.apache.log.output.AbstractOutputTarget;
  */
 public class WriterTarget
     extends AbstractOutputTarget
+    implements SynchronousLogTarget
 {
     private Writer m_output;
 
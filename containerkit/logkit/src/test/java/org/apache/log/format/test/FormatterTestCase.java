@@ -18,6 +18,8 @@
  */
 package org.apache.log.format.test;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import junit.framework.TestCase;
 import org.apache.log.ContextMap;
 import org.apache.log.LogEvent;
@@ -396,4 +398,60 @@ public final class FormatterTestCase
         assertEquals( "Pattern11 formatting of E2", E2_PATTERN11, result2 );
         assertEquals( "Pattern11 formatting of E3", E3_PATTERN11, result3 );
     }
+
+    public void testTimeFormatter()
+    {
+        final String[] formats = new String[]{"yyyy-MM-dd HH:mm:ss.SSS", "HH:mm:ss 'Seconds'"};
+        final long[] times = new long[]{1000000000000L, 1000000000001L, 1000000000999L,
+                                        1000000001000L, 1000000000000L, -1L, -1000L, -1001L};
+        for( int i = 0; i < formats.length; i++ )
+        {
+            final Formatter formatter = new PatternFormatter( "%{time:" + formats[ i ] + "}|%5.5{category}|" );
+            final SimpleDateFormat expected = new SimpleDateFormat( formats[ i ] );
+            for( int j = 0; j < times.length; j++ )
+            {
+                final LogEvent event = createEvent( C1, M1, null, times[ j ], P1, null );
+                assertEquals( "Time formatting of " + times[ j ],
+                              expected.format( new Date( times[ j ] ) ) + "|Categ|",
+                              formatter.format( event ) );
+            }
+        }
+    }
+
+    public void testConcurrentTimeFormatter()
+        throws Exception
+    {
+        final String format = "yyyy-MM-dd HH:mm:ss.SSS";
+        final Formatter formatter = new PatternFormatter( "%{time:" + format + "} %8.8{category}: %{message}" );
+        final String[] failure = new String[ 1 ];
+        final Thread[] threads = new Thread[ 4 ];
+        for( int t = 0; t < threads.length; t++ )
+        {
+            final long base = 1000000000000L + t * 1500;
+            threads[ t ] = new Thread()
+            {
+                public void run()
+                {
+                    final SimpleDateFormat expected = new SimpleDateFormat( format );
+                    for( int i = 0; i < 2000; i++ )
+                    {
+                        final long time = base + i % 3000;
+                        final String result =
+                            formatter.format( createEvent( C2, M2, null, time, P2, null ) );
+                        final String wanted = expected.format( new Date( time ) ) + " Category: " + M2;
+                        if( !wanted.equals( result ) )
+                        {
+                            failure[ 0 ] = result + " instead of " + wanted;
+                        }
+                    }
+                }
+            };
+            threads[ t ].start();
+        }
+        for( int t = 0; t < threads.length; t++ )
+        {
+            threads[ t ].join();
+        }
+        assertNull( failure[ 0 ], failure[ 0 ] );
+    }
 }
@@ -24,17 +24,22 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import junit.framework.TestCase;
+import org.apache.log.ErrorHandler;
 import org.apache.log.Hierarchy;
+import org.apache.log.LogEvent;
 import org.apache.log.LogTarget;
 import org.apache.log.Logger;
 import org.apache.log.Priority;
 import org.apache.log.format.RawFormatter;
 import org.apache.log.output.AbstractOutputTarget;
 import org.apache.log.output.MemoryTarget;
+import org.apache.log.output.io.FileChannelTarget;
 import org.apache.log.output.io.FileTarget;
 import org.apache.log.output.io.SafeFileTarget;
 import org.apache.log.output.io.StreamTarget;
 import org.apache.log.output.io.WriterTarget;
+import org.apache.log.output.io.rotate.RevolvingFileStrategy;
+import org.apache.log.output.io.rotate.RotateStrategyBySize;
 
 /**
  * Test suite for the formatters.
@@ -136,6 +141,139 @@ public final class OutputTargetTestCase
         assertTrue( "Write after close()", !m_logFile.exists() );
     }
 
+    public void testBufferedStreamTarget()
+        throws Exception
+    {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final StreamTarget target = new StreamTarget( output, FORMATTER );
+        target.setBuffering( 1024, 0, Priority.ERROR );
+
+        final Logger logger = getNewLogger( target );
+        logger.debug( M1 );
+        logger.info( M2 );
+        assertEquals( "Buffered output", "", output.toString() );
+
+        logger.error( M3 );
+        assertEquals( "Output flushed by error", OUTPUT, getResult( output ) );
+
+        logger.debug( M1 );
+        target.flush();
+        assertEquals( "Output flushed", R1, getResult( output ) );
+
+        logger.debug( M2 );
+        target.close();
+        assertEquals( "Output flushed by close()", R2 + TAIL, getResult( output ) );
+    }
+
+    public void testBufferedFileTarget()
+        throws Exception
+    {
+        final FileTarget target = new FileTarget( m_logFile, false, FORMATTER );
+        target.setBuffering( 1024, 50, Priority.ERROR );
+
+        final Logger logger = getNewLogger( target );
+        logger.debug( M1 );
+        assertEquals( "Buffered file output", "", getFileContents( m_logFile ) );
+
+        // the flush interval writes the buffer out
+        final long end = System.currentTimeMillis() + 5000;
+        while( getFileContents( m_logFile ).length() == 0 && System.currentTimeMillis() < end )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( "Output flushed by interval", HEAD + R1, getFileContents( m_logFile ) );
+
+        logger.debug( M2 );
+        logger.debug( M3 );
+        target.close();
+        assertEquals( "Targets file output", OUTPUT, getFileContents( m_logFile ) );
+        assertTrue( "Deleting logfile", m_logFile.delete() );
+    }
+
+    public void testFailingIntervalFlush()
+        throws Exception
+    {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final int[] flushes = new int[ 1 ];
+        final StreamTarget target = new StreamTarget( output, FORMATTER )
+        {
+            public void flush()
+            {
+                synchronized( flushes )
+                {
+                    flushes[ 0 ]++;
+                }
+                if( 1 == flushes[ 0 ] )
+                {
+                    throw new IllegalStateException( "Expected failure" );
+                }
+                super.flush();
+            }
+        };
+        final MemoryErrorHandler errorHandler = new MemoryErrorHandler();
+        target.setErrorHandler( errorHandler );
+        target.setBuffering( 1024, 20, Priority.ERROR );
+
+        // the interval flushes go on after the first one throws
+        final long end = System.currentTimeMillis() + 5000;
+        while( getFlushes( flushes ) < 3 && System.currentTimeMillis() < end )
+        {
+            Thread.sleep( 10 );
+        }
+        assertTrue( "Flushes after failure", getFlushes( flushes ) >= 3 );
+        assertEquals( "Failure reported", 1, errorHandler.getCount() );
+
+        target.close();
+        final int closed = getFlushes( flushes );
+        Thread.sleep( 100 );
+        assertEquals( "No flushes after close()", closed, getFlushes( flushes ) );
+    }
+
+    public void testFileChannelTarget()
+        throws Exception
+    {
+        final FileChannelTarget target = new FileChannelTarget( m_logFile, false, FORMATTER, "UTF-8" );
+
+        final Logger logger = getNewLogger( target );
+        logger.debug( M1 );
+        logger.debug( M2 );
+        logger.debug( M3 );
+        logger.debug( "\u00e4\u20ac" );
+        target.close();
+
+        final FileInputStream input = new FileInputStream( m_logFile );
+        final byte[] bytes = new byte[ (int)m_logFile.length() ];
+        input.read( bytes );
+        input.close();
+        assertEquals( "Targets file output", OUTPUT + "\u00e4\u20ac", new String( bytes, "UTF-8" ) );
+        assertTrue( "Deleting logfile", m_logFile.delete() );
+
+        logger.debug( M1 );
+        assertTrue( "Write after close()", !m_logFile.exists() );
+    }
+
+    public void testRotatingFileChannelTarget()
+        throws Exception
+    {
+        final RevolvingFileStrategy fileStrategy = new RevolvingFileStrategy( m_logFile, 0, 5 );
+        final FileChannelTarget target =
+            new FileChannelTarget( false, FORMATTER, null, new RotateStrategyBySize( 15 ), fileStrategy );
+
+        final Logger logger = getNewLogger( target );
+        logger.debug( M1 );
+        logger.debug( M2 );
+        logger.debug( M3 );
+        target.close();
+
+        final File first = new File( m_logFile.getPath() + ".000000" );
+        final File second = new File( m_logFile.getPath() + ".000001" );
+        final File third = new File( m_logFile.getPath() + ".000002" );
+        assertEquals( "First file", HEAD + R1, getFileContents( first ) );
+        assertEquals( "Second file", R2, getFileContents( second ) );
+        assertEquals( "Third file", R3 + TAIL, getFileContents( third ) );
+        assertTrue( "Deleting logfile", first.delete() && second.delete() && third.delete() );
+    }
+
     public void testSafeFileTarget()
         throws Exception
     {
@@ -230,6 +368,14 @@ public final class OutputTargetTestCase
         assertEquals( "Targets R3 debug output", R2 + R3 + R3, result4 );
     }
 
+    private static int getFlushes( final int[] flushes )
+    {
+        synchronized( flushes )
+        {
+            return flushes[ 0 ];
+        }
+    }
+
     private Logger getNewLogger( final LogTarget target )
     {
         final Hierarchy hierarchy = new Hierarchy();
@@ -296,4 +442,25 @@ public final class OutputTargetTestCase
         assertEquals( "Write after close()", "", noresult );
         //assertEquals( "Epecting error", "", errorResult );
     }
+
+    /**
+     * An ErrorHandler which counts the errors it is given.
+     */
+    private static final class MemoryErrorHandler
+        implements ErrorHandler
+    {
+        private int m_count;
+
+        public synchronized void error( final String message,
+                                        final Throwable throwable,
+                                        final LogEvent event )
+        {
+            m_count++;
+        }
+
+        public synchronized int getCount()
+        {
+            return m_count;
+        }
+    }
 }
@@ -0,0 +1,186 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.output.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.log.LogEvent;
+import org.apache.log.Priority;
+import org.apache.log.output.AbstractTarget;
+import org.apache.log.output.RingBufferAsyncLogTarget;
+
+/**
+ * Test suite for the RingBufferAsyncLogTarget.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class RingBufferAsyncLogTargetTestCase
+    extends TestCase
+{
+    public RingBufferAsyncLogTargetTestCase( final String name )
+    {
+        super( name );
+    }
+
+    private LogEvent createEvent( final Priority priority, final String message )
+    {
+        final LogEvent event = new LogEvent();
+        event.setPriority( priority );
+        event.setMessage( message );
+        event.setCategory( "test" );
+        return event;
+    }
+
+    /**
+     * Test that the events of several threads all arrive, each thread's
+     * in the order it logged them, through a ring smaller than the burst.
+     */
+    public void testManyProducers()
+        throws Exception
+    {
+        final RecordingTarget recorder = new RecordingTarget();
+        final RingBufferAsyncLogTarget target =
+            new RingBufferAsyncLogTarget( recorder, 16, RingBufferAsyncLogTarget.OVERFLOW_BLOCK, false );
+        final Thread consumer = new Thread( target );
+        consumer.start();
+
+        final Thread[] producers = new Thread[ 4 ];
+        for( int t = 0; t < producers.length; t++ )
+        {
+            final String name = "t" + t;
+            producers[ t ] = new Thread()
+            {
+                public void run()
+                {
+                    for( int i = 0; i < 1000; i++ )
+                    {
+                        target.processEvent( createEvent( Priority.INFO, name + ":" + i ) );
+                    }
+                }
+            };
+            producers[ t ].start();
+        }
+        for( int t = 0; t < producers.length; t++ )
+        {
+            producers[ t ].join();
+        }
+        target.close();
+        consumer.join( 5000 );
+        assertFalse( consumer.isAlive() );
+
+        final List messages = recorder.getMessages();
+        assertEquals( 4000, messages.size() );
+        final int[] next = new int[ producers.length ];
+        for( int i = 0; i < messages.size(); i++ )
+        {
+            final String message = (String)messages.get( i );
+            final int thread = message.charAt( 1 ) - '0';
+            assertEquals( message, "t" + thread + ":" + next[ thread ], message );
+            next[ thread ]++;
+        }
+        assertEquals( 0, target.getDroppedEvents() );
+        assertEquals( 0, target.getQueueDepth() );
+    }
+
+    /**
+     * Test that the overflow policies drop events when the ring is full.
+     */
+    public void testOverflowPolicies()
+        throws Exception
+    {
+        final RecordingTarget recorder = new RecordingTarget();
+        final RingBufferAsyncLogTarget newest =
+            new RingBufferAsyncLogTarget( recorder, 3, RingBufferAsyncLogTarget.OVERFLOW_DROP_NEWEST, false );
+        assertEquals( 4, newest.getCapacity() );
+        for( int i = 0; i < 6; i++ )
+        {
+            newest.processEvent( createEvent( Priority.ERROR, "e" + i ) );
+        }
+        assertEquals( 4, newest.getQueueDepth() );
+        assertEquals( 2, newest.getDroppedEvents() );
+
+        // a ring of one slot could not tell a full slot from a free one
+        final RingBufferAsyncLogTarget single =
+            new RingBufferAsyncLogTarget( recorder, 1, RingBufferAsyncLogTarget.OVERFLOW_DROP_NEWEST, false );
+        assertEquals( 2, single.getCapacity() );
+        for( int i = 0; i < 3; i++ )
+        {
+            single.processEvent( createEvent( Priority.ERROR, "s" + i ) );
+        }
+        assertEquals( 2, single.getQueueDepth() );
+        assertEquals( 1, single.getDroppedEvents() );
+
+        final RingBufferAsyncLogTarget lowest =
+            new RingBufferAsyncLogTarget( recorder, 2, RingBufferAsyncLogTarget.OVERFLOW_DROP_LOWEST_PRIORITY,
+                                          Priority.WARN, 8, false );
+        lowest.processEvent( createEvent( Priority.INFO, "a" ) );
+        lowest.processEvent( createEvent( Priority.INFO, "b" ) );
+        lowest.processEvent( createEvent( Priority.DEBUG, "c" ) );
+        assertEquals( 1, lowest.getDroppedEvents() );
+
+        // a WARN event waits for the consumer to free a slot
+        final Thread consumer = new Thread( lowest );
+        final Thread producer = new Thread()
+        {
+            public void run()
+            {
+                lowest.processEvent( createEvent( Priority.WARN, "d" ) );
+            }
+        };
+        producer.start();
+        Thread.sleep( 50 );
+        assertTrue( producer.isAlive() );
+        consumer.start();
+        producer.join( 5000 );
+        lowest.close();
+        consumer.join( 5000 );
+
+        assertEquals( 1, lowest.getDroppedEvents() );
+        final List messages = recorder.getMessages();
+        assertEquals( 3, messages.size() );
+        assertEquals( "a", messages.get( 0 ) );
+        assertEquals( "b", messages.get( 1 ) );
+        assertEquals( "d", messages.get( 2 ) );
+    }
+
+    /**
+     * A target recording the messages of the events.
+     */
+    private static final class RecordingTarget
+        extends AbstractTarget
+    {
+        private final List m_messages = new ArrayList();
+
+        RecordingTarget()
+        {
+            open();
+        }
+
+        protected void doProcessEvent( final LogEvent event )
+        {
+            m_messages.add( event.getMessage() );
+        }
+
+        synchronized List getMessages()
+        {
+            return new ArrayList( m_messages );
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.log.Hierarchy;
+import org.apache.log.LogEvent;
+import org.apache.log.LogTarget;
+import org.apache.log.Logger;
+import org.apache.log.Priority;
+import org.apache.log.SynchronousLogTarget;
+
+/**
+ * Test suite for parameterized messages and event reuse of Logger.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ */
+public final class LoggerTestCase
+    extends TestCase
+{
+    public LoggerTestCase( final String name )
+    {
+        super( name );
+    }
+
+    public void testParameterizedMessage()
+        throws Exception
+    {
+        final Hierarchy hierarchy = new Hierarchy();
+        final KeepingTarget target = new KeepingTarget();
+        hierarchy.setDefaultLogTarget( target );
+
+        final Logger logger = hierarchy.getLoggerFor( "a" );
+        final CountingArgument argument = new CountingArgument();
+        final Exception exception = new Exception();
+
+        logger.setPriority( Priority.INFO );
+        logger.debug( "skipped {}", argument );
+        assertEquals( "Disabled events", 0, target.m_events.size() );
+
+        logger.info( "value {} and {}", argument, new Integer( 2 ) );
+        logger.warn( "{} {} {}", "one", "two" );
+        logger.error( "failed {}", "here", exception );
+        logger.log( Priority.FATAL_ERROR, "fatal {}", (Object)null );
+        assertEquals( "Events", 4, target.m_events.size() );
+        assertEquals( "Kept events formatted eagerly", 1, argument.m_count );
+
+        // Changing an argument afterwards does not change a kept event
+        argument.toString();
+        final LogEvent info = (LogEvent)target.m_events.get( 0 );
+        assertEquals( "Message", "value 1 and 2", info.getMessage() );
+        assertEquals( "Message formatted once", "value 1 and 2", info.getMessage() );
+        assertNull( "Throwable", info.getThrowable() );
+        assertEquals( "Missing argument", "one two {}",
+                      ( (LogEvent)target.m_events.get( 1 ) ).getMessage() );
+        final LogEvent error = (LogEvent)target.m_events.get( 2 );
+        assertEquals( "Trailing throwable", exception, error.getThrowable() );
+        assertEquals( "Message with throwable", "failed here", error.getMessage() );
+        assertEquals( "Null argument", "fatal null",
+                      ( (LogEvent)target.m_events.get( 3 ) ).getMessage() );
+
+        //The old signatures still take a null throwable
+        logger.info( "plain", null );
+        assertEquals( "Plain message", "plain",
+                      ( (LogEvent)target.m_events.get( 4 ) ).getMessage() );
+    }
+
+    public void testEventReuse()
+        throws Exception
+    {
+        final Hierarchy hierarchy = new Hierarchy();
+        final SynchronousTarget synchronous = new SynchronousTarget();
+        hierarchy.setDefaultLogTarget( synchronous );
+
+        final Logger logger = hierarchy.getLoggerFor( "a" );
+        logger.info( "first {}", "event" );
+        logger.info( "second" );
+        assertEquals( "Messages", "first event", synchronous.m_messages.get( 0 ) );
+        assertEquals( "Messages", "second", synchronous.m_messages.get( 1 ) );
+        assertSame( "Reused event", synchronous.m_events.get( 0 ), synchronous.m_events.get( 1 ) );
+
+        //A target keeping events turns reuse off
+        final KeepingTarget keeping = new KeepingTarget();
+        logger.setLogTargets( new LogTarget[]{synchronous, keeping} );
+        logger.info( "third" );
+        logger.info( "fourth" );
+        assertNotSame( "New events", keeping.m_events.get( 0 ), keeping.m_events.get( 1 ) );
+        assertEquals( "Kept message", "third", ( (LogEvent)keeping.m_events.get( 0 ) ).getMessage() );
+    }
+
+    /**
+     * A target which keeps the events it is given.
+     */
+    private static final class KeepingTarget
+        implements LogTarget
+    {
+        private final List m_events = new ArrayList();
+
+        public void processEvent( final LogEvent event )
+        {
+            m_events.add( event );
+        }
+    }
+
+    /**
+     * A target which records the messages and events it is given.
+     */
+    private static final class SynchronousTarget
+        implements SynchronousLogTarget
+    {
+        private final List m_events = new ArrayList();
+        private final List m_messages = new ArrayList();
+
+        public void processEvent( final LogEvent event )
+        {
+            m_events.add( event );
+            m_messages.add( event.getMessage() );
+        }
+    }
+
+    /**
+     * An argument which counts how often it is formatted.
+     */
+    private static final class CountingArgument
+    {
+        private int m_count;
+
+        public String toString()
+        {
+            m_count++;
+            return String.valueOf( m_count );
+        }
+    }
+}
@@ -19,7 +19,10 @@
 package org.apache.avalon.cornerstone.blocks.masterstore;
 
 import org.apache.avalon.cornerstone.services.store.ObjectRepository;
+import org.apache.excalibur.store.Serializer;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.OutputStream;
@@ -31,6 +34,31 @@ import java.io.ObjectOutputStream;
  */
 public abstract class AbstractFilePersistentObjectRepository extends AbstractFileRepository
         implements ObjectRepository {
+    /**
+     * The serializer of the objects, or null for Java serialization.
+     */
+    protected Serializer m_serializer;
+
+    /**
+     * Sets the serializer which writes the objects to their files.  The
+     * objects are written with Java serialization if none is set.  The
+     * serializers of excalibur-store read files written by Java
+     * serialization too.  Child repositories use the same serializer.
+     */
+    public void setSerializer( final Serializer serializer )
+    {
+        m_serializer = serializer;
+    }
+
+    protected AbstractFileRepository createChildRepository()
+        throws Exception
+    {
+        final AbstractFilePersistentObjectRepository child =
+            (AbstractFilePersistentObjectRepository)super.createChildRepository();
+        child.setSerializer( m_serializer );
+        return child;
+    }
+
     /**
      * Get the object associated to the given unique key.
      */
@@ -44,6 +72,16 @@ public abstract class AbstractFilePersistentObjectRepository extends AbstractFil
                 throw new NullPointerException( "Null input stream returned for key: " + key );
             try
             {
+                if( m_serializer != null )
+                {
+                    final Object object = m_serializer.deserialize( readFully( inputStream ) );
+                    if( DEBUG )
+                    {
+                        monitor.returningObjectForKey(File_Persistent_Object_Repository.class, object, key);
+                    }
+                    return object;
+                }
+
                 final ObjectInputStream stream = new ObjectInputStream( inputStream );
 
                 if( stream == null )
@@ -79,6 +117,27 @@ public abstract class AbstractFilePersistentObjectRepository extends AbstractFil
 
             try
             {
+                if( m_serializer != null )
+                {
+                    // the serializers of excalibur-store load classes by the context class loader
+                    final Thread thread = Thread.currentThread();
+                    final ClassLoader contextClassLoader = thread.getContextClassLoader();
+                    thread.setContextClassLoader( classLoader );
+                    try
+                    {
+                        final Object object = m_serializer.deserialize( readFully( inputStream ) );
+                        if( DEBUG )
+                        {
+                            monitor.returningObjectForKey(File_Persistent_Object_Repository.class, object, key);
+                        }
+                        return object;
+                    }
+                    finally
+                    {
+                        thread.setContextClassLoader( contextClassLoader );
+                    }
+                }
+
                 final ObjectInputStream stream = new ClassLoaderObjectInputStream( classLoader, inputStream );
 
                 if( stream == null )
@@ -115,8 +174,15 @@ public abstract class AbstractFilePersistentObjectRepository extends AbstractFil
 
             try
             {
-                final ObjectOutputStream stream = new ObjectOutputStream( outputStream );
-                stream.writeObject( value );
+                if( m_serializer != null )
+                {
+                    outputStream.write( m_serializer.serialize( value ) );
+                }
+                else
+                {
+                    final ObjectOutputStream stream = new ObjectOutputStream( outputStream );
+                    stream.writeObject( value );
+                }
                 if( DEBUG ) monitor.storingObjectForKey(File_Persistent_Object_Repository.class, value, key);
             }
             finally
@@ -130,6 +196,19 @@ public abstract class AbstractFilePersistentObjectRepository extends AbstractFil
         }
     }
 
+    private static byte[] readFully( final InputStream inputStream )
+        throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[ 4096 ];
+        int count;
+        while( ( count = inputStream.read( buffer ) ) > 0 )
+        {
+            bytes.write( buffer, 0, count );
+        }
+        return bytes.toByteArray();
+    }
+
     protected String getExtensionDecorator()
     {
         return ".FileObjectStore";
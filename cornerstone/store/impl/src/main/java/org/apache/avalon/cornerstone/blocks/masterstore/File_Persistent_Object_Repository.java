@@ -29,6 +29,9 @@ import org.apache.avalon.framework.context.ContextException;
 import org.apache.avalon.framework.context.Contextualizable;
 import org.apache.avalon.framework.logger.LogEnabled;
 import org.apache.avalon.framework.logger.Logger;
+import org.apache.avalon.framework.parameters.ParameterException;
+import org.apache.avalon.framework.parameters.Parameters;
+import org.apache.excalibur.store.impl.SerializerFactory;
 
 import java.io.File;
 import java.io.IOException;
@@ -95,7 +98,18 @@ public class File_Persistent_Object_Repository
      }
 
     /**
-     * Configuration of the component by the container.
+     * Configuration of the component by the container.  An optional
+     * <code>serialization</code> element holds the parameters which
+     * select the serializer of the objects, for example
+     * <pre>
+     * &lt;serialization&gt;
+     *   &lt;parameter name="serializer" value="binary"/&gt;
+     *   &lt;parameter name="compression" value="lz4"/&gt;
+     * &lt;/serialization&gt;
+     * </pre>
+     * See <code>org.apache.excalibur.store.impl.SerializerFactory</code>
+     * for the parameters.  Without it objects are written with Java
+     * serialization.
      * @param configuration the configuration
      * @exception org.apache.avalon.framework.configuration.ConfigurationException if a configuration error occurs
      */
@@ -111,5 +125,19 @@ public class File_Persistent_Object_Repository
                  throw new ConfigurationException("Unexpected IOException " + ioe.getMessage(), ioe);
              }
          }
+
+         final Configuration serialization = configuration.getChild( "serialization", false );
+         if( null != serialization )
+         {
+             try
+             {
+                 setSerializer( SerializerFactory.createSerializer(
+                     Parameters.fromConfiguration( serialization ) ) );
+             }
+             catch( ParameterException pe )
+             {
+                 throw new ConfigurationException( "Invalid serialization: " + pe.getMessage(), pe );
+             }
+         }
      }
 }
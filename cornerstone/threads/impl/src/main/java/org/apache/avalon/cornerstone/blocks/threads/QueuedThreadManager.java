@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.avalon.cornerstone.blocks.threads;
+
+import java.util.Map;
+import org.apache.avalon.excalibur.thread.impl.QueuedThreadPool;
+import org.apache.avalon.framework.configuration.Configuration;
+import org.apache.avalon.framework.configuration.ConfigurationException;
+
+/**
+ * Implementation of ThreadManager whose thread pools queue work in a bounded queue
+ *  rather than blocking callers while all worker threads are busy.
+ * <p>
+ * Each thread-group is configured with name, is-daemon (default false), core-threads
+ *  (default 5), max-threads (default 10), queue-size (default 100), keep-alive in
+ *  milliseconds (default 60000), batch-size (default 1) and rejection-policy.  The
+ *  rejection-policy is one of fail, caller-runs or drop-oldest and defaults to fail,
+ *  the same default as {@link QueuedThreadPool}, so that work is never run by the
+ *  caller or dropped unless that has been asked for.  is-daemon applies to the worker
+ *  threads; the thread group itself is never a daemon group.
+ *
+ * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
+ * @avalon.component name="queued-thread-manager" lifestyle="singleton"
+ * @avalon.service type="org.apache.avalon.cornerstone.services.threads.ThreadManager"
+ */
+public class QueuedThreadManager
+    extends AbstractThreadManager
+{
+    protected void configureThreadPool( final Map threadPools,
+                                        final Configuration configuration )
+        throws ConfigurationException
+    {
+        final String name = configuration.getChild( "name" ).getValue();
+        final boolean isDaemon = configuration.getChild( "is-daemon" ).getValueAsBoolean( false );
+
+        final int core = configuration.getChild( "core-threads" ).getValueAsInteger( 5 );
+        final int max = configuration.getChild( "max-threads" ).getValueAsInteger( 10 );
+        final int queueSize = configuration.getChild( "queue-size" ).getValueAsInteger( 100 );
+        final long keepAlive = configuration.getChild( "keep-alive" ).getValueAsLong( 60000 );
+        final int batchSize = configuration.getChild( "batch-size" ).getValueAsInteger( 1 );
+        final Configuration policyConf = configuration.getChild( "rejection-policy" );
+        final String policy = policyConf.getValue( "fail" );
+
+        final int rejectionPolicy;
+        if( "fail".equals( policy ) )
+        {
+            rejectionPolicy = QueuedThreadPool.REJECT_FAIL;
+        }
+        else if( "caller-runs".equals( policy ) )
+        {
+            rejectionPolicy = QueuedThreadPool.REJECT_CALLER_RUNS;
+        }
+        else if( "drop-oldest".equals( policy ) )
+        {
+            rejectionPolicy = QueuedThreadPool.REJECT_DROP_OLDEST;
+        }
+        else
+        {
+            final String message = "Unknown rejection-policy, " + policy + ", for ThreadPool "
+                + name + " at " + policyConf.getLocation();
+            throw new ConfigurationException( message );
+        }
+
+        try
+        {
+            final QueuedThreadPool threadPool = new QueuedThreadPool(
+                name, core, max, queueSize, keepAlive, batchSize, rejectionPolicy );
+            threadPool.setDaemonWorkers( isDaemon );
+            threadPool.enableLogging( getLogger() );
+            threadPools.put( name, threadPool );
+        }
+        catch( final Exception e )
+        {
+            final String message = "Error creating ThreadPool named " + name;
+            throw new ConfigurationException( message, e );
+        }
+    }
+}
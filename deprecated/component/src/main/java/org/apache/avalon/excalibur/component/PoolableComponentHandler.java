@@ -37,7 +37,7 @@ import org.apache.avalon.framework.context.Context;
  * Configuration Example:
  * <pre>
  *   &lt;my-comp pool-max="8" pool-max-strict="false" pool-blocking="true" pool-timeout="0"
- *            pool-trim-interval="0"/&gt;
+ *            pool-trim-interval="0" pool-min-ready="0"/&gt;
  * </pre>
  * <p>
  * Roles Example:
@@ -78,6 +78,13 @@ import org.apache.avalon.framework.context.Context;
  * org.apache.avalon.excalibur.pool.InstrumentedResourceLimitingPool#trim()}
  * (Defaults to "0", trimming disabled)</li>
  *
+ * <li>The <code>pool-min-ready</code> attribute is used to specify the number of idle
+ *  Poolables which the pool keeps ready.  Whenever fewer are ready, new Poolables are
+ *  created in the background, so that lookups do not wait for the component to be
+ *  created.  Idle Poolables needed to keep this number are not trimmed.  See {@link
+ *  org.apache.avalon.excalibur.pool.InstrumentedResourceLimitingPool#setMinReady(int)}
+ *  (Defaults to "0", disabled)</li>
+ *
  * <li>The <code>pool-min</code> and <code>pool-grow</code> attributes
  * were deprecated as the underlying Pool ({@link
  * org.apache.avalon.excalibur.pool.InstrumentedResourceLimitingPool}) does not
@@ -105,6 +112,9 @@ public class PoolableComponentHandler
     /** The pool of components for <code>Poolable</code> Components */
     private final InstrumentedResourceLimitingPool m_pool;
 
+    /** The number of ready components the pool keeps, set once the pool can log */
+    private final int m_poolMinReady;
+
     /** State management boolean stating whether the Handler is initialized or not */
     private boolean m_initialized = false;
 
@@ -149,6 +159,7 @@ public class PoolableComponentHandler
         boolean poolBlocking = config.getAttributeAsBoolean( "pool-blocking", true );
         long poolTimeout = config.getAttributeAsLong( "pool-timeout", 0 );
         long poolTrimInterval = config.getAttributeAsLong( "pool-trim-interval", 0 );
+        m_poolMinReady = config.getAttributeAsInteger( "pool-min-ready", 0 );
 
         m_pool = new InstrumentedResourceLimitingPool( m_factory, poolMax, poolMaxStrict, poolBlocking,
                                            poolTimeout, poolTrimInterval );
@@ -169,6 +180,7 @@ public class PoolableComponentHandler
         m_factory.setLogger( getLogkitLogger() );
         m_factory.enableLogging( getLogger() );
         m_pool.enableLogging( getLogger() );
+        m_pool.setMinReady( m_poolMinReady );
 
         if( getLogger().isDebugEnabled() )
         {
@@ -19,9 +19,12 @@
 
 package org.apache.avalon.fortress.impl.handler;
 
+import org.apache.avalon.excalibur.pool.ConcurrentResourceLimitingPool;
+import org.apache.avalon.excalibur.pool.ObjectFactory;
+import org.apache.avalon.excalibur.pool.Poolable;
 import org.apache.avalon.framework.configuration.Configurable;
 import org.apache.avalon.framework.configuration.Configuration;
-import org.apache.avalon.framework.configuration.ConfigurationException;
+import org.apache.avalon.framework.container.ContainerUtil;
 import org.apache.avalon.framework.service.ServiceException;
 import org.apache.avalon.framework.service.ServiceManager;
 import org.d_haven.mpool.Pool;
@@ -30,6 +33,18 @@ import org.d_haven.mpool.PoolManager;
 /**
  * The PoolableComponentHandler to make sure components are initialized
  * and destroyed correctly.
+ * <p>
+ * By default components are pooled by the PoolManager.  Components which
+ *  implement Poolable and are looked up very frequently by many threads can
+ *  instead be pooled by a {@link ConcurrentResourceLimitingPool} by setting
+ *  <code>pool-type="concurrent"</code>.  That pool is configured with the
+ *  <code>pool-max</code>, <code>pool-max-strict</code>, <code>pool-blocking</code>,
+ *  <code>pool-timeout</code> and <code>pool-trim-interval</code> attributes,
+ *  which have the same meaning as they do for the ECM.
+ * <pre>
+ *   &lt;my-comp pool-type="concurrent" pool-max="32" pool-max-strict="true"
+ *            pool-blocking="true" pool-timeout="5000" pool-trim-interval="60000"/&gt;
+ * </pre>
  *
  * @author <a href="mailto:dev@avalon.apache.org">Avalon Development Team</a>
  * @version CVS $Revision: 1.10 $ $Date: 2004/02/28 15:16:25 $
@@ -48,6 +63,25 @@ public final class PoolableComponentHandler
     /** The Config element for the poolable */
     private int m_poolMin;
 
+    /** The pool-type value which selects the ConcurrentResourceLimitingPool */
+    private static final String CONCURRENT_POOL_TYPE = "concurrent";
+
+    /** The default max size of the concurrent pool */
+    private static final int DEFAULT_MAX_POOL_SIZE = 8;
+
+    /** The configured pool-type */
+    private String m_poolType;
+
+    /** The concurrent pool settings, see ConcurrentResourceLimitingPool */
+    private int m_poolMax;
+    private boolean m_poolMaxStrict;
+    private boolean m_poolBlocking;
+    private long m_poolTimeout;
+    private long m_poolTrimInterval;
+
+    /** The pool of components when pool-type is "concurrent" */
+    private ConcurrentResourceLimitingPool m_concurrentPool;
+
     /**
      * Application of suporting services to the handler.
      * @param serviceManager the service manager
@@ -63,13 +97,19 @@ public final class PoolableComponentHandler
     }
 
     /**
-     * Configuration of the handler under which the minimum pool size
-     * is established.
+     * Configuration of the handler under which the type of pool and its
+     * size limits are established.
      * @param configuration the configuration fragment
      */
     public void configure( final Configuration configuration )
     {
         m_poolMin = configuration.getAttributeAsInteger( "pool-min", 10 );
+        m_poolType = configuration.getAttribute( "pool-type", "managed" );
+        m_poolMax = configuration.getAttributeAsInteger( "pool-max", DEFAULT_MAX_POOL_SIZE );
+        m_poolMaxStrict = configuration.getAttributeAsBoolean( "pool-max-strict", false );
+        m_poolBlocking = configuration.getAttributeAsBoolean( "pool-blocking", true );
+        m_poolTimeout = configuration.getAttributeAsLong( "pool-timeout", 0 );
+        m_poolTrimInterval = configuration.getAttributeAsLong( "pool-trim-interval", 0 );
     }
 
     /**
@@ -79,7 +119,24 @@ public final class PoolableComponentHandler
     protected void doPrepare()
         throws Exception
     {
-        m_pool = m_poolManager.getManagedPool( m_factory, m_poolMin );
+        if ( CONCURRENT_POOL_TYPE.equals( m_poolType ) )
+        {
+            if ( !Poolable.class.isAssignableFrom( m_factory.getCreatedClass() ) )
+            {
+                final String message = "The concurrent pool-type requires "
+                    + m_factory.getCreatedClass().getName() + " to implement "
+                    + Poolable.class.getName();
+                throw new IllegalStateException( message );
+            }
+
+            m_concurrentPool = new ConcurrentResourceLimitingPool( new ComponentObjectFactory(),
+                m_poolMax, m_poolMaxStrict, m_poolBlocking, m_poolTimeout, m_poolTrimInterval );
+            ContainerUtil.enableLogging( m_concurrentPool, m_logger );
+        }
+        else
+        {
+            m_pool = m_poolManager.getManagedPool( m_factory, m_poolMin );
+        }
     }
 
     /**
@@ -89,6 +146,10 @@ public final class PoolableComponentHandler
     protected Object doGet()
         throws Exception
     {
+        if ( null != m_concurrentPool )
+        {
+            return m_concurrentPool.get();
+        }
         return m_pool.acquire();
     }
 
@@ -98,6 +159,47 @@ public final class PoolableComponentHandler
      */
     protected void doPut( final Object component )
     {
+        if ( null != m_concurrentPool )
+        {
+            m_concurrentPool.put( (Poolable) component );
+            return;
+        }
         m_pool.release( component );
     }
+
+    /**
+     * Dispose of the concurrent pool and the components it holds.
+     */
+    protected void doDispose()
+    {
+        if ( null != m_concurrentPool )
+        {
+            m_concurrentPool.dispose();
+        }
+    }
+
+    /**
+     * Adapts the handler's component factory to the ObjectFactory used by
+     * the ConcurrentResourceLimitingPool.
+     */
+    private final class ComponentObjectFactory
+        implements ObjectFactory
+    {
+        public Object newInstance()
+            throws Exception
+        {
+            return newComponent();
+        }
+
+        public Class getCreatedClass()
+        {
+            return m_factory.getCreatedClass();
+        }
+
+        public void decommission( final Object object )
+            throws Exception
+        {
+            disposeComponent( object );
+        }
+    }
 }